@@ -0,0 +1,239 @@
+package de.flowsuite.llmservice.agent;
+
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.memory.chat.ChatMemoryProvider;
+import dev.langchain4j.memory.chat.MessageWindowChatMemory;
+import dev.langchain4j.model.openai.OpenAiChatModelName;
+import dev.langchain4j.model.openai.OpenAiTokenCountEstimator;
+import dev.langchain4j.model.openai.OpenAiTokenUsage;
+import dev.langchain4j.model.output.TokenUsage;
+import dev.langchain4j.service.memory.ChatMemoryAccess;
+import dev.langchain4j.store.memory.chat.ChatMemoryStore;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Chat memory of the agents. By default the agents are stateless: a call sends the system prompt
+ * and the current request only, and its messages are dropped once it returned. With {@code
+ * llm.agent.memory.max-messages} set, the last messages of each user and operation are kept and
+ * sent with the next call. At most {@code llm.agent.memory.max-conversations} are kept, the least
+ * recently used one is evicted first, and conversations unused for {@code llm.agent.memory.ttl}
+ * expire.
+ *
+ * <p>{@code llm.agent.tokens.saved} counts the tokens of history that will not be sent again: the
+ * request and reply of every stateless call, and the messages of evicted conversations. {@code
+ * llm.agent.tokens} of type {@code cached} are the input tokens OpenAI served from its prompt
+ * cache, their share of the {@code input} tokens is the cache hit rate.
+ */
+@Component
+public class AgentMemory {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AgentMemory.class);
+
+    // Same o200k encoding as the models of the agents
+    private static final OpenAiTokenCountEstimator TOKEN_COUNT_ESTIMATOR =
+            new OpenAiTokenCountEstimator(OpenAiChatModelName.GPT_4_O_MINI);
+
+    // System message, request and reply of a single call
+    private static final int STATELESS_MAX_MESSAGES = 3;
+
+    private record CallId(long userId, long call) {}
+
+    private record Conversation(List<ChatMessage> messages, long lastUsedMillis) {}
+
+    private final int maxMessages;
+    private final int maxConversations;
+    private final long ttlMillis;
+    private final MeterRegistry meterRegistry;
+    private final AtomicLong calls = new AtomicLong();
+    private final Counter evictions;
+
+    // Reinserted on every update, so the eldest entry is the least recently used one
+    private final LinkedHashMap<Object, Conversation> conversations = new LinkedHashMap<>();
+    private final ChatMemoryStore store = new BoundedStore();
+
+    AgentMemory(
+            @Value("${llm.agent.memory.max-messages:0}") int maxMessages,
+            @Value("${llm.agent.memory.max-conversations:1000}") int maxConversations,
+            @Value("${llm.agent.memory.ttl:PT30M}") Duration ttl,
+            MeterRegistry meterRegistry) {
+        this.maxMessages = maxMessages;
+        this.maxConversations = maxConversations;
+        this.ttlMillis = ttl.toMillis();
+        this.meterRegistry = meterRegistry;
+
+        this.evictions =
+                Counter.builder("llm.agent.memory.evictions")
+                        .description("Conversations evicted from the chat memory")
+                        .register(meterRegistry);
+        Gauge.builder("llm.agent.memory.conversations", this, AgentMemory::size)
+                .description("Conversations kept in the chat memory")
+                .register(meterRegistry);
+
+        if (isStateless()) {
+            LOG.info("Agents are stateless");
+        } else {
+            LOG.info(
+                    "Agents keep the last {} messages of up to {} conversations for {}",
+                    maxMessages,
+                    maxConversations,
+                    ttl);
+        }
+    }
+
+    public boolean isStateless() {
+        return maxMessages <= 0;
+    }
+
+    ChatMemoryProvider chatMemoryProvider(String operation) {
+        if (isStateless()) {
+            return memoryId -> MessageWindowChatMemory.withMaxMessages(STATELESS_MAX_MESSAGES);
+        }
+        return memoryId ->
+                MessageWindowChatMemory.builder()
+                        .id(operation + ":" + memoryId)
+                        .maxMessages(maxMessages)
+                        .chatMemoryStore(store)
+                        .build();
+    }
+
+    /** The memory id of a call, a new one for every call of a stateless agent. */
+    Object memoryId(long userId) {
+        return isStateless() ? new CallId(userId, calls.incrementAndGet()) : userId;
+    }
+
+    void release(ChatMemoryAccess assistant, Object memoryId) {
+        if (memoryId instanceof CallId) {
+            assistant.evictChatMemory(memoryId);
+        }
+    }
+
+    int estimateTokens(String text) {
+        return TOKEN_COUNT_ESTIMATOR.estimateTokenCountInText(text);
+    }
+
+    void recordCall(String operation, TokenUsage tokenUsage, int systemPromptTokens) {
+        int inputTokens = tokenUsage.inputTokenCount();
+        int outputTokens = tokenUsage.outputTokenCount();
+        tokenSummary(operation, "input").record(inputTokens);
+        tokenSummary(operation, "output").record(outputTokens);
+        tokenSummary(operation, "cached").record(cachedTokens(tokenUsage));
+
+        if (isStateless()) {
+            int exchangeTokens = Math.max(inputTokens - systemPromptTokens, 0) + outputTokens;
+            tokensSaved(operation).increment(exchangeTokens);
+        }
+    }
+
+    /** Input tokens of the call that hit the prompt cache of OpenAI. */
+    static int cachedTokens(TokenUsage tokenUsage) {
+        if (tokenUsage instanceof OpenAiTokenUsage openAiTokenUsage
+                && openAiTokenUsage.inputTokensDetails() != null
+                && openAiTokenUsage.inputTokensDetails().cachedTokens() != null) {
+            return openAiTokenUsage.inputTokensDetails().cachedTokens();
+        }
+        return 0;
+    }
+
+    private DistributionSummary tokenSummary(String operation, String type) {
+        return DistributionSummary.builder("llm.agent.tokens")
+                .description("Tokens of agent calls to OpenAI")
+                .tag("operation", operation)
+                .tag("type", type)
+                .register(meterRegistry);
+    }
+
+    private Counter tokensSaved(String operation) {
+        return Counter.builder("llm.agent.tokens.saved")
+                .description("Tokens of chat history that will not be sent to OpenAI again")
+                .tag("operation", operation)
+                .register(meterRegistry);
+    }
+
+    private synchronized int size() {
+        return conversations.size();
+    }
+
+    private void recordEvicted(List<Map.Entry<Object, Conversation>> evicted) {
+        for (Map.Entry<Object, Conversation> entry : evicted) {
+            evictions.increment();
+            String operation = entry.getKey().toString().split(":", 2)[0];
+            List<ChatMessage> history =
+                    entry.getValue().messages().stream()
+                            .filter(message -> !(message instanceof SystemMessage))
+                            .toList();
+            tokensSaved(operation)
+                    .increment(TOKEN_COUNT_ESTIMATOR.estimateTokenCountInMessages(history));
+        }
+    }
+
+    private class BoundedStore implements ChatMemoryStore {
+
+        @Override
+        public List<ChatMessage> getMessages(Object memoryId) {
+            List<Map.Entry<Object, Conversation>> evicted = new ArrayList<>();
+            List<ChatMessage> messages;
+            synchronized (AgentMemory.this) {
+                evictExpired(evicted);
+                Conversation conversation = conversations.get(memoryId);
+                messages = conversation != null ? conversation.messages() : List.of();
+            }
+            recordEvicted(evicted);
+            return messages;
+        }
+
+        @Override
+        public void updateMessages(Object memoryId, List<ChatMessage> messages) {
+            List<Map.Entry<Object, Conversation>> evicted = new ArrayList<>();
+            synchronized (AgentMemory.this) {
+                conversations.remove(memoryId);
+                conversations.put(
+                        memoryId,
+                        new Conversation(List.copyOf(messages), System.currentTimeMillis()));
+                evictExpired(evicted);
+                Iterator<Map.Entry<Object, Conversation>> iterator =
+                        conversations.entrySet().iterator();
+                while (conversations.size() > maxConversations) {
+                    Map.Entry<Object, Conversation> eldest = iterator.next();
+                    evicted.add(Map.entry(eldest.getKey(), eldest.getValue()));
+                    iterator.remove();
+                }
+            }
+            recordEvicted(evicted);
+        }
+
+        @Override
+        public void deleteMessages(Object memoryId) {
+            synchronized (AgentMemory.this) {
+                conversations.remove(memoryId);
+            }
+        }
+
+        private void evictExpired(List<Map.Entry<Object, Conversation>> evicted) {
+            long expiredBefore = System.currentTimeMillis() - ttlMillis;
+            Iterator<Map.Entry<Object, Conversation>> iterator =
+                    conversations.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Object, Conversation> entry = iterator.next();
+                if (entry.getValue().lastUsedMillis() >= expiredBefore) {
+                    break; // Entries after the eldest were used more recently
+                }
+                evicted.add(Map.entry(entry.getKey(), entry.getValue()));
+                iterator.remove();
+            }
+        }
+    }
+}
@@ -1,19 +1,27 @@
 package de.flowsuite.llmservice.agent;
 
+import de.flowsuite.llmservice.util.LlmServiceUtil;
 import de.flowsuite.mailflow.common.dto.LlmResponse;
+import de.flowsuite.mailflow.common.entity.MessageCategory;
+import de.flowsuite.shared.http.OpenAiHttpClient;
 
 import dev.langchain4j.data.message.AiMessage;
-import dev.langchain4j.memory.chat.MessageWindowChatMemory;
+import dev.langchain4j.model.chat.Capability;
 import dev.langchain4j.model.chat.ChatModel;
 import dev.langchain4j.model.openai.OpenAiChatModel;
 import dev.langchain4j.model.openai.OpenAiChatModelName;
 import dev.langchain4j.model.output.Response;
+import dev.langchain4j.model.output.TokenUsage;
 import dev.langchain4j.service.*;
+import dev.langchain4j.service.memory.ChatMemoryAccess;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 public class CategorisationAgent {
 
@@ -41,13 +49,51 @@ public class CategorisationAgent {
         # Output Format
         Your response must match **exactly** one of the categories. Do NOT add punctuation, notes, or any other content.
         """;
+
+    private static final String BATCH_SYSTEM_PROMPT =
+        """
+        # Identity
+        You are a highly accurate message categorisation assistant.
+
+        # Objective
+        Categorise each of several messages, identified by their ids, into **one and only one** of the predefined categories listed below.
+
+        # Mandatory Rules (Strict Compliance Required):
+        1. You MUST assign exactly one valid category name from the list to EVERY message — NO explanations, NO additional text.
+        2. NEVER invent or modify category names or message ids.
+        3. If a message could belong to multiple categories, choose the ONE that best reflects the **main subject** of that message.
+        4. If a message does not clearly fit any category, assign "Default".
+        5. Categorise every message on its own, messages do NOT influence each other.
+        """;
+
+    private static final String CATEGORIES_HEADING =
+        """
+
+        # Allowed Categories
+        """;
     // spotless:on
 
+    private static final String OPERATION = "categorise";
+    private static final String BATCH_OPERATION = "categorise-batch";
+
+    private final long customerId;
+    private final AgentMemory agentMemory;
+    private volatile CategoryPrompts categoryPrompts;
     private final CategorisationAssistant assistant;
+    private final BatchCategorisationAssistant batchAssistant;
+
+    public CategorisationAgent(
+            long customerId,
+            String openaiApiKey,
+            boolean debug,
+            AgentMemory agentMemory,
+            OpenAiHttpClient openAiHttpClient) {
+        this.customerId = customerId;
+        this.agentMemory = agentMemory;
 
-    public CategorisationAgent(String openaiApiKey, boolean debug) {
         ChatModel model =
                 OpenAiChatModel.builder()
+                        .httpClientBuilder(openAiHttpClient.builder())
                         .apiKey(openaiApiKey)
                         .modelName(MODEL_NAME)
                         .temperature(TEMPERATURE)
@@ -60,15 +106,50 @@ public class CategorisationAgent {
         this.assistant =
                 AiServices.builder(CategorisationAssistant.class)
                         .chatModel(model)
-                        .chatMemoryProvider(userId -> MessageWindowChatMemory.withMaxMessages(10))
-                        .systemMessageProvider(userId -> DEFAULT_SYSTEM_PROMPT)
+                        .chatMemoryProvider(agentMemory.chatMemoryProvider(OPERATION))
+                        .build();
+
+        // Answers with JSON matching the schema of the return type, messages of a batch may be of
+        // different users, so there is no memory
+        ChatModel batchModel =
+                OpenAiChatModel.builder()
+                        .httpClientBuilder(openAiHttpClient.builder())
+                        .apiKey(openaiApiKey)
+                        .modelName(MODEL_NAME)
+                        .temperature(TEMPERATURE)
+                        .timeout(TIMEOUT)
+                        .maxRetries(MAX_RETRIES)
+                        .supportedCapabilities(Capability.RESPONSE_FORMAT_JSON_SCHEMA)
+                        .strictJsonSchema(true)
+                        .logRequests(debug)
+                        .logResponses(debug)
+                        .build();
+
+        this.batchAssistant =
+                AiServices.builder(BatchCategorisationAssistant.class)
+                        .chatModel(batchModel)
                         .build();
     }
 
-    public LlmResponse categorise(long userId, String formattedCategories, String message) {
+    public LlmResponse categorise(long userId, List<MessageCategory> categories, String message) {
         LOG.info("Categorising message for user {}", userId);
 
-        Response<AiMessage> aiResponse = assistant.categorise(userId, formattedCategories, message);
+        CategoryPrompts prompts = categoryPrompts(categories);
+
+        LlmCallEvent event = new LlmCallEvent(userId, customerId, OPERATION, MODEL_NAME.toString());
+        event.begin();
+        Object memoryId = agentMemory.memoryId(userId);
+        Response<AiMessage> aiResponse;
+        try {
+            aiResponse = assistant.categorise(memoryId, prompts.systemPrompt(), message);
+        } finally {
+            agentMemory.release(assistant, memoryId);
+        }
+        event.inputTokens = aiResponse.tokenUsage().inputTokenCount();
+        event.cachedInputTokens = AgentMemory.cachedTokens(aiResponse.tokenUsage());
+        event.outputTokens = aiResponse.tokenUsage().outputTokenCount();
+        event.commit();
+        agentMemory.recordCall(OPERATION, aiResponse.tokenUsage(), prompts.systemPromptTokens());
 
         return new LlmResponse(
                 aiResponse.content().text(),
@@ -78,23 +159,145 @@ public class CategorisationAgent {
                 aiResponse.tokenUsage().totalTokenCount());
     }
 
-    interface CategorisationAssistant {
+    /**
+     * Categorises the messages, keyed by their ids, in one call. The tokens of the call are split
+     * evenly across the messages. Messages the model left out are missing from the result.
+     */
+    public Map<String, LlmResponse> categoriseBatch(
+            long userId, List<MessageCategory> categories, Map<String, String> messagesById) {
+        LOG.info("Categorising {} messages for customer {}", messagesById.size(), customerId);
+
+        CategoryPrompts prompts = categoryPrompts(categories);
+
+        StringBuilder formattedMessages = new StringBuilder();
+        messagesById.forEach(
+                (id, message) ->
+                        formattedMessages
+                                .append("## Message ")
+                                .append(id)
+                                .append("\n")
+                                .append(message)
+                                .append("\n\n"));
+
+        LlmCallEvent event =
+                new LlmCallEvent(userId, customerId, BATCH_OPERATION, MODEL_NAME.toString());
+        event.begin();
+        Result<BatchCategorisation> aiResult =
+                batchAssistant.categorise(
+                        prompts.batchSystemPrompt(), formattedMessages.toString());
+        TokenUsage tokenUsage = aiResult.tokenUsage();
+        event.inputTokens = tokenUsage.inputTokenCount();
+        event.cachedInputTokens = AgentMemory.cachedTokens(tokenUsage);
+        event.outputTokens = tokenUsage.outputTokenCount();
+        event.commit();
+        agentMemory.recordCall(BATCH_OPERATION, tokenUsage, prompts.batchSystemPromptTokens());
+
+        int messages = messagesById.size();
+        Map<String, LlmResponse> responsesById = new HashMap<>();
+        List<Categorisation> categorisations =
+                aiResult.content() != null ? aiResult.content().categorisations() : null;
+        if (categorisations == null) {
+            return responsesById;
+        }
+        for (Categorisation categorisation : categorisations) {
+            if (categorisation == null
+                    || categorisation.category() == null
+                    || !messagesById.containsKey(categorisation.id())) {
+                continue;
+            }
+            responsesById.putIfAbsent(
+                    categorisation.id(),
+                    new LlmResponse(
+                            categorisation.category(),
+                            MODEL_NAME.toString(),
+                            tokenUsage.inputTokenCount() / messages,
+                            tokenUsage.outputTokenCount() / messages,
+                            tokenUsage.totalTokenCount() / messages));
+        }
+        return responsesById;
+    }
+
+    /**
+     * The system prompts are followed by the category definitions, so everything but the messages
+     * forms a prefix that stays the same across calls, which OpenAI caches once it is long enough.
+     * They are rebuilt only when the categories change.
+     */
+    private CategoryPrompts categoryPrompts(List<MessageCategory> categories) {
+        List<CategoryKey> key =
+                categories.stream()
+                        .map(
+                                category ->
+                                        new CategoryKey(
+                                                category.getId(),
+                                                category.getCategory(),
+                                                category.getDescription()))
+                        .toList();
+
+        CategoryPrompts prompts = categoryPrompts;
+        if (prompts == null || !prompts.categories().equals(key)) {
+            String formattedCategories = LlmServiceUtil.formatCategories(categories);
+            LOG.debug(
+                    "Building category prompts of customer {}:\n{}",
+                    customerId,
+                    formattedCategories);
+
+            String systemPrompt = DEFAULT_SYSTEM_PROMPT + CATEGORIES_HEADING + formattedCategories;
+            String batchSystemPrompt =
+                    BATCH_SYSTEM_PROMPT + CATEGORIES_HEADING + formattedCategories;
+            prompts =
+                    new CategoryPrompts(
+                            key,
+                            systemPrompt,
+                            agentMemory.estimateTokens(systemPrompt),
+                            batchSystemPrompt,
+                            agentMemory.estimateTokens(batchSystemPrompt));
+            categoryPrompts = prompts;
+        }
+        return prompts;
+    }
+
+    private record CategoryKey(Long id, String category, String description) {}
 
-        @SystemMessage(DEFAULT_SYSTEM_PROMPT)
+    private record CategoryPrompts(
+            List<CategoryKey> categories,
+            String systemPrompt,
+            int systemPromptTokens,
+            String batchSystemPrompt,
+            int batchSystemPromptTokens) {}
+
+    record Categorisation(String id, String category) {}
+
+    record BatchCategorisation(List<Categorisation> categorisations) {}
+
+    interface BatchCategorisationAssistant {
+
+        @SystemMessage("{{systemPrompt}}")
         @UserMessage(
                 """
-Categorise the following message. Respond ONLY with one valid category name from the following list.
-Do NOT explain or invent anything.
+Categorise each of the following messages. For every message, respond with its id and ONLY one valid category name from the allowed categories.
+Do NOT explain or invent anything, and do NOT leave out any message.
+
+# Messages:
+{{messages}}
+""")
+        Result<BatchCategorisation> categorise(
+                @V("systemPrompt") String systemPrompt, @V("messages") String messages);
+    }
+
+    interface CategorisationAssistant extends ChatMemoryAccess {
 
-# Allowed Categories:
-{{categories}}
+        @SystemMessage("{{systemPrompt}}")
+        @UserMessage(
+                """
+Categorise the following message. Respond ONLY with one valid category name from the allowed categories.
+Do NOT explain or invent anything.
 
 # Message:
 {{message}}
 """)
         Response<AiMessage> categorise(
-                @MemoryId long userId,
-                @V("categories") String formattedCategories,
+                @MemoryId Object memoryId,
+                @V("systemPrompt") String systemPrompt,
                 @V("message") String message);
     }
 }
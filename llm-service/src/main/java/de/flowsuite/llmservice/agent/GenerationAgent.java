@@ -3,14 +3,15 @@ package de.flowsuite.llmservice.agent;
 import de.flowsuite.mailflow.common.dto.LlmResponse;
 import de.flowsuite.mailflow.common.entity.Customer;
 import de.flowsuite.mailflow.common.util.AesUtil;
+import de.flowsuite.shared.http.OpenAiHttpClient;
 
 import dev.langchain4j.data.message.AiMessage;
-import dev.langchain4j.memory.chat.MessageWindowChatMemory;
 import dev.langchain4j.model.chat.ChatModel;
 import dev.langchain4j.model.openai.OpenAiChatModel;
 import dev.langchain4j.model.openai.OpenAiChatModelName;
 import dev.langchain4j.model.output.Response;
 import dev.langchain4j.service.*;
+import dev.langchain4j.service.memory.ChatMemoryAccess;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -151,18 +152,32 @@ public class GenerationAgent {
 
     // spotless:on
 
+    private static final String OPERATION = "generate";
+
+    private final long customerId;
+    private final AgentMemory agentMemory;
+    private final int systemPromptTokens;
     private final GenerationAssistant assistant;
 
-    public GenerationAgent(Customer customer, boolean debug) {
+    public GenerationAgent(
+            Customer customer,
+            boolean debug,
+            AgentMemory agentMemory,
+            OpenAiHttpClient openAiHttpClient) {
+        this.customerId = customer.getId();
+        this.agentMemory = agentMemory;
+
         String systemPrompt;
         if (customer.getSystemPrompt() != null && !customer.getSystemPrompt().isBlank()) {
             systemPrompt = customer.getSystemPrompt();
         } else {
             systemPrompt = DEFAULT_SYSTEM_PROMPT;
         }
+        this.systemPromptTokens = agentMemory.estimateTokens(systemPrompt);
 
         ChatModel model =
                 OpenAiChatModel.builder()
+                        .httpClientBuilder(openAiHttpClient.builder())
                         .apiKey(AesUtil.decrypt(customer.getOpenaiApiKey()))
                         .modelName(MODEL_NAME)
                         .temperature(TEMPERATURE)
@@ -175,8 +190,8 @@ public class GenerationAgent {
         this.assistant =
                 AiServices.builder(GenerationAssistant.class)
                         .chatModel(model)
-                        .chatMemoryProvider(userId -> MessageWindowChatMemory.withMaxMessages(10))
-                        .systemMessageProvider(userId -> systemPrompt)
+                        .chatMemoryProvider(agentMemory.chatMemoryProvider(OPERATION))
+                        .systemMessageProvider(memoryId -> systemPrompt)
                         .build();
     }
 
@@ -188,8 +203,11 @@ public class GenerationAgent {
             userMessage = DEFAULT_USER_MESSAGE;
         }
 
+        LlmCallEvent event = new LlmCallEvent(userId, customerId, OPERATION, MODEL_NAME.toString());
+        event.begin();
         Response<AiMessage> aiResponse =
-                assistant.generateReply(userId, userMessage, ragContext, messageThread);
+                generateReply(userId, userMessage, ragContext, messageThread);
+        commit(event, aiResponse);
 
         return new LlmResponse(
                 aiResponse.content().text(),
@@ -215,8 +233,12 @@ public class GenerationAgent {
             userMessage = userMessage.replace("{{functions}}", availableFunctions);
         }
 
-        Response<AiMessage> aiResponse =
-                assistant.generateReply(userId, userMessage, context, messageThread);
+        LlmCallEvent event =
+                new LlmCallEvent(
+                        userId, customerId, "generate-function-call", MODEL_NAME.toString());
+        event.begin();
+        Response<AiMessage> aiResponse = generateReply(userId, userMessage, context, messageThread);
+        commit(event, aiResponse);
 
         return new LlmResponse(
                 aiResponse.content().text(),
@@ -226,9 +248,27 @@ public class GenerationAgent {
                 aiResponse.tokenUsage().totalTokenCount());
     }
 
-    interface GenerationAssistant {
+    private Response<AiMessage> generateReply(
+            long userId, String userMessage, String context, String messageThread) {
+        Object memoryId = agentMemory.memoryId(userId);
+        try {
+            return assistant.generateReply(memoryId, userMessage, context, messageThread);
+        } finally {
+            agentMemory.release(assistant, memoryId);
+        }
+    }
+
+    private void commit(LlmCallEvent event, Response<AiMessage> aiResponse) {
+        event.inputTokens = aiResponse.tokenUsage().inputTokenCount();
+        event.cachedInputTokens = AgentMemory.cachedTokens(aiResponse.tokenUsage());
+        event.outputTokens = aiResponse.tokenUsage().outputTokenCount();
+        event.commit();
+        agentMemory.recordCall(OPERATION, aiResponse.tokenUsage(), systemPromptTokens);
+    }
+
+    interface GenerationAssistant extends ChatMemoryAccess {
         Response<AiMessage> generateReply(
-                @MemoryId long userId,
+                @MemoryId Object memoryId,
                 @UserMessage String userMessage,
                 @V("context") String context,
                 @V("messageThread") String messageThread);
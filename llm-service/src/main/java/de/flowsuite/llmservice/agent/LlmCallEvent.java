@@ -0,0 +1,44 @@
+package de.flowsuite.llmservice.agent;
+
+import jdk.jfr.*;
+
+/**
+ * JDK Flight Recorder event spanning one call of an agent to OpenAI, including the retries of the
+ * chat model. Enabled by {@code jfr/mailflow.jfc}.
+ */
+@Name("de.flowsuite.llm.LlmCall")
+@Label("LLM Call")
+@Description("Call of an agent to the OpenAI API")
+@Category({"Mailflow", "LLM"})
+@StackTrace(false)
+class LlmCallEvent extends Event {
+
+    @Label("User Id")
+    final long userId;
+
+    @Label("Customer Id")
+    final long customerId;
+
+    @Label("Operation")
+    final String operation;
+
+    @Label("Model")
+    final String model;
+
+    @Label("Input Tokens")
+    int inputTokens;
+
+    @Label("Cached Input Tokens")
+    @Description("Input tokens of the prompt prefix cached by OpenAI")
+    int cachedInputTokens;
+
+    @Label("Output Tokens")
+    int outputTokens;
+
+    LlmCallEvent(long userId, long customerId, String operation, String model) {
+        this.userId = userId;
+        this.customerId = customerId;
+        this.operation = operation;
+        this.model = model;
+    }
+}
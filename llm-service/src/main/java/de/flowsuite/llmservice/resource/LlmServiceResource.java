@@ -6,6 +6,8 @@ import de.flowsuite.mailflow.common.dto.CategorisationResponse;
 import de.flowsuite.mailflow.common.dto.GenerationRequest;
 import de.flowsuite.mailflow.common.entity.Customer;
 import de.flowsuite.mailflow.common.entity.MessageCategory;
+import de.flowsuite.shared.categorisation.CategorisationBatchRequest;
+import de.flowsuite.shared.categorisation.CategorisationBatchResponse;
 import de.flowsuite.shared.exception.ExceptionManager;
 
 import org.springframework.http.ResponseEntity;
@@ -39,6 +41,19 @@ class LlmServiceResource {
         }
     }
 
+    @PostMapping("/categorisation/batch")
+    ResponseEntity<CategorisationBatchResponse> categoriseMessages(
+            @RequestBody CategorisationBatchRequest request) {
+        try {
+            return ResponseEntity.ok(
+                    new CategorisationBatchResponse(
+                            llmService.categoriseMessages(request.categories(), request.items())));
+        } catch (Exception e) {
+            exceptionManager.handleException(e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
     @PostMapping("/generation")
     ResponseEntity<String> generateReply(@RequestBody GenerationRequest request) {
         try {
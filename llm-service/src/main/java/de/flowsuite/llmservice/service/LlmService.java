@@ -1,5 +1,6 @@
 package de.flowsuite.llmservice.service;
 
+import de.flowsuite.llmservice.agent.AgentMemory;
 import de.flowsuite.llmservice.agent.CategorisationAgent;
 import de.flowsuite.llmservice.agent.GenerationAgent;
 import de.flowsuite.llmservice.exception.InvalidHtmlBodyException;
@@ -14,7 +15,15 @@ import de.flowsuite.mailflow.common.entity.User;
 import de.flowsuite.mailflow.common.exception.IdConflictException;
 import de.flowsuite.mailflow.common.util.AesUtil;
 import de.flowsuite.mailflow.common.util.Util;
+import de.flowsuite.shared.agent.AgentRegistry;
+import de.flowsuite.shared.categorisation.CategorisationBatchRequest;
+import de.flowsuite.shared.categorisation.CategorisationBatchResponse;
 import de.flowsuite.shared.exception.ExceptionManager;
+import de.flowsuite.shared.http.OpenAiHttpClient;
+import de.flowsuite.shared.messagelog.MessageLogWriter;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -22,9 +31,9 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.net.*;
+import java.time.Duration;
 import java.time.ZonedDateTime;
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
 @Service
@@ -33,10 +42,6 @@ public class LlmService {
     private static final Logger LOG = LoggerFactory.getLogger(LlmService.class);
 
     private static final ConcurrentHashMap<Long, Customer> customers = new ConcurrentHashMap<>();
-    private static final ConcurrentHashMap<Long, CategorisationAgent>
-            categorisationAgentsByCustomer = new ConcurrentHashMap<>();
-    private static final ConcurrentHashMap<Long, GenerationAgent> generationsAgentsByCustomer =
-            new ConcurrentHashMap<>();
     private static final String RESPONSE_RATING_URI = "/response-ratings";
 
     private final boolean debug;
@@ -44,18 +49,53 @@ public class LlmService {
     private final ApiClient apiClient;
     private final RagServiceClient ragServiceClient;
     private final ExceptionManager exceptionManager;
+    private final UserProfileCache userProfileCache;
+    private final MessageLogWriter messageLogWriter;
+    private final AgentMemory agentMemory;
+    private final OpenAiHttpClient openAiHttpClient;
+    private final AgentRegistry<CategorisationAgent> categorisationAgents;
+    private final AgentRegistry<GenerationAgent> generationAgents;
+    private final int maxBatchSize;
+    private final Counter batchCategorisedMessages;
+    private final Counter unresolvedMessages;
 
     public LlmService(
             @Value("${langchain.debug}") boolean debug,
             @Value("${mailflow.frontend.url}") String mailflowFrontendUrl,
             ApiClient apiClient,
             RagServiceClient ragServiceClient,
-            ExceptionManager exceptionManager) {
+            ExceptionManager exceptionManager,
+            UserProfileCache userProfileCache,
+            MessageLogWriter messageLogWriter,
+            AgentMemory agentMemory,
+            OpenAiHttpClient openAiHttpClient,
+            @Value("${agent-registry.max-agents:500}") int maxAgents,
+            @Value("${agent-registry.idle-timeout:PT6H}") Duration idleTimeout,
+            @Value("${llm.categorisation.batch.max-size:20}") int maxBatchSize,
+            MeterRegistry meterRegistry) {
         this.debug = debug;
         this.mailflowFrontendUrl = mailflowFrontendUrl;
         this.apiClient = apiClient;
         this.ragServiceClient = ragServiceClient;
         this.exceptionManager = exceptionManager;
+        this.userProfileCache = userProfileCache;
+        this.messageLogWriter = messageLogWriter;
+        this.agentMemory = agentMemory;
+        this.openAiHttpClient = openAiHttpClient;
+        this.categorisationAgents =
+                new AgentRegistry<>("categorisation", maxAgents, idleTimeout, meterRegistry);
+        this.generationAgents =
+                new AgentRegistry<>("generation", maxAgents, idleTimeout, meterRegistry);
+        this.maxBatchSize = maxBatchSize;
+        this.batchCategorisedMessages = batchMessagesCounter("batch", meterRegistry);
+        this.unresolvedMessages = batchMessagesCounter("unresolved", meterRegistry);
+    }
+
+    private static Counter batchMessagesCounter(String outcome, MeterRegistry meterRegistry) {
+        return Counter.builder("llm.categorisation.batch.messages")
+                .description("Messages of batch requests, categorised or left to the caller")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
     }
 
     public Optional<CategorisationResponse> categoriseMessage(
@@ -65,9 +105,6 @@ public class LlmService {
         Customer customer = getOrFetchCustomer(user);
         CategorisationAgent agent = getOrCreateCategorisationAgent(customer);
 
-        String formattedCategories = LlmServiceUtil.formatCategories(categories);
-        LOG.debug("Formatted categories:\n{}", formattedCategories);
-
         int maxAttempts = 2;
         int inputTokens = 0;
         int outputTokens = 0;
@@ -75,7 +112,7 @@ public class LlmService {
         Optional<CategorisationResponse> categorisationResponse = Optional.empty();
 
         for (int attempt = 0; attempt < maxAttempts; attempt++) {
-            LlmResponse response = agent.categorise(user.getId(), formattedCategories, message);
+            LlmResponse response = agent.categorise(user.getId(), categories, message);
             LOG.debug("Attempt {} - LLM Response: {}", attempt + 1, response);
 
             inputTokens += response.inputTokens();
@@ -107,6 +144,77 @@ public class LlmService {
         return categorisationResponse;
     }
 
+    /**
+     * Categorises the messages in calls of up to {@code llm.categorisation.batch.max-size}
+     * messages. A message the model left out or answered with an unknown category, and every
+     * message of a call that failed, gets a result without categorisation response, so the caller
+     * can categorise it on its own within its deadline.
+     */
+    public List<CategorisationBatchResponse.Result> categoriseMessages(
+            List<MessageCategory> categories, List<CategorisationBatchRequest.Item> items) {
+        if (items.isEmpty()) {
+            return List.of();
+        }
+
+        User firstUser = items.get(0).user();
+        for (CategorisationBatchRequest.Item item : items) {
+            if (!item.user().getCustomerId().equals(firstUser.getCustomerId())) {
+                throw new IdConflictException();
+            }
+        }
+
+        LOG.info(
+                "Categorising {} messages for customer {}",
+                items.size(),
+                firstUser.getCustomerId());
+
+        Customer customer = getOrFetchCustomer(firstUser);
+        CategorisationAgent agent = getOrCreateCategorisationAgent(customer);
+
+        List<CategorisationBatchResponse.Result> results = new ArrayList<>(items.size());
+        for (int from = 0; from < items.size(); from += maxBatchSize) {
+            List<CategorisationBatchRequest.Item> chunk =
+                    items.subList(from, Math.min(from + maxBatchSize, items.size()));
+
+            Map<String, String> messagesById = new LinkedHashMap<>();
+            for (CategorisationBatchRequest.Item item : chunk) {
+                messagesById.put(item.id(), item.text().trim());
+            }
+
+            Map<String, LlmResponse> responsesById;
+            try {
+                responsesById = agent.categoriseBatch(firstUser.getId(), categories, messagesById);
+            } catch (RuntimeException e) {
+                LOG.warn(
+                        "Failed to categorise {} messages for customer {} at once",
+                        chunk.size(),
+                        firstUser.getCustomerId(),
+                        e);
+                responsesById = Map.of();
+            }
+
+            for (CategorisationBatchRequest.Item item : chunk) {
+                Optional<CategorisationResponse> categorisationResponse =
+                        Optional.ofNullable(responsesById.get(item.id()))
+                                .flatMap(
+                                        response ->
+                                                LlmServiceUtil.validateAndMapCategory(
+                                                        response, categories));
+                if (categorisationResponse.isPresent()) {
+                    batchCategorisedMessages.increment();
+                } else {
+                    LOG.debug("Message {} of the batch was not categorised", item.id());
+                    unresolvedMessages.increment();
+                }
+                results.add(
+                        new CategorisationBatchResponse.Result(
+                                item.id(), categorisationResponse.orElse(null)));
+            }
+        }
+
+        return results;
+    }
+
     public Optional<String> generateReply(
             User user,
             List<ThreadMessage> messageThread,
@@ -155,16 +263,30 @@ public class LlmService {
             return Optional.empty();
         }
 
-        MessageLogEntry messageLogEntry =
-                apiClient.createMessageLogEntry(
-                        user.getCustomerId(),
-                        user.getId(),
-                        fromEmailAddress,
-                        subject,
-                        receivedAt,
-                        categorisationResponse,
-                        generationResponse,
-                        messageCategory);
+        MessageLogEntry messageLogEntry = null;
+        if (user.getSettings().isResponseRatingEnabled()) {
+            // The rating link needs the token the API assigns to the entry
+            messageLogEntry =
+                    apiClient.createMessageLogEntry(
+                            user.getCustomerId(),
+                            user.getId(),
+                            fromEmailAddress,
+                            subject,
+                            receivedAt,
+                            categorisationResponse,
+                            generationResponse,
+                            messageCategory);
+        } else {
+            messageLogWriter.write(
+                    user.getCustomerId(),
+                    user.getId(),
+                    fromEmailAddress,
+                    subject,
+                    receivedAt,
+                    categorisationResponse,
+                    generationResponse,
+                    messageCategory);
+        }
 
         URL ratingUrl =
                 LlmServiceUtil.buildRatingUrl(
@@ -179,7 +301,11 @@ public class LlmService {
 
         return Optional.of(
                 LlmServiceUtil.createHtmlMessage(
-                        generationResponse.text(), user, customer, ratingUrl));
+                        generationResponse.text(),
+                        user,
+                        userProfileCache.getProfile(user),
+                        customer,
+                        ratingUrl));
     }
 
     public void onCustomerUpdated(long customerId, Customer customer) {
@@ -199,14 +325,23 @@ public class LlmService {
     }
 
     private CategorisationAgent getOrCreateCategorisationAgent(Customer customer) {
-        return categorisationAgentsByCustomer.computeIfAbsent(
+        return categorisationAgents.get(
                 customer.getId(),
-                id -> new CategorisationAgent(AesUtil.decrypt(customer.getOpenaiApiKey()), debug));
+                customer.getOpenaiApiKey(),
+                () ->
+                        new CategorisationAgent(
+                                customer.getId(),
+                                AesUtil.decrypt(customer.getOpenaiApiKey()),
+                                debug,
+                                agentMemory,
+                                openAiHttpClient));
     }
 
     private GenerationAgent getOrCreateGenerationAgent(Customer customer) {
-        return generationsAgentsByCustomer.computeIfAbsent(
-                customer.getId(), id -> new GenerationAgent(customer, debug));
+        return generationAgents.get(
+                customer.getId(),
+                Arrays.asList(customer.getOpenaiApiKey(), customer.getSystemPrompt()),
+                () -> new GenerationAgent(customer, debug, agentMemory, openAiHttpClient));
     }
 
     private String fetchRagContext(
@@ -0,0 +1,33 @@
+package de.flowsuite.llmservice.service;
+
+import de.flowsuite.llmservice.util.UserProfile;
+import de.flowsuite.mailflow.common.entity.User;
+
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decrypted user profiles, so generating a reply does not decrypt the signature of the user every
+ * time. Requests carry the encrypted user, a cached profile is replaced as soon as the encrypted
+ * values of a request differ from the ones it was created from.
+ */
+@Component
+class UserProfileCache {
+
+    private final ConcurrentHashMap<Long, UserProfile> profilesByUser = new ConcurrentHashMap<>();
+
+    UserProfile getProfile(User user) {
+        UserProfile profile = profilesByUser.get(user.getId());
+        if (profile != null && profile.matches(user)) {
+            return profile;
+        }
+
+        return profilesByUser.compute(
+                user.getId(),
+                (id, existing) ->
+                        existing != null && existing.matches(user)
+                                ? existing
+                                : new UserProfile(user));
+    }
+}
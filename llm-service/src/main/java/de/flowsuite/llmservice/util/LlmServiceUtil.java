@@ -5,7 +5,6 @@ import de.flowsuite.mailflow.common.dto.CategorisationResponse;
 import de.flowsuite.mailflow.common.dto.LlmResponse;
 import de.flowsuite.mailflow.common.dto.RagServiceResponse;
 import de.flowsuite.mailflow.common.entity.*;
-import de.flowsuite.mailflow.common.util.AesUtil;
 
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
@@ -17,7 +16,9 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.StringJoiner;
 
 public class LlmServiceUtil {
 
@@ -63,7 +64,7 @@ public class LlmServiceUtil {
     }
 
     // spotless:off
-    public static String createHtmlMessage(String reply, User user, Customer customer, URL url) {
+    public static String createHtmlMessage(String reply, User user, UserProfile profile, Customer customer, URL url) {
         StringBuilder htmlBuilder = new StringBuilder();
 
         // HTML structure
@@ -79,16 +80,16 @@ public class LlmServiceUtil {
         htmlBuilder.append(reply)
                 .append("<br/><br/>")
                 .append("<p>Mit freundlichen Grüßen, </p>")
-                .append("<p>").append(AesUtil.decrypt(user.getFirstName())).append(" ").append(AesUtil.decrypt(user.getLastName())).append("</p>");
+                .append("<p>").append(fullName(profile)).append("</p>");
 
                 if (user.getPosition() != null) {
                 htmlBuilder.append("<p>").append(user.getPosition()).append("</p>");
                 }
 
-                htmlBuilder.append("<p>").append(AesUtil.decrypt(user.getEmailAddress()));
+                htmlBuilder.append("<p>").append(Objects.toString(profile.getEmailAddress(), ""));
 
-                if (user.getPhoneNumber() != null) {
-                    htmlBuilder.append(" | ").append(AesUtil.decrypt(user.getPhoneNumber())).append("</p>");
+                if (profile.getPhoneNumber() != null) {
+                    htmlBuilder.append(" | ").append(profile.getPhoneNumber()).append("</p>");
                 }
 
                 htmlBuilder.append("<br/><br/>")
@@ -109,6 +110,17 @@ public class LlmServiceUtil {
     }
     // spotless:on
 
+    private static String fullName(UserProfile profile) {
+        StringJoiner fullName = new StringJoiner(" ");
+        if (profile.getFirstName() != null) {
+            fullName.add(profile.getFirstName());
+        }
+        if (profile.getLastName() != null) {
+            fullName.add(profile.getLastName());
+        }
+        return fullName.toString();
+    }
+
     public static Optional<CategorisationResponse> validateAndMapCategory(
             LlmResponse response, List<MessageCategory> categories) {
         LOG.debug("Categorisation response: {}", response);
@@ -0,0 +1,62 @@
+package de.flowsuite.llmservice.util;
+
+import de.flowsuite.mailflow.common.entity.User;
+import de.flowsuite.mailflow.common.util.AesUtil;
+
+import java.util.Objects;
+
+/**
+ * Decrypted personal data of a user, as used in the signature of generated replies. Values that are
+ * not set on the user are null.
+ */
+public class UserProfile {
+
+    private final String encryptedFirstName;
+    private final String encryptedLastName;
+    private final String encryptedEmailAddress;
+    private final String encryptedPhoneNumber;
+
+    private final String firstName;
+    private final String lastName;
+    private final String emailAddress;
+    private final String phoneNumber;
+
+    public UserProfile(User user) {
+        this.encryptedFirstName = user.getFirstName();
+        this.encryptedLastName = user.getLastName();
+        this.encryptedEmailAddress = user.getEmailAddress();
+        this.encryptedPhoneNumber = user.getPhoneNumber();
+
+        this.firstName = decrypt(encryptedFirstName);
+        this.lastName = decrypt(encryptedLastName);
+        this.emailAddress = decrypt(encryptedEmailAddress);
+        this.phoneNumber = decrypt(encryptedPhoneNumber);
+    }
+
+    public boolean matches(User user) {
+        return Objects.equals(encryptedFirstName, user.getFirstName())
+                && Objects.equals(encryptedLastName, user.getLastName())
+                && Objects.equals(encryptedEmailAddress, user.getEmailAddress())
+                && Objects.equals(encryptedPhoneNumber, user.getPhoneNumber());
+    }
+
+    public String getFirstName() {
+        return firstName;
+    }
+
+    public String getLastName() {
+        return lastName;
+    }
+
+    public String getEmailAddress() {
+        return emailAddress;
+    }
+
+    public String getPhoneNumber() {
+        return phoneNumber;
+    }
+
+    private static String decrypt(String encrypted) {
+        return encrypted != null ? AesUtil.decrypt(encrypted) : null;
+    }
+}
@@ -0,0 +1,54 @@
+package de.flowsuite.mailboxservice.message;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.Multipart;
+import jakarta.mail.Part;
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeMessage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Properties;
+
+/** Loads the real-shape MIME messages under {@code src/jmh/resources/corpus}. */
+final class MessageCorpus {
+
+    static final Session SESSION = Session.getInstance(new Properties());
+
+    private MessageCorpus() {}
+
+    static byte[] load(String name) {
+        String resource = "/corpus/" + name + ".eml";
+        try (InputStream in = MessageCorpus.class.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IllegalArgumentException("Unknown corpus message: " + resource);
+            }
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static MimeMessage parse(byte[] raw) throws MessagingException {
+        return new MimeMessage(SESSION, new ByteArrayInputStream(raw));
+    }
+
+    static String firstPartContent(Part part, String mimeType)
+            throws MessagingException, IOException {
+        if (part.isMimeType(mimeType)) {
+            return part.getContent().toString();
+        }
+        if (part.isMimeType("multipart/*")) {
+            Multipart multipart = (Multipart) part.getContent();
+            for (int i = 0; i < multipart.getCount(); i++) {
+                String content = firstPartContent(multipart.getBodyPart(i), mimeType);
+                if (content != null) {
+                    return content;
+                }
+            }
+        }
+        return null;
+    }
+}
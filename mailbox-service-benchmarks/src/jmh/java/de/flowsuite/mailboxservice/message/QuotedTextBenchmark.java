@@ -0,0 +1,39 @@
+package de.flowsuite.mailboxservice.message;
+
+import jakarta.mail.MessagingException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+
+/** Measures the plain text and HTML cleaning steps in isolation from MIME parsing. */
+@State(Scope.Benchmark)
+public class QuotedTextBenchmark {
+
+    @Param({"newsletter", "mixed-attachments", "quoted-thread"})
+    String corpus;
+
+    private String plainText;
+    private String html;
+
+    @Setup
+    public void setUp() throws MessagingException, IOException {
+        byte[] raw = MessageCorpus.load(corpus);
+        plainText = MessageCorpus.firstPartContent(MessageCorpus.parse(raw), "text/plain");
+        html = MessageCorpus.firstPartContent(MessageCorpus.parse(raw), "text/html");
+    }
+
+    @Benchmark
+    public String removeQuotedLinesFromPlainText() {
+        return MessageUtil.removeQuotedLinesFromPlainText(plainText);
+    }
+
+    @Benchmark
+    public String extractPlainTextFromHtml() {
+        return MessageUtil.extractPlainTextFromHtml(html);
+    }
+}
@@ -0,0 +1,41 @@
+package de.flowsuite.mailboxservice.message;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeMessage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+
+/**
+ * Measures {@link MessageUtil#getCleanedText} on a freshly parsed message, which is what happens
+ * for every incoming message. {@link #parseOnly()} is the parsing cost alone, so the difference
+ * between both is the cost of the text extraction itself.
+ */
+@State(Scope.Benchmark)
+public class TextExtractionBenchmark {
+
+    @Param({"plain", "newsletter", "mixed-attachments", "quoted-thread"})
+    String corpus;
+
+    private byte[] raw;
+
+    @Setup
+    public void setUp() {
+        raw = MessageCorpus.load(corpus);
+    }
+
+    @Benchmark
+    public MimeMessage parseOnly() throws MessagingException {
+        return MessageCorpus.parse(raw);
+    }
+
+    @Benchmark
+    public String getCleanedText() throws MessagingException, IOException {
+        return MessageUtil.getCleanedText(MessageCorpus.parse(raw));
+    }
+}
@@ -0,0 +1,47 @@
+package de.flowsuite.mailboxservice.message;
+
+import de.flowsuite.mailflow.common.dto.ThreadMessage;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeMessage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures {@link MessageUtil#buildThreadBody} for threads of growing length. Every reply in the
+ * corpus quotes the whole history, as most mail clients do.
+ */
+@State(Scope.Benchmark)
+public class ThreadBodyBenchmark {
+
+    private static final String USER_EMAIL_ADDRESS = "support@mailflow-customer.de";
+
+    @Param({"1", "3", "6"})
+    int threadLength;
+
+    private final List<byte[]> raw = new ArrayList<>();
+
+    @Setup
+    public void setUp() {
+        for (int i = 1; i <= threadLength; i++) {
+            raw.add(MessageCorpus.load(String.format("thread-%02d", i)));
+        }
+    }
+
+    @Benchmark
+    public List<ThreadMessage> buildThreadBody() throws MessagingException, IOException {
+        List<MimeMessage> messageThread = new ArrayList<>(raw.size());
+        for (byte[] message : raw) {
+            messageThread.add(MessageCorpus.parse(message));
+        }
+        return MessageUtil.buildThreadBody(messageThread, USER_EMAIL_ADDRESS);
+    }
+}
@@ -0,0 +1,56 @@
+package de.flowsuite.mailboxservice.loadtest;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Latency of a stubbed remote call. Parsed from specs such as {@code fixed:200}, {@code
+ * uniform:100-400} or {@code lognormal:800,4000} (median and p99 in milliseconds).
+ */
+interface LatencyDistribution {
+
+    double Z_99 = 2.326;
+
+    long sampleMillis();
+
+    default void sleep() {
+        long millis = sampleMillis();
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    static LatencyDistribution parse(String spec) {
+        String[] parts = spec.trim().split(":", 2);
+        String type = parts[0];
+        String arguments = parts.length > 1 ? parts[1] : "";
+
+        switch (type) {
+            case "none":
+                return () -> 0;
+            case "fixed":
+                long fixed = Long.parseLong(arguments);
+                return () -> fixed;
+            case "uniform":
+                String[] range = arguments.split("-");
+                long min = Long.parseLong(range[0]);
+                long max = Long.parseLong(range[1]);
+                return () -> ThreadLocalRandom.current().nextLong(min, max + 1);
+            case "lognormal":
+                String[] quantiles = arguments.split(",");
+                double median = Double.parseDouble(quantiles[0]);
+                double p99 = Double.parseDouble(quantiles[1]);
+                double mu = Math.log(median);
+                double sigma = Math.log(p99 / median) / Z_99;
+                return () ->
+                        Math.round(
+                                Math.exp(mu + sigma * ThreadLocalRandom.current().nextGaussian()));
+            default:
+                throw new IllegalArgumentException("Unknown latency distribution: " + spec);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package de.flowsuite.mailboxservice.loadtest;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+class LatencyRecorder {
+
+    private static final double[] PERCENTILES = {50, 90, 95, 99, 99.9};
+
+    private long[] samples = new long[1024];
+    private int size;
+
+    synchronized void record(long millis) {
+        if (size == samples.length) {
+            samples = Arrays.copyOf(samples, size * 2);
+        }
+        samples[size++] = millis;
+    }
+
+    synchronized int count() {
+        return size;
+    }
+
+    synchronized Map<String, Long> summary() {
+        Map<String, Long> summary = new LinkedHashMap<>();
+        summary.put("count", (long) size);
+        if (size == 0) {
+            return summary;
+        }
+
+        long[] sorted = Arrays.copyOf(samples, size);
+        Arrays.sort(sorted);
+
+        summary.put("min", sorted[0]);
+        for (double percentile : PERCENTILES) {
+            int index = (int) Math.ceil(percentile / 100 * size) - 1;
+            String key =
+                    "p" + (percentile % 1 == 0 ? String.valueOf((int) percentile) : percentile);
+            summary.put(key, sorted[Math.max(0, index)]);
+        }
+        summary.put("max", sorted[size - 1]);
+        return summary;
+    }
+}
@@ -0,0 +1,193 @@
+package de.flowsuite.mailboxservice.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.icegreen.greenmail.user.GreenMailUser;
+import com.icegreen.greenmail.util.DummySSLSocketFactory;
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetup;
+
+import de.flowsuite.mailboxservice.MailboxServiceApplication;
+import de.flowsuite.mailboxservice.mailbox.MailboxService;
+import de.flowsuite.mailflow.common.entity.User;
+import de.flowsuite.shared.concurrent.VirtualThreadPinningMonitor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.File;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs mailbox-service against an in-process GreenMail IMAPS/SMTPS server with stubbed API and
+ * llm-service clients, injects mail at a target rate and reports latency percentiles, thread counts
+ * and heap usage. Runs fully offline.
+ *
+ * <p>mailbox-service always connects to the implicit TLS ports 993 and 465, so GreenMail has to
+ * bind to them. On Linux this requires {@code sysctl net.ipv4.ip_unprivileged_port_start=0} or
+ * running as root. An {@code AES_B64_SECRET_KEY} has to be set since credentials are stored
+ * encrypted.
+ */
+public class LoadTestApplication {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LoadTestApplication.class);
+
+    // Matches mail.username and mail.password in application-loadtest.yaml
+    private static final String ADMIN_ADDRESS = "admin@loadtest.local";
+    private static final String ADMIN_PASSWORD = "loadtest";
+
+    public static void main(String[] args) throws Exception {
+        LoadTestSettings settings = LoadTestSettings.fromSystemProperties();
+        LoadTestMetrics metrics = new LoadTestMetrics();
+
+        // Trust GreenMail's self-signed certificate
+        Security.setProperty("ssl.SocketFactory.provider", DummySSLSocketFactory.class.getName());
+
+        GreenMail greenMail =
+                new GreenMail(
+                        new ServerSetup[] {
+                            new ServerSetup(
+                                    ServerSetup.PORT_IMAPS,
+                                    settings.host(),
+                                    ServerSetup.PROTOCOL_IMAPS),
+                            new ServerSetup(
+                                    ServerSetup.PORT_SMTPS,
+                                    settings.host(),
+                                    ServerSetup.PROTOCOL_SMTPS)
+                        });
+        greenMail.start();
+        // Receives admin notifications sent by ExceptionManager
+        greenMail.setUser(ADMIN_ADDRESS, ADMIN_ADDRESS, ADMIN_PASSWORD);
+
+        ConfigurableApplicationContext context =
+                new SpringApplicationBuilder(MailboxServiceApplication.class)
+                        .profiles("test", "loadtest")
+                        .properties("spring.threads.virtual.enabled=" + settings.virtualThreads())
+                        .initializers(
+                                ctx -> {
+                                    ctx.getBeanFactory()
+                                            .registerSingleton("loadTestSettings", settings);
+                                    ctx.getBeanFactory()
+                                            .registerSingleton("loadTestMetrics", metrics);
+                                })
+                        .run(args);
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        ResourceSampler resourceSampler = new ResourceSampler();
+        try {
+            List<GreenMailUser> mailboxes =
+                    startMailboxListeners(
+                            greenMail, context.getBean(MailboxService.class), settings, metrics);
+
+            resourceSampler.start();
+            long startedAtNanos = System.nanoTime();
+
+            new MailInjector(mailboxes, metrics)
+                    .run(settings.messagesPerSecond(), settings.durationSeconds());
+            awaitDrained(metrics, settings.drainSeconds());
+
+            double elapsedSeconds = (System.nanoTime() - startedAtNanos) / 1e9;
+            report.put("settings", describe(settings));
+            report.put("delivered", metrics.delivered());
+            report.put("processed", metrics.processed());
+            report.put("categorisationRequests", metrics.categorisationRequests());
+            report.put("generationRequests", metrics.generationRequests());
+            report.put("processedPerSecond", metrics.processed() / elapsedSeconds);
+            report.put("listenerStartupMs", metrics.listenerStartup().summary());
+            report.put("detectionLatencyMs", metrics.detectionLatency().summary());
+            report.put("endToEndLatencyMs", metrics.endToEndLatency().summary());
+            report.put(
+                    "virtualThreadsPinned",
+                    context.getBean(VirtualThreadPinningMonitor.class).pinnedCount());
+        } finally {
+            report.put("resources", resourceSampler.stop());
+            context.close();
+            greenMail.stop();
+        }
+
+        writeReport(report, settings.report());
+
+        // Listener threads of mailbox-service are not daemon threads
+        System.exit(0);
+    }
+
+    private static List<GreenMailUser> startMailboxListeners(
+            GreenMail greenMail,
+            MailboxService mailboxService,
+            LoadTestSettings settings,
+            LoadTestMetrics metrics) {
+        LOG.info("Starting {} mailbox listener(s)", settings.mailboxes());
+
+        List<GreenMailUser> mailboxes = new ArrayList<>();
+        for (long userId = 1; userId <= settings.mailboxes(); userId++) {
+            GreenMailUser mailbox =
+                    greenMail.setUser(
+                            LoadTestEntities.emailAddress(userId),
+                            LoadTestEntities.emailAddress(userId),
+                            LoadTestEntities.password(userId));
+            mailboxes.add(mailbox);
+
+            User user = LoadTestEntities.user(userId, userId % settings.customers() + 1, settings);
+
+            long startedAtNanos = System.nanoTime();
+            try {
+                mailboxService.startMailboxListenerForUser(user);
+                metrics.onListenerStarted(startedAtNanos);
+            } catch (Exception e) {
+                LOG.error("Failed to start mailbox listener for user {}", userId, e);
+            }
+        }
+        return mailboxes;
+    }
+
+    private static void awaitDrained(LoadTestMetrics metrics, int drainSeconds)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(drainSeconds);
+        while (metrics.processed() < metrics.delivered() && System.nanoTime() < deadline) {
+            Thread.sleep(100);
+        }
+        if (metrics.processed() < metrics.delivered()) {
+            LOG.warn(
+                    "{} of {} message(s) were not processed within {} seconds",
+                    metrics.delivered() - metrics.processed(),
+                    metrics.delivered(),
+                    drainSeconds);
+        }
+    }
+
+    private static Map<String, Object> describe(LoadTestSettings settings) {
+        Map<String, Object> description = new LinkedHashMap<>();
+        description.put("mailboxes", settings.mailboxes());
+        description.put("customers", settings.customers());
+        description.put("messagesPerSecond", settings.messagesPerSecond());
+        description.put("durationSeconds", settings.durationSeconds());
+        description.put("autoReply", settings.autoReply());
+        description.put("virtualThreads", settings.virtualThreads());
+        description.put(
+                "apiLatency",
+                System.getProperty("loadtest.apiLatency", LoadTestSettings.DEFAULT_API_LATENCY));
+        description.put(
+                "llmLatency",
+                System.getProperty("loadtest.llmLatency", LoadTestSettings.DEFAULT_LLM_LATENCY));
+        return description;
+    }
+
+    private static void writeReport(Map<String, Object> report, String path) throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+        LOG.info("Load test report:\n{}", objectMapper.writeValueAsString(report));
+
+        if (path != null) {
+            File file = new File(path);
+            file.getParentFile().mkdirs();
+            objectMapper.writeValue(file, report);
+            LOG.info("Report written to {}", file.getAbsolutePath());
+        }
+    }
+}
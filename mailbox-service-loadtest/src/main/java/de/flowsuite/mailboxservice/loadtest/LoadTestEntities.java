@@ -0,0 +1,79 @@
+package de.flowsuite.mailboxservice.loadtest;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import de.flowsuite.mailflow.common.entity.MessageCategory;
+import de.flowsuite.mailflow.common.entity.User;
+import de.flowsuite.mailflow.common.util.AesUtil;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds the entities the API would normally return. They are mapped from JSON, exactly like the
+ * notification endpoints receive them.
+ */
+class LoadTestEntities {
+
+    static final String MAILBOX_DOMAIN = "loadtest.local";
+    static final List<String> CATEGORIES = List.of("Anfrage", "Rechnung", "Newsletter");
+
+    private static final ObjectMapper OBJECT_MAPPER =
+            new ObjectMapper()
+                    .findAndRegisterModules()
+                    .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private LoadTestEntities() {}
+
+    static String emailAddress(long userId) {
+        return String.format("mailbox-%d@%s", userId, MAILBOX_DOMAIN);
+    }
+
+    static String password(long userId) {
+        return "password-" + userId;
+    }
+
+    static User user(long userId, long customerId, LoadTestSettings settings) {
+        Map<String, Object> mailboxSettings = new LinkedHashMap<>();
+        mailboxSettings.put("userId", userId);
+        mailboxSettings.put("customerId", customerId);
+        mailboxSettings.put("executionEnabled", true);
+        mailboxSettings.put("autoReplyEnabled", settings.autoReply());
+        mailboxSettings.put("moveToManualReviewEnabled", true);
+        mailboxSettings.put("responseRatingEnabled", false);
+        mailboxSettings.put("mailboxPassword", AesUtil.encrypt(password(userId)));
+        mailboxSettings.put("imapHost", settings.host());
+        mailboxSettings.put("smtpHost", settings.host());
+        mailboxSettings.put("imapPort", 993);
+        mailboxSettings.put("smtpPort", 465);
+
+        Map<String, Object> user = new LinkedHashMap<>();
+        user.put("id", userId);
+        user.put("customerId", customerId);
+        user.put("emailAddress", AesUtil.encrypt(emailAddress(userId)));
+        user.put("firstName", AesUtil.encrypt("Load"));
+        user.put("lastName", AesUtil.encrypt("Test " + userId));
+        user.put("settings", mailboxSettings);
+
+        return OBJECT_MAPPER.convertValue(user, User.class);
+    }
+
+    static List<MessageCategory> messageCategories(long customerId) {
+        List<MessageCategory> messageCategories = new ArrayList<>();
+        for (int i = 0; i < CATEGORIES.size(); i++) {
+            Map<String, Object> messageCategory = new LinkedHashMap<>();
+            messageCategory.put("id", (long) i + 1);
+            messageCategory.put("customerId", customerId);
+            messageCategory.put("category", CATEGORIES.get(i));
+            messageCategory.put("description", CATEGORIES.get(i) + " (load test)");
+            messageCategory.put("reply", false);
+            messageCategory.put("functionCall", false);
+            messageCategories.add(
+                    OBJECT_MAPPER.convertValue(messageCategory, MessageCategory.class));
+        }
+        return messageCategories;
+    }
+}
@@ -0,0 +1,104 @@
+package de.flowsuite.mailboxservice.loadtest;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Correlates injected messages with the stubbed client calls made for them. Every injected message
+ * carries a token in its subject and body:
+ *
+ * <ul>
+ *   <li>Detection latency: delivery until the categorisation request. Covers the IDLE wake-up,
+ *       queueing and fetching the message body.
+ *   <li>End-to-end latency: delivery until the message log entry is written, which is the last step
+ *       of the pipeline after the message has been moved.
+ * </ul>
+ */
+class LoadTestMetrics {
+
+    static final String TOKEN_PREFIX = "loadtest-token-";
+    private static final Pattern TOKEN_PATTERN = Pattern.compile(TOKEN_PREFIX + "(\\d+)");
+
+    private final ConcurrentHashMap<Long, Long> deliveredAtNanos = new ConcurrentHashMap<>();
+    private final LatencyRecorder detectionLatency = new LatencyRecorder();
+    private final LatencyRecorder endToEndLatency = new LatencyRecorder();
+    private final LatencyRecorder listenerStartup = new LatencyRecorder();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong categorisationRequests = new AtomicLong();
+    private final AtomicLong generationRequests = new AtomicLong();
+
+    void onDelivered(long token) {
+        deliveredAtNanos.put(token, System.nanoTime());
+        delivered.incrementAndGet();
+    }
+
+    void onCategorisationRequested(String text) {
+        categorisationRequests.incrementAndGet();
+        Long deliveredAt = deliveredAt(text, false);
+        if (deliveredAt != null) {
+            detectionLatency.record(elapsedMillis(deliveredAt));
+        }
+    }
+
+    void onGenerationRequested() {
+        generationRequests.incrementAndGet();
+    }
+
+    void onMessageLogged(String subject) {
+        Long deliveredAt = deliveredAt(subject, true);
+        if (deliveredAt != null) {
+            endToEndLatency.record(elapsedMillis(deliveredAt));
+        }
+    }
+
+    void onListenerStarted(long startedAtNanos) {
+        listenerStartup.record(elapsedMillis(startedAtNanos));
+    }
+
+    long delivered() {
+        return delivered.get();
+    }
+
+    long processed() {
+        return endToEndLatency.count();
+    }
+
+    long categorisationRequests() {
+        return categorisationRequests.get();
+    }
+
+    long generationRequests() {
+        return generationRequests.get();
+    }
+
+    LatencyRecorder detectionLatency() {
+        return detectionLatency;
+    }
+
+    LatencyRecorder endToEndLatency() {
+        return endToEndLatency;
+    }
+
+    LatencyRecorder listenerStartup() {
+        return listenerStartup;
+    }
+
+    private Long deliveredAt(String text, boolean remove) {
+        if (text == null) {
+            return null;
+        }
+        Matcher matcher = TOKEN_PATTERN.matcher(text);
+        if (!matcher.find()) {
+            return null;
+        }
+        long token = Long.parseLong(matcher.group(1));
+        return remove ? deliveredAtNanos.remove(token) : deliveredAtNanos.get(token);
+    }
+
+    private static long elapsedMillis(long sinceNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sinceNanos);
+    }
+}
@@ -0,0 +1,36 @@
+package de.flowsuite.mailboxservice.loadtest;
+
+/** Load test parameters, read from {@code loadtest.*} system properties. */
+record LoadTestSettings(
+        int mailboxes,
+        int customers,
+        double messagesPerSecond,
+        int durationSeconds,
+        int drainSeconds,
+        boolean autoReply,
+        boolean virtualThreads,
+        String host,
+        LatencyDistribution apiLatency,
+        LatencyDistribution llmLatency,
+        String report) {
+
+    static final String DEFAULT_API_LATENCY = "lognormal:20,150";
+    static final String DEFAULT_LLM_LATENCY = "lognormal:800,4000";
+
+    static LoadTestSettings fromSystemProperties() {
+        return new LoadTestSettings(
+                Integer.getInteger("loadtest.mailboxes", 50),
+                Integer.getInteger("loadtest.customers", 5),
+                Double.parseDouble(System.getProperty("loadtest.rate", "10")),
+                Integer.getInteger("loadtest.duration", 60),
+                Integer.getInteger("loadtest.drain", 120),
+                Boolean.parseBoolean(System.getProperty("loadtest.autoReply", "true")),
+                Boolean.getBoolean("loadtest.virtualThreads"),
+                System.getProperty("loadtest.host", "127.0.0.1"),
+                LatencyDistribution.parse(
+                        System.getProperty("loadtest.apiLatency", DEFAULT_API_LATENCY)),
+                LatencyDistribution.parse(
+                        System.getProperty("loadtest.llmLatency", DEFAULT_LLM_LATENCY)),
+                System.getProperty("loadtest.report"));
+    }
+}
@@ -0,0 +1,94 @@
+package de.flowsuite.mailboxservice.loadtest;
+
+import com.icegreen.greenmail.user.GreenMailUser;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeMessage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Delivers messages round-robin into the load test mailboxes at a fixed rate. */
+class MailInjector {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MailInjector.class);
+
+    // spotless:off
+    private static final String BODY =
+            """
+            Guten Tag,
+
+            ich habe eine Frage zu meiner Bestellung und bitte um eine kurze Rückmeldung, wann die
+            Lieferung erfolgt. Die Rechnung liegt mir bereits vor.
+
+            Referenz: %s
+
+            Mit freundlichen Grüßen
+            Max Mustermann
+            """;
+    // spotless:on
+
+    private final Session session = Session.getInstance(new Properties());
+    private final AtomicLong tokens = new AtomicLong();
+    private final List<GreenMailUser> mailboxes;
+    private final LoadTestMetrics metrics;
+
+    MailInjector(List<GreenMailUser> mailboxes, LoadTestMetrics metrics) {
+        this.mailboxes = mailboxes;
+        this.metrics = metrics;
+    }
+
+    void run(double messagesPerSecond, int durationSeconds) throws InterruptedException {
+        LOG.info(
+                "Injecting {} message(s) per second into {} mailbox(es) for {} seconds",
+                messagesPerSecond,
+                mailboxes.size(),
+                durationSeconds);
+
+        ScheduledExecutorService executor =
+                Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "Mail-Injector"));
+        long periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / messagesPerSecond);
+        executor.scheduleAtFixedRate(this::deliverNext, 0, periodNanos, TimeUnit.NANOSECONDS);
+
+        executor.awaitTermination(durationSeconds, TimeUnit.SECONDS);
+        executor.shutdownNow();
+    }
+
+    private void deliverNext() {
+        long token = tokens.incrementAndGet();
+        GreenMailUser mailbox = mailboxes.get((int) (token % mailboxes.size()));
+        try {
+            MimeMessage message = createMessage(token, mailbox.getEmail());
+            metrics.onDelivered(token);
+            mailbox.deliver(message);
+        } catch (MessagingException e) {
+            LOG.error("Failed to deliver message {} to {}", token, mailbox.getEmail(), e);
+        }
+    }
+
+    private MimeMessage createMessage(long token, String recipient) throws MessagingException {
+        String reference = LoadTestMetrics.TOKEN_PREFIX + token;
+        InternetAddress sender =
+                new InternetAddress(String.format("customer-%d@external.test", token % 1000));
+
+        MimeMessage message = new MimeMessage(session);
+        message.setFrom(sender);
+        message.setSender(sender);
+        message.setRecipient(MimeMessage.RecipientType.TO, new InternetAddress(recipient));
+        message.setSubject("Frage zur Bestellung " + reference, "UTF-8");
+        message.setSentDate(new Date());
+        message.setText(String.format(BODY, reference), "UTF-8");
+        message.saveChanges();
+        return message;
+    }
+}
@@ -0,0 +1,75 @@
+package de.flowsuite.mailboxservice.loadtest;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples live threads, carrier threads of virtual threads and heap usage of the JVM once per
+ * second. Virtual threads are not included in the thread counts.
+ */
+class ResourceSampler {
+
+    private static final long MB = 1024 * 1024;
+    private static final String CARRIER_THREAD_CLASS = "jdk.internal.misc.CarrierThread";
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private final ScheduledExecutorService executor =
+            Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "Resource-Sampler"));
+
+    private long samples;
+    private long threadSum;
+    private long carrierThreadSum;
+    private long maxCarrierThreads;
+    private long heapSum;
+    private long maxHeapUsed;
+
+    void start() {
+        threads.resetPeakThreadCount();
+        executor.scheduleAtFixedRate(this::sample, 0, 1, TimeUnit.SECONDS);
+    }
+
+    private synchronized void sample() {
+        long heapUsed = memory.getHeapMemoryUsage().getUsed();
+        samples++;
+        threadSum += threads.getThreadCount();
+        long carrierThreads = countCarrierThreads();
+        carrierThreadSum += carrierThreads;
+        maxCarrierThreads = Math.max(maxCarrierThreads, carrierThreads);
+        heapSum += heapUsed;
+        maxHeapUsed = Math.max(maxHeapUsed, heapUsed);
+    }
+
+    synchronized Map<String, Long> stop() {
+        executor.shutdownNow();
+
+        Map<String, Long> summary = new LinkedHashMap<>();
+        summary.put("threadsAvg", samples == 0 ? 0 : threadSum / samples);
+        summary.put("threadsPeak", (long) threads.getPeakThreadCount());
+        summary.put("threadsEnd", (long) threads.getThreadCount());
+        summary.put("carrierThreadsAvg", samples == 0 ? 0 : carrierThreadSum / samples);
+        summary.put("carrierThreadsPeak", maxCarrierThreads);
+        summary.put("heapUsedAvgMb", samples == 0 ? 0 : heapSum / samples / MB);
+        summary.put("heapUsedMaxMb", maxHeapUsed / MB);
+
+        System.gc();
+        summary.put("heapUsedAfterGcMb", memory.getHeapMemoryUsage().getUsed() / MB);
+        return summary;
+    }
+
+    private static long countCarrierThreads() {
+        long count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (CARRIER_THREAD_CLASS.equals(thread.getClass().getName())) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,104 @@
+package de.flowsuite.mailboxservice.loadtest;
+
+import static org.mockito.Mockito.mock;
+
+import de.flowsuite.mailboxservice.message.CategorisationBatchClient;
+import de.flowsuite.mailflow.common.client.ApiClient;
+import de.flowsuite.mailflow.common.client.LlmServiceClient;
+import de.flowsuite.mailflow.common.dto.CategorisationRequest;
+import de.flowsuite.mailflow.common.dto.CategorisationResponse;
+import de.flowsuite.mailflow.common.entity.MessageCategory;
+import de.flowsuite.shared.categorisation.CategorisationBatchRequest;
+import de.flowsuite.shared.categorisation.CategorisationBatchResponse;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Replaces the API and llm-service clients with stubs that answer after a latency drawn from the
+ * configured distributions. Calls are dispatched by method name so the stubs do not depend on the
+ * exact client signatures.
+ */
+@Configuration
+@Profile("loadtest")
+class StubClientConfiguration {
+
+    @Bean
+    @Primary
+    ApiClient stubApiClient(LoadTestSettings settings, LoadTestMetrics metrics) {
+        return mock(
+                ApiClient.class,
+                invocation -> {
+                    settings.apiLatency().sleep();
+                    return switch (invocation.getMethod().getName()) {
+                        case "listUsers", "listUsersByCustomer", "listBlacklistEntries" ->
+                                List.of();
+                        case "isCustomerTestVersion" -> false;
+                        case "listMessageCategories" ->
+                                LoadTestEntities.messageCategories(invocation.getArgument(0));
+                        case "createMessageLogEntry" -> {
+                            metrics.onMessageLogged(invocation.getArgument(3));
+                            yield null;
+                        }
+                        default -> null;
+                    };
+                });
+    }
+
+    @Bean
+    @Primary
+    LlmServiceClient stubLlmServiceClient(LoadTestSettings settings, LoadTestMetrics metrics) {
+        return mock(
+                LlmServiceClient.class,
+                invocation -> {
+                    switch (invocation.getMethod().getName()) {
+                        case "categorise":
+                            CategorisationRequest request = invocation.getArgument(0);
+                            metrics.onCategorisationRequested(request.text());
+                            settings.llmLatency().sleep();
+                            return randomResponse(request.categories());
+                        case "generateReply":
+                            metrics.onGenerationRequested();
+                            settings.llmLatency().sleep();
+                            return "<p>Load test reply</p>";
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    @Bean
+    @Primary
+    CategorisationBatchClient stubCategorisationBatchClient(
+            LoadTestSettings settings, LoadTestMetrics metrics) {
+        return mock(
+                CategorisationBatchClient.class,
+                invocation -> {
+                    if (!invocation.getMethod().getName().equals("categorise")) {
+                        return null;
+                    }
+                    CategorisationBatchRequest request = invocation.getArgument(0);
+                    request.items().forEach(item -> metrics.onCategorisationRequested(item.text()));
+                    settings.llmLatency().sleep();
+                    return new CategorisationBatchResponse(
+                            request.items().stream()
+                                    .map(
+                                            item ->
+                                                    new CategorisationBatchResponse.Result(
+                                                            item.id(),
+                                                            randomResponse(request.categories())))
+                                    .toList());
+                });
+    }
+
+    private static CategorisationResponse randomResponse(List<MessageCategory> categories) {
+        MessageCategory category =
+                categories.get(ThreadLocalRandom.current().nextInt(categories.size()));
+        return new CategorisationResponse(category, "stub", 0, 0, 0);
+    }
+}
@@ -0,0 +1,8 @@
+package de.flowsuite.mailboxservice.exception;
+
+public class DeadlineExceededException extends ProcessingException {
+
+    public DeadlineExceededException(String stage, long userId) {
+        super(String.format("Deadline of stage %s exceeded for user %d", stage, userId), false);
+    }
+}
@@ -0,0 +1,15 @@
+package de.flowsuite.mailboxservice.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(code = HttpStatus.BAD_REQUEST)
+public class InvalidRoutingRuleException extends ProcessingException {
+
+    public InvalidRoutingRuleException(long customerId, int index, String reason) {
+        super(
+                String.format(
+                        "Routing rule %d of customer %d is invalid: %s", index, customerId, reason),
+                false);
+    }
+}
@@ -2,11 +2,10 @@ package de.flowsuite.mailboxservice.exception;
 
 import static de.flowsuite.mailboxservice.mailbox.MailboxService.futuresByUser;
 import static de.flowsuite.mailboxservice.mailbox.MailboxService.tasksByUser;
-import static de.flowsuite.mailboxservice.message.MessageService.blacklistByUser;
-import static de.flowsuite.mailboxservice.message.MessageService.messageCategoriesByUser;
 
 import de.flowsuite.mailboxservice.mailbox.MailboxListenerTask;
 import de.flowsuite.mailboxservice.mailbox.MailboxService;
+import de.flowsuite.mailboxservice.message.MessageConfigCache;
 import de.flowsuite.mailflow.common.entity.User;
 import de.flowsuite.shared.exception.ExceptionManager;
 
@@ -26,10 +25,12 @@ public class MailboxServiceExceptionManager extends ExceptionManager {
     private static final int MAX_RETRY_ATTEMPTS = 3;
 
     private final MailboxService mailboxService;
+    private final MessageConfigCache messageConfigCache;
     private final ScheduledExecutorService retryExecutor;
 
     MailboxServiceExceptionManager(
             @Lazy MailboxService mailboxService,
+            MessageConfigCache messageConfigCache,
             @Value("${spring.application.name}") String applicationName,
             @Value("${mail.username}") String username,
             @Value("${mail.password}") String password,
@@ -37,6 +38,7 @@ public class MailboxServiceExceptionManager extends ExceptionManager {
             @Value("${mail.port}") String port) {
         super(applicationName, username, password, host, port);
         this.mailboxService = mailboxService;
+        this.messageConfigCache = messageConfigCache;
         // TODO this might cause bottlenecks if multiple listeners fail at the same time
         this.retryExecutor =
                 Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "Retry-Executor"));
@@ -60,8 +62,7 @@ public class MailboxServiceExceptionManager extends ExceptionManager {
 
         MailboxListenerTask task = tasksByUser.remove(user.getId());
         Future<Void> future = futuresByUser.remove(user.getId());
-        messageCategoriesByUser.remove(user.getId());
-        blacklistByUser.remove(user.getId());
+        messageConfigCache.invalidate(user);
 
         try {
             mailboxService.terminateMailboxListenerForUser(task, future, user.getId());
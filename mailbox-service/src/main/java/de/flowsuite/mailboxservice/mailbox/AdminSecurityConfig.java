@@ -0,0 +1,33 @@
+package de.flowsuite.mailboxservice.mailbox;
+
+import de.flowsuite.mailflow.common.constant.Authorities;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.annotation.Order;
+import org.springframework.security.config.Customizer;
+import org.springframework.security.config.annotation.web.builders.HttpSecurity;
+import org.springframework.security.config.annotation.web.configurers.AbstractHttpConfigurer;
+import org.springframework.security.config.http.SessionCreationPolicy;
+import org.springframework.security.web.SecurityFilterChain;
+
+/** The introspection endpoints show the mailboxes of all customers and are for admins only. */
+@Configuration
+class AdminSecurityConfig {
+
+    @Bean
+    @Order(2)
+    SecurityFilterChain adminSecurityFilterChain(HttpSecurity http) throws Exception {
+        String adminScope = "SCOPE_" + Authorities.ADMIN.getAuthority();
+
+        return http.securityMatcher("/admin/**")
+                .authorizeHttpRequests(auth -> auth.anyRequest().hasAuthority(adminScope))
+                .oauth2ResourceServer(
+                        resourceServer -> resourceServer.jwt(Customizer.withDefaults()))
+                .sessionManagement(
+                        session -> session.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
+                .csrf(AbstractHttpConfigurer::disable)
+                .formLogin(AbstractHttpConfigurer::disable)
+                .build();
+    }
+}
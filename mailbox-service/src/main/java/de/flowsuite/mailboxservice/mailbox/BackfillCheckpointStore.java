@@ -0,0 +1,86 @@
+package de.flowsuite.mailboxservice.mailbox;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Keeps one checkpoint file per user in the {@code backfill} directory of {@code
+ * mailbox.state-dir}. Files are replaced atomically, so a crash leaves either the previous or the
+ * new checkpoint. The directory is on a volume, so backfills resume after a redeploy.
+ */
+@Component
+class BackfillCheckpointStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BackfillCheckpointStore.class);
+    private static final String SUFFIX = ".json";
+
+    private final Path directory;
+    private final ObjectMapper objectMapper;
+
+    BackfillCheckpointStore(
+            @Value("${mailbox.state-dir}") String stateDirectory, ObjectMapper objectMapper) {
+        this.directory = Path.of(stateDirectory, "backfill");
+        this.objectMapper = objectMapper;
+    }
+
+    Optional<BackfillProgress> load(long userId) {
+        Path file = fileOf(userId);
+        if (!Files.exists(file)) {
+            return Optional.empty();
+        }
+
+        try {
+            return Optional.of(objectMapper.readValue(file.toFile(), BackfillProgress.class));
+        } catch (IOException e) {
+            LOG.warn("Ignoring unreadable backfill checkpoint of user {}", userId, e);
+            return Optional.empty();
+        }
+    }
+
+    List<BackfillProgress> loadAll() {
+        List<BackfillProgress> checkpoints = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return checkpoints;
+        }
+
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.filter(f -> f.toString().endsWith(SUFFIX)).toList()) {
+                try {
+                    checkpoints.add(objectMapper.readValue(file.toFile(), BackfillProgress.class));
+                } catch (IOException e) {
+                    LOG.warn("Ignoring unreadable backfill checkpoint {}", file, e);
+                }
+            }
+        } catch (IOException e) {
+            LOG.warn("Failed to list backfill checkpoints in {}", directory, e);
+        }
+        return checkpoints;
+    }
+
+    void save(BackfillProgress progress) throws IOException {
+        Files.createDirectories(directory);
+        Path file = fileOf(progress.userId());
+        Path temporaryFile = directory.resolve(file.getFileName() + ".tmp");
+        objectMapper.writeValue(temporaryFile.toFile(), progress);
+        Files.move(
+                temporaryFile,
+                file,
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Path fileOf(long userId) {
+        return directory.resolve(userId + SUFFIX);
+    }
+}
@@ -0,0 +1,75 @@
+package de.flowsuite.mailboxservice.mailbox;
+
+import java.time.ZonedDateTime;
+
+/**
+ * Checkpoint of a backfill, written after every batch. UIDs from {@code nextUid} up to {@code
+ * lastUid} are still to be triaged, as long as the UIDVALIDITY of the inbox did not change.
+ */
+public record BackfillProgress(
+        long userId,
+        BackfillRequest request,
+        Status status,
+        long uidValidity,
+        long nextUid,
+        long lastUid,
+        int triaged,
+        int routed,
+        int failed,
+        long tokensUsed,
+        ZonedDateTime updatedAt) {
+
+    public enum Status {
+        RUNNING,
+        STOPPED,
+        BUDGET_EXHAUSTED,
+        FAILED,
+        COMPLETED
+    }
+
+    BackfillProgress withStatus(Status newStatus) {
+        return new BackfillProgress(
+                userId,
+                request,
+                newStatus,
+                uidValidity,
+                nextUid,
+                lastUid,
+                triaged,
+                routed,
+                failed,
+                tokensUsed,
+                ZonedDateTime.now());
+    }
+
+    BackfillProgress withRequest(BackfillRequest newRequest) {
+        return new BackfillProgress(
+                userId,
+                newRequest,
+                status,
+                uidValidity,
+                nextUid,
+                lastUid,
+                triaged,
+                routed,
+                failed,
+                tokensUsed,
+                ZonedDateTime.now());
+    }
+
+    BackfillProgress afterBatch(
+            long newNextUid, int batchTriaged, int batchRouted, int batchFailed, long batchTokens) {
+        return new BackfillProgress(
+                userId,
+                request,
+                status,
+                uidValidity,
+                newNextUid,
+                lastUid,
+                triaged + batchTriaged,
+                routed + batchRouted,
+                failed + batchFailed,
+                tokensUsed + batchTokens,
+                ZonedDateTime.now());
+    }
+}
@@ -0,0 +1,10 @@
+package de.flowsuite.mailboxservice.mailbox;
+
+import java.time.LocalDate;
+
+/**
+ * Window and limits of a backfill. At least one of {@code since} and {@code maxMessages} bounds the
+ * window; with both, the smaller window is used. The limits are optional.
+ */
+public record BackfillRequest(
+        LocalDate since, Integer maxMessages, Integer messagesPerMinute, Long maxTokens) {}
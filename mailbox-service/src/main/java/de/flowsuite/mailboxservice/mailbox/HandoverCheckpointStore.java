@@ -0,0 +1,87 @@
+package de.flowsuite.mailboxservice.mailbox;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.Optional;
+
+/**
+ * Keeps the sync state of each mailbox an instance stopped listening to on shutdown, one file per
+ * user in {@code mailbox.state-dir}. The directory is shared with the next instance (a volume),
+ * which continues from the checkpoint instead of the messages that arrive after it started. A
+ * checkpoint is deleted once it is taken, so it is never applied twice.
+ */
+@Component
+class HandoverCheckpointStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HandoverCheckpointStore.class);
+    private static final String SUFFIX = ".json";
+
+    record Checkpoint(String instanceId, HandoverState state) {}
+
+    private final Path directory;
+    private final ObjectMapper objectMapper;
+
+    HandoverCheckpointStore(
+            @Value("${mailbox.state-dir}") String stateDirectory, ObjectMapper objectMapper) {
+        this.directory = Path.of(stateDirectory, "handover");
+        this.objectMapper = objectMapper;
+    }
+
+    void save(String instanceId, HandoverState state) throws IOException {
+        Files.createDirectories(directory);
+        Path file = fileOf(state.userId());
+        Path temporaryFile = directory.resolve(file.getFileName() + ".tmp");
+        objectMapper.writeValue(temporaryFile.toFile(), new Checkpoint(instanceId, state));
+        Files.move(
+                temporaryFile,
+                file,
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Written by any instance
+    Optional<HandoverState> take(long userId) {
+        return load(userId).map(checkpoint -> delete(userId, checkpoint));
+    }
+
+    // Only written by the given instance, others are left in place
+    Optional<HandoverState> take(long userId, String instanceId) {
+        return load(userId)
+                .filter(checkpoint -> checkpoint.instanceId().equals(instanceId))
+                .map(checkpoint -> delete(userId, checkpoint));
+    }
+
+    private Optional<Checkpoint> load(long userId) {
+        Path file = fileOf(userId);
+        if (!Files.exists(file)) {
+            return Optional.empty();
+        }
+
+        try {
+            return Optional.of(objectMapper.readValue(file.toFile(), Checkpoint.class));
+        } catch (IOException e) {
+            LOG.warn("Ignoring unreadable handover checkpoint of user {}", userId, e);
+            return Optional.empty();
+        }
+    }
+
+    private HandoverState delete(long userId, Checkpoint checkpoint) {
+        try {
+            Files.deleteIfExists(fileOf(userId));
+        } catch (IOException e) {
+            LOG.warn("Failed to delete handover checkpoint of user {}", userId, e);
+        }
+        return checkpoint.state();
+    }
+
+    private Path fileOf(long userId) {
+        return directory.resolve(userId + SUFFIX);
+    }
+}
@@ -0,0 +1,6 @@
+package de.flowsuite.mailboxservice.mailbox;
+
+import java.util.List;
+
+/** Identifies a running mailbox-service instance and the users it listens to. */
+public record HandoverInfo(String instanceId, List<Long> userIds) {}
@@ -0,0 +1,9 @@
+package de.flowsuite.mailboxservice.mailbox;
+
+import java.util.List;
+
+/**
+ * Asks the instance {@code instanceId} to release the mailboxes of the given users. Other instances
+ * the request is routed to refuse it.
+ */
+public record HandoverRequest(String instanceId, List<Long> userIds) {}
@@ -0,0 +1,85 @@
+package de.flowsuite.mailboxservice.mailbox;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.config.annotation.web.builders.HttpSecurity;
+import org.springframework.security.config.annotation.web.configurers.AbstractHttpConfigurer;
+import org.springframework.security.config.http.SessionCreationPolicy;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.security.web.access.intercept.AuthorizationFilter;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * The handover endpoints are called by another mailbox-service instance, which has no token of the
+ * API. They are authenticated with a secret shared by all instances instead and are closed if none
+ * is configured.
+ */
+@Configuration
+class HandoverSecurityConfig {
+
+    static final String HANDOVER_AUTHORITY = "HANDOVER";
+
+    @Bean
+    @Order(1)
+    SecurityFilterChain handoverSecurityFilterChain(
+            HttpSecurity http, @Value("${mailbox.handover.secret:}") String secret)
+            throws Exception {
+        return http.securityMatcher("/handover/**")
+                .authorizeHttpRequests(auth -> auth.anyRequest().hasAuthority(HANDOVER_AUTHORITY))
+                .addFilterBefore(new HandoverSecretFilter(secret), AuthorizationFilter.class)
+                .sessionManagement(
+                        session -> session.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
+                .csrf(AbstractHttpConfigurer::disable)
+                .formLogin(AbstractHttpConfigurer::disable)
+                .build();
+    }
+
+    private static class HandoverSecretFilter extends OncePerRequestFilter {
+
+        private static final String BEARER_PREFIX = "Bearer ";
+
+        private final byte[] secret;
+
+        private HandoverSecretFilter(String secret) {
+            this.secret = secret.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        protected void doFilterInternal(
+                HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+                throws ServletException, IOException {
+            String authorization = request.getHeader(HttpHeaders.AUTHORIZATION);
+            if (secret.length > 0
+                    && authorization != null
+                    && authorization.startsWith(BEARER_PREFIX)
+                    && MessageDigest.isEqual(
+                            secret,
+                            authorization
+                                    .substring(BEARER_PREFIX.length())
+                                    .getBytes(StandardCharsets.UTF_8))) {
+                SecurityContextHolder.getContext()
+                        .setAuthentication(
+                                UsernamePasswordAuthenticationToken.authenticated(
+                                        "mailbox-service",
+                                        null,
+                                        AuthorityUtils.createAuthorityList(HANDOVER_AUTHORITY)));
+            }
+            filterChain.doFilter(request, response);
+        }
+    }
+}
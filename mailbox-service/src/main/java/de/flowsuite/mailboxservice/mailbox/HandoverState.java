@@ -0,0 +1,7 @@
+package de.flowsuite.mailboxservice.mailbox;
+
+/**
+ * Sync state of a mailbox handed over from a stopping instance: every message up to {@code lastUid}
+ * was processed by it, except for the {@code pendingUids} it did not get to.
+ */
+public record HandoverState(long userId, long uidValidity, long lastUid, long[] pendingUids) {}
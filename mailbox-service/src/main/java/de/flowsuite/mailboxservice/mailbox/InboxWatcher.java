@@ -0,0 +1,140 @@
+package de.flowsuite.mailboxservice.mailbox;
+
+import com.sun.mail.iap.ProtocolException;
+import com.sun.mail.iap.Response;
+import com.sun.mail.imap.IMAPFolder;
+import com.sun.mail.imap.protocol.IMAPProtocol;
+import com.sun.mail.imap.protocol.IMAPResponse;
+import com.sun.mail.imap.protocol.MailboxInfo;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.Store;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * IDLE for a large INBOX that is tracked by UID. Opening the folder would size the message cache of
+ * JavaMail to the inbox, so IDLE runs at the protocol level on a connection of its own, which only
+ * EXAMINEs the inbox. New messages are loaded by the listener through the connection of its store.
+ */
+class InboxWatcher {
+
+    static final long POLL_INTERVAL_MS = 15_000;
+    // Servers may end IDLE after 30 minutes without a command
+    static final long IDLE_RENEW_MS = TimeUnit.MINUTES.toMillis(10);
+
+    private record Idle(IMAPProtocol protocol, AtomicBoolean done) {
+        void abort() {
+            if (done.compareAndSet(false, true)) {
+                protocol.idleAbort(); // Sends DONE, the server ends IDLE with its tagged response
+            }
+        }
+    }
+
+    private final Store store;
+    private final IMAPFolder inbox;
+    private final AtomicReference<Idle> idle = new AtomicReference<>();
+    private final AtomicBoolean wakeUpRequested = new AtomicBoolean();
+
+    InboxWatcher(Store store) throws MessagingException {
+        this.store = store;
+        this.inbox = (IMAPFolder) store.getFolder("INBOX");
+    }
+
+    Store store() {
+        return store;
+    }
+
+    /**
+     * Returns once the inbox has a message with a UID of at least {@code uidNext}, its UIDVALIDITY
+     * changed, the watcher was woken up or IDLE has to be renewed. Servers without IDLE are polled.
+     */
+    void await(long uidValidity, long uidNext) throws MessagingException {
+        if (wakeUpRequested.getAndSet(false)) {
+            return;
+        }
+
+        inbox.doCommand(
+                protocol -> {
+                    MailboxInfo info = protocol.examine(inbox.getFullName());
+                    if (info.uidvalidity == uidValidity && info.uidnext <= uidNext) {
+                        if (protocol.hasCapability("IDLE")) {
+                            idle(protocol);
+                        } else {
+                            sleep();
+                        }
+                    }
+                    protocol.close(); // The inbox is read-only, nothing is expunged
+                    return null;
+                });
+    }
+
+    void wakeUp() {
+        wakeUpRequested.set(true);
+        Idle current = idle.get();
+        if (current != null) {
+            current.abort();
+        }
+        synchronized (this) {
+            notifyAll(); // Ends the sleep between polls
+        }
+    }
+
+    void close() throws MessagingException {
+        wakeUp();
+        store.close();
+    }
+
+    private void idle(IMAPProtocol protocol) throws ProtocolException {
+        Idle current = new Idle(protocol, new AtomicBoolean());
+        protocol.idleStart();
+        idle.set(current);
+        try {
+            if (wakeUpRequested.get()) {
+                current.abort();
+            }
+
+            long renewAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(IDLE_RENEW_MS);
+            Response response;
+            while ((response = protocol.readIdleResponse()) != null) {
+                if (isReadTimeout(response)) {
+                    // Nothing arrived within mail.imap.timeout, the connection is still usable
+                    if (System.nanoTime() - renewAt > 0) {
+                        current.abort();
+                    }
+                    continue;
+                }
+                if (!protocol.processIdleResponse(response)) {
+                    break; // Tagged response, IDLE ended
+                }
+                if (response instanceof IMAPResponse imapResponse
+                        && imapResponse.keyEquals("EXISTS")) {
+                    current.abort();
+                }
+            }
+        } finally {
+            idle.set(null);
+        }
+    }
+
+    // Same check as IMAPFolder, which keeps idling after a read timed out without any data
+    private static boolean isReadTimeout(Response response) {
+        return response.isBYE()
+                && response.isSynthetic()
+                && response.getException() instanceof InterruptedIOException e
+                && e.bytesTransferred == 0;
+    }
+
+    private synchronized void sleep() {
+        try {
+            if (!wakeUpRequested.get()) {
+                wait(POLL_INTERVAL_MS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package de.flowsuite.mailboxservice.mailbox;
+
+import java.time.ZonedDateTime;
+import java.util.Map;
+
+/**
+ * State of the mailbox listener of a user as returned by the introspection endpoint. Queue depths
+ * and in-flight messages are read without a lock and may be off by the messages moving between them
+ * at that moment.
+ */
+public record ListenerSnapshot(
+        long userId,
+        boolean listening,
+        State state,
+        ZonedDateTime stateSince,
+        long timeInStateMs,
+        int pendingArrivals,
+        int queuedInteractive,
+        int queuedBulk,
+        int inFlight,
+        ZonedDateTime lastEventAt,
+        int reconnects,
+        String lastFailure,
+        Map<String, long[]> recentStageLatenciesMs) {
+
+    public enum State {
+        STARTING,
+        CONNECTING,
+        IDLE,
+        PROCESSING,
+        RECONNECTING,
+        STOPPED,
+        FAILED
+    }
+}
@@ -0,0 +1,96 @@
+package de.flowsuite.mailboxservice.mailbox;
+
+import static de.flowsuite.mailflow.common.util.Util.BERLIN_ZONE;
+
+import de.flowsuite.mailboxservice.mailbox.ListenerSnapshot.State;
+
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Where the mailbox listener of a user is, for the introspection endpoint. The listener thread and
+ * the processing futures only store into volatile fields and atomics, readers copy them without
+ * taking a lock. The status outlives the listener task, so a listener that failed or is being
+ * retried stays visible, and is reused by the next task of the same user.
+ */
+class ListenerStatus {
+
+    // State and the time it was entered change together
+    private record Position(State state, long sinceMillis) {}
+
+    private final long userId;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger reconnects = new AtomicInteger();
+    private volatile Position position = new Position(State.STARTING, System.currentTimeMillis());
+    private volatile long lastEventMillis;
+    private volatile MessageLanes messageLanes;
+    private volatile String lastFailure;
+
+    ListenerStatus(long userId) {
+        this.userId = userId;
+    }
+
+    // Called by each new listener task of the user
+    void attach(MessageLanes messageLanes) {
+        if (position.state() == State.FAILED) {
+            reconnects.incrementAndGet(); // Retried after a failure
+        }
+        this.messageLanes = messageLanes;
+        enter(State.STARTING);
+    }
+
+    void enter(State state) {
+        if (position.state() != state) {
+            position = new Position(state, System.currentTimeMillis());
+        }
+    }
+
+    void reconnecting() {
+        reconnects.incrementAndGet();
+        enter(State.RECONNECTING);
+    }
+
+    void failed(Exception e) {
+        lastFailure = e.getMessage();
+        enter(State.FAILED);
+    }
+
+    void onEvent() {
+        lastEventMillis = System.currentTimeMillis();
+    }
+
+    void messageStarted() {
+        inFlight.incrementAndGet();
+    }
+
+    void messageFinished() {
+        inFlight.decrementAndGet();
+    }
+
+    ListenerSnapshot snapshot(boolean listening, Map<String, long[]> recentStageLatenciesMs) {
+        Position current = position;
+        MessageLanes lanes = messageLanes;
+        long lastEvent = lastEventMillis;
+        long now = System.currentTimeMillis();
+        return new ListenerSnapshot(
+                userId,
+                listening,
+                current.state(),
+                toZonedDateTime(current.sinceMillis()),
+                now - current.sinceMillis(),
+                lanes != null ? lanes.pendingArrivals() : 0,
+                lanes != null ? lanes.queuedInteractive() : 0,
+                lanes != null ? lanes.queuedBulk() : 0,
+                inFlight.get(),
+                lastEvent > 0 ? toZonedDateTime(lastEvent) : null,
+                reconnects.get(),
+                lastFailure,
+                recentStageLatenciesMs);
+    }
+
+    private static ZonedDateTime toZonedDateTime(long epochMillis) {
+        return ZonedDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), BERLIN_ZONE);
+    }
+}
@@ -0,0 +1,124 @@
+package de.flowsuite.mailboxservice.mailbox;
+
+import com.sun.mail.imap.IMAPFolder;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.mail.MessagingException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.Properties;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * By default JavaMail starts an event queue thread for every store and folder. Sessions configured
+ * by {@link #configure(Properties)} share a single application wide event queue instead, which is
+ * run by the bounded executor of this class. Callbacks must not block that queue, so aborting IDLE
+ * after new messages arrived is handed off to the same executor.
+ */
+@Component
+class MailEventDispatcher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MailEventDispatcher.class);
+
+    static final int EVENT_THREADS = 4;
+    private static final String LEGACY_EVENT_THREAD_NAME = "Jakarta-Mail-EventQueue";
+
+    private final ThreadPoolExecutor eventExecutor;
+    private final Timer callbackTimer;
+    private final Timer idleAbortTimer;
+
+    MailEventDispatcher(MeterRegistry meterRegistry) {
+        AtomicInteger threadCount = new AtomicInteger();
+        this.eventExecutor =
+                new ThreadPoolExecutor(
+                        EVENT_THREADS,
+                        EVENT_THREADS,
+                        0L,
+                        TimeUnit.MILLISECONDS,
+                        new LinkedBlockingQueue<>(),
+                        r -> {
+                            Thread thread =
+                                    new Thread(r, "Mail-Event-" + threadCount.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+
+        Gauge.builder("mailbox.mail.event.threads", eventExecutor, ThreadPoolExecutor::getPoolSize)
+                .description("Threads of the shared JavaMail event executor")
+                .register(meterRegistry);
+        Gauge.builder("mailbox.mail.event.queued", eventExecutor, e -> e.getQueue().size())
+                .description("Tasks waiting for the shared JavaMail event executor")
+                .register(meterRegistry);
+        Gauge.builder(
+                        "mailbox.mail.event.legacy.threads",
+                        MailEventDispatcher::countLegacyEventThreads)
+                .description("JavaMail event threads not using the shared executor")
+                .register(meterRegistry);
+        this.callbackTimer =
+                Timer.builder("mailbox.mail.event.callback")
+                        .description("Time spent in message count callbacks")
+                        .register(meterRegistry);
+        this.idleAbortTimer =
+                Timer.builder("mailbox.mail.event.idle.abort")
+                        .description("Time from a message count callback until IDLE was aborted")
+                        .register(meterRegistry);
+    }
+
+    void configure(Properties properties) {
+        properties.put("mail.event.scope", "application");
+        properties.put("mail.event.executor", eventExecutor);
+    }
+
+    void timeCallback(Runnable callback) {
+        callbackTimer.record(callback);
+    }
+
+    void abortIdle(IMAPFolder inbox, long userId) {
+        Timer.Sample sample = Timer.start();
+        eventExecutor.execute(
+                () -> {
+                    try {
+                        inbox.getMessageCount(); // Abort IDLE mode
+                    } catch (MessagingException e) {
+                        LOG.error("Failed to abort IDLE mode for user {}", userId, e);
+                    } finally {
+                        sample.stop(idleAbortTimer);
+                    }
+                });
+    }
+
+    @PreDestroy
+    void shutdown() {
+        eventExecutor.shutdownNow();
+    }
+
+    // Enumerates the threads without capturing their stacks, which would pause all of them
+    private static int countLegacyEventThreads() {
+        ThreadGroup root = Thread.currentThread().getThreadGroup();
+        while (root.getParent() != null) {
+            root = root.getParent();
+        }
+
+        Thread[] threads = new Thread[root.activeCount() + 16];
+        int enumerated;
+        while ((enumerated = root.enumerate(threads, true)) == threads.length) {
+            threads = new Thread[threads.length * 2]; // More threads started meanwhile
+        }
+
+        int count = 0;
+        for (int i = 0; i < enumerated; i++) {
+            if (LEGACY_EVENT_THREAD_NAME.equals(threads[i].getName())) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,43 @@
+package de.flowsuite.mailboxservice.mailbox;
+
+import de.flowsuite.mailboxservice.exception.InvalidSettingsException;
+import de.flowsuite.mailflow.common.entity.User;
+
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+@RestController
+@RequestMapping("/backfill")
+class MailboxBackfillResource {
+
+    private final MailboxBackfillService mailboxBackfillService;
+
+    MailboxBackfillResource(MailboxBackfillService mailboxBackfillService) {
+        this.mailboxBackfillService = mailboxBackfillService;
+    }
+
+    @PostMapping("/users/{userId}")
+    ResponseEntity<BackfillProgress> startBackfill(
+            @PathVariable long userId, @RequestBody BackfillRequest request)
+            throws InvalidSettingsException {
+        // Only mailboxes this instance is listening to, they have valid settings
+        MailboxListenerTask task = MailboxService.tasksByUser.get(userId);
+        if (task == null) {
+            throw new InvalidSettingsException(userId);
+        }
+
+        User user = task.getUser();
+        return ResponseEntity.accepted().body(mailboxBackfillService.start(user, request));
+    }
+
+    @GetMapping("/users/{userId}")
+    ResponseEntity<BackfillProgress> getBackfill(@PathVariable long userId) {
+        return ResponseEntity.of(mailboxBackfillService.progress(userId));
+    }
+
+    @DeleteMapping("/users/{userId}")
+    ResponseEntity<Void> stopBackfill(@PathVariable long userId) {
+        mailboxBackfillService.stop(userId);
+        return ResponseEntity.noContent().build();
+    }
+}
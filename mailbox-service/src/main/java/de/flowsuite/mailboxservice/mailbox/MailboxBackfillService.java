@@ -0,0 +1,443 @@
+package de.flowsuite.mailboxservice.mailbox;
+
+import static de.flowsuite.mailflow.common.util.Util.BERLIN_ZONE;
+
+import com.sun.mail.imap.IMAPFolder;
+
+import de.flowsuite.mailboxservice.exception.InvalidSettingsException;
+import de.flowsuite.mailboxservice.exception.MailboxException;
+import de.flowsuite.mailboxservice.exception.MailboxServiceExceptionManager;
+import de.flowsuite.mailboxservice.message.BackfillTriage;
+import de.flowsuite.mailboxservice.message.UidInbox;
+import de.flowsuite.mailflow.common.entity.User;
+import de.flowsuite.shared.concurrent.ExecutorFactory;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.mail.*;
+import jakarta.mail.search.ComparisonTerm;
+import jakarta.mail.search.ReceivedDateTerm;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.ZonedDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Triages the messages that were already in the inbox when a mailbox was onboarded, which the
+ * listeners never see. A backfill walks INBOX by UID, from the start of its window (a date, a
+ * number of most recent messages or both) up to the UIDNEXT the listener of the mailbox started
+ * from, since the listener processes everything after it. Each batch is fetched with one command
+ * and handed to {@link BackfillTriage}; answered messages are skipped. Large inboxes are left
+ * closed like the listener leaves them, their window is searched, fetched and moved by UID through
+ * {@link UidInbox}.
+ *
+ * <p>Progress is checkpointed after every batch. A stopped backfill continues where it left off
+ * when it is requested again, one interrupted by a shutdown when the service starts again.
+ */
+@Service
+public class MailboxBackfillService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MailboxBackfillService.class);
+
+    private static class Backfill {
+        private final User user;
+        private volatile BackfillProgress progress;
+        private volatile boolean stopRequested;
+        private Future<?> future;
+
+        private Backfill(User user, BackfillProgress progress) {
+            this.user = user;
+            this.progress = progress;
+        }
+    }
+
+    private final ConcurrentHashMap<Long, Backfill> backfillsByUser = new ConcurrentHashMap<>();
+    private final MailboxConnectionManager mailboxConnectionManager;
+    private final MailboxHandover.Listeners listeners;
+    private final BackfillTriage backfillTriage;
+    private final BackfillCheckpointStore checkpointStore;
+    private final MailboxServiceExceptionManager exceptionManager;
+    private final ExecutorService backfillExecutor;
+    private final int batchSize;
+    private volatile boolean shuttingDown;
+
+    MailboxBackfillService(
+            MailboxConnectionManager mailboxConnectionManager,
+            @Lazy MailboxHandover.Listeners listeners,
+            BackfillTriage backfillTriage,
+            BackfillCheckpointStore checkpointStore,
+            @Lazy MailboxServiceExceptionManager exceptionManager,
+            ExecutorFactory executorFactory,
+            @Value("${mailbox.backfill.batch-size:200}") int batchSize,
+            @Value("${mailbox.backfill.max-concurrent:4}") int maxConcurrent) {
+        this.mailboxConnectionManager = mailboxConnectionManager;
+        this.listeners = listeners;
+        this.backfillTriage = backfillTriage;
+        this.checkpointStore = checkpointStore;
+        this.exceptionManager = exceptionManager;
+        this.batchSize = batchSize;
+        this.backfillExecutor =
+                executorFactory.newMonitorBlockingExecutor(
+                        "Mailbox-Backfill-", () -> Executors.newFixedThreadPool(maxConcurrent));
+    }
+
+    BackfillProgress start(User user, BackfillRequest request) throws InvalidSettingsException {
+        validate(user.getId(), request);
+
+        Backfill running = backfillsByUser.get(user.getId());
+        if (running != null) {
+            LOG.info("Backfill of user {} is already running", user.getId());
+            return running.progress;
+        }
+
+        // An unfinished backfill continues with the new limits, a finished one starts over
+        BackfillProgress progress =
+                checkpointStore
+                        .load(user.getId())
+                        .filter(
+                                checkpoint ->
+                                        checkpoint.status() != BackfillProgress.Status.COMPLETED)
+                        .map(checkpoint -> checkpoint.withRequest(request))
+                        .orElseGet(
+                                () ->
+                                        new BackfillProgress(
+                                                user.getId(),
+                                                request,
+                                                BackfillProgress.Status.RUNNING,
+                                                0,
+                                                0,
+                                                0,
+                                                0,
+                                                0,
+                                                0,
+                                                0,
+                                                ZonedDateTime.now()));
+
+        Backfill backfill =
+                new Backfill(user, progress.withStatus(BackfillProgress.Status.RUNNING));
+        if (backfillsByUser.putIfAbsent(user.getId(), backfill) != null) {
+            return backfillsByUser.get(user.getId()).progress;
+        }
+
+        LOG.info("Starting backfill of user {}", user.getId());
+        synchronized (backfill) {
+            backfill.future = backfillExecutor.submit(() -> run(backfill));
+        }
+        return backfill.progress;
+    }
+
+    Optional<BackfillProgress> progress(long userId) {
+        Backfill running = backfillsByUser.get(userId);
+        if (running != null) {
+            return Optional.of(running.progress);
+        }
+        return checkpointStore.load(userId);
+    }
+
+    void stop(long userId) {
+        Backfill running = backfillsByUser.get(userId);
+        if (running == null) {
+            return;
+        }
+
+        LOG.info("Stopping backfill of user {}", userId);
+        running.stopRequested = true;
+        synchronized (running) {
+            if (running.future != null) {
+                running.future.cancel(true); // Cuts short waiting for the throughput limit
+            }
+        }
+    }
+
+    // Continues backfills that were running when the service was shut down
+    void resumeInterrupted(List<User> users) {
+        Map<Long, User> usersById = new HashMap<>();
+        for (User user : users) {
+            usersById.put(user.getId(), user);
+        }
+
+        for (BackfillProgress checkpoint : checkpointStore.loadAll()) {
+            User user = usersById.get(checkpoint.userId());
+            if (checkpoint.status() != BackfillProgress.Status.RUNNING || user == null) {
+                continue;
+            }
+            try {
+                start(user, checkpoint.request());
+            } catch (InvalidSettingsException e) {
+                exceptionManager.handleException(e);
+            }
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        // Checkpoints stay RUNNING, so the backfills are resumed by the next start
+        shuttingDown = true;
+        backfillExecutor.shutdownNow();
+    }
+
+    private void run(Backfill backfill) {
+        long userId = backfill.user.getId();
+        Thread.currentThread().setName("MailboxBackfillTask-User-" + userId);
+
+        Store store = null;
+        IMAPFolder inbox = null;
+        try {
+            Session session = mailboxConnectionManager.connectToMailbox(backfill.user);
+            store = mailboxConnectionManager.connectToStore(session, backfill.user);
+            inbox = mailboxConnectionManager.openInbox(store, userId);
+            UidInbox uidInbox = inbox.isOpen() ? null : new UidInbox(inbox);
+
+            long uidValidity = inbox.getUIDValidity();
+            if (backfill.progress.uidValidity() != uidValidity) {
+                if (backfill.progress.uidValidity() != 0) {
+                    LOG.warn(
+                            "UIDVALIDITY of INBOX of user {} changed, starting backfill over",
+                            userId);
+                }
+                long endUidNext = listenerStartUidNext(backfill.user, inbox, uidValidity);
+                save(backfill, window(inbox, uidInbox, backfill.progress, uidValidity, endUidNext));
+            }
+
+            triage(backfill, store, inbox, uidInbox);
+        } catch (InterruptedException e) {
+            if (!shuttingDown) {
+                finish(backfill, BackfillProgress.Status.STOPPED);
+            }
+        } catch (Exception e) {
+            if (backfill.stopRequested) {
+                finish(backfill, BackfillProgress.Status.STOPPED);
+            } else if (!shuttingDown) {
+                finish(backfill, BackfillProgress.Status.FAILED);
+                exceptionManager.handleException(
+                        new MailboxException(
+                                String.format("Backfill failed for user %d", userId), e, false));
+            }
+        } finally {
+            if (inbox != null && store != null) {
+                try {
+                    mailboxConnectionManager.disconnect(inbox, store, null, userId);
+                } catch (MessagingException e) {
+                    LOG.debug("Failed to close backfill connection of user {}", userId, e);
+                }
+            }
+            backfillsByUser.remove(userId, backfill);
+        }
+    }
+
+    // Messages of a large inbox are loaded by UID through the given UidInbox, which is null for
+    // an open inbox
+    private void triage(Backfill backfill, Store store, IMAPFolder inbox, UidInbox uidInbox)
+            throws Exception {
+        long userId = backfill.user.getId();
+        BackfillRequest request = backfill.progress.request();
+
+        // A throughput limit also bounds the batches, so messages are not triaged in bursts
+        int effectiveBatchSize =
+                request.messagesPerMinute() != null
+                        ? Math.max(1, Math.min(batchSize, request.messagesPerMinute()))
+                        : batchSize;
+        long startedAtNanos = System.nanoTime();
+        long triagedSinceStart = 0;
+
+        while (backfill.progress.nextUid() <= backfill.progress.lastUid()) {
+            if (backfill.stopRequested) {
+                finish(backfill, BackfillProgress.Status.STOPPED);
+                return;
+            }
+            if (request.maxTokens() != null
+                    && backfill.progress.tokensUsed() >= request.maxTokens()) {
+                LOG.info("Backfill of user {} used up its token budget", userId);
+                finish(backfill, BackfillProgress.Status.BUDGET_EXHAUSTED);
+                return;
+            }
+
+            long firstUid = backfill.progress.nextUid();
+            long lastUid = Math.min(firstUid + effectiveBatchSize - 1, backfill.progress.lastUid());
+            List<Message> unanswered =
+                    uidInbox != null
+                            ? fetchUnanswered(uidInbox, firstUid, lastUid)
+                            : fetchUnanswered(backfill.user, inbox, firstUid, lastUid);
+
+            BackfillTriage.Result result =
+                    unanswered.isEmpty()
+                            ? new BackfillTriage.Result(0, 0, 0, 0)
+                            : backfillTriage.triage(backfill.user, store, inbox, unanswered);
+            save(
+                    backfill,
+                    backfill.progress.afterBatch(
+                            lastUid + 1,
+                            result.triaged(),
+                            result.routed(),
+                            result.failed(),
+                            result.tokensUsed()));
+
+            LOG.debug(
+                    "Backfill of user {} triaged UIDs {} to {} ({} message(s))",
+                    userId,
+                    firstUid,
+                    lastUid,
+                    unanswered.size());
+
+            triagedSinceStart += unanswered.size();
+            pace(request.messagesPerMinute(), startedAtNanos, triagedSinceStart);
+        }
+
+        LOG.info(
+                "Backfill of user {} completed: {} triaged, {} routed by rules, {} failed",
+                userId,
+                backfill.progress.triaged(),
+                backfill.progress.routed(),
+                backfill.progress.failed());
+        finish(backfill, BackfillProgress.Status.COMPLETED);
+    }
+
+    private List<Message> fetchUnanswered(User user, IMAPFolder inbox, long firstUid, long lastUid)
+            throws MessagingException {
+        Message[] messages = inbox.getMessagesByUID(firstUid, lastUid);
+
+        FetchProfile fetchProfile = new FetchProfile();
+        backfillTriage.addFetchItems(user, fetchProfile);
+        inbox.fetch(messages, fetchProfile);
+
+        List<Message> unanswered = new ArrayList<>();
+        for (Message message : messages) {
+            if (message != null
+                    && !message.isExpunged()
+                    && !message.isSet(Flags.Flag.ANSWERED)
+                    && !message.isSet(Flags.Flag.DELETED)) {
+                unanswered.add(message);
+            }
+        }
+        return unanswered;
+    }
+
+    // The server filters by flags, only the remaining messages are fetched
+    private static List<Message> fetchUnanswered(UidInbox uidInbox, long firstUid, long lastUid)
+            throws MessagingException {
+        long[] uids = uidInbox.searchUnanswered(firstUid, lastUid);
+        if (uids.length == 0) {
+            return List.of();
+        }
+        return Arrays.stream(uidInbox.fetchMessages(uids))
+                .filter(Objects::nonNull)
+                .map(Message.class::cast)
+                .toList();
+    }
+
+    // Messages from the UIDNEXT the listener started from on are processed by the listener
+    private long listenerStartUidNext(User user, IMAPFolder inbox, long uidValidity)
+            throws MessagingException {
+        MailboxListenerTask task = listeners.listenerTasks().get(user.getId());
+        if (task != null && !task.isStandby()) {
+            OptionalLong startUidNext = task.startUidNext(uidValidity);
+            if (startUidNext.isPresent()) {
+                return startUidNext.getAsLong();
+            }
+        }
+
+        LOG.warn(
+                "Start of the mailbox listener of user {} is unknown, backfilling up to the last"
+                        + " message",
+                user.getId());
+        return inbox.getUIDNext();
+    }
+
+    private static BackfillProgress window(
+            IMAPFolder inbox,
+            UidInbox uidInbox,
+            BackfillProgress progress,
+            long uidValidity,
+            long endUidNext)
+            throws MessagingException {
+        BackfillRequest request = progress.request();
+        long lastUid = endUidNext - 1;
+        long firstUid = 1;
+
+        if (request.maxMessages() != null) {
+            int messageCount = inbox.getMessageCount();
+            int first = Math.max(1, messageCount - request.maxMessages() + 1);
+            if (messageCount == 0) {
+                firstUid = lastUid + 1;
+            } else if (uidInbox != null) {
+                firstUid = uidInbox.fetchUid(first);
+            } else {
+                firstUid = inbox.getUID(inbox.getMessage(first));
+            }
+        }
+        if (request.since() != null) {
+            Date since = Date.from(request.since().atStartOfDay(BERLIN_ZONE).toInstant());
+            long firstSinceUid;
+            if (uidInbox != null) {
+                long[] found = uidInbox.searchReceivedAfter(new Date(since.getTime() - 1));
+                firstSinceUid = found.length > 0 ? found[0] : lastUid + 1;
+            } else {
+                Message[] found = inbox.search(new ReceivedDateTerm(ComparisonTerm.GE, since));
+                firstSinceUid = found.length > 0 ? inbox.getUID(found[0]) : lastUid + 1;
+            }
+            firstUid = Math.max(firstUid, firstSinceUid);
+        }
+
+        return new BackfillProgress(
+                progress.userId(),
+                request,
+                BackfillProgress.Status.RUNNING,
+                uidValidity,
+                firstUid,
+                lastUid,
+                progress.triaged(),
+                progress.routed(),
+                progress.failed(),
+                progress.tokensUsed(),
+                ZonedDateTime.now());
+    }
+
+    private static void pace(Integer messagesPerMinute, long startedAtNanos, long messages)
+            throws InterruptedException {
+        if (messagesPerMinute == null) {
+            return;
+        }
+
+        long dueAtNanos =
+                startedAtNanos + messages * TimeUnit.MINUTES.toNanos(1) / messagesPerMinute;
+        long waitNanos = dueAtNanos - System.nanoTime();
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    private void save(Backfill backfill, BackfillProgress progress) throws IOException {
+        backfill.progress = progress;
+        checkpointStore.save(progress);
+    }
+
+    private void finish(Backfill backfill, BackfillProgress.Status status) {
+        try {
+            save(backfill, backfill.progress.withStatus(status));
+        } catch (IOException e) {
+            LOG.error("Failed to save backfill checkpoint of user {}", backfill.user.getId(), e);
+        }
+    }
+
+    private static void validate(long userId, BackfillRequest request)
+            throws InvalidSettingsException {
+        if (request == null || (request.since() == null && request.maxMessages() == null)) {
+            throw new InvalidSettingsException(
+                    String.format(
+                            "Backfill of user %d needs a start date or a number of messages",
+                            userId));
+        }
+        if ((request.maxMessages() != null && request.maxMessages() < 1)
+                || (request.messagesPerMinute() != null && request.messagesPerMinute() < 1)
+                || (request.maxTokens() != null && request.maxTokens() < 1)) {
+            throw new InvalidSettingsException(
+                    String.format("Backfill limits of user %d must be positive", userId));
+        }
+    }
+}
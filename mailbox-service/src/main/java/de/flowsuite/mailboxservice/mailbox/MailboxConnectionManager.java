@@ -1,12 +1,19 @@
 package de.flowsuite.mailboxservice.mailbox;
 
 import com.sun.mail.imap.IMAPFolder;
+import com.sun.mail.imap.IMAPMessage;
 
 import de.flowsuite.mailboxservice.exception.MailboxException;
+import de.flowsuite.mailboxservice.message.MessagePipelineEvents;
+import de.flowsuite.mailboxservice.message.MessagePriority;
 import de.flowsuite.mailboxservice.message.MessageService;
+import de.flowsuite.mailboxservice.message.MessageUrgencyScorer;
+import de.flowsuite.mailboxservice.message.RoutingRuleEngine;
+import de.flowsuite.mailboxservice.message.UidInbox;
+import de.flowsuite.mailboxservice.message.UidMessage;
+import de.flowsuite.mailboxservice.message.UserCredentialCache;
 import de.flowsuite.mailflow.common.entity.Settings;
 import de.flowsuite.mailflow.common.entity.User;
-import de.flowsuite.mailflow.common.util.AesUtil;
 
 import jakarta.mail.*;
 import jakarta.mail.event.MessageCountAdapter;
@@ -18,26 +25,48 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
+import java.util.Objects;
 import java.util.Properties;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 @Service
 class MailboxConnectionManager {
 
     private static final Logger LOG = LoggerFactory.getLogger(MailboxConnectionManager.class);
+    static final long PROCESSING_GRACE_MS = 30_000;
 
     private final boolean debug;
+    private final int largeInboxThreshold;
     private final MessageService messageService;
-
-    MailboxConnectionManager(@Value("${mail.debug}") boolean debug, MessageService messageService) {
+    private final MailEventDispatcher mailEventDispatcher;
+    private final MessageUrgencyScorer messageUrgencyScorer;
+    private final UserCredentialCache userCredentialCache;
+    private final RoutingRuleEngine routingRuleEngine;
+
+    MailboxConnectionManager(
+            @Value("${mail.debug}") boolean debug,
+            @Value("${mailbox.large-inbox-threshold:50000}") int largeInboxThreshold,
+            MessageService messageService,
+            MailEventDispatcher mailEventDispatcher,
+            MessageUrgencyScorer messageUrgencyScorer,
+            UserCredentialCache userCredentialCache,
+            RoutingRuleEngine routingRuleEngine) {
         this.debug = debug;
+        this.largeInboxThreshold = largeInboxThreshold;
         this.messageService = messageService;
+        this.mailEventDispatcher = mailEventDispatcher;
+        this.messageUrgencyScorer = messageUrgencyScorer;
+        this.userCredentialCache = userCredentialCache;
+        this.routingRuleEngine = routingRuleEngine;
     }
 
     Session connectToMailbox(User user) throws MailboxException {
@@ -45,6 +74,7 @@ class MailboxConnectionManager {
 
         Settings settings = user.getSettings();
         Properties properties = getProperties(settings);
+        mailEventDispatcher.configure(properties);
 
         Session session = Session.getInstance(properties);
         session.setDebug(debug);
@@ -55,13 +85,6 @@ class MailboxConnectionManager {
         Properties properties = new Properties();
         properties.put("mail.store.protocol", "imap");
 
-        // SMTP properties
-        properties.put("mail.smtp.host", settings.getSmtpHost());
-        properties.put("mail.smtp.port", settings.getSmtpPort());
-        properties.put("mail.smtp.auth", "true");
-        properties.put("mail.smtp.ssl.enable", "true");
-        properties.put("mail.smtp.starttls.enable", "true");
-
         // IMAP properties
         properties.put("mail.imap.host", settings.getImapHost());
         properties.put("mail.imap.port", settings.getImapPort());
@@ -80,30 +103,21 @@ class MailboxConnectionManager {
         LOG.debug("Connecting to store for user {}", user.getId());
 
         Store store = session.getStore("imaps");
-
-        Settings settings = user.getSettings();
-
-        store.connect(
-                settings.getImapHost(),
-                AesUtil.decrypt(user.getEmailAddress()),
-                AesUtil.decrypt(settings.getMailboxPassword()));
-
+        connect(store, user);
         return store;
     }
 
-    Transport connectToTransport(Session session, User user) throws MessagingException {
-        LOG.debug("Connecting to transport for user {}", user.getId());
-
-        Transport transport = session.getTransport("smtps");
-
-        Settings settings = user.getSettings();
-
-        transport.connect(
-                settings.getSmtpHost(),
-                AesUtil.decrypt(user.getEmailAddress()),
-                AesUtil.decrypt(settings.getMailboxPassword()));
+    // IDLE for a large inbox needs a connection of its own, see InboxWatcher
+    InboxWatcher connectWatcher(Session session, User user) throws MessagingException {
+        LOG.debug("Connecting inbox watcher for user {}", user.getId());
+        return new InboxWatcher(connectToStore(session, user));
+    }
 
-        return transport;
+    private void connect(Store store, User user) throws MessagingException {
+        store.connect(
+                user.getSettings().getImapHost(),
+                userCredentialCache.getEmailAddress(user),
+                userCredentialCache.getPassword(user));
     }
 
     IMAPFolder openInbox(Store store, long userId) throws MessagingException, MailboxException {
@@ -121,6 +135,16 @@ class MailboxConnectionManager {
                     String.format("INBOX folder of user %d is not an IMAP folder", userId), true);
         }
 
+        // STATUS works on the closed folder, opening it sizes the message cache to the inbox
+        int messageCount = inbox.getMessageCount();
+        if (messageCount > largeInboxThreshold) {
+            LOG.info(
+                    "INBOX of user {} contains {} messages, tracking it by UID",
+                    userId,
+                    messageCount);
+            return (IMAPFolder) inbox; // Left closed, see listenToMailboxByUid
+        }
+
         inbox.open(Folder.READ_WRITE);
         return (IMAPFolder) inbox;
     }
@@ -128,89 +152,225 @@ class MailboxConnectionManager {
     void listenToMailbox(
             AtomicBoolean listenerActive,
             CountDownLatch idleEnteredLatch,
-            Session session,
             Store store,
             IMAPFolder inbox,
-            BlockingQueue<Message> messageProcessingQueue,
-            User user)
+            MessageLanes messageLanes,
+            ListenerStatus status,
+            AtomicReference<User> user)
             throws MessagingException {
         // Automatically reenter IDLE mode after the connection is closed if listener is active
         while (listenerActive.get() && !Thread.currentThread().isInterrupted()) {
             try {
                 LOG.debug(
                         "Attempting to monitor inbox and manage IDLE mode for user {}.",
-                        user.getId());
+                        user.get().getId());
 
                 if (!inbox.isOpen()) {
-                    LOG.debug("Inbox of user {} is closed, reopening...", user.getId());
+                    LOG.debug("Inbox of user {} is closed, reopening...", user.get().getId());
                     inbox.open(Folder.READ_WRITE);
                 }
 
-                LOG.info("Entering IDLE mode for mailbox of user {}", user.getId());
+                LOG.info("Entering IDLE mode for mailbox of user {}", user.get().getId());
+                status.enter(ListenerSnapshot.State.IDLE);
                 idleEnteredLatch.countDown();
+                MessagePipelineEvents.ImapIdle idleEvent =
+                        new MessagePipelineEvents.ImapIdle(user.get());
+                idleEvent.begin();
                 inbox.idle();
-                LOG.info("Exiting IDLE mode for mailbox of user {}", user.getId());
+                idleEvent.commit();
+                LOG.info("Exiting IDLE mode for mailbox of user {}", user.get().getId());
 
                 // Process messages using individual MailboxListenerTask thread
-                List<Message> messages = new ArrayList<>();
-                messageProcessingQueue.drainTo(messages);
-                processMessages(messages, session, store, inbox, user);
+                processNextBatch(messageLanes, status, store, inbox, null, user.get());
 
                 // Trigger the message count listener to detect new messages and queue them for
-                // processing.
+                // processing. New interactive messages overtake bulk messages still queued.
                 inbox.getMessageCount();
 
-                while (!messageProcessingQueue.isEmpty()) {
-                    messages = new ArrayList<>();
-                    messageProcessingQueue.drainTo(messages);
-                    processMessages(messages, session, store, inbox, user);
+                while (!messageLanes.isEmpty()) {
+                    processNextBatch(messageLanes, status, store, inbox, null, user.get());
                     inbox.getMessageCount();
                 }
             } catch (FolderClosedException e) {
                 LOG.info(
                         "Server closed IMAP connection for user {}. Reason: {}. Trying to reconnect"
                                 + " and reenter IDLE mode...",
-                        user.getId(),
+                        user.get().getId(),
                         e.getMessage());
+                status.reconnecting();
+                new MessagePipelineEvents.ImapReconnect(user.get(), e.getMessage()).commit();
             }
         }
         LOG.info(
                 "Mailbox listener for user {} is stopping. Listener active: {},"
                         + " Thread interrupted: {}",
-                user.getId(),
+                user.get().getId(),
+                listenerActive.get(),
+                Thread.currentThread().isInterrupted());
+    }
+
+    // Keeps large inboxes closed, so memory does not depend on the size of the inbox. IDLE runs on
+    // the connection of the watcher, new messages are found and loaded by UID through the
+    // connection of the store.
+    void listenToMailboxByUid(
+            AtomicBoolean listenerActive,
+            CountDownLatch idleEnteredLatch,
+            Store store,
+            UidInbox inbox,
+            long startUidNext,
+            InboxWatcher watcher,
+            MessageLanes messageLanes,
+            ListenerStatus status,
+            AtomicReference<User> user)
+            throws MessagingException {
+        long uidValidity = inbox.folder().getUIDValidity();
+        long uidNext = startUidNext > 0 ? startUidNext : inbox.folder().getUIDNext();
+        Date lastReceivedDate = receivedDate(inbox, inbox.fetchLastUid());
+
+        LOG.info("Tracking mailbox of user {} by UID, starting at {}", user.get().getId(), uidNext);
+
+        while (listenerActive.get() && !Thread.currentThread().isInterrupted()) {
+            try {
+                if (messageLanes.isEmpty() && !messageLanes.hasHandover()) {
+                    LOG.debug("Entering IDLE mode for mailbox of user {}", user.get().getId());
+                    status.enter(ListenerSnapshot.State.IDLE);
+                    idleEnteredLatch.countDown();
+                    MessagePipelineEvents.ImapIdle idleEvent =
+                            new MessagePipelineEvents.ImapIdle(user.get());
+                    idleEvent.begin();
+                    watcher.await(uidValidity, uidNext);
+                    idleEvent.commit();
+                }
+
+                long[] newUids;
+                long currentUidValidity = inbox.folder().getUIDValidity();
+                if (currentUidValidity != uidValidity) {
+                    // UIDs were reassigned, messages are told apart by the time they arrived
+                    LOG.warn(
+                            "UIDVALIDITY of INBOX of user {} changed, queueing messages received"
+                                    + " after {}",
+                            user.get().getId(),
+                            lastReceivedDate);
+                    uidValidity = currentUidValidity;
+                    uidNext = inbox.fetchLastUid() + 1;
+                    long limit = uidNext;
+                    newUids =
+                            Arrays.stream(inbox.searchReceivedAfter(lastReceivedDate))
+                                    .filter(uid -> uid < limit)
+                                    .toArray();
+                } else {
+                    newUids = inbox.fetchUids(uidNext);
+                }
+
+                if (newUids.length > 0) {
+                    UidMessage[] arrivals = inbox.fetchHeaders(newUids);
+                    status.onEvent();
+                    LOG.info(
+                            "User {} received {} new message(s)",
+                            user.get().getId(),
+                            newUids.length);
+
+                    for (UidMessage arrival : arrivals) {
+                        if (arrival == null) {
+                            continue;
+                        }
+                        uidNext = Math.max(uidNext, arrival.getUid() + 1);
+                        Date receivedDate = arrival.getReceivedDate();
+                        if (receivedDate != null && receivedDate.after(lastReceivedDate)) {
+                            lastReceivedDate = receivedDate;
+                        }
+                    }
+                    messageLanes.addArrivals(
+                            Arrays.stream(arrivals)
+                                    .filter(Objects::nonNull)
+                                    .toArray(Message[]::new));
+                }
+
+                // One batch at a time, new interactive messages overtake bulk messages still
+                // queued
+                processNextBatch(messageLanes, status, store, inbox.folder(), inbox, user.get());
+            } catch (FolderClosedException | StoreClosedException e) {
+                if (!listenerActive.get()) {
+                    break; // Stores were closed by disconnect
+                }
+                LOG.info(
+                        "Server closed IMAP connection for user {}. Reason: {}. Trying to reconnect"
+                                + " and reenter IDLE mode...",
+                        user.get().getId(),
+                        e.getMessage());
+                status.reconnecting();
+                new MessagePipelineEvents.ImapReconnect(user.get(), e.getMessage()).commit();
+                reconnect(store, user.get());
+                reconnect(watcher.store(), user.get());
+            }
+        }
+        LOG.info(
+                "Mailbox listener for user {} is stopping. Listener active: {},"
+                        + " Thread interrupted: {}",
+                user.get().getId(),
                 listenerActive.get(),
                 Thread.currentThread().isInterrupted());
     }
 
+    private void reconnect(Store store, User user) throws MessagingException {
+        if (!store.isConnected()) {
+            connect(store, user);
+        }
+    }
+
+    // Arrival time of the last message, messages after it are new if UIDVALIDITY changes
+    private static Date receivedDate(UidInbox inbox, long uid) throws MessagingException {
+        if (uid > 0) {
+            UidMessage message = inbox.fetchHeaders(new long[] {uid})[0];
+            if (message != null && message.getReceivedDate() != null) {
+                return message.getReceivedDate();
+            }
+        }
+        return new Date();
+    }
+
     void addMessageCountListener(
-            IMAPFolder inbox, User user, BlockingQueue<Message> messageProcessingQueue) {
+            IMAPFolder inbox, User user, MessageLanes messageLanes, ListenerStatus status) {
         LOG.debug("Adding message count listener to inbox of user {}", user.getId());
         inbox.addMessageCountListener(
                 new MessageCountAdapter() {
                     @Override
                     public void messagesAdded(MessageCountEvent messageCountEvent) {
-                        Message[] messages = messageCountEvent.getMessages();
-
-                        LOG.info(
-                                "User {} received {} new message(s)",
-                                user.getId(),
-                                messages.length);
-
-                        // Queue messages for processing
-                        Collections.addAll(messageProcessingQueue, messages);
-
-                        try {
-                            inbox.getMessageCount(); // Abort IDLE mode
-                        } catch (MessagingException e) {
-                            LOG.error("Failed to abort IDLE mode for user {}", user.getId(), e);
-                        }
+                        mailEventDispatcher.timeCallback(
+                                () -> {
+                                    Message[] messages = messageCountEvent.getMessages();
+                                    status.onEvent();
+
+                                    LOG.info(
+                                            "User {} received {} new message(s)",
+                                            user.getId(),
+                                            messages.length);
+
+                                    // Queue messages for processing
+                                    messageLanes.addArrivals(messages);
+
+                                    // Runs on the shared executor, the event queue must not block
+                                    mailEventDispatcher.abortIdle(inbox, user.getId());
+                                });
                     }
                 });
     }
 
-    void disconnect(IMAPFolder inbox, Store store, long userId) throws MessagingException {
+    // Lets the listener thread pick up work without waiting for the next message
+    void wakeUp(IMAPFolder inbox, long userId) {
+        if (inbox.isOpen()) {
+            mailEventDispatcher.abortIdle(inbox, userId);
+        }
+    }
+
+    void disconnect(IMAPFolder inbox, Store store, InboxWatcher watcher, long userId)
+            throws MessagingException {
         LOG.debug("Disconnecting mailbox listener of user {}...", userId);
 
+        if (watcher != null) {
+            watcher.close();
+        }
+
         // Any operation performed on the open inbox will cause the inbox to exit IDLE mode,
         // resulting in the .idle() method returning.
         if (inbox.isOpen()) {
@@ -223,20 +383,177 @@ class MailboxConnectionManager {
         store.close();
     }
 
+    // Messages of a large inbox are loaded by UID through the given UidInbox, which is null for
+    // an open inbox
+    private void processNextBatch(
+            MessageLanes messageLanes,
+            ListenerStatus status,
+            Store store,
+            IMAPFolder inbox,
+            UidInbox uidInbox,
+            User user)
+            throws MessagingException {
+        queueArrivals(messageLanes, inbox, uidInbox, user);
+        processMessages(messageLanes.nextBatch(), status, store, inbox, uidInbox, user);
+    }
+
+    private void queueArrivals(
+            MessageLanes messageLanes, IMAPFolder inbox, UidInbox uidInbox, User user)
+            throws MessagingException {
+        HandoverState handover = messageLanes.takeHandover();
+        if (handover != null) {
+            catchUp(messageLanes, inbox, uidInbox, user, handover);
+        }
+
+        List<Message> arrivals = messageLanes.drainArrivals();
+        if (!arrivals.isEmpty()) {
+            queue(messageLanes, inbox, user, arrivals.toArray(new Message[0]));
+        }
+    }
+
+    // Queues what the previous instance left: the messages it did not get to and everything that
+    // arrived after its last message. Messages that arrived while the handover was pending are
+    // part of the latter and dropped as duplicates afterwards.
+    private void catchUp(
+            MessageLanes messageLanes,
+            IMAPFolder inbox,
+            UidInbox uidInbox,
+            User user,
+            HandoverState handover)
+            throws MessagingException {
+        if (handover.uidValidity() == 0) {
+            return; // Previous instance did not queue any message
+        }
+
+        long uidValidity = inbox.getUIDValidity();
+        if (handover.uidValidity() != uidValidity) {
+            LOG.warn(
+                    "UIDVALIDITY of INBOX of user {} changed during handover, not catching up",
+                    user.getId());
+            return;
+        }
+
+        LOG.info(
+                "Catching up on mailbox of user {} after UID {} ({} pending)",
+                user.getId(),
+                handover.lastUid(),
+                handover.pendingUids().length);
+
+        long[] pendingUids = handover.pendingUids();
+        if (pendingUids.length > 0) {
+            Message[] pending =
+                    uidInbox != null
+                            ? uidInbox.fetchHeaders(pendingUids)
+                            : inbox.getMessagesByUID(pendingUids);
+            queue(messageLanes, inbox, user, pending);
+        }
+        messageLanes.skipUpTo(uidValidity, handover.lastUid());
+        Message[] arrivedSince =
+                uidInbox != null
+                        ? uidInbox.fetchHeaders(uidInbox.fetchUids(handover.lastUid() + 1))
+                        : inbox.getMessagesByUID(handover.lastUid() + 1, UIDFolder.MAXUID);
+        queue(messageLanes, inbox, user, arrivedSince);
+    }
+
+    private void queue(MessageLanes messageLanes, IMAPFolder inbox, User user, Message[] messages)
+            throws MessagingException {
+        List<Message> present = new ArrayList<>(messages.length);
+        for (Message message : messages) {
+            if (message != null) {
+                present.add(message); // UIDs looked up by the handover may no longer exist
+            }
+        }
+        if (present.isEmpty()) {
+            return;
+        }
+        messages = present.toArray(new Message[0]);
+
+        // UIDs and the headers needed for scoring are fetched for all new messages at once,
+        // messages of a large inbox were fetched with them
+        if (!(messages[0] instanceof UidMessage)) {
+            FetchProfile fetchProfile = new FetchProfile();
+            fetchProfile.add(UIDFolder.FetchProfileItem.UID);
+            messageUrgencyScorer.addFetchItems(fetchProfile);
+            inbox.fetch(messages, fetchProfile);
+        }
+
+        long uidValidity = inbox.getUIDValidity();
+        for (Message message : messages) {
+            if (message.isExpunged()) {
+                continue;
+            }
+
+            long uid =
+                    message instanceof UidMessage uidMessage
+                            ? uidMessage.getUid()
+                            : inbox.getUID(message);
+            if (messageLanes.isNew(uidValidity, uid)) {
+                MessagePriority priority = messageUrgencyScorer.score(user, message);
+                messageLanes.add(uidValidity, uid, priority);
+            } else {
+                LOG.debug("Message {} of user {} was queued before", uid, user.getId());
+            }
+
+            // Only the UID stays queued, the headers are loaded again when processing
+            release(message);
+        }
+    }
+
     private void processMessages(
-            List<Message> messages, Session session, Store store, IMAPFolder inbox, User user)
+            List<MessageLanes.QueuedMessage> queuedMessages,
+            ListenerStatus status,
+            Store store,
+            IMAPFolder inbox,
+            UidInbox uidInbox,
+            User user)
             throws MessagingException {
-        LOG.debug("Starting to process {} messages for user {}", messages.size(), user.getId());
+        long uidValidity = inbox.getUIDValidity();
+        List<MessageLanes.QueuedMessage> validMessages = new ArrayList<>();
+        for (MessageLanes.QueuedMessage queuedMessage : queuedMessages) {
+            if (queuedMessage.uidValidity() == uidValidity) {
+                validMessages.add(queuedMessage);
+            } else {
+                LOG.warn(
+                        "Skipping message {} of user {}: UIDVALIDITY of inbox changed",
+                        queuedMessage.uid(),
+                        user.getId());
+            }
+        }
 
-        Transport transport = null;
-        if (user.getSettings().isAutoReplyEnabled()) {
-            transport = connectToTransport(session, user);
+        if (validMessages.isEmpty()) {
+            return;
+        }
+        status.enter(ListenerSnapshot.State.PROCESSING);
+
+        long[] uids = validMessages.stream().mapToLong(MessageLanes.QueuedMessage::uid).toArray();
+        Message[] messages;
+        if (uidInbox != null) {
+            messages = uidInbox.fetchMessages(uids); // Includes everything routing looks at
+        } else {
+            messages = inbox.getMessagesByUID(uids);
+            fetchForRouting(inbox, user, messages);
         }
 
+        LOG.debug("Starting to process {} messages for user {}", messages.length, user.getId());
+
         List<CompletableFuture<Void>> futures = new ArrayList<>();
 
-        for (Message message : messages) {
-            futures.add(messageService.processMessageAsync(message, store, transport, inbox, user));
+        for (int i = 0; i < messages.length; i++) {
+            Message message = messages[i];
+            if (message == null) {
+                continue; // No longer in the inbox
+            }
+
+            status.messageStarted();
+            futures.add(
+                    messageService
+                            .processMessageAsync(
+                                    message, validMessages.get(i).priority(), store, inbox, user)
+                            .whenComplete(
+                                    (result, e) -> {
+                                        status.messageFinished();
+                                        release(message);
+                                    }));
         }
 
         // Wait for all futures to complete
@@ -244,13 +561,43 @@ class MailboxConnectionManager {
                 CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
 
         try {
-            allDone.get(); // Blocking
+            // Every stage of a message has a deadline, this only guards against a stage that
+            // does not return at all
+            allDone.get(
+                    messageService.maxProcessingMs() + PROCESSING_GRACE_MS,
+                    TimeUnit.MILLISECONDS); // Blocking
+        } catch (TimeoutException e) {
+            LOG.warn(
+                    "Stopped waiting for {} message(s) of user {} to be processed",
+                    futures.stream().filter(future -> !future.isDone()).count(),
+                    user.getId());
         } catch (InterruptedException | ExecutionException e) {
             LOG.error("Error while waiting for message processing to complete", e);
         }
+    }
+
+    // Envelopes and headers matched by the routing rules of the customer are fetched for the
+    // whole batch at once
+    private void fetchForRouting(IMAPFolder inbox, User user, Message[] messages)
+            throws MessagingException {
+        FetchProfile fetchProfile = new FetchProfile();
+        routingRuleEngine.addFetchItems(user, fetchProfile);
+        if (fetchProfile.getItems().length == 0) {
+            return;
+        }
+
+        Message[] present =
+                Arrays.stream(messages).filter(Objects::nonNull).toArray(Message[]::new);
+        if (present.length > 0) {
+            inbox.fetch(present, fetchProfile);
+        }
+    }
 
-        if (transport != null) {
-            transport.close();
+    // Drops headers JavaMail cached for the message, so messages left in the inbox do not keep
+    // them for as long as the inbox is open
+    private static void release(Message message) {
+        if (message instanceof IMAPMessage imapMessage) {
+            imapMessage.invalidateHeaders();
         }
     }
 }
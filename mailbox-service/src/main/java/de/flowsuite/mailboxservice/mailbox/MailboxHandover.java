@@ -0,0 +1,308 @@
+package de.flowsuite.mailboxservice.mailbox;
+
+import de.flowsuite.mailboxservice.exception.MailboxException;
+import de.flowsuite.mailboxservice.exception.MailboxServiceExceptionManager;
+import de.flowsuite.mailflow.common.entity.User;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands mailboxes over from the instance that is being replaced. Mailboxes the previous instance is
+ * listening to are started in standby, one slice at a time. Once they are in IDLE, the previous
+ * instance stops its listeners and hands over how far it got, so no message is missed or processed
+ * twice and the providers do not see all logins at once.
+ *
+ * <p>If the previous instance does not release them, the standby listeners stay passive until it is
+ * gone and continue from the checkpoint it wrote on shutdown. Mailboxes that are started without a
+ * previous instance continue from their checkpoint as well.
+ */
+@Component
+class MailboxHandover {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MailboxHandover.class);
+
+    /** The mailbox listeners of this instance. */
+    interface Listeners {
+
+        Map<Long, MailboxListenerTask> listenerTasks();
+
+        // Registers the task once it is in IDLE
+        void startListener(User user, boolean standby) throws MailboxException;
+
+        void removeListener(long userId, MailboxListenerTask task);
+    }
+
+    private final String instanceId = UUID.randomUUID().toString();
+    private final Listeners listeners;
+    private final MailboxHandoverClient client;
+    private final HandoverCheckpointStore checkpointStore;
+    private final MailboxServiceExceptionManager exceptionManager;
+    private final ScheduledExecutorService predecessorWatch;
+    private final int sliceSize;
+    private final long drainTimeoutMs;
+    private final long checkIntervalMs;
+
+    MailboxHandover(
+            @Lazy Listeners listeners,
+            MailboxHandoverClient client,
+            HandoverCheckpointStore checkpointStore,
+            @Lazy MailboxServiceExceptionManager exceptionManager,
+            @Value("${mailbox.handover.slice-size:25}") int sliceSize,
+            @Value("${mailbox.handover.drain-timeout-ms:30000}") long drainTimeoutMs,
+            @Value("${mailbox.handover.check-interval-ms:10000}") long checkIntervalMs) {
+        this.listeners = listeners;
+        this.client = client;
+        this.checkpointStore = checkpointStore;
+        this.exceptionManager = exceptionManager;
+        this.predecessorWatch =
+                Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "Handover-Watch"));
+        this.sliceSize = sliceSize;
+        this.drainTimeoutMs = drainTimeoutMs;
+        this.checkIntervalMs = checkIntervalMs;
+    }
+
+    boolean isInstance(String instanceId) {
+        return this.instanceId.equals(instanceId);
+    }
+
+    void startListeners(List<User> users) {
+        Optional<HandoverInfo> predecessor = client.describePredecessor(instanceId);
+        Set<Long> runningOnPredecessor =
+                predecessor.map(info -> Set.copyOf(info.userIds())).orElse(Set.of());
+
+        List<User> handedOver = new ArrayList<>();
+        List<User> coldStarted = new ArrayList<>();
+        for (User user : users) {
+            if (runningOnPredecessor.contains(user.getId())) {
+                handedOver.add(user);
+            } else {
+                coldStarted.add(user);
+            }
+        }
+
+        if (predecessor.isPresent()) {
+            LOG.info(
+                    "Taking over {} mailbox(es) from instance {}, starting {} mailbox(es)",
+                    handedOver.size(),
+                    predecessor.get().instanceId(),
+                    coldStarted.size());
+        }
+
+        for (int from = 0; from < handedOver.size(); from += sliceSize) {
+            takeOverSlice(
+                    predecessor.get().instanceId(),
+                    handedOver.subList(from, Math.min(from + sliceSize, handedOver.size())));
+        }
+
+        for (User user : coldStarted) {
+            try {
+                Optional<HandoverState> checkpoint = checkpointStore.take(user.getId());
+                if (checkpoint.isEmpty()) {
+                    listeners.startListener(user, false);
+                    continue;
+                }
+
+                LOG.info("Continuing mailbox of user {} from its checkpoint", user.getId());
+                listeners.startListener(user, true);
+                activate(user.getId(), checkpoint.get());
+            } catch (Exception e) {
+                exceptionManager.handleException(e);
+            }
+        }
+    }
+
+    private void takeOverSlice(String predecessorId, List<User> slice) {
+        List<Long> standbyUserIds = new ArrayList<>();
+        for (User user : slice) {
+            try {
+                listeners.startListener(user, true);
+                if (listeners.listenerTasks().containsKey(user.getId())) {
+                    standbyUserIds.add(user.getId());
+                }
+            } catch (Exception e) {
+                exceptionManager.handleException(e);
+            }
+        }
+
+        if (standbyUserIds.isEmpty()) {
+            return;
+        }
+
+        Map<Long, HandoverState> statesByUser = new HashMap<>();
+        try {
+            for (HandoverState state : client.release(predecessorId, standbyUserIds)) {
+                statesByUser.put(state.userId(), state);
+            }
+        } catch (RuntimeException e) {
+            // Both instances would process new messages if the standby listeners started now
+            exceptionManager.handleException(
+                    new MailboxException(
+                            String.format(
+                                    "Failed to take over %d mailbox(es) from instance %s, waiting"
+                                            + " for it to shut down",
+                                    standbyUserIds.size(), predecessorId),
+                            e,
+                            true));
+            schedulePredecessorCheck(predecessorId, standbyUserIds, 0);
+            return;
+        }
+
+        for (long userId : standbyUserIds) {
+            checkpointStore.take(userId); // Older than the state just handed over
+            activate(userId, statesByUser.get(userId)); // None if the predecessor had no listener
+        }
+
+        LOG.info(
+                "Took over {} of {} mailbox(es) from instance {}",
+                statesByUser.size(),
+                standbyUserIds.size(),
+                predecessorId);
+    }
+
+    private void schedulePredecessorCheck(
+            String predecessorId, List<Long> standbyUserIds, long unansweredSinceMillis) {
+        predecessorWatch.schedule(
+                () -> checkPredecessor(predecessorId, standbyUserIds, unansweredSinceMillis),
+                checkIntervalMs,
+                TimeUnit.MILLISECONDS);
+    }
+
+    // A predecessor that shut down leaves the checkpoints of its mailboxes. One that stopped
+    // answering without them crashed, once it would have finished draining.
+    private void checkPredecessor(
+            String predecessorId, List<Long> standbyUserIds, long unansweredSinceMillis) {
+        long now = System.currentTimeMillis();
+        long unansweredSince = unansweredSinceMillis;
+        if (client.isAnswering(predecessorId)) {
+            unansweredSince = 0;
+        } else if (unansweredSince == 0) {
+            unansweredSince = now;
+        }
+        long crashedAfterMs = drainTimeoutMs + MailboxHandoverClient.RESPONSE_MARGIN.toMillis();
+        boolean crashed = unansweredSince != 0 && now - unansweredSince > crashedAfterMs;
+
+        List<Long> waiting = new ArrayList<>();
+        for (long userId : standbyUserIds) {
+            Optional<HandoverState> checkpoint = checkpointStore.take(userId, predecessorId);
+            if (checkpoint.isPresent() || crashed) {
+                LOG.info(
+                        "Instance {} is gone, taking over mailbox of user {}",
+                        predecessorId,
+                        userId);
+                activate(userId, checkpoint.orElse(null));
+            } else {
+                waiting.add(userId);
+            }
+        }
+
+        if (!waiting.isEmpty()) {
+            schedulePredecessorCheck(predecessorId, waiting, unansweredSince);
+        }
+    }
+
+    private void activate(long userId, HandoverState state) {
+        MailboxListenerTask task = listeners.listenerTasks().get(userId);
+        if (task != null) {
+            task.activate(state);
+        }
+    }
+
+    HandoverInfo describe() {
+        List<Long> userIds = new ArrayList<>();
+        listeners
+                .listenerTasks()
+                .forEach(
+                        (userId, task) -> {
+                            if (!task.isStandby()) {
+                                userIds.add(userId);
+                            }
+                        });
+        return new HandoverInfo(instanceId, userIds);
+    }
+
+    // Called by the next instance once its listeners for these users are in IDLE. Standby
+    // listeners are still waiting for another instance to release the mailbox, which keeps it.
+    List<HandoverState> release(List<Long> userIds) {
+        LOG.info("Releasing {} mailbox(es) to the next instance", userIds.size());
+
+        Map<Long, MailboxListenerTask> stoppedTasks = new LinkedHashMap<>();
+        for (long userId : userIds) {
+            MailboxListenerTask task = listeners.listenerTasks().get(userId);
+            if (task != null && !task.isStandby()) {
+                task.stop();
+                stoppedTasks.put(userId, task);
+            }
+        }
+        return drain(stoppedTasks);
+    }
+
+    // Checkpoints the mailboxes for the next instance. Standby listeners have nothing to hand over.
+    void drainForShutdown() {
+        predecessorWatch.shutdownNow();
+
+        Map<Long, MailboxListenerTask> stoppedTasks =
+                new LinkedHashMap<>(listeners.listenerTasks());
+        if (stoppedTasks.isEmpty()) {
+            return;
+        }
+
+        LOG.info("Draining {} mailbox listener(s) before shutdown", stoppedTasks.size());
+
+        Set<Long> standbyUserIds = new HashSet<>();
+        stoppedTasks.forEach(
+                (userId, task) -> {
+                    if (task.isStandby()) {
+                        standbyUserIds.add(userId);
+                    }
+                    task.stop();
+                });
+
+        int checkpoints = 0;
+        for (HandoverState state : drain(stoppedTasks)) {
+            if (standbyUserIds.contains(state.userId()) || state.uidValidity() == 0) {
+                continue; // Nothing was queued, there is no position to continue from
+            }
+            try {
+                checkpointStore.save(instanceId, state);
+                checkpoints++;
+            } catch (IOException e) {
+                LOG.warn(
+                        "Failed to checkpoint mailbox of user {}, {} queued message(s) are not"
+                                + " processed",
+                        state.userId(),
+                        state.pendingUids().length,
+                        e);
+            }
+        }
+        LOG.info("Checkpointed {} mailbox(es) for the next instance", checkpoints);
+    }
+
+    // Gives stopped listeners until the drain timeout to process their queued messages. Messages
+    // still queued afterwards are returned in the sync state instead.
+    private List<HandoverState> drain(Map<Long, MailboxListenerTask> stoppedTasks) {
+        long deadline = System.currentTimeMillis() + drainTimeoutMs;
+
+        List<HandoverState> states = new ArrayList<>();
+        for (Map.Entry<Long, MailboxListenerTask> entry : stoppedTasks.entrySet()) {
+            long userId = entry.getKey();
+            MailboxListenerTask task = entry.getValue();
+
+            if (!task.awaitStopped(Math.max(0, deadline - System.currentTimeMillis()))) {
+                LOG.warn("Mailbox listener of user {} did not drain in time", userId);
+            }
+            states.add(task.checkpoint());
+            listeners.removeListener(userId, task);
+        }
+        return states;
+    }
+}
@@ -0,0 +1,151 @@
+package de.flowsuite.mailboxservice.mailbox;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.client.RestClientException;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Calls the handover endpoints of the instance that is being replaced. During a rolling deploy the
+ * service URL keeps routing to the previous instance until the new one is ready, so it is used
+ * unless another predecessor URL is configured. Handover is disabled without a shared secret.
+ *
+ * <p>The service URL may also route to the calling instance itself, or to another one. Requests are
+ * therefore retried with a growing backoff until the intended instance answers.
+ */
+@Component
+class MailboxHandoverClient {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MailboxHandoverClient.class);
+
+    static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(5);
+    static final Duration RESPONSE_MARGIN = Duration.ofSeconds(15);
+
+    private final RestClient restClient;
+    private final int retryAttempts;
+    private final long retryBackoffMs;
+
+    @Autowired
+    MailboxHandoverClient(
+            @Value("${mailbox.handover.predecessor-url:}") String predecessorUrl,
+            @Value("${mailbox.handover.secret:}") String secret,
+            @Value("${mailbox.handover.drain-timeout-ms:30000}") long drainTimeoutMs,
+            @Value("${mailbox.handover.retry-attempts:5}") int retryAttempts,
+            @Value("${mailbox.handover.retry-backoff-ms:2000}") long retryBackoffMs) {
+        this(
+                createRestClient(predecessorUrl, secret, drainTimeoutMs),
+                retryAttempts,
+                retryBackoffMs);
+    }
+
+    MailboxHandoverClient(RestClient restClient, int retryAttempts, long retryBackoffMs) {
+        this.restClient = restClient;
+        this.retryAttempts = retryAttempts;
+        this.retryBackoffMs = retryBackoffMs;
+    }
+
+    private static RestClient createRestClient(
+            String predecessorUrl, String secret, long drainTimeoutMs) {
+        if (predecessorUrl.isBlank() || secret.isBlank()) {
+            return null;
+        }
+
+        // Releasing mailboxes waits for the previous instance to drain them
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(CONNECT_TIMEOUT);
+        requestFactory.setReadTimeout(Duration.ofMillis(drainTimeoutMs).plus(RESPONSE_MARGIN));
+
+        return RestClient.builder()
+                .baseUrl(predecessorUrl)
+                .requestFactory(requestFactory)
+                .defaultHeader(HttpHeaders.AUTHORIZATION, "Bearer " + secret)
+                .build();
+    }
+
+    // Another instance than the calling one, if any answers
+    Optional<HandoverInfo> describePredecessor(String ownInstanceId) {
+        if (restClient == null) {
+            return Optional.empty();
+        }
+
+        for (int attempt = 1; attempt <= retryAttempts; attempt++) {
+            HandoverInfo info;
+            try {
+                info = restClient.get().uri("/handover").retrieve().body(HandoverInfo.class);
+            } catch (RestClientException e) {
+                LOG.info("No previous instance to take over from: {}", e.getMessage());
+                return Optional.empty();
+            }
+
+            if (info != null && !info.instanceId().equals(ownInstanceId)) {
+                return Optional.of(info);
+            }
+            LOG.debug("Instance answered itself for previous instance, attempt {}", attempt);
+            if (!backOff(attempt)) {
+                break;
+            }
+        }
+
+        LOG.info("No previous instance to take over from: Only this instance answered");
+        return Optional.empty();
+    }
+
+    boolean isAnswering(String instanceId) {
+        try {
+            HandoverInfo info =
+                    restClient.get().uri("/handover").retrieve().body(HandoverInfo.class);
+            return info != null && info.instanceId().equals(instanceId);
+        } catch (RestClientException e) {
+            return false;
+        }
+    }
+
+    List<HandoverState> release(String instanceId, List<Long> userIds) {
+        LOG.debug(
+                "Requesting release of {} mailbox(es) from instance {}",
+                userIds.size(),
+                instanceId);
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                List<HandoverState> states =
+                        restClient
+                                .post()
+                                .uri("/handover/release")
+                                .body(new HandoverRequest(instanceId, userIds))
+                                .retrieve()
+                                .body(new ParameterizedTypeReference<>() {});
+                return states != null ? states : List.of();
+            } catch (HttpClientErrorException.Conflict e) {
+                LOG.debug("Another instance than {} answered, attempt {}", instanceId, attempt);
+                if (!backOff(attempt)) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private boolean backOff(int attempt) {
+        if (attempt >= retryAttempts) {
+            return false;
+        }
+        try {
+            Thread.sleep(retryBackoffMs << (attempt - 1));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
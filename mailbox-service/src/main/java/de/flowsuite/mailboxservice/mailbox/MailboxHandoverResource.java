@@ -0,0 +1,43 @@
+package de.flowsuite.mailboxservice.mailbox;
+
+import de.flowsuite.mailboxservice.exception.MailboxServiceExceptionManager;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/handover")
+class MailboxHandoverResource {
+
+    private final MailboxHandover mailboxHandover;
+    private final MailboxServiceExceptionManager exceptionManager;
+
+    MailboxHandoverResource(
+            MailboxHandover mailboxHandover, MailboxServiceExceptionManager exceptionManager) {
+        this.mailboxHandover = mailboxHandover;
+        this.exceptionManager = exceptionManager;
+    }
+
+    @GetMapping
+    ResponseEntity<HandoverInfo> describe() {
+        return ResponseEntity.ok(mailboxHandover.describe());
+    }
+
+    @PostMapping("/release")
+    ResponseEntity<List<HandoverState>> release(@RequestBody HandoverRequest request) {
+        if (!mailboxHandover.isInstance(request.instanceId())) {
+            // Routed to another instance than the one that was described
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
+
+        try {
+            return ResponseEntity.ok(mailboxHandover.release(request.userIds()));
+        } catch (Exception e) {
+            exceptionManager.handleException(e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package de.flowsuite.mailboxservice.mailbox;
+
+import static de.flowsuite.mailboxservice.mailbox.MailboxService.tasksByUser;
+
+import de.flowsuite.mailboxservice.message.StageLatencies;
+
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the {@link ListenerStatus} of every user a listener was started for and turns them into
+ * snapshots on request. All the work of rendering happens here, on the thread of the request.
+ */
+@Component
+class MailboxIntrospection {
+
+    private final ConcurrentHashMap<Long, ListenerStatus> statusByUser = new ConcurrentHashMap<>();
+    private final StageLatencies stageLatencies;
+
+    MailboxIntrospection(StageLatencies stageLatencies) {
+        this.stageLatencies = stageLatencies;
+    }
+
+    ListenerStatus statusOf(long userId) {
+        return statusByUser.computeIfAbsent(userId, ListenerStatus::new);
+    }
+
+    List<ListenerSnapshot> snapshots() {
+        return statusByUser.keySet().stream()
+                .sorted()
+                .map(this::snapshot)
+                .flatMap(Optional::stream)
+                .toList();
+    }
+
+    Optional<ListenerSnapshot> snapshot(long userId) {
+        ListenerStatus status = statusByUser.get(userId);
+        if (status == null) {
+            return Optional.empty();
+        }
+        return Optional.of(
+                status.snapshot(
+                        tasksByUser.containsKey(userId), stageLatencies.recentMillis(userId)));
+    }
+}
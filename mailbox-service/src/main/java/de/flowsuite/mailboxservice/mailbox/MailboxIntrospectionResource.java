@@ -0,0 +1,27 @@
+package de.flowsuite.mailboxservice.mailbox;
+
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/admin/mailboxes")
+class MailboxIntrospectionResource {
+
+    private final MailboxIntrospection mailboxIntrospection;
+
+    MailboxIntrospectionResource(MailboxIntrospection mailboxIntrospection) {
+        this.mailboxIntrospection = mailboxIntrospection;
+    }
+
+    @GetMapping
+    ResponseEntity<List<ListenerSnapshot>> listMailboxes() {
+        return ResponseEntity.ok(mailboxIntrospection.snapshots());
+    }
+
+    @GetMapping("/users/{userId}")
+    ResponseEntity<ListenerSnapshot> getMailbox(@PathVariable long userId) {
+        return ResponseEntity.of(mailboxIntrospection.snapshot(userId));
+    }
+}
@@ -6,6 +6,7 @@ import com.sun.mail.imap.IMAPFolder;
 
 import de.flowsuite.mailboxservice.exception.MailboxException;
 import de.flowsuite.mailboxservice.exception.MailboxServiceExceptionManager;
+import de.flowsuite.mailboxservice.message.UidInbox;
 import de.flowsuite.mailflow.common.entity.User;
 
 import jakarta.mail.*;
@@ -13,6 +14,7 @@ import jakarta.mail.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.OptionalLong;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
@@ -22,33 +24,56 @@ public class MailboxListenerTask implements Callable<Void> {
     private static final Logger LOG = LoggerFactory.getLogger(MailboxListenerTask.class);
     static final long DELAY_MS = 1000;
 
-    private final User user;
+    private final AtomicReference<User> user;
     private final MailboxConnectionManager mailboxConnectionManager;
     private final MailboxServiceExceptionManager exceptionManager;
     private final boolean shouldDelayStart;
     private final CountDownLatch idleEnteredLatch = new CountDownLatch(1);
     private final AtomicBoolean listenerActive = new AtomicBoolean(false);
+    private final AtomicBoolean stopRequested = new AtomicBoolean(false);
+    private final CountDownLatch stoppedLatch = new CountDownLatch(1);
 
     private final AtomicReference<Session> session = new AtomicReference<>(null);
     private final AtomicReference<Store> store = new AtomicReference<>(null);
     private final AtomicReference<IMAPFolder> inbox = new AtomicReference<>(null);
+    private final AtomicReference<InboxWatcher> watcher = new AtomicReference<>(null);
 
-    private final BlockingQueue<Message> messageProcessingQueue = new LinkedBlockingQueue<>();
+    private final MessageLanes messageLanes;
+    private final ListenerStatus status;
+
+    // Messages from this UID on are processed by the listener, older ones only by a backfill
+    private volatile long startUidValidity;
+    private volatile long startUidNext = -1;
 
     MailboxListenerTask(
             User user,
             MailboxConnectionManager mailboxConnectionManager,
             MailboxServiceExceptionManager exceptionManager,
+            ListenerStatus status,
             boolean shouldDelayStart) {
-        this.user = user;
+        this(user, mailboxConnectionManager, exceptionManager, status, shouldDelayStart, false);
+    }
+
+    // A standby listener enters IDLE, but holds new messages back until it is activated
+    MailboxListenerTask(
+            User user,
+            MailboxConnectionManager mailboxConnectionManager,
+            MailboxServiceExceptionManager exceptionManager,
+            ListenerStatus status,
+            boolean shouldDelayStart,
+            boolean standby) {
+        this.user = new AtomicReference<>(user);
         this.mailboxConnectionManager = mailboxConnectionManager;
         this.exceptionManager = exceptionManager;
         this.shouldDelayStart = shouldDelayStart;
+        this.messageLanes = new MessageLanes(standby);
+        this.status = status;
+        status.attach(messageLanes);
     }
 
     @Override
     public Void call() {
-        Thread.currentThread().setName("MailboxListenerTask-User-" + user.getId());
+        Thread.currentThread().setName("MailboxListenerTask-User-" + user.get().getId());
 
         LOG.debug("Started new thread: {}", Thread.currentThread().getName());
 
@@ -56,7 +81,7 @@ public class MailboxListenerTask implements Callable<Void> {
             try {
                 LOG.debug(
                         "Delaying mailbox listener start for user {} by {} seconds",
-                        user.getId(),
+                        user.get().getId(),
                         (double) DELAY_MS / 1000);
                 Thread.sleep(DELAY_MS);
             } catch (InterruptedException e) {
@@ -66,39 +91,71 @@ public class MailboxListenerTask implements Callable<Void> {
                                 String.format(
                                         "Mailbox listener thread was interrupted during sleep for"
                                                 + " user %d",
-                                        user.getId()),
+                                        user.get().getId()),
                                 e,
                                 false);
                 exceptionManager.handleException(mailboxException);
-                exceptionManager.handleMailboxListenerFailure(user, mailboxException);
+                exceptionManager.handleMailboxListenerFailure(user.get(), mailboxException);
             }
         }
 
         try {
-            session.set(mailboxConnectionManager.connectToMailbox(user));
-            store.set(mailboxConnectionManager.connectToStore(session.get(), user));
-            inbox.set(mailboxConnectionManager.openInbox(store.get(), user.getId()));
-
-            mailboxConnectionManager.addMessageCountListener(
-                    inbox.get(), user, messageProcessingQueue);
+            status.enter(ListenerSnapshot.State.CONNECTING);
+            session.set(mailboxConnectionManager.connectToMailbox(user.get()));
+            store.set(mailboxConnectionManager.connectToStore(session.get(), user.get()));
+            inbox.set(mailboxConnectionManager.openInbox(store.get(), user.get().getId()));
+            startUidValidity = inbox.get().getUIDValidity();
+            startUidNext = inbox.get().getUIDNext();
 
             listenerActive.set(true);
-            mailboxConnectionManager.listenToMailbox(
-                    listenerActive,
-                    idleEnteredLatch,
-                    session.get(),
-                    store.get(),
-                    inbox.get(),
-                    messageProcessingQueue,
-                    user);
+            if (inbox.get().isOpen()) {
+                mailboxConnectionManager.addMessageCountListener(
+                        inbox.get(), user.get(), messageLanes, status);
+                mailboxConnectionManager.listenToMailbox(
+                        listenerActive,
+                        idleEnteredLatch,
+                        store.get(),
+                        inbox.get(),
+                        messageLanes,
+                        status,
+                        user);
+            } else {
+                // Large inboxes are left closed and tracked by UID
+                watcher.set(mailboxConnectionManager.connectWatcher(session.get(), user.get()));
+                if (stopRequested.get()) {
+                    return null; // Stopped while connecting, the watcher is closed in finally
+                }
+                mailboxConnectionManager.listenToMailboxByUid(
+                        listenerActive,
+                        idleEnteredLatch,
+                        store.get(),
+                        new UidInbox(inbox.get()),
+                        startUidNext,
+                        watcher.get(),
+                        messageLanes,
+                        status,
+                        user);
+            }
         } catch (MessagingException | MailboxException e) {
+            if (stopRequested.get()) {
+                LOG.debug("Mailbox listener of user {} stopped", user.get().getId(), e);
+                return null;
+            }
             MailboxException mailboxException =
                     new MailboxException(
-                            String.format("Mailbox listener task failed for user %d", user.getId()),
+                            String.format(
+                                    "Mailbox listener task failed for user %d", user.get().getId()),
                             e,
                             false);
+            status.failed(e);
             exceptionManager.handleException(mailboxException);
-            exceptionManager.handleMailboxListenerFailure(user, mailboxException);
+            exceptionManager.handleMailboxListenerFailure(user.get(), mailboxException);
+        } finally {
+            if (stopRequested.get()) {
+                closeConnection();
+                status.enter(ListenerSnapshot.State.STOPPED);
+            }
+            stoppedLatch.countDown();
         }
 
         return null;
@@ -123,23 +180,94 @@ public class MailboxListenerTask implements Callable<Void> {
 
     void disconnect() throws MailboxException {
         try {
+            stopRequested.set(true);
             listenerActive.set(false);
             if (hasEnteredImapIdleMode()) {
-                mailboxConnectionManager.disconnect(inbox.get(), store.get(), user.getId());
+                mailboxConnectionManager.disconnect(
+                        inbox.get(), store.get(), watcher.get(), user.get().getId());
             } else {
                 throw new MailboxException(
                         String.format(
                                 "Failed to disconnect: IMAP IDLE mode was not entered for user %s",
-                                user.getId()),
+                                user.get().getId()),
                         true);
             }
         } catch (MessagingException e) {
             throw new MailboxException(
-                    String.format("Failed to disconnect user %s", user.getId()), e, false);
+                    String.format("Failed to disconnect user %s", user.get().getId()), e, false);
+        }
+    }
+
+    // Starts processing a standby listener, catching up on the messages after the handover state
+    void activate(HandoverState handover) {
+        if (handover != null
+                && handover.uidValidity() != 0
+                && handover.uidValidity() == startUidValidity) {
+            startUidNext = Math.min(startUidNext, handover.lastUid() + 1); // Caught up from there
         }
+        messageLanes.resume(handover);
+        wakeUp();
+    }
+
+    boolean isStandby() {
+        return messageLanes.isHolding();
+    }
+
+    // Empty if the inbox did not report its UIDNEXT or the UIDs were reassigned since
+    OptionalLong startUidNext(long uidValidity) {
+        long uidNext = startUidNext;
+        return uidNext > 0 && startUidValidity == uidValidity
+                ? OptionalLong.of(uidNext)
+                : OptionalLong.empty();
+    }
+
+    // Stops IDLE, the listener finishes the messages it has queued before it returns
+    void stop() {
+        stopRequested.set(true);
+        listenerActive.set(false);
+        wakeUp();
+    }
+
+    boolean awaitStopped(long timeoutMs) {
+        try {
+            return stoppedLatch.await(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    // Must be called after stop(). Messages still queued are returned instead of being processed.
+    HandoverState checkpoint() {
+        return messageLanes.checkpoint(user.get().getId());
+    }
+
+    private void wakeUp() {
+        if (watcher.get() != null) {
+            watcher.get().wakeUp();
+        } else if (inbox.get() != null) {
+            mailboxConnectionManager.wakeUp(inbox.get(), user.get().getId());
+        }
+    }
+
+    private void closeConnection() {
+        if (inbox.get() == null || store.get() == null) {
+            return;
+        }
+        try {
+            mailboxConnectionManager.disconnect(
+                    inbox.get(), store.get(), watcher.get(), user.get().getId());
+        } catch (MessagingException e) {
+            LOG.debug("Failed to close connection of user {}", user.get().getId(), e);
+        }
+    }
+
+    // Settings that do not affect the connection are picked up with the next batch of messages
+    void updateUser(User updatedUser) {
+        user.set(updatedUser);
     }
 
     public User getUser() {
-        return user;
+        return user.get();
     }
 }
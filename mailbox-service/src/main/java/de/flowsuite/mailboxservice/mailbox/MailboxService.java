@@ -2,12 +2,19 @@ package de.flowsuite.mailboxservice.mailbox;
 
 import de.flowsuite.mailboxservice.exception.MailboxException;
 import de.flowsuite.mailboxservice.exception.MailboxServiceExceptionManager;
+import de.flowsuite.mailboxservice.message.MessageConfigCache;
+import de.flowsuite.mailboxservice.message.OutboundMailQueue;
+import de.flowsuite.mailboxservice.message.UserCredentialCache;
 import de.flowsuite.mailflow.common.client.ApiClient;
 import de.flowsuite.mailflow.common.entity.Customer;
+import de.flowsuite.mailflow.common.entity.Settings;
 import de.flowsuite.mailflow.common.entity.User;
 import de.flowsuite.mailflow.common.exception.IdConflictException;
 import de.flowsuite.mailflow.common.util.AesUtil;
 import de.flowsuite.mailflow.common.util.Util;
+import de.flowsuite.shared.concurrent.ExecutorFactory;
+
+import jakarta.annotation.PreDestroy;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -17,12 +24,11 @@ import org.springframework.context.event.EventListener;
 import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Service;
 
-import java.util.Arrays;
-import java.util.List;
+import java.util.*;
 import java.util.concurrent.*;
 
 @Service
-public class MailboxService {
+public class MailboxService implements MailboxHandover.Listeners {
 
     // spotless:off
     private static final Logger LOG = LoggerFactory.getLogger(MailboxService.class);
@@ -38,6 +44,12 @@ public class MailboxService {
     private final MailboxConnectionManager mailboxConnectionManager;
     private final ExecutorService mailboxExecutor;
     private final MailboxServiceExceptionManager exceptionManager;
+    private final MessageConfigCache messageConfigCache;
+    private final OutboundMailQueue outboundMailQueue;
+    private final UserCredentialCache userCredentialCache;
+    private final MailboxHandover mailboxHandover;
+    private final MailboxBackfillService mailboxBackfillService;
+    private final MailboxIntrospection mailboxIntrospection;
     private final Environment environment;
     // spotless:on
 
@@ -45,11 +57,27 @@ public class MailboxService {
             ApiClient apiClient,
             MailboxConnectionManager mailboxConnectionManager,
             @Lazy MailboxServiceExceptionManager exceptionManager,
+            MessageConfigCache messageConfigCache,
+            OutboundMailQueue outboundMailQueue,
+            UserCredentialCache userCredentialCache,
+            MailboxHandover mailboxHandover,
+            MailboxBackfillService mailboxBackfillService,
+            MailboxIntrospection mailboxIntrospection,
+            ExecutorFactory executorFactory,
             Environment environment) {
         this.apiClient = apiClient;
         this.mailboxConnectionManager = mailboxConnectionManager;
-        this.mailboxExecutor = Executors.newCachedThreadPool();
+        // Listener threads block in IDLE while holding JavaMail monitors
+        this.mailboxExecutor =
+                executorFactory.newMonitorBlockingExecutor(
+                        "Mailbox-Listener-", Executors::newCachedThreadPool);
         this.exceptionManager = exceptionManager;
+        this.messageConfigCache = messageConfigCache;
+        this.outboundMailQueue = outboundMailQueue;
+        this.userCredentialCache = userCredentialCache;
+        this.mailboxHandover = mailboxHandover;
+        this.mailboxBackfillService = mailboxBackfillService;
+        this.mailboxIntrospection = mailboxIntrospection;
         this.environment = environment;
     }
 
@@ -68,20 +96,43 @@ public class MailboxService {
 
         LOG.info("Received {} users from API", users.size());
 
-        for (User user : users) {
-            try {
-                startMailboxListenerForUser(user);
-            } catch (Exception e) {
-                exceptionManager.handleException(e);
-            }
-        }
+        // Loads asynchronously, so the first message of each customer does not wait for the API
+        messageConfigCache.prewarm(users);
+
+        mailboxHandover.startListeners(users);
+
+        mailboxBackfillService.resumeInterrupted(users);
+    }
+
+    @PreDestroy
+    void drainMailboxListeners() {
+        mailboxHandover.drainForShutdown();
+    }
+
+    @Override
+    public Map<Long, MailboxListenerTask> listenerTasks() {
+        return tasksByUser;
+    }
+
+    @Override
+    public void startListener(User user, boolean standby) throws MailboxException {
+        startMailboxListenerForUser(user, false, standby);
+    }
+
+    @Override
+    public void removeListener(long userId, MailboxListenerTask task) {
+        tasksByUser.remove(userId, task);
+        futuresByUser.remove(userId);
+        outboundMailQueue.closeConnections(userId);
+        userCredentialCache.invalidate(userId);
     }
 
     public void startMailboxListenerForUser(User user) throws MailboxException {
-        startMailboxListenerForUser(user, false);
+        startMailboxListenerForUser(user, false, false);
     }
 
-    void startMailboxListenerForUser(User user, boolean shouldDelayStart) throws MailboxException {
+    void startMailboxListenerForUser(User user, boolean shouldDelayStart, boolean standby)
+            throws MailboxException {
         LOG.info("Starting mailbox listener for user {}", user.getId());
 
         if (user.getSettings() == null) {
@@ -136,7 +187,12 @@ public class MailboxService {
 
         MailboxListenerTask task =
                 new MailboxListenerTask(
-                        user, mailboxConnectionManager, exceptionManager, shouldDelayStart);
+                        user,
+                        mailboxConnectionManager,
+                        exceptionManager,
+                        mailboxIntrospection.statusOf(user.getId()),
+                        shouldDelayStart,
+                        standby);
 
         if (customer != null
                 && customer.isTestVersion()
@@ -195,7 +251,7 @@ public class MailboxService {
     }
 
     void onUserUpdated(long userId, User updatedUser) throws MailboxException {
-        LOG.info("Restarting mailbox listener for user {} due to update", updatedUser.getId());
+        LOG.info("Received update for user {}", updatedUser.getId());
 
         if (!updatedUser.getId().equals(userId)) {
             throw new IdConflictException();
@@ -205,10 +261,41 @@ public class MailboxService {
         Future<Void> future = futuresByUser.get(updatedUser.getId());
 
         if (task != null && future != null) {
+            if (!requiresReconnect(task.getUser(), updatedUser)) {
+                LOG.info(
+                        "Updating mailbox listener for user {} without reconnecting",
+                        updatedUser.getId());
+                task.updateUser(updatedUser);
+                return;
+            }
+
+            LOG.info("Restarting mailbox listener for user {} due to update", updatedUser.getId());
             terminateMailboxListenerForUser(task, future, updatedUser.getId());
         }
 
-        startMailboxListenerForUser(updatedUser, true);
+        startMailboxListenerForUser(updatedUser, true, false);
+    }
+
+    // Only changes to how the mailbox is accessed need a new connection
+    private boolean requiresReconnect(User runningUser, User updatedUser) {
+        if (Boolean.TRUE.equals(testVersionByCustomer.get(runningUser.getCustomerId()))) {
+            return true; // Running with the credentials of the test version
+        }
+
+        Settings running = runningUser.getSettings();
+        Settings updated = updatedUser.getSettings();
+        if (running == null || updated == null) {
+            return true;
+        }
+
+        return !Objects.equals(runningUser.getCustomerId(), updatedUser.getCustomerId())
+                || !Objects.equals(runningUser.getEmailAddress(), updatedUser.getEmailAddress())
+                || !Objects.equals(running.getMailboxPassword(), updated.getMailboxPassword())
+                || !Objects.equals(running.getImapHost(), updated.getImapHost())
+                || !Objects.equals(running.getImapPort(), updated.getImapPort())
+                || !Objects.equals(running.getSmtpHost(), updated.getSmtpHost())
+                || !Objects.equals(running.getSmtpPort(), updated.getSmtpPort())
+                || running.isExecutionEnabled() != updated.isExecutionEnabled();
     }
 
     void onCustomerTestVersionUpdated(long customerId, boolean testVersion)
@@ -259,7 +346,9 @@ public class MailboxService {
 
         try {
             future.get(TIMEOUT_MS, TimeUnit.MILLISECONDS); // Wait for task to fully finish
-        } catch (CancellationException | TimeoutException e) {
+        } catch (CancellationException e) {
+            // Expected after cancelling a running task
+        } catch (TimeoutException e) {
             throw new MailboxException(
                     String.format(
                             "Mailbox listener for user %d did not terminate cleanly in time",
@@ -273,10 +362,14 @@ public class MailboxService {
                             userId),
                     e,
                     false);
-        }
+        } finally {
+            tasksByUser.remove(userId);
+            futuresByUser.remove(userId);
 
-        tasksByUser.remove(userId);
-        futuresByUser.remove(userId);
+            // Pooled SMTP connections may still use the old credentials
+            outboundMailQueue.closeConnections(userId);
+            userCredentialCache.invalidate(userId);
+        }
 
         LOG.info("Mailbox listener for user {} fully terminated successfully", userId);
     }
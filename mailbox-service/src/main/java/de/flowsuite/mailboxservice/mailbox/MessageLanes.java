@@ -0,0 +1,183 @@
+package de.flowsuite.mailboxservice.mailbox;
+
+import de.flowsuite.mailboxservice.message.MessagePriority;
+
+import jakarta.mail.Message;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Messages of a mailbox waiting to be processed. The message count listener adds new messages, the
+ * listener thread scores them and sorts them into an interactive and a bulk lane, which only keep
+ * the UIDs of the messages until they are processed. Batches are taken from the interactive lane
+ * first, but include at least {@link #MIN_BULK_PER_BATCH} bulk messages if there are any, so bulk
+ * mail keeps moving while conversations are answered.
+ *
+ * <p>UIDs are assigned in ascending order, so a UID not above the highest one queued so far has
+ * already been queued and is dropped. During a handover the lanes of the new listener hold new
+ * messages back until the sync state of the previous instance arrives, and the lanes of the old
+ * listener are closed by {@link #checkpoint()}.
+ */
+class MessageLanes {
+
+    static final int BATCH_SIZE = 16;
+    static final int MIN_BULK_PER_BATCH = 2;
+
+    record QueuedMessage(long uidValidity, long uid, MessagePriority priority) {}
+
+    private final Queue<Message> arrivals = new ConcurrentLinkedQueue<>();
+
+    // Guarded by this, a handover reads them from another thread
+    private final UidRingBuffer interactive = new UidRingBuffer();
+    private final UidRingBuffer bulk = new UidRingBuffer();
+    private long uidValidity;
+    private long highestUid;
+    private boolean holding;
+    private boolean closed;
+    private HandoverState handover;
+
+    // Published for the introspection endpoint, which reads them without the lock
+    private volatile int queuedInteractive;
+    private volatile int queuedBulk;
+
+    MessageLanes(boolean holding) {
+        this.holding = holding;
+    }
+
+    void addArrivals(Message[] messages) {
+        Collections.addAll(arrivals, messages);
+    }
+
+    synchronized List<Message> drainArrivals() {
+        if (holding || closed) {
+            return List.of();
+        }
+
+        List<Message> messages = new ArrayList<>();
+        Message message;
+        while ((message = arrivals.poll()) != null) {
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    synchronized boolean isNew(long uidValidity, long uid) {
+        return uidValidity != this.uidValidity || uid > highestUid;
+    }
+
+    synchronized void add(long uidValidity, long uid, MessagePriority priority) {
+        if (closed || !isNew(uidValidity, uid)) {
+            return;
+        }
+        this.uidValidity = uidValidity;
+        this.highestUid = uid;
+
+        if (priority == MessagePriority.BULK) {
+            bulk.add(uidValidity, uid);
+        } else {
+            interactive.add(uidValidity, uid);
+        }
+        publishDepths();
+    }
+
+    // Messages up to the given UID were handled by the previous instance
+    synchronized void skipUpTo(long uidValidity, long uid) {
+        if (uidValidity != this.uidValidity) {
+            this.uidValidity = uidValidity;
+            this.highestUid = 0;
+        }
+        highestUid = Math.max(highestUid, uid);
+    }
+
+    synchronized void resume(HandoverState handover) {
+        this.handover = handover;
+        this.holding = false;
+    }
+
+    synchronized boolean isHolding() {
+        return holding;
+    }
+
+    // Returns the sync state handed over by the previous instance, once
+    synchronized HandoverState takeHandover() {
+        HandoverState taken = handover;
+        handover = null;
+        return taken;
+    }
+
+    synchronized boolean hasHandover() {
+        return handover != null;
+    }
+
+    /**
+     * Closes the lanes and returns the sync state for the next instance: the highest UID queued and
+     * the UIDs still waiting in the lanes, which are dropped here. Messages already being processed
+     * are finished by this instance.
+     */
+    synchronized HandoverState checkpoint(long userId) {
+        closed = true;
+
+        long[] pendingUids = new long[interactive.size() + bulk.size()];
+        int count = 0;
+        for (UidRingBuffer lane : List.of(interactive, bulk)) {
+            while (!lane.isEmpty()) {
+                boolean valid = lane.peekUidValidity() == uidValidity;
+                long uid = lane.poll();
+                if (valid) {
+                    pendingUids[count++] = uid;
+                }
+            }
+        }
+        publishDepths();
+        long[] validPendingUids = Arrays.copyOf(pendingUids, count);
+        Arrays.sort(validPendingUids);
+
+        return new HandoverState(userId, uidValidity, highestUid, validPendingUids);
+    }
+
+    synchronized List<QueuedMessage> nextBatch() {
+        int bulkCount =
+                Math.max(
+                        Math.min(bulk.size(), MIN_BULK_PER_BATCH), BATCH_SIZE - interactive.size());
+        int interactiveCount = Math.min(interactive.size(), BATCH_SIZE - bulkCount);
+        bulkCount = Math.min(bulkCount, bulk.size());
+
+        List<QueuedMessage> batch = new ArrayList<>(interactiveCount + bulkCount);
+        poll(interactive, interactiveCount, MessagePriority.INTERACTIVE, batch);
+        poll(bulk, bulkCount, MessagePriority.BULK, batch);
+        publishDepths();
+        return batch;
+    }
+
+    synchronized boolean isEmpty() {
+        boolean noArrivals = holding || closed || arrivals.isEmpty();
+        return noArrivals && interactive.isEmpty() && bulk.isEmpty();
+    }
+
+    // Walks the queue, but only the introspection endpoint asks
+    int pendingArrivals() {
+        return arrivals.size();
+    }
+
+    int queuedInteractive() {
+        return queuedInteractive;
+    }
+
+    int queuedBulk() {
+        return queuedBulk;
+    }
+
+    private void publishDepths() {
+        queuedInteractive = interactive.size();
+        queuedBulk = bulk.size();
+    }
+
+    private static void poll(
+            UidRingBuffer lane, int count, MessagePriority priority, List<QueuedMessage> batch) {
+        for (int i = 0; i < count; i++) {
+            long uidValidity = lane.peekUidValidity();
+            batch.add(new QueuedMessage(uidValidity, lane.poll(), priority));
+        }
+    }
+}
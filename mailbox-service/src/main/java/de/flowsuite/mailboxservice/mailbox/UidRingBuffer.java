@@ -0,0 +1,63 @@
+package de.flowsuite.mailboxservice.mailbox;
+
+import java.util.NoSuchElementException;
+
+/**
+ * FIFO queue of (UIDVALIDITY, UID) pairs backed by a single {@code long[]}, so a backlog of queued
+ * messages costs 16 bytes per message instead of a cached {@code IMAPMessage}. Not thread safe.
+ */
+class UidRingBuffer {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private long[] entries = new long[INITIAL_CAPACITY * 2];
+    private int head;
+    private int size;
+
+    void add(long uidValidity, long uid) {
+        if (size * 2 == entries.length) {
+            grow();
+        }
+
+        int tail = (head + size * 2) % entries.length;
+        entries[tail] = uidValidity;
+        entries[tail + 1] = uid;
+        size++;
+    }
+
+    long peekUidValidity() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        return entries[head];
+    }
+
+    // Removes the oldest pair and returns its UID
+    long poll() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+
+        long uid = entries[head + 1];
+        head = (head + 2) % entries.length;
+        size--;
+        return uid;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    private void grow() {
+        long[] grown = new long[entries.length * 2];
+        int firstPart = entries.length - head;
+        System.arraycopy(entries, head, grown, 0, firstPart);
+        System.arraycopy(entries, 0, grown, firstPart, head);
+        entries = grown;
+        head = 0;
+    }
+}
@@ -0,0 +1,128 @@
+package de.flowsuite.mailboxservice.message;
+
+import java.util.*;
+
+/**
+ * Finds all occurrences of a fixed set of patterns in a single pass over the text. The trie of the
+ * patterns is built once, with failure links to the longest proper suffix that is also a trie node
+ * and output links to the next suffix that ends a pattern. Transitions of a node are stored as
+ * sorted arrays, so the compiled matcher holds no boxed characters.
+ */
+class AhoCorasickMatcher {
+
+    interface MatchListener {
+        void onMatch(int pattern, int endIndex);
+    }
+
+    private static final int ROOT = 0;
+    private static final int NONE = -1;
+
+    private final char[][] transitionChars;
+    private final int[][] transitionTargets;
+    private final int[] failure;
+    private final int[] pattern;
+    private final int[] outputLink;
+
+    AhoCorasickMatcher(List<String> patterns) {
+        List<TreeMap<Character, Integer>> children = new ArrayList<>();
+        List<Integer> patternByNode = new ArrayList<>();
+        children.add(new TreeMap<>());
+        patternByNode.add(NONE);
+
+        for (int i = 0; i < patterns.size(); i++) {
+            String p = patterns.get(i);
+            if (p.isEmpty()) {
+                throw new IllegalArgumentException("Patterns must not be empty");
+            }
+
+            int node = ROOT;
+            for (int j = 0; j < p.length(); j++) {
+                Integer next = children.get(node).get(p.charAt(j));
+                if (next == null) {
+                    next = children.size();
+                    children.add(new TreeMap<>());
+                    patternByNode.add(NONE);
+                    children.get(node).put(p.charAt(j), next);
+                }
+                node = next;
+            }
+            if (patternByNode.get(node) == NONE) {
+                patternByNode.set(node, i); // Duplicates report the first index
+            }
+        }
+
+        int nodes = children.size();
+        this.transitionChars = new char[nodes][];
+        this.transitionTargets = new int[nodes][];
+        this.failure = new int[nodes];
+        this.pattern = new int[nodes];
+        this.outputLink = new int[nodes];
+
+        for (int node = 0; node < nodes; node++) {
+            TreeMap<Character, Integer> transitions = children.get(node);
+            transitionChars[node] = new char[transitions.size()];
+            transitionTargets[node] = new int[transitions.size()];
+            int k = 0;
+            for (Map.Entry<Character, Integer> transition : transitions.entrySet()) {
+                transitionChars[node][k] = transition.getKey();
+                transitionTargets[node][k] = transition.getValue();
+                k++;
+            }
+            pattern[node] = patternByNode.get(node);
+        }
+
+        // Breadth first, so the failure target of a node is complete before its children
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        failure[ROOT] = ROOT;
+        outputLink[ROOT] = NONE;
+        for (int child : transitionTargets[ROOT]) {
+            failure[child] = ROOT;
+            outputLink[child] = NONE;
+            queue.add(child);
+        }
+
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            for (int k = 0; k < transitionChars[node].length; k++) {
+                char c = transitionChars[node][k];
+                int child = transitionTargets[node][k];
+
+                int fallback = failure[node];
+                while (fallback != ROOT && next(fallback, c) == NONE) {
+                    fallback = failure[fallback];
+                }
+                int target = next(fallback, c);
+                failure[child] = target != NONE && target != child ? target : ROOT;
+                outputLink[child] =
+                        pattern[failure[child]] != NONE
+                                ? failure[child]
+                                : outputLink[failure[child]];
+                queue.add(child);
+            }
+        }
+    }
+
+    void match(CharSequence text, MatchListener listener) {
+        int node = ROOT;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            int target = next(node, c);
+            while (target == NONE && node != ROOT) {
+                node = failure[node];
+                target = next(node, c);
+            }
+            node = target != NONE ? target : ROOT;
+
+            for (int output = pattern[node] != NONE ? node : outputLink[node];
+                    output != NONE;
+                    output = outputLink[output]) {
+                listener.onMatch(pattern[output], i);
+            }
+        }
+    }
+
+    private int next(int node, char c) {
+        int index = Arrays.binarySearch(transitionChars[node], c);
+        return index >= 0 ? transitionTargets[node][index] : NONE;
+    }
+}
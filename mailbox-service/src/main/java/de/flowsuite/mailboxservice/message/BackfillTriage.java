@@ -0,0 +1,206 @@
+package de.flowsuite.mailboxservice.message;
+
+import static de.flowsuite.mailflow.common.util.Util.BERLIN_ZONE;
+
+import com.sun.mail.imap.IMAPFolder;
+import com.sun.mail.imap.IMAPMessage;
+
+import de.flowsuite.mailboxservice.exception.ProcessingException;
+import de.flowsuite.mailboxservice.message.MessageDeadlines.Stage;
+import de.flowsuite.mailflow.common.dto.CategorisationResponse;
+import de.flowsuite.mailflow.common.entity.BlacklistEntry;
+import de.flowsuite.mailflow.common.entity.MessageCategory;
+import de.flowsuite.mailflow.common.entity.User;
+import de.flowsuite.shared.messagelog.MessageLogWriter;
+
+import jakarta.mail.FetchProfile;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Store;
+import jakarta.mail.internet.MimeMessage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.ZonedDateTime;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Categorises and files messages that were in the inbox before the mailbox was onboarded. Unlike
+ * live processing no replies are generated, messages are only moved to the folders of their
+ * categories with one MOVE per folder. Categorisations run in the bulk lane of the {@link
+ * LlmWorkScheduler}, a limited number at a time, so their deadline is not used up while queued and
+ * live messages of the customer keep their share.
+ */
+@Component
+public class BackfillTriage {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BackfillTriage.class);
+
+    public record Result(int triaged, int routed, int failed, long tokensUsed) {}
+
+    private record Categorisation(
+            MimeMessage message, CompletableFuture<CategorisationResponse> response) {}
+
+    private final MessageService messageService;
+    private final MessageConfigCache messageConfigCache;
+    private final RoutingRuleEngine routingRuleEngine;
+    private final MessageDeadlines messageDeadlines;
+    private final MessageLogWriter messageLogWriter;
+    private final int maxConcurrentCategorisations;
+
+    BackfillTriage(
+            MessageService messageService,
+            MessageConfigCache messageConfigCache,
+            RoutingRuleEngine routingRuleEngine,
+            MessageDeadlines messageDeadlines,
+            MessageLogWriter messageLogWriter,
+            @Value("${mailbox.backfill.max-concurrent-categorisations:4}")
+                    int maxConcurrentCategorisations) {
+        this.messageService = messageService;
+        this.messageConfigCache = messageConfigCache;
+        this.routingRuleEngine = routingRuleEngine;
+        this.messageDeadlines = messageDeadlines;
+        this.messageLogWriter = messageLogWriter;
+        this.maxConcurrentCategorisations = maxConcurrentCategorisations;
+    }
+
+    // Everything needed to filter and route a batch, fetched with one command
+    public void addFetchItems(User user, FetchProfile fetchProfile) {
+        fetchProfile.add(FetchProfile.Item.ENVELOPE);
+        fetchProfile.add(FetchProfile.Item.FLAGS);
+        routingRuleEngine.addFetchItems(user, fetchProfile);
+    }
+
+    public Result triage(User user, Store store, IMAPFolder inbox, List<Message> messages)
+            throws MessagingException, ProcessingException, InterruptedException {
+        List<MessageCategory> categories = messageConfigCache.getMessageCategories(user);
+        Set<String> blacklist = new HashSet<>();
+        for (BlacklistEntry entry : messageConfigCache.getBlacklist(user)) {
+            blacklist.add(entry.getBlacklistedEmailAddress().toLowerCase());
+        }
+
+        Semaphore permits = new Semaphore(maxConcurrentCategorisations);
+        List<Categorisation> categorisations = new ArrayList<>();
+        List<Message> failedMessages = new ArrayList<>();
+        int routed = 0;
+
+        for (Message message : messages) {
+            MimeMessage originalMessage = (MimeMessage) message;
+            if (originalMessage instanceof IMAPMessage imapMessage) {
+                imapMessage.setPeek(true); // Messages of a large inbox are fetched with PEEK
+            }
+
+            if (blacklist.contains(MessageUtil.extractFromEmailAddress(originalMessage))) {
+                continue;
+            }
+
+            MessageCategory messageCategory =
+                    categories.size() == 1
+                            ? categories.get(0)
+                            : routingRuleEngine.route(user, originalMessage, categories);
+            if (messageCategory != null) {
+                if (categories.size() > 1) {
+                    routed++;
+                }
+                categorisations.add(
+                        new Categorisation(
+                                originalMessage,
+                                CompletableFuture.completedFuture(
+                                        new CategorisationResponse(
+                                                messageCategory, null, null, null, null))));
+                continue;
+            }
+
+            String text;
+            try {
+                text = MessageUtil.getCleanedText(originalMessage);
+            } catch (IOException e) {
+                LOG.warn("Failed to read message of user {}: {}", user.getId(), e.getMessage());
+                failedMessages.add(originalMessage);
+                continue;
+            }
+
+            // Bodies of the next messages are read while earlier ones are categorised
+            permits.acquire();
+            CompletableFuture<Void> dispatched = new CompletableFuture<>();
+            CompletableFuture<CategorisationResponse> response =
+                    messageDeadlines.withinCall(
+                            Stage.CATEGORISE,
+                            user,
+                            dispatched,
+                            messageService.categoriseMessageAsync(
+                                    user, MessagePriority.BULK, text, categories, dispatched));
+            response.whenComplete((result, e) -> permits.release());
+            categorisations.add(new Categorisation(originalMessage, response));
+        }
+
+        Map<String, List<Message>> messagesByFolder = new LinkedHashMap<>();
+        int triaged = 0;
+        long tokensUsed = 0;
+
+        for (Categorisation categorisation : categorisations) {
+            CategorisationResponse response;
+            try {
+                response = categorisation.response().join();
+            } catch (CompletionException e) {
+                LOG.warn(
+                        "Failed to categorise message of user {}: {}",
+                        user.getId(),
+                        e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+                response = null;
+            }
+
+            if (response == null || response.getMessageCategory() == null) {
+                failedMessages.add(categorisation.message());
+                continue;
+            }
+
+            triaged++;
+            if (response.getTotalTokens() != null) {
+                tokensUsed += response.getTotalTokens();
+            }
+
+            // Read before moving, the message is expunged from the inbox afterwards
+            MimeMessage originalMessage = categorisation.message();
+            MessageCategory messageCategory = response.getMessageCategory();
+            messageLogWriter.write(
+                    user.getCustomerId(),
+                    user.getId(),
+                    MessageUtil.extractFromEmailAddress(originalMessage),
+                    originalMessage.getSubject(),
+                    ZonedDateTime.ofInstant(
+                            originalMessage.getReceivedDate().toInstant(), BERLIN_ZONE),
+                    response,
+                    null,
+                    messageCategory);
+
+            if (!MessageService.isDefaultOrNoReplyCategory(messageCategory)) {
+                messagesByFolder
+                        .computeIfAbsent(messageCategory.getCategory(), name -> new ArrayList<>())
+                        .add(originalMessage);
+            }
+        }
+
+        for (Map.Entry<String, List<Message>> entry : messagesByFolder.entrySet()) {
+            IMAPFolder targetFolder = FolderUtil.getFolderByName(store, entry.getKey());
+            if (targetFolder == null) {
+                targetFolder = FolderUtil.createFolderByName(store, entry.getKey());
+            }
+            FolderUtil.moveToFolder(entry.getValue().toArray(new Message[0]), inbox, targetFolder);
+        }
+
+        if (!failedMessages.isEmpty()) {
+            FolderUtil.moveToManualReviewFolder(
+                    user, failedMessages.toArray(new Message[0]), store, inbox);
+        }
+
+        return new Result(triaged, routed, failedMessages.size(), tokensUsed);
+    }
+}
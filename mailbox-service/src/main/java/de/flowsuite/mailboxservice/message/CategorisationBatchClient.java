@@ -0,0 +1,47 @@
+package de.flowsuite.mailboxservice.message;
+
+import de.flowsuite.shared.categorisation.CategorisationBatchRequest;
+import de.flowsuite.shared.categorisation.CategorisationBatchResponse;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClient;
+
+import java.time.Duration;
+
+/**
+ * Calls the batch categorisation endpoint of llm-service, which the llm-service client of
+ * mailflow-common does not cover, with the access token of this client. The request is sent on the
+ * calling thread and aborted when it is interrupted.
+ */
+@Component
+public class CategorisationBatchClient {
+
+    private final RestClient restClient;
+
+    CategorisationBatchClient(
+            @Value("${mailflow.llm-service.base-url}") String baseUrl,
+            @Value("${mailbox.processing.deadline.categorise-ms:30000}") long categoriseMs,
+            ClientTokenProvider tokenProvider,
+            RestClient.Builder restClientBuilder) {
+        JdkClientHttpRequestFactory requestFactory = new JdkClientHttpRequestFactory();
+        requestFactory.setReadTimeout(Duration.ofMillis(categoriseMs));
+
+        this.restClient =
+                restClientBuilder
+                        .baseUrl(baseUrl)
+                        .requestFactory(requestFactory)
+                        .requestInterceptor(tokenProvider.interceptor())
+                        .build();
+    }
+
+    public CategorisationBatchResponse categorise(CategorisationBatchRequest request) {
+        return restClient
+                .post()
+                .uri("/categorisation/batch")
+                .body(request)
+                .retrieve()
+                .body(CategorisationBatchResponse.class);
+    }
+}
@@ -0,0 +1,311 @@
+package de.flowsuite.mailboxservice.message;
+
+import de.flowsuite.mailflow.common.client.LlmServiceClient;
+import de.flowsuite.mailflow.common.dto.CategorisationRequest;
+import de.flowsuite.mailflow.common.dto.CategorisationResponse;
+import de.flowsuite.mailflow.common.entity.MessageCategory;
+import de.flowsuite.mailflow.common.entity.User;
+import de.flowsuite.shared.categorisation.CategorisationBatchRequest;
+import de.flowsuite.shared.categorisation.CategorisationBatchResponse;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import jakarta.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Categorises messages through llm-service, collecting the messages of a customer for up to {@code
+ * llm.categorisation.batch.window} and sending up to {@code llm.categorisation.batch.max-size} of
+ * them in one batch call, so a burst or backfill sends the system prompt and categories once
+ * instead of once per message. A lone message is categorised with a single call as before. A batch
+ * call is dispatched by the {@link LlmWorkScheduler} like any other call, its cost is that of its
+ * messages. Messages left out of a failed batch call are categorised one by one, and if llm-service
+ * does not offer batch categorisation, batching is turned off until the next start. The {@code
+ * dispatched} future of a message completes once its first call starts.
+ */
+@Component
+class CategorisationBatcher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CategorisationBatcher.class);
+
+    private record Pending(
+            User user,
+            MessagePriority priority,
+            String text,
+            CompletableFuture<Void> dispatched,
+            CompletableFuture<CategorisationResponse> future) {}
+
+    private static class Batch {
+        private final long customerId;
+        private final List<MessageCategory> categories;
+        private final List<Pending> pending = new ArrayList<>();
+        private ScheduledFuture<?> flush;
+
+        private Batch(long customerId, List<MessageCategory> categories) {
+            this.customerId = customerId;
+            this.categories = categories;
+        }
+    }
+
+    private final int maxSize;
+    private final long windowNanos;
+    private final LlmServiceClient llmServiceClient;
+    private final CategorisationBatchClient categorisationBatchClient;
+    private final LlmWorkScheduler llmWorkScheduler;
+    private final ScheduledExecutorService timer;
+    private final DistributionSummary batchSizes;
+    private final Counter fallbacks;
+    private volatile boolean enabled;
+
+    // Guarded by this
+    private final Map<Long, Batch> batchesByCustomer = new HashMap<>();
+
+    CategorisationBatcher(
+            @Value("${llm.categorisation.batch.max-size:10}") int maxSize,
+            @Value("${llm.categorisation.batch.window:PT0.1S}") Duration window,
+            LlmServiceClient llmServiceClient,
+            CategorisationBatchClient categorisationBatchClient,
+            LlmWorkScheduler llmWorkScheduler,
+            MeterRegistry meterRegistry) {
+        this.maxSize = maxSize;
+        this.windowNanos = window.toNanos();
+        this.llmServiceClient = llmServiceClient;
+        this.categorisationBatchClient = categorisationBatchClient;
+        this.llmWorkScheduler = llmWorkScheduler;
+        this.enabled = maxSize > 1;
+
+        this.timer =
+                Executors.newSingleThreadScheduledExecutor(
+                        r -> {
+                            Thread thread = new Thread(r, "Categorisation-Batcher");
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+
+        this.batchSizes =
+                DistributionSummary.builder("mailbox.llm.categorisation.batch.size")
+                        .description("Messages per batch categorisation call")
+                        .register(meterRegistry);
+        this.fallbacks =
+                Counter.builder("mailbox.llm.categorisation.batch.fallbacks")
+                        .description("Messages categorised one by one after a failed batch call")
+                        .register(meterRegistry);
+
+        if (enabled) {
+            LOG.info("Batching up to {} categorisations per customer for {}", maxSize, window);
+        }
+    }
+
+    CompletableFuture<CategorisationResponse> categorise(
+            User user,
+            MessagePriority priority,
+            String text,
+            List<MessageCategory> categories,
+            CompletableFuture<Void> dispatched) {
+        if (!enabled) {
+            return categoriseOne(user, priority, text, categories, dispatched);
+        }
+
+        CompletableFuture<CategorisationResponse> future = new CompletableFuture<>();
+        List<Batch> ready = new ArrayList<>(2);
+        synchronized (this) {
+            long customerId = user.getCustomerId();
+            Batch batch = batchesByCustomer.get(customerId);
+            if (batch != null && !batch.categories.equals(categories)) {
+                // Categories changed meanwhile, a batch has only one set of them
+                ready.add(take(batch));
+                batch = null;
+            }
+            if (batch == null) {
+                Batch newBatch = new Batch(customerId, categories);
+                newBatch.flush =
+                        timer.schedule(() -> flush(newBatch), windowNanos, TimeUnit.NANOSECONDS);
+                batchesByCustomer.put(customerId, newBatch);
+                batch = newBatch;
+            }
+            batch.pending.add(new Pending(user, priority, text, dispatched, future));
+            if (batch.pending.size() >= maxSize) {
+                ready.add(take(batch));
+            }
+        }
+
+        ready.forEach(this::send);
+        return future;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        timer.shutdownNow();
+    }
+
+    private void flush(Batch batch) {
+        synchronized (this) {
+            if (!batchesByCustomer.remove(batch.customerId, batch)) {
+                return; // Already sent once full
+            }
+        }
+        send(batch);
+    }
+
+    // Guarded by this
+    private Batch take(Batch batch) {
+        batchesByCustomer.remove(batch.customerId);
+        batch.flush.cancel(false);
+        return batch;
+    }
+
+    private void send(Batch batch) {
+        // Messages given up on while waiting for the batch are left out
+        List<Pending> pending = batch.pending.stream().filter(p -> !p.future().isDone()).toList();
+        if (pending.isEmpty()) {
+            return;
+        }
+        if (pending.size() == 1) {
+            categoriseOne(pending.get(0), batch.categories);
+            return;
+        }
+
+        List<CategorisationBatchRequest.Item> items = new ArrayList<>(pending.size());
+        for (int i = 0; i < pending.size(); i++) {
+            Pending p = pending.get(i);
+            items.add(
+                    new CategorisationBatchRequest.Item(
+                            String.valueOf(i + 1), p.user(), p.text().trim()));
+        }
+        CategorisationBatchRequest request =
+                new CategorisationBatchRequest(batch.categories, items);
+        MessagePriority priority =
+                pending.stream().anyMatch(p -> p.priority() == MessagePriority.INTERACTIVE)
+                        ? MessagePriority.INTERACTIVE
+                        : MessagePriority.BULK;
+        batchSizes.record(pending.size());
+
+        CompletableFuture<CategorisationBatchResponse> response =
+                llmWorkScheduler.submit(
+                        pending.get(0).user(),
+                        LlmWorkScheduler.CATEGORISATION_COST * pending.size(),
+                        priority,
+                        () -> {
+                            pending.forEach(p -> p.dispatched().complete(null));
+                            MessagePipelineEvents.CategoriseBatch event =
+                                    new MessagePipelineEvents.CategoriseBatch(
+                                            batch.customerId, priority, pending.size());
+                            event.begin();
+                            try {
+                                return categorisationBatchClient.categorise(request);
+                            } finally {
+                                event.commit();
+                            }
+                        });
+
+        // The call is given up on once all of its messages are
+        for (Pending p : pending) {
+            p.future()
+                    .whenComplete(
+                            (result, e) -> {
+                                if (pending.stream().allMatch(q -> q.future().isDone())) {
+                                    response.cancel(false);
+                                }
+                            });
+        }
+
+        response.whenComplete((body, e) -> distribute(batch, pending, body, e));
+    }
+
+    private void distribute(
+            Batch batch, List<Pending> pending, CategorisationBatchResponse body, Throwable e) {
+        Map<String, CategorisationResponse> responsesById = new HashMap<>();
+        if (e != null) {
+            Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+            if (cause instanceof HttpClientErrorException.NotFound
+                    || cause instanceof HttpClientErrorException.MethodNotAllowed) {
+                LOG.warn(
+                        "llm-service does not accept batch categorisation, categorising messages"
+                                + " one by one: {}",
+                        cause.getMessage());
+                enabled = false;
+            } else if (!(cause instanceof CancellationException)) {
+                LOG.warn(
+                        "Batch categorisation of {} messages for customer {} failed: {}",
+                        pending.size(),
+                        batch.customerId,
+                        cause.getMessage());
+            }
+        } else if (body != null && body.results() != null) {
+            for (CategorisationBatchResponse.Result result : body.results()) {
+                if (result.categorisationResponse() != null) {
+                    responsesById.put(result.id(), result.categorisationResponse());
+                }
+            }
+        }
+
+        for (int i = 0; i < pending.size(); i++) {
+            Pending p = pending.get(i);
+            String id = String.valueOf(i + 1);
+            if (p.future().isDone()) {
+                continue;
+            }
+            if (responsesById.containsKey(id)) {
+                p.future().complete(responsesById.get(id));
+            } else {
+                fallbacks.increment();
+                categoriseOne(p, batch.categories);
+            }
+        }
+    }
+
+    private void categoriseOne(Pending p, List<MessageCategory> categories) {
+        CompletableFuture<CategorisationResponse> response =
+                categoriseOne(p.user(), p.priority(), p.text(), categories, p.dispatched());
+        response.whenComplete(
+                (result, e) -> {
+                    if (e != null) {
+                        p.future().completeExceptionally(e);
+                    } else {
+                        p.future().complete(result);
+                    }
+                });
+        p.future().whenComplete((result, e) -> response.cancel(false));
+    }
+
+    private CompletableFuture<CategorisationResponse> categoriseOne(
+            User user,
+            MessagePriority priority,
+            String text,
+            List<MessageCategory> categories,
+            CompletableFuture<Void> dispatched) {
+        return llmWorkScheduler.submit(
+                user,
+                LlmWorkScheduler.CATEGORISATION_COST,
+                priority,
+                () -> {
+                    dispatched.complete(null);
+                    CategorisationRequest request =
+                            CategorisationRequest.builder()
+                                    .user(user)
+                                    .text(text.trim())
+                                    .categories(categories)
+                                    .build();
+
+                    MessagePipelineEvents.Categorise event =
+                            new MessagePipelineEvents.Categorise(user, priority);
+                    event.begin();
+                    try {
+                        return llmServiceClient.categorise(request);
+                    } finally {
+                        event.commit();
+                    }
+                });
+    }
+}
@@ -0,0 +1,126 @@
+package de.flowsuite.mailboxservice.message;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClient;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+
+/**
+ * Access token of this service for the calls mailbox-service makes without the clients of
+ * mailflow-common, obtained from the API with the client credentials like theirs. A token is reused
+ * until shortly before it expires, or until a service rejects it.
+ */
+@Component
+class ClientTokenProvider {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ClientTokenProvider.class);
+    private static final Duration EXPIRY_MARGIN = Duration.ofMinutes(1);
+    private static final Duration DEFAULT_LIFETIME = Duration.ofMinutes(10);
+
+    private record LoginRequest(String clientName, String clientSecret) {}
+
+    private record LoginResponse(String accessToken) {}
+
+    private record Token(String value, Instant expiresAt) {}
+
+    private final RestClient restClient;
+    private final String loginPath;
+    private final String clientName;
+    private final String clientSecret;
+    private final ObjectMapper objectMapper;
+    private volatile Token token;
+
+    ClientTokenProvider(
+            @Value("${mailflow.api.base-url}") String apiBaseUrl,
+            @Value("${mailflow.api.client-login-path:/auth/clients/login}") String loginPath,
+            @Value("${client.name}") String clientName,
+            @Value("${client.secret}") String clientSecret,
+            ObjectMapper objectMapper,
+            RestClient.Builder restClientBuilder) {
+        this.restClient = restClientBuilder.baseUrl(apiBaseUrl).build();
+        this.loginPath = loginPath;
+        this.clientName = clientName;
+        this.clientSecret = clientSecret;
+        this.objectMapper = objectMapper;
+    }
+
+    // Sets the bearer token and drops it if the service rejects it
+    ClientHttpRequestInterceptor interceptor() {
+        return (request, body, execution) -> {
+            String accessToken = get();
+            request.getHeaders().setBearerAuth(accessToken);
+            ClientHttpResponse response = execution.execute(request, body);
+            if (response.getStatusCode().isSameCodeAs(HttpStatus.UNAUTHORIZED)) {
+                invalidate(accessToken);
+            }
+            return response;
+        };
+    }
+
+    String get() {
+        Token current = token;
+        if (current == null || Instant.now().isAfter(current.expiresAt().minus(EXPIRY_MARGIN))) {
+            synchronized (this) {
+                current = token;
+                if (current == null
+                        || Instant.now().isAfter(current.expiresAt().minus(EXPIRY_MARGIN))) {
+                    current = login();
+                    token = current;
+                }
+            }
+        }
+        return current.value();
+    }
+
+    private synchronized void invalidate(String accessToken) {
+        Token current = token;
+        if (current != null && current.value().equals(accessToken)) {
+            LOG.debug("Access token of client {} was rejected", clientName);
+            token = null;
+        }
+    }
+
+    private Token login() {
+        LoginResponse response =
+                restClient
+                        .post()
+                        .uri(loginPath)
+                        .body(new LoginRequest(clientName, clientSecret))
+                        .retrieve()
+                        .body(LoginResponse.class);
+        if (response == null || response.accessToken() == null) {
+            throw new IllegalStateException(
+                    "API returned no access token for client " + clientName);
+        }
+        return new Token(response.accessToken(), expiresAt(response.accessToken()));
+    }
+
+    // Reads the expiry claim of the JWT, the signature is verified by the service it is sent to
+    private Instant expiresAt(String accessToken) {
+        String[] parts = accessToken.split("\\.");
+        if (parts.length == 3) {
+            try {
+                JsonNode exp =
+                        objectMapper.readTree(Base64.getUrlDecoder().decode(parts[1])).get("exp");
+                if (exp != null && exp.canConvertToLong()) {
+                    return Instant.ofEpochSecond(exp.asLong());
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                LOG.debug("Failed to read the expiry of the access token of client {}", clientName);
+            }
+        }
+        return Instant.now().plus(DEFAULT_LIFETIME);
+    }
+}
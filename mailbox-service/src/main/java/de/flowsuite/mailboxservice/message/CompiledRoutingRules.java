@@ -0,0 +1,226 @@
+package de.flowsuite.mailboxservice.message;
+
+import de.flowsuite.mailboxservice.exception.InvalidRoutingRuleException;
+
+import jakarta.mail.Address;
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.internet.MimeUtility;
+
+import java.io.UnsupportedEncodingException;
+import java.util.*;
+
+/**
+ * The routing rules of one customer compiled into a single {@link AhoCorasickMatcher}. The fields
+ * of a message are concatenated with every value framed by {@link #VALUE_START} and {@link
+ * #VALUE_END}, so all operators become plain patterns (EQUALS includes both frame characters) and
+ * all fields are scanned in one pass. A match only counts for rules on the field it lies in, and
+ * the first matching rule in the given order wins.
+ */
+class CompiledRoutingRules {
+
+    static final char VALUE_START = '\u0002';
+    static final char VALUE_END = '\u0003';
+    static final int NO_MATCH = -1;
+
+    private static final String HEADER_FIELD_PREFIX = "header:";
+
+    private final List<RoutingRule> rules;
+    private final String[] fieldByRule;
+    private final int[][] rulesByPattern;
+    private final AhoCorasickMatcher matcher;
+    private final boolean matchesSender;
+    private final boolean matchesSubject;
+    private final Set<String> headerNames = new LinkedHashSet<>();
+
+    CompiledRoutingRules(long customerId, List<RoutingRule> rules)
+            throws InvalidRoutingRuleException {
+        this.rules = List.copyOf(rules);
+        this.fieldByRule = new String[rules.size()];
+
+        Map<String, List<Integer>> rulesByPatternText = new LinkedHashMap<>();
+        boolean sender = false;
+        boolean subject = false;
+        for (int i = 0; i < rules.size(); i++) {
+            RoutingRule rule = rules.get(i);
+            validate(customerId, i, rule);
+
+            fieldByRule[i] = fieldKey(rule.field(), rule.headerName());
+            switch (rule.field()) {
+                case SENDER, SENDER_DOMAIN -> sender = true;
+                case SUBJECT -> subject = true;
+                case HEADER -> headerNames.add(rule.headerName().trim());
+            }
+
+            rulesByPatternText.computeIfAbsent(pattern(rule), p -> new ArrayList<>()).add(i);
+        }
+
+        this.matchesSender = sender;
+        this.matchesSubject = subject;
+        this.rulesByPattern = new int[rulesByPatternText.size()][];
+        int p = 0;
+        for (List<Integer> ruleIndexes : rulesByPatternText.values()) {
+            rulesByPattern[p++] = ruleIndexes.stream().mapToInt(Integer::intValue).toArray();
+        }
+        this.matcher = new AhoCorasickMatcher(new ArrayList<>(rulesByPatternText.keySet()));
+    }
+
+    List<RoutingRule> rules() {
+        return rules;
+    }
+
+    Set<String> headerNames() {
+        return headerNames;
+    }
+
+    /** Index of the first rule the message matches, or {@link #NO_MATCH}. */
+    int match(MimeMessage message) throws MessagingException {
+        if (rules.isEmpty()) {
+            return NO_MATCH;
+        }
+
+        StringBuilder text = new StringBuilder();
+        List<String> segmentFields = new ArrayList<>();
+        List<Integer> segmentEnds = new ArrayList<>();
+
+        if (matchesSender) {
+            Address sender = sender(message);
+            if (sender != null) {
+                String address =
+                        sender instanceof InternetAddress internetAddress
+                                ? internetAddress.getAddress()
+                                : sender.toString();
+                appendSegment(text, segmentFields, segmentEnds, RoutingRule.Field.SENDER, address);
+                int at = address.lastIndexOf('@');
+                if (at >= 0) {
+                    appendSegment(
+                            text,
+                            segmentFields,
+                            segmentEnds,
+                            RoutingRule.Field.SENDER_DOMAIN,
+                            address.substring(at + 1));
+                }
+            }
+        }
+        if (matchesSubject && message.getSubject() != null) {
+            appendSegment(
+                    text,
+                    segmentFields,
+                    segmentEnds,
+                    RoutingRule.Field.SUBJECT,
+                    message.getSubject());
+        }
+        for (String headerName : headerNames) {
+            String[] values = message.getHeader(headerName);
+            if (values == null) {
+                continue;
+            }
+            for (String value : values) {
+                appendSegment(
+                        text,
+                        segmentFields,
+                        segmentEnds,
+                        HEADER_FIELD_PREFIX + headerName.toLowerCase(Locale.ROOT),
+                        decode(value));
+            }
+        }
+
+        int[] firstRule = {Integer.MAX_VALUE};
+        matcher.match(
+                text,
+                (pattern, endIndex) -> {
+                    String field = segmentFields.get(segmentAt(segmentEnds, endIndex));
+                    for (int rule : rulesByPattern[pattern]) {
+                        if (rule < firstRule[0] && fieldByRule[rule].equals(field)) {
+                            firstRule[0] = rule;
+                        }
+                    }
+                });
+        return firstRule[0] != Integer.MAX_VALUE ? firstRule[0] : NO_MATCH;
+    }
+
+    // The From address, not the Sender of lists and relays, like the rest of the pipeline
+    private static Address sender(MimeMessage message) throws MessagingException {
+        Address[] from = message.getFrom();
+        return from != null && from.length > 0 ? from[0] : null;
+    }
+
+    private static void validate(long customerId, int index, RoutingRule rule)
+            throws InvalidRoutingRuleException {
+        if (rule == null || rule.field() == null || rule.operator() == null) {
+            throw new InvalidRoutingRuleException(customerId, index, "field and operator required");
+        }
+        if (rule.value() == null || normalise(rule.value()).isBlank()) {
+            throw new InvalidRoutingRuleException(customerId, index, "value must not be blank");
+        }
+        if (rule.field() == RoutingRule.Field.HEADER
+                && (rule.headerName() == null || rule.headerName().isBlank())) {
+            throw new InvalidRoutingRuleException(customerId, index, "header name required");
+        }
+    }
+
+    private static String pattern(RoutingRule rule) {
+        String value = normalise(rule.value());
+        if (rule.field() == RoutingRule.Field.SENDER_DOMAIN && value.startsWith("@")) {
+            value = value.substring(1);
+        }
+
+        return switch (rule.operator()) {
+            case EQUALS -> VALUE_START + value + VALUE_END;
+            case CONTAINS -> value;
+            case STARTS_WITH -> VALUE_START + value;
+            case ENDS_WITH -> value + VALUE_END;
+        };
+    }
+
+    private static String fieldKey(RoutingRule.Field field, String headerName) {
+        return field == RoutingRule.Field.HEADER
+                ? HEADER_FIELD_PREFIX + headerName.trim().toLowerCase(Locale.ROOT)
+                : field.name();
+    }
+
+    private static void appendSegment(
+            StringBuilder text,
+            List<String> segmentFields,
+            List<Integer> segmentEnds,
+            RoutingRule.Field field,
+            String value) {
+        appendSegment(text, segmentFields, segmentEnds, field.name(), value);
+    }
+
+    private static void appendSegment(
+            StringBuilder text,
+            List<String> segmentFields,
+            List<Integer> segmentEnds,
+            String field,
+            String value) {
+        text.append(VALUE_START).append(normalise(value)).append(VALUE_END);
+        segmentFields.add(field);
+        segmentEnds.add(text.length());
+    }
+
+    private static int segmentAt(List<Integer> segmentEnds, int index) {
+        int segment = 0;
+        while (segmentEnds.get(segment) <= index) {
+            segment++;
+        }
+        return segment;
+    }
+
+    // Frame characters in a value could otherwise fake the boundary of a field
+    private static String normalise(String value) {
+        return value.trim()
+                .toLowerCase(Locale.ROOT)
+                .replace(VALUE_START, ' ')
+                .replace(VALUE_END, ' ');
+    }
+
+    private static String decode(String headerValue) {
+        try {
+            return MimeUtility.decodeText(MimeUtility.unfold(headerValue));
+        } catch (UnsupportedEncodingException e) {
+            return headerValue;
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package de.flowsuite.mailboxservice.message;
 
 import com.sun.mail.imap.IMAPFolder;
-import com.sun.mail.imap.IMAPMessage;
 
 import de.flowsuite.mailboxservice.exception.FolderException;
 import de.flowsuite.mailflow.common.entity.User;
@@ -12,6 +11,8 @@ import jakarta.mail.internet.MimeMessage;
 import org.slf4j.Logger;
 import org.springframework.stereotype.Component;
 
+import java.util.Arrays;
+
 @Component
 class FolderUtil {
 
@@ -69,29 +70,53 @@ class FolderUtil {
         LOG.info("Saved message to folder {} successfully.", targetFolder.getFullName());
     }
 
-    static void moveToFolder(IMAPMessage message, IMAPFolder sourceFolder, IMAPFolder targetFolder)
+    static void moveToFolder(MimeMessage message, IMAPFolder sourceFolder, IMAPFolder targetFolder)
+            throws MessagingException, FolderException {
+        moveToFolder(new Message[] {message}, sourceFolder, targetFolder);
+    }
+
+    // Moves all messages with a single MOVE command
+    static void moveToFolder(Message[] messages, IMAPFolder sourceFolder, IMAPFolder targetFolder)
             throws MessagingException, FolderException {
-        LOG.debug("Moving message to folder {}.", targetFolder.getFullName());
+        LOG.debug(
+                "Moving {} message(s) to folder {}.", messages.length, targetFolder.getFullName());
         if (!targetFolder.exists()) {
             throw new FolderException(
                     String.format("Target folder %s does not exist", targetFolder.getName()),
                     false);
         }
-        if (!targetFolder.isOpen()) {
-            targetFolder.open(Folder.READ_WRITE);
-        }
-        if (!sourceFolder.isOpen()) {
-            sourceFolder.open(Folder.READ_WRITE);
+        if (messages.length > 0 && Arrays.stream(messages).allMatch(UidMessage.class::isInstance)) {
+            // Messages of a large inbox, which is not opened
+            UidInbox inbox = ((UidMessage) messages[0]).getInbox();
+            inbox.move(UidMessage.uids(messages), targetFolder.getFullName());
+        } else {
+            if (!targetFolder.isOpen()) {
+                targetFolder.open(Folder.READ_WRITE);
+            }
+            if (!sourceFolder.isOpen()) {
+                sourceFolder.open(Folder.READ_WRITE);
+            }
+            sourceFolder.moveMessages(messages, targetFolder);
         }
-        sourceFolder.moveMessages(new Message[] {message}, targetFolder);
-        LOG.info("Moved original message to {}.", targetFolder.getFullName());
+        LOG.info(
+                "Moved {} original message(s) to {}.", messages.length, targetFolder.getFullName());
+    }
+
+    static void moveToManualReviewFolder(
+            User user, MimeMessage originalMessage, Store store, IMAPFolder inbox)
+            throws MessagingException, FolderException {
+        moveToManualReviewFolder(user, new Message[] {originalMessage}, store, inbox);
     }
 
     static void moveToManualReviewFolder(
-            User user, IMAPMessage originalMessage, Store store, IMAPFolder inbox)
+            User user, Message[] originalMessages, Store store, IMAPFolder inbox)
             throws MessagingException, FolderException {
         LOG.debug("Moving original message to manual review folder for user {}", user.getId());
         if (user.getSettings().isMoveToManualReviewEnabled()) {
+            MessagePipelineEvents.Move event =
+                    new MessagePipelineEvents.Move(
+                            user, MANUAL_REVIEW_FOLDER_NAME, originalMessages.length);
+            event.begin();
             IMAPFolder manualReviewFolder =
                     FolderUtil.getFolderByName(store, MANUAL_REVIEW_FOLDER_NAME);
             if (manualReviewFolder == null) {
@@ -99,7 +124,8 @@ class FolderUtil {
                         FolderUtil.createFolderByName(store, MANUAL_REVIEW_FOLDER_NAME);
             }
 
-            FolderUtil.moveToFolder(originalMessage, inbox, manualReviewFolder);
+            FolderUtil.moveToFolder(originalMessages, inbox, manualReviewFolder);
+            event.commit();
             LOG.info(
                     "Moved original message successfully to manual review folder for user {}",
                     user.getId());
@@ -0,0 +1,410 @@
+package de.flowsuite.mailboxservice.message;
+
+import de.flowsuite.mailflow.common.entity.User;
+import de.flowsuite.shared.concurrent.ExecutorFactory;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import jakarta.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Dispatches calls to llm-service fairly across customers. Every customer has its own queue, split
+ * into one queue per user, and customers are served by deficit round robin: per round a customer
+ * may start work worth {@code weight * QUANTUM} cost units, users of a customer take turns. On top
+ * of the global concurrency limit, each customer may only have a limited number of calls in flight,
+ * so a burst of one customer only delays that customer. Within a user, interactive messages go
+ * first, but every {@link #INTERACTIVE_PER_BULK} interactive calls a waiting bulk call is started.
+ *
+ * <p>Dependent stages of the returned futures move and reply to messages through JavaMail. If
+ * workers are virtual threads that would pin on JavaMail's monitors, the futures are completed on
+ * platform threads instead, so only the wait for llm-service happens on the virtual thread.
+ *
+ * <p>A returned future that is completed by the caller, e.g. when its deadline passes, is given up
+ * on: it is skipped if still queued, otherwise the worker running it is interrupted, which aborts
+ * the HTTP request of clients that support interruption.
+ *
+ * <p>Queues exist only while they hold work, a user queue is dropped once empty and a customer
+ * queue once it is empty and none of its calls is in flight anymore.
+ */
+@Component
+class LlmWorkScheduler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LlmWorkScheduler.class);
+
+    static final int CATEGORISATION_COST = 1;
+    static final int GENERATION_COST = 4;
+    static final int QUANTUM = 4;
+    static final int DEFAULT_WEIGHT = 1;
+    static final int INTERACTIVE_PER_BULK = 4;
+
+    private final int maxConcurrency;
+    private final int maxConcurrencyPerCustomer;
+    private final Map<Long, Integer> weightsByCustomer;
+    private final ExecutorService workerExecutor;
+    private final ExecutorService completionExecutor;
+    private final Map<MessagePriority, Timer> waitTimers = new EnumMap<>(MessagePriority.class);
+
+    // Guarded by this
+    private final Map<Long, CustomerQueue> queuesByCustomer = new HashMap<>();
+    private final ArrayDeque<CustomerQueue> activeCustomers = new ArrayDeque<>();
+    private int inFlight;
+    private int queued;
+
+    private record Task(
+            int cost,
+            MessagePriority priority,
+            CompletableFuture<?> future,
+            Runnable work,
+            long enqueuedAtNanos) {}
+
+    private static class UserQueue {
+        private final long userId;
+        private final ArrayDeque<Task> interactive = new ArrayDeque<>();
+        private final ArrayDeque<Task> bulk = new ArrayDeque<>();
+        private int interactiveStreak;
+
+        private UserQueue(long userId) {
+            this.userId = userId;
+        }
+
+        private boolean isEmpty() {
+            return interactive.isEmpty() && bulk.isEmpty();
+        }
+
+        private void add(Task task) {
+            if (task.priority() == MessagePriority.BULK) {
+                bulk.addLast(task);
+            } else {
+                interactive.addLast(task);
+            }
+        }
+
+        private Task peek() {
+            return takeBulk() ? bulk.peekFirst() : interactive.peekFirst();
+        }
+
+        private Task poll() {
+            if (takeBulk()) {
+                interactiveStreak = 0;
+                return bulk.pollFirst();
+            }
+            interactiveStreak++;
+            return interactive.pollFirst();
+        }
+
+        // Bulk work is guaranteed a minimum share, so it cannot starve
+        private boolean takeBulk() {
+            return !bulk.isEmpty()
+                    && (interactive.isEmpty() || interactiveStreak >= INTERACTIVE_PER_BULK);
+        }
+    }
+
+    // Thread of a running call, so it can be interrupted when the call is given up on
+    private static class Call {
+        private Thread thread;
+        private boolean cancelled;
+
+        private synchronized boolean start() {
+            if (cancelled) {
+                return false;
+            }
+            thread = Thread.currentThread();
+            return true;
+        }
+
+        private synchronized void finish() {
+            thread = null;
+            Thread.interrupted(); // Clears an interrupt the worker did not see anymore
+        }
+
+        private synchronized void cancel() {
+            cancelled = true;
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+    }
+
+    private static class CustomerQueue {
+        private final long customerId;
+        private final Map<Long, UserQueue> queuesByUser = new HashMap<>();
+        private final ArrayDeque<UserQueue> activeUsers = new ArrayDeque<>();
+        private int deficit;
+        private boolean visited;
+        private int inFlight;
+
+        private CustomerQueue(long customerId) {
+            this.customerId = customerId;
+        }
+    }
+
+    LlmWorkScheduler(
+            @Value("${llm-scheduler.max-concurrency:16}") int maxConcurrency,
+            @Value("${llm-scheduler.max-concurrency-per-customer:4}") int maxConcurrencyPerCustomer,
+            @Value("${llm-scheduler.customer-weights:}") String customerWeights,
+            ExecutorFactory executorFactory,
+            MeterRegistry meterRegistry) {
+        this.maxConcurrency = maxConcurrency;
+        this.maxConcurrencyPerCustomer = maxConcurrencyPerCustomer;
+        this.weightsByCustomer = parseWeights(customerWeights);
+
+        this.workerExecutor =
+                executorFactory.newExecutor(
+                        "Llm-Worker-", () -> newPlatformExecutor("Llm-Worker-", maxConcurrency));
+        this.completionExecutor =
+                executorFactory.pinsOnMonitors()
+                        ? newPlatformExecutor("Llm-Completion-", maxConcurrency)
+                        : null;
+
+        Gauge.builder("mailbox.llm.scheduler.queued", this, LlmWorkScheduler::queued)
+                .description("Calls to llm-service waiting to be dispatched")
+                .register(meterRegistry);
+        Gauge.builder("mailbox.llm.scheduler.in.flight", this, LlmWorkScheduler::inFlight)
+                .description("Calls to llm-service currently running")
+                .register(meterRegistry);
+        for (MessagePriority priority : MessagePriority.values()) {
+            waitTimers.put(
+                    priority,
+                    Timer.builder("mailbox.llm.scheduler.wait")
+                            .description("Time calls to llm-service waited for dispatch")
+                            .tag("lane", priority.name().toLowerCase())
+                            .register(meterRegistry));
+        }
+    }
+
+    <T> CompletableFuture<T> submit(
+            User user, int cost, MessagePriority priority, Supplier<T> work) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Call call = new Call();
+        Task task =
+                new Task(
+                        cost,
+                        priority,
+                        future,
+                        () -> {
+                            if (!call.start()) {
+                                return; // Given up on while queued
+                            }
+                            try {
+                                T result = work.get();
+                                call.finish();
+                                complete(() -> future.complete(result));
+                            } catch (Throwable e) {
+                                call.finish();
+                                complete(() -> future.completeExceptionally(e));
+                            }
+                        },
+                        System.nanoTime());
+        future.whenComplete((result, e) -> call.cancel());
+
+        synchronized (this) {
+            CustomerQueue customerQueue =
+                    queuesByCustomer.computeIfAbsent(user.getCustomerId(), CustomerQueue::new);
+            UserQueue userQueue =
+                    customerQueue.queuesByUser.computeIfAbsent(user.getId(), UserQueue::new);
+
+            boolean customerWasIdle = customerQueue.activeUsers.isEmpty();
+            if (userQueue.isEmpty()) {
+                customerQueue.activeUsers.addLast(userQueue);
+            }
+            userQueue.add(task);
+            queued++;
+
+            if (customerWasIdle) {
+                // Idle customers do not save up deficit
+                customerQueue.deficit = 0;
+                customerQueue.visited = false;
+                activeCustomers.addLast(customerQueue);
+            }
+
+            dispatch();
+        }
+
+        return future;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        workerExecutor.shutdownNow();
+        if (completionExecutor != null) {
+            completionExecutor.shutdownNow();
+        }
+    }
+
+    private void complete(Runnable completion) {
+        if (completionExecutor == null) {
+            completion.run();
+            return;
+        }
+        try {
+            completionExecutor.execute(completion);
+        } catch (RejectedExecutionException e) {
+            completion.run();
+        }
+    }
+
+    private synchronized int queued() {
+        return queued;
+    }
+
+    private synchronized int inFlight() {
+        return inFlight;
+    }
+
+    synchronized int customerQueues() {
+        return queuesByCustomer.size();
+    }
+
+    synchronized int userQueues() {
+        return queuesByCustomer.values().stream().mapToInt(q -> q.queuesByUser.size()).sum();
+    }
+
+    // Must be called while holding the lock
+    private void dispatch() {
+        while (inFlight < maxConcurrency) {
+            CustomerQueue customerQueue = nextCustomer();
+            if (customerQueue == null) {
+                return;
+            }
+
+            UserQueue userQueue = customerQueue.activeUsers.pollFirst();
+            Task task = userQueue.poll();
+            if (userQueue.isEmpty()) {
+                customerQueue.queuesByUser.remove(userQueue.userId);
+            } else {
+                customerQueue.activeUsers.addLast(userQueue); // Users take turns
+            }
+
+            customerQueue.deficit -= task.cost();
+            customerQueue.inFlight++;
+            inFlight++;
+            queued--;
+
+            if (customerQueue.activeUsers.isEmpty()) {
+                activeCustomers.remove(customerQueue);
+                customerQueue.deficit = 0;
+                customerQueue.visited = false;
+            }
+
+            run(customerQueue, task);
+        }
+    }
+
+    // Returns the customer allowed to start its next task, or null if every customer with queued
+    // work is at its concurrency limit
+    private CustomerQueue nextCustomer() {
+        int blocked = 0;
+        while (!activeCustomers.isEmpty() && blocked < activeCustomers.size()) {
+            CustomerQueue customerQueue = activeCustomers.peekFirst();
+
+            if (customerQueue.inFlight >= maxConcurrencyPerCustomer) {
+                activeCustomers.addLast(activeCustomers.pollFirst());
+                customerQueue.visited = false;
+                blocked++;
+                continue;
+            }
+
+            if (!customerQueue.visited) {
+                customerQueue.deficit += weightOf(customerQueue.customerId) * QUANTUM;
+                customerQueue.visited = true;
+            }
+
+            Task next = customerQueue.activeUsers.peekFirst().peek();
+            if (next.cost() <= customerQueue.deficit) {
+                return customerQueue;
+            }
+
+            // Deficit used up for this round, the next visit adds another quantum
+            activeCustomers.addLast(activeCustomers.pollFirst());
+            customerQueue.visited = false;
+            blocked = 0;
+        }
+        return null;
+    }
+
+    private void run(CustomerQueue customerQueue, Task task) {
+        waitTimers
+                .get(task.priority())
+                .record(System.nanoTime() - task.enqueuedAtNanos(), TimeUnit.NANOSECONDS);
+        try {
+            workerExecutor.execute(
+                    () -> {
+                        try {
+                            task.work().run();
+                        } finally {
+                            onTaskFinished(customerQueue);
+                        }
+                    });
+        } catch (RejectedExecutionException e) {
+            LOG.error("Rejected llm-service call of customer {}", customerQueue.customerId, e);
+            customerQueue.inFlight--;
+            inFlight--;
+            removeIfIdle(customerQueue);
+            task.future().completeExceptionally(e);
+        }
+    }
+
+    private synchronized void onTaskFinished(CustomerQueue customerQueue) {
+        customerQueue.inFlight--;
+        inFlight--;
+        removeIfIdle(customerQueue);
+        dispatch();
+    }
+
+    // Must be called while holding the lock
+    private void removeIfIdle(CustomerQueue customerQueue) {
+        if (customerQueue.inFlight == 0 && customerQueue.activeUsers.isEmpty()) {
+            queuesByCustomer.remove(customerQueue.customerId, customerQueue);
+        }
+    }
+
+    private static ExecutorService newPlatformExecutor(String threadPrefix, int threads) {
+        AtomicInteger threadCount = new AtomicInteger();
+        return Executors.newFixedThreadPool(
+                threads,
+                r -> {
+                    Thread thread = new Thread(r, threadPrefix + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    private int weightOf(long customerId) {
+        return weightsByCustomer.getOrDefault(customerId, DEFAULT_WEIGHT);
+    }
+
+    // Format: <customerId>=<weight>,<customerId>=<weight>
+    private static Map<Long, Integer> parseWeights(String customerWeights) {
+        Map<Long, Integer> weights = new HashMap<>();
+        if (customerWeights == null || customerWeights.isBlank()) {
+            return weights;
+        }
+
+        for (String entry : customerWeights.split(",")) {
+            String[] parts = entry.trim().split("=");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid customer weight: " + entry);
+            }
+            int weight = Integer.parseInt(parts[1].trim());
+            if (weight < 1) {
+                throw new IllegalArgumentException("Customer weight must be positive: " + entry);
+            }
+            weights.put(Long.parseLong(parts[0].trim()), weight);
+        }
+
+        LOG.info("Using llm-service weights for {} customers", weights.size());
+        return weights;
+    }
+}
@@ -0,0 +1,104 @@
+package de.flowsuite.mailboxservice.message;
+
+import de.flowsuite.mailflow.common.client.ApiClient;
+import de.flowsuite.mailflow.common.entity.BlacklistEntry;
+import de.flowsuite.mailflow.common.entity.MessageCategory;
+import de.flowsuite.mailflow.common.entity.User;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Message categories (per customer) and blacklists (per user) used while processing messages.
+ * Filled at startup, updated by the notification endpoints and refreshed in the background.
+ */
+@Component
+public class MessageConfigCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MessageConfigCache.class);
+    private static final int LOADER_THREADS = 4;
+    private static final Duration REFRESH_AFTER = Duration.ofMinutes(30);
+    private static final Duration TOMBSTONE_TTL = Duration.ofMinutes(10);
+
+    private final ApiClient apiClient;
+    private final VersionedCache<Long, List<MessageCategory>> messageCategoriesByCustomer;
+    private final VersionedCache<Long, List<BlacklistEntry>> blacklistByUser;
+
+    MessageConfigCache(ApiClient apiClient) {
+        this.apiClient = apiClient;
+
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService loaderExecutor =
+                Executors.newFixedThreadPool(
+                        LOADER_THREADS,
+                        r -> {
+                            Thread thread =
+                                    new Thread(r, "Cache-Loader-" + threadCount.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+
+        this.messageCategoriesByCustomer =
+                new VersionedCache<>(
+                        "message categories of customer",
+                        loaderExecutor,
+                        REFRESH_AFTER,
+                        TOMBSTONE_TTL);
+        this.blacklistByUser =
+                new VersionedCache<>(
+                        "blacklist of user", loaderExecutor, REFRESH_AFTER, TOMBSTONE_TTL);
+    }
+
+    List<MessageCategory> getMessageCategories(User user) {
+        return messageCategoriesByCustomer.get(
+                user.getCustomerId(), () -> apiClient.listMessageCategories(user.getCustomerId()));
+    }
+
+    List<BlacklistEntry> getBlacklist(User user) {
+        return blacklistByUser.get(
+                user.getId(),
+                () -> apiClient.listBlacklistEntries(user.getCustomerId(), user.getId()));
+    }
+
+    public void prewarm(List<User> users) {
+        Set<Long> customerIds = new HashSet<>();
+        for (User user : users) {
+            if (customerIds.add(user.getCustomerId())) {
+                messageCategoriesByCustomer.load(
+                        user.getCustomerId(),
+                        () -> apiClient.listMessageCategories(user.getCustomerId()));
+            }
+            blacklistByUser.load(
+                    user.getId(),
+                    () -> apiClient.listBlacklistEntries(user.getCustomerId(), user.getId()));
+        }
+
+        LOG.info(
+                "Prewarming message categories of {} customers and blacklists of {} users",
+                customerIds.size(),
+                users.size());
+    }
+
+    public void invalidate(User user) {
+        LOG.debug("Invalidating cached message configuration of user {}", user.getId());
+        messageCategoriesByCustomer.invalidate(user.getCustomerId());
+        blacklistByUser.invalidate(user.getId());
+    }
+
+    void putMessageCategories(long customerId, List<MessageCategory> categories, Long version) {
+        messageCategoriesByCustomer.put(customerId, categories, version);
+    }
+
+    void putBlacklist(long userId, List<BlacklistEntry> blacklistEntries, Long version) {
+        blacklistByUser.put(userId, blacklistEntries, version);
+    }
+}
@@ -0,0 +1,182 @@
+package de.flowsuite.mailboxservice.message;
+
+import de.flowsuite.mailboxservice.exception.DeadlineExceededException;
+import de.flowsuite.mailflow.common.entity.User;
+import de.flowsuite.shared.concurrent.ExecutorFactory;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import jakarta.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounds the time a message may spend in each processing stage, so a hanging llm-service call
+ * cannot keep the mailbox of a user out of IDLE. A stage that runs into its deadline is abandoned
+ * and the message goes to manual review. Futures of asynchronous stages are completed with a {@link
+ * DeadlineExceededException} when their deadline passes, which cancels the llm-service call or the
+ * reply behind them. Stages running JavaMail commands on the calling thread are checked once they
+ * return.
+ *
+ * <p>The budgets of llm-service calls start once the {@link LlmWorkScheduler} dispatches them. The
+ * time spent waiting for dispatch, including the batch window, is bounded by the queue budget.
+ */
+@Component
+class MessageDeadlines {
+
+    enum Stage {
+        QUEUE,
+        CATEGORISE,
+        THREAD_FETCH,
+        GENERATE,
+        ACT
+    }
+
+    static final int TIMER_THREADS = 2;
+
+    private final Map<Stage, Long> budgetsMs = new EnumMap<>(Stage.class);
+    private final Map<Stage, Counter> exceededCounters = new EnumMap<>(Stage.class);
+    private final ScheduledExecutorService timer;
+    private final ExecutorService expiryExecutor;
+    private final StageLatencies stageLatencies;
+
+    MessageDeadlines(
+            @Value("${mailbox.processing.deadline.queue-ms:30000}") long queueMs,
+            @Value("${mailbox.processing.deadline.categorise-ms:30000}") long categoriseMs,
+            @Value("${mailbox.processing.deadline.thread-fetch-ms:15000}") long threadFetchMs,
+            @Value("${mailbox.processing.deadline.generate-ms:90000}") long generateMs,
+            @Value("${mailbox.processing.deadline.act-ms:30000}") long actMs,
+            ExecutorFactory executorFactory,
+            MeterRegistry meterRegistry,
+            StageLatencies stageLatencies) {
+        this.stageLatencies = stageLatencies;
+        budgetsMs.put(Stage.QUEUE, queueMs);
+        budgetsMs.put(Stage.CATEGORISE, categoriseMs);
+        budgetsMs.put(Stage.THREAD_FETCH, threadFetchMs);
+        budgetsMs.put(Stage.GENERATE, generateMs);
+        budgetsMs.put(Stage.ACT, actMs);
+
+        for (Stage stage : Stage.values()) {
+            exceededCounters.put(
+                    stage,
+                    Counter.builder("mailbox.message.deadline.exceeded")
+                            .description("Messages moved to manual review after a stage deadline")
+                            .tag("stage", stage.name().toLowerCase())
+                            .register(meterRegistry));
+        }
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.timer =
+                Executors.newScheduledThreadPool(
+                        TIMER_THREADS,
+                        r -> {
+                            Thread thread =
+                                    new Thread(
+                                            r, "Message-Deadline-" + threadCount.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+        // Abandoned messages are moved to manual review on these threads, which run IMAP commands
+        this.expiryExecutor =
+                executorFactory.newMonitorBlockingExecutor(
+                        "Message-Deadline-Expiry-", Executors::newCachedThreadPool);
+    }
+
+    /** Longest time a message can take if every stage uses up its budget. */
+    long totalBudgetMs() {
+        // Categorisation and generation each wait for dispatch
+        return budgetsMs.values().stream().mapToLong(Long::longValue).sum()
+                + budgetsMs.get(Stage.QUEUE);
+    }
+
+    /**
+     * Bounds an llm-service call by the queue budget until {@code dispatched} completes and by the
+     * budget of the stage from then on.
+     */
+    <T> CompletableFuture<T> withinCall(
+            Stage stage,
+            User user,
+            CompletableFuture<Void> dispatched,
+            CompletableFuture<T> future) {
+        future.whenComplete((result, e) -> dispatched.complete(null));
+        within(Stage.QUEUE, System.nanoTime(), user, dispatched)
+                .whenComplete(
+                        (result, e) -> {
+                            if (e != null) {
+                                future.completeExceptionally(e);
+                            } else if (!future.isDone()) {
+                                within(stage, System.nanoTime(), user, future);
+                            }
+                        });
+        return future;
+    }
+
+    /**
+     * Completes the future exceptionally if it is not done within the budget of the stage, counted
+     * from {@code startedAtNanos}.
+     */
+    <T> CompletableFuture<T> within(
+            Stage stage, long startedAtNanos, User user, CompletableFuture<T> future) {
+        if (future.isDone()) {
+            stageLatencies.record(stage, user.getId(), System.nanoTime() - startedAtNanos);
+            return future;
+        }
+
+        long remainingNanos =
+                TimeUnit.MILLISECONDS.toNanos(budgetsMs.get(stage))
+                        - (System.nanoTime() - startedAtNanos);
+        Runnable expire =
+                () ->
+                        expiryExecutor.execute(
+                                () -> {
+                                    if (future.completeExceptionally(
+                                            new DeadlineExceededException(
+                                                    stage.name(), user.getId()))) {
+                                        exceededCounters.get(stage).increment();
+                                    }
+                                });
+
+        try {
+            ScheduledFuture<?> timeout =
+                    timer.schedule(expire, Math.max(remainingNanos, 0), TimeUnit.NANOSECONDS);
+            future.whenComplete((result, e) -> timeout.cancel(false));
+        } catch (RejectedExecutionException e) {
+            // Shutting down, the stage is not bounded anymore
+        }
+        future.whenComplete(
+                (result, e) ->
+                        stageLatencies.record(
+                                stage, user.getId(), System.nanoTime() - startedAtNanos));
+        return future;
+    }
+
+    /** Throws if the stage that started at {@code startedAtNanos} took longer than its budget. */
+    void check(Stage stage, long startedAtNanos, User user) throws DeadlineExceededException {
+        long latencyNanos = System.nanoTime() - startedAtNanos;
+        stageLatencies.record(stage, user.getId(), latencyNanos);
+        if (latencyNanos > TimeUnit.MILLISECONDS.toNanos(budgetsMs.get(stage))) {
+            exceededCounters.get(stage).increment();
+            throw new DeadlineExceededException(stage.name(), user.getId());
+        }
+    }
+
+    static DeadlineExceededException exceededCause(Throwable e) {
+        while (e instanceof CompletionException && e.getCause() != null) {
+            e = e.getCause();
+        }
+        return e instanceof DeadlineExceededException exceeded ? exceeded : null;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        timer.shutdownNow();
+        expiryExecutor.shutdownNow();
+    }
+}
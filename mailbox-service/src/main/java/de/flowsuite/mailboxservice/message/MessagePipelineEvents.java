@@ -0,0 +1,153 @@
+package de.flowsuite.mailboxservice.message;
+
+import de.flowsuite.mailflow.common.entity.User;
+
+import jdk.jfr.*;
+
+/**
+ * JDK Flight Recorder events of the message pipeline. Each event spans one wait of a message, on
+ * the IMAP server, llm-service, the API or the SMTP server, so a recording shows where a slow
+ * message spent its time next to GC, safepoints and socket I/O of the same moment. They are enabled
+ * with thresholds by {@code jfr/mailflow.jfc}. Creating and committing an event that is not enabled
+ * costs a field store or two.
+ */
+public final class MessagePipelineEvents {
+
+    private MessagePipelineEvents() {}
+
+    @Category({"Mailflow", "Mailbox"})
+    @StackTrace(false)
+    public abstract static class UserEvent extends Event {
+
+        @Label("User Id")
+        final long userId;
+
+        @Label("Customer Id")
+        final long customerId;
+
+        UserEvent(User user) {
+            this.userId = user.getId();
+            this.customerId = user.getCustomerId();
+        }
+    }
+
+    @Name("de.flowsuite.mailbox.ImapIdle")
+    @Label("IMAP IDLE")
+    @Description("Listener thread waiting in IMAP IDLE for new messages")
+    public static class ImapIdle extends UserEvent {
+
+        public ImapIdle(User user) {
+            super(user);
+        }
+    }
+
+    @Name("de.flowsuite.mailbox.ImapReconnect")
+    @Label("IMAP Reconnect")
+    @Description("Server closed the inbox, the listener reopens it")
+    public static class ImapReconnect extends UserEvent {
+
+        @Label("Reason")
+        final String reason;
+
+        public ImapReconnect(User user, String reason) {
+            super(user);
+            this.reason = reason;
+        }
+    }
+
+    @Name("de.flowsuite.mailbox.Categorise")
+    @Label("Categorise Message")
+    @Description("Call to llm-service to categorise a message")
+    static class Categorise extends UserEvent {
+
+        @Label("Priority")
+        final String priority;
+
+        Categorise(User user, MessagePriority priority) {
+            super(user);
+            this.priority = priority.name();
+        }
+    }
+
+    @Name("de.flowsuite.mailbox.CategoriseBatch")
+    @Label("Categorise Messages")
+    @Description("Call to llm-service to categorise several messages of a customer at once")
+    @Category({"Mailflow", "Mailbox"})
+    @StackTrace(false)
+    static class CategoriseBatch extends Event {
+
+        @Label("Customer Id")
+        final long customerId;
+
+        @Label("Priority")
+        final String priority;
+
+        @Label("Messages")
+        final int messages;
+
+        CategoriseBatch(long customerId, MessagePriority priority, int messages) {
+            this.customerId = customerId;
+            this.priority = priority.name();
+            this.messages = messages;
+        }
+    }
+
+    @Name("de.flowsuite.mailbox.Generate")
+    @Label("Generate Reply")
+    @Description("Call to llm-service to generate a reply")
+    static class Generate extends UserEvent {
+
+        @Label("Priority")
+        final String priority;
+
+        Generate(User user, MessagePriority priority) {
+            super(user);
+            this.priority = priority.name();
+        }
+    }
+
+    @Name("de.flowsuite.mailbox.Move")
+    @Label("Move Messages")
+    @Description("IMAP MOVE of messages to a category or the manual review folder")
+    static class Move extends UserEvent {
+
+        @Label("Folder")
+        final String folder;
+
+        @Label("Messages")
+        final int messages;
+
+        Move(User user, String folder, int messages) {
+            super(user);
+            this.folder = folder;
+            this.messages = messages;
+        }
+    }
+
+    @Name("de.flowsuite.mailbox.Send")
+    @Label("Send Reply")
+    @Description("Reply from being queued for sending until the SMTP server accepted it")
+    static class Send extends UserEvent {
+
+        @Label("Succeeded")
+        boolean succeeded;
+
+        Send(User user) {
+            super(user);
+        }
+    }
+
+    @Name("de.flowsuite.mailbox.Append")
+    @Label("Append Message")
+    @Description("IMAP APPEND of a reply to the Sent or Drafts folder")
+    static class Append extends UserEvent {
+
+        @Label("Folder")
+        final String folder;
+
+        Append(User user, String folder) {
+            super(user);
+            this.folder = folder;
+        }
+    }
+}
@@ -0,0 +1,6 @@
+package de.flowsuite.mailboxservice.message;
+
+public enum MessagePriority {
+    INTERACTIVE,
+    BULK
+}
@@ -1,18 +1,14 @@
 package de.flowsuite.mailboxservice.message;
 
 import com.sun.mail.imap.IMAPFolder;
-import com.sun.mail.imap.IMAPMessage;
-import com.sun.mail.smtp.SMTPSendFailedException;
 
 import de.flowsuite.mailboxservice.exception.FolderException;
 import de.flowsuite.mailboxservice.exception.ProcessingException;
 import de.flowsuite.mailflow.common.entity.User;
-import de.flowsuite.mailflow.common.util.AesUtil;
 
 import jakarta.mail.Flags;
 import jakarta.mail.MessagingException;
 import jakarta.mail.Store;
-import jakarta.mail.Transport;
 import jakarta.mail.internet.InternetAddress;
 import jakarta.mail.internet.MimeMessage;
 
@@ -20,82 +16,114 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
 @Service
 class MessageReplyHandler {
 
     private static final Logger LOG = LoggerFactory.getLogger(MessageReplyHandler.class);
-    static final long DELAY_MS = 3000;
-
-    boolean handleReply(
-            User user,
-            IMAPMessage originalMessage,
-            String reply,
-            Store store,
-            Transport transport,
-            IMAPFolder inbox)
+
+    private final OutboundMailQueue outboundMailQueue;
+    private final MessageUrgencyScorer messageUrgencyScorer;
+    private final UserCredentialCache userCredentialCache;
+
+    MessageReplyHandler(
+            OutboundMailQueue outboundMailQueue,
+            MessageUrgencyScorer messageUrgencyScorer,
+            UserCredentialCache userCredentialCache) {
+        this.outboundMailQueue = outboundMailQueue;
+        this.messageUrgencyScorer = messageUrgencyScorer;
+        this.userCredentialCache = userCredentialCache;
+    }
+
+    CompletableFuture<Boolean> handleReply(
+            User user, MimeMessage originalMessage, String reply, Store store, IMAPFolder inbox)
             throws MessagingException, ProcessingException {
         LOG.debug("Handling reply for user {}", user.getId());
 
         if (reply == null || reply.isBlank()) {
             FolderUtil.moveToManualReviewFolder(user, originalMessage, store, inbox);
-            return true; // Message was moved
+            return CompletableFuture.completedFuture(true); // Message was moved
         } else {
-            String userEmailAddress = AesUtil.decrypt(user.getEmailAddress());
+            String userEmailAddress = userCredentialCache.getEmailAddress(user);
             MimeMessage replyMessage = createReplyMessage(userEmailAddress, originalMessage, reply);
 
+            // Further messages from the recipients are treated as part of a conversation
+            messageUrgencyScorer.addCorrespondents(user.getId(), replyMessage.getAllRecipients());
+
             if (user.getSettings().isAutoReplyEnabled()) {
-                sendReply(replyMessage, store, transport, user.getId());
-                originalMessage.setFlag(Flags.Flag.ANSWERED, true);
+                CompletableFuture<Void> replySent = sendReply(replyMessage, store, user);
+                CompletableFuture<Boolean> replied =
+                        replySent.thenApply(
+                                sent -> {
+                                    try {
+                                        originalMessage.setFlag(Flags.Flag.ANSWERED, true);
+                                    } catch (MessagingException e) {
+                                        throw new CompletionException(e);
+                                    }
+                                    return false; // Message has not been moved
+                                });
+                replied.whenComplete((result, e) -> replySent.cancel(false));
+                return replied;
             } else {
-                saveDraft(replyMessage, store, user.getId());
+                saveDraft(replyMessage, store, user);
+                return CompletableFuture.completedFuture(false); // Message has not been moved
             }
-            return false; // Message has not been moved
         }
     }
 
-    private void saveDraft(MimeMessage draftMessage, Store store, long userId)
+    private void saveDraft(MimeMessage draftMessage, Store store, User user)
             throws MessagingException, FolderException {
-        LOG.debug("Saving draft for user {}", userId);
+        LOG.debug("Saving draft for user {}", user.getId());
 
         draftMessage.setFlags(new Flags(Flags.Flag.DRAFT), true);
         IMAPFolder draftsFolder = FolderUtil.getFolderByAttribute(store, "\\Drafts");
+        MessagePipelineEvents.Append event = new MessagePipelineEvents.Append(user, "Drafts");
+        event.begin();
         FolderUtil.saveMessageToFolder(draftMessage, draftsFolder);
+        event.commit();
 
-        LOG.info("Draft saved successfully for user {}", userId);
+        LOG.info("Draft saved successfully for user {}", user.getId());
     }
 
-    private void sendReply(MimeMessage replyMessage, Store store, Transport transport, long userId)
-            throws MessagingException, ProcessingException {
-        LOG.debug("Sending response for user {}", userId);
-
-        try {
-            transport.sendMessage(replyMessage, replyMessage.getAllRecipients());
-        } catch (SMTPSendFailedException e) {
-            int returnCode = e.getReturnCode();
-            if (returnCode >= 400 && returnCode < 500) {
-                LOG.error(
-                        "{} response code received from SMTP server. Retrying once in {} seconds",
-                        returnCode,
-                        (double) DELAY_MS / 1000);
-                try {
-                    Thread.sleep(DELAY_MS);
-                } catch (InterruptedException ie) {
-                    Thread.currentThread().interrupt();
-                }
-                transport.sendMessage(replyMessage, replyMessage.getAllRecipients());
-            } else {
-                throw new ProcessingException("Failed to send response", e, false);
-            }
-        }
-
-        IMAPFolder sentFolder = FolderUtil.getFolderByAttribute(store, "\\Sent");
-        FolderUtil.saveMessageToFolder(replyMessage, sentFolder);
-
-        LOG.info("Response sent successfully for user {}", userId);
+    private CompletableFuture<Void> sendReply(MimeMessage replyMessage, Store store, User user) {
+        LOG.debug("Sending response for user {}", user.getId());
+
+        // The processing thread does not wait for the SMTP server, retries happen in the queue
+        MessagePipelineEvents.Send sendEvent = new MessagePipelineEvents.Send(user);
+        sendEvent.begin();
+        CompletableFuture<Void> sent = outboundMailQueue.send(user, replyMessage);
+        sent.whenComplete(
+                (result, e) -> {
+                    sendEvent.succeeded = e == null;
+                    sendEvent.commit();
+                });
+        CompletableFuture<Void> saved =
+                sent.thenRun(
+                        () -> {
+                            try {
+                                IMAPFolder sentFolder =
+                                        FolderUtil.getFolderByAttribute(store, "\\Sent");
+                                MessagePipelineEvents.Append appendEvent =
+                                        new MessagePipelineEvents.Append(user, "Sent");
+                                appendEvent.begin();
+                                FolderUtil.saveMessageToFolder(replyMessage, sentFolder);
+                                appendEvent.commit();
+                            } catch (MessagingException | FolderException e) {
+                                throw new CompletionException(e);
+                            }
+
+                            LOG.info("Response sent successfully for user {}", user.getId());
+                        });
+
+        // A reply given up on, e.g. after the processing deadline, is not sent anymore
+        saved.whenComplete((result, e) -> sent.cancel(false));
+        return saved;
     }
 
     private MimeMessage createReplyMessage(
-            String userEmailAddress, IMAPMessage originalMessage, String body)
+            String userEmailAddress, MimeMessage originalMessage, String body)
             throws MessagingException, ProcessingException {
         LOG.debug("Creating response message");
 
@@ -1,5 +1,6 @@
 package de.flowsuite.mailboxservice.message;
 
+import de.flowsuite.mailboxservice.exception.InvalidRoutingRuleException;
 import de.flowsuite.mailflow.common.entity.BlacklistEntry;
 import de.flowsuite.mailflow.common.entity.MessageCategory;
 
@@ -12,6 +13,9 @@ import java.util.List;
 @RequestMapping("/notifications")
 class MessageResource {
 
+    // Optional, monotonically increasing per resource. Lets out of order notifications be dropped.
+    static final String VERSION_HEADER = "X-Version";
+
     private final MessageService messageService;
 
     MessageResource(MessageService messageService) {
@@ -21,15 +25,28 @@ class MessageResource {
     @PutMapping("/customers/{customerId}/message-categories")
     ResponseEntity<Void> onMessageCategoriesUpdated(
             @PathVariable("customerId") long customerId,
+            @RequestHeader(value = VERSION_HEADER, required = false) Long version,
             @RequestBody List<MessageCategory> messageCategories) {
-        messageService.onMessageCategoriesUpdated(customerId, messageCategories);
+        messageService.onMessageCategoriesUpdated(customerId, messageCategories, version);
         return ResponseEntity.noContent().build();
     }
 
     @PutMapping("users/{userId}/blacklist")
     ResponseEntity<Void> onBlacklistUpdated(
-            @PathVariable("userId") long userId, @RequestBody List<BlacklistEntry> blacklist) {
-        messageService.onBlacklistUpdated(userId, blacklist);
+            @PathVariable("userId") long userId,
+            @RequestHeader(value = VERSION_HEADER, required = false) Long version,
+            @RequestBody List<BlacklistEntry> blacklist) {
+        messageService.onBlacklistUpdated(userId, blacklist, version);
+        return ResponseEntity.noContent().build();
+    }
+
+    @PutMapping("/customers/{customerId}/routing-rules")
+    ResponseEntity<Void> onRoutingRulesUpdated(
+            @PathVariable("customerId") long customerId,
+            @RequestHeader(value = VERSION_HEADER, required = false) Long version,
+            @RequestBody List<RoutingRule> routingRules)
+            throws InvalidRoutingRuleException {
+        messageService.onRoutingRulesUpdated(customerId, routingRules, version);
         return ResponseEntity.noContent().build();
     }
 }
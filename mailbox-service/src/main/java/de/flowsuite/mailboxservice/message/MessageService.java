@@ -5,18 +5,25 @@ import static de.flowsuite.mailflow.common.util.Util.BERLIN_ZONE;
 import com.sun.mail.imap.IMAPFolder;
 import com.sun.mail.imap.IMAPMessage;
 
+import de.flowsuite.mailboxservice.exception.DeadlineExceededException;
 import de.flowsuite.mailboxservice.exception.FolderException;
+import de.flowsuite.mailboxservice.exception.InvalidRoutingRuleException;
 import de.flowsuite.mailboxservice.exception.MailboxServiceExceptionManager;
 import de.flowsuite.mailboxservice.exception.ProcessingException;
-import de.flowsuite.mailflow.common.client.ApiClient;
+import de.flowsuite.mailboxservice.message.MessageDeadlines.Stage;
 import de.flowsuite.mailflow.common.client.LlmServiceClient;
 import de.flowsuite.mailflow.common.dto.*;
 import de.flowsuite.mailflow.common.entity.BlacklistEntry;
 import de.flowsuite.mailflow.common.entity.MessageCategory;
 import de.flowsuite.mailflow.common.entity.User;
 import de.flowsuite.mailflow.common.exception.IdConflictException;
+import de.flowsuite.shared.messagelog.MessageLogWriter;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 
 import jakarta.mail.*;
+import jakarta.mail.internet.MimeMessage;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -24,9 +31,11 @@ import org.springframework.stereotype.Service;
 
 import java.io.IOException;
 import java.time.ZonedDateTime;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletionException;
 
 @Service
 public class MessageService {
@@ -36,41 +45,80 @@ public class MessageService {
     private static final String DEFAULT_CATEGORY = "Default";
     private static final String NO_REPLY_CATEGORY = "No Reply";
 
-    public static final ConcurrentHashMap<Long, List<MessageCategory>> messageCategoriesByUser =
-            new ConcurrentHashMap<>();
-    public static final ConcurrentHashMap<Long, List<BlacklistEntry>> blacklistByUser =
-            new ConcurrentHashMap<>();
-
-    private final ApiClient apiClient;
+    private final MessageLogWriter messageLogWriter;
     private final LlmServiceClient llmServiceClient;
     private final MessageReplyHandler replyHandler;
     private final MailboxServiceExceptionManager mailboxServiceExceptionManager;
+    private final MessageConfigCache messageConfigCache;
+    private final LlmWorkScheduler llmWorkScheduler;
+    private final CategorisationBatcher categorisationBatcher;
+    private final UserCredentialCache userCredentialCache;
+    private final MessageDeadlines messageDeadlines;
+    private final RoutingRuleEngine routingRuleEngine;
+    private final Map<MessagePriority, Timer> processingTimers =
+            new EnumMap<>(MessagePriority.class);
 
     MessageService(
-            ApiClient apiClient,
+            MessageLogWriter messageLogWriter,
             LlmServiceClient llmServiceRestClient,
             MessageReplyHandler replyHandler,
-            MailboxServiceExceptionManager mailboxServiceExceptionManager) {
-        this.apiClient = apiClient;
+            MailboxServiceExceptionManager mailboxServiceExceptionManager,
+            MessageConfigCache messageConfigCache,
+            LlmWorkScheduler llmWorkScheduler,
+            CategorisationBatcher categorisationBatcher,
+            UserCredentialCache userCredentialCache,
+            MessageDeadlines messageDeadlines,
+            RoutingRuleEngine routingRuleEngine,
+            MeterRegistry meterRegistry) {
+        this.messageLogWriter = messageLogWriter;
         this.llmServiceClient = llmServiceRestClient;
         this.replyHandler = replyHandler;
         this.mailboxServiceExceptionManager = mailboxServiceExceptionManager;
+        this.messageConfigCache = messageConfigCache;
+        this.llmWorkScheduler = llmWorkScheduler;
+        this.categorisationBatcher = categorisationBatcher;
+        this.userCredentialCache = userCredentialCache;
+        this.messageDeadlines = messageDeadlines;
+        this.routingRuleEngine = routingRuleEngine;
+
+        for (MessagePriority priority : MessagePriority.values()) {
+            processingTimers.put(
+                    priority,
+                    Timer.builder("mailbox.message.processing")
+                            .description("Time from queueing a message until it was processed")
+                            .tag("lane", priority.name().toLowerCase())
+                            .register(meterRegistry));
+        }
     }
 
-    // spotless:off
     public CompletableFuture<Void> processMessageAsync(
-            Message message, Store store, Transport transport, IMAPFolder inbox, User user) {
+            Message message, MessagePriority priority, Store store, IMAPFolder inbox, User user) {
+        Timer.Sample sample = Timer.start();
+        return processMessage(message, priority, store, inbox, user)
+                .whenComplete((result, e) -> sample.stop(processingTimers.get(priority)));
+    }
+
+    /** Longest time processing a message can take before it is moved to manual review. */
+    public long maxProcessingMs() {
+        return messageDeadlines.totalBudgetMs();
+    }
+
+    // spotless:off
+    private CompletableFuture<Void> processMessage(
+            Message message, MessagePriority priority, Store store, IMAPFolder inbox, User user) {
         try {
             LOG.info("Processing message for user {}", user.getId());
 
-            if (!(message instanceof IMAPMessage originalMessage)) {
-                LOG.error("Aborting: message if not an IMAPMessage");
+            if (!(message instanceof MimeMessage originalMessage)) {
+                LOG.error("Aborting: message if not a MimeMessage");
                 return CompletableFuture.completedFuture(null);
             }
 
-            originalMessage.setPeek(true);
+            if (originalMessage instanceof IMAPMessage imapMessage) {
+                imapMessage.setPeek(true); // Messages of a large inbox are fetched with BODY.PEEK
+            }
 
-            List<BlacklistEntry> blacklistEntries = getOrFetchBlacklist(user);
+            List<BlacklistEntry> blacklistEntries = messageConfigCache.getBlacklist(user);
             String fromEmailAddress = MessageUtil.extractFromEmailAddress(originalMessage);
             if (blacklistEntries.stream()
                     .anyMatch(entry -> entry.getBlacklistedEmailAddress().equalsIgnoreCase(fromEmailAddress))) {
@@ -78,34 +126,34 @@ public class MessageService {
                 return CompletableFuture.completedFuture(null);
             }
 
-            List<MessageCategory> categories = getOrFetchMessageCategories(user);
-            String text = MessageUtil.getCleanedText(originalMessage);
+            List<MessageCategory> categories = messageConfigCache.getMessageCategories(user);
+            MessageCategory messageCategory =
+                    categories.size() == 1
+                            ? categories.get(0)
+                            : routingRuleEngine.route(user, originalMessage, categories);
 
-            if (categories.size() == 1) {
-                MessageCategory messageCategory = categories.get(0);
+            if (messageCategory != null) {
                 CategorisationResponse categorisationResponse = new CategorisationResponse(messageCategory, null, null, null, null);
-                return handleMessageCategoryAsync(originalMessage, categorisationResponse, store, transport, inbox, user);
+                return handleMessageCategoryAsync(originalMessage, priority, categorisationResponse, store, inbox, user)
+                        .exceptionally(e -> handleProcessingFailure(e, originalMessage, store, inbox, user));
             } else {
+                String text = MessageUtil.getCleanedText(originalMessage);
+
                 // We use thenCompose to chain the next action based on the result of categorising the message.
                 // This allows us to perform further asynchronous operations.
-                return categoriseMessageAsync(user, text, categories)
+                CompletableFuture<Void> dispatched = new CompletableFuture<>();
+                return messageDeadlines.withinCall(Stage.CATEGORISE, user, dispatched, categoriseMessageAsync(user, priority, text, categories, dispatched))
                         .thenCompose(categorisationResponse -> {
                             try {
-                                return handleMessageCategoryAsync(originalMessage, categorisationResponse, store, transport, inbox, user);
+                                return handleMessageCategoryAsync(originalMessage, priority, categorisationResponse, store, inbox, user);
                             } catch (ProcessingException | MessagingException | IOException e) {
                                 return CompletableFuture.failedFuture(e);
                             }
                         })
-                        .exceptionally(e -> {
-                            ProcessingException processingException =
-                                    new ProcessingException(
-                                            String.format("Failed to process message for user %d", user.getId()),
-                                            e,
-                                            true);
-                                    mailboxServiceExceptionManager.handleException(processingException);
-                                    return null;
-                                });
+                        .exceptionally(e -> handleProcessingFailure(e, originalMessage, store, inbox, user));
             }
+        } catch (DeadlineExceededException e) {
+            return CompletableFuture.completedFuture(handleProcessingFailure(e, (MimeMessage) message, store, inbox, user));
         } catch (ProcessingException | MessagingException | IOException e) {
             ProcessingException processingException =
                     new ProcessingException(
@@ -118,11 +166,39 @@ public class MessageService {
     }
     // spotless:on
 
+    private Void handleProcessingFailure(
+            Throwable e, MimeMessage originalMessage, Store store, IMAPFolder inbox, User user) {
+        DeadlineExceededException deadlineExceeded = MessageDeadlines.exceededCause(e);
+        if (deadlineExceeded == null) {
+            ProcessingException processingException =
+                    new ProcessingException(
+                            String.format("Failed to process message for user %d", user.getId()),
+                            e,
+                            true);
+            mailboxServiceExceptionManager.handleException(processingException);
+            return null;
+        }
+
+        LOG.warn("{}, moving message to manual review", deadlineExceeded.getMessage());
+        try {
+            FolderUtil.moveToManualReviewFolder(user, originalMessage, store, inbox);
+        } catch (MessagingException | FolderException moveException) {
+            mailboxServiceExceptionManager.handleException(
+                    new ProcessingException(
+                            String.format(
+                                    "Failed to move message of user %d to manual review",
+                                    user.getId()),
+                            moveException,
+                            false));
+        }
+        return null;
+    }
+
     private CompletableFuture<Void> handleMessageCategoryAsync(
-            IMAPMessage originalMessage,
+            MimeMessage originalMessage,
+            MessagePriority priority,
             CategorisationResponse categorisationResponse,
             Store store,
-            Transport transport,
             IMAPFolder inbox,
             User user)
             throws ProcessingException, MessagingException, IOException {
@@ -137,7 +213,7 @@ public class MessageService {
         if (messageCategory.getReply()) {
             CompletableFuture<Boolean> future =
                     generateReplyMessageAsync(
-                            originalMessage, categorisationResponse, store, transport, inbox, user);
+                            originalMessage, priority, categorisationResponse, store, inbox, user);
 
             // Move message AFTER reply generation
             return future.thenCompose(
@@ -146,7 +222,7 @@ public class MessageService {
                             try {
                                 if (!messageHasBeenMoved) {
                                     moveMessageToCategoryFolder(
-                                            originalMessage, store, inbox, messageCategory);
+                                            originalMessage, store, inbox, messageCategory, user);
                                 }
                             } catch (MessagingException | ProcessingException e) {
                                 return CompletableFuture.failedFuture(e);
@@ -156,19 +232,21 @@ public class MessageService {
                     });
         }
 
-        if (!isDefaultOrNoReplyCategory(messageCategory)) {
-            moveMessageToCategoryFolder(originalMessage, store, inbox, messageCategory);
-        }
-
+        // Read everything needed for the log entry first, the message is expunged once moved
         String fromEmailAddress = MessageUtil.extractFromEmailAddress(originalMessage);
+        String subject = originalMessage.getSubject();
         ZonedDateTime receivedAt =
                 ZonedDateTime.ofInstant(originalMessage.getReceivedDate().toInstant(), BERLIN_ZONE);
 
-        apiClient.createMessageLogEntry(
+        if (!isDefaultOrNoReplyCategory(messageCategory)) {
+            moveMessageToCategoryFolder(originalMessage, store, inbox, messageCategory, user);
+        }
+
+        messageLogWriter.write(
                 user.getCustomerId(),
                 user.getId(),
                 fromEmailAddress,
-                originalMessage.getSubject(),
+                subject,
                 receivedAt,
                 categorisationResponse,
                 null,
@@ -178,45 +256,35 @@ public class MessageService {
     }
 
     private void handleFailedCategorisation(
-            IMAPMessage message, Store store, IMAPFolder inbox, User user)
+            MimeMessage message, Store store, IMAPFolder inbox, User user)
             throws MessagingException, FolderException {
         LOG.warn("Failed to categorise message for user {}", user.getId());
         FolderUtil.moveToManualReviewFolder(user, message, store, inbox);
     }
 
-    private boolean isDefaultOrNoReplyCategory(MessageCategory messageCategory) {
+    static boolean isDefaultOrNoReplyCategory(MessageCategory messageCategory) {
         String category = messageCategory.getCategory();
         return DEFAULT_CATEGORY.equalsIgnoreCase(category)
                 || NO_REPLY_CATEGORY.equalsIgnoreCase(category);
     }
 
-    private List<MessageCategory> getOrFetchMessageCategories(User user) {
-        return messageCategoriesByUser.computeIfAbsent(
-                user.getCustomerId(),
-                id -> apiClient.listMessageCategories(user.getCustomerId())); // Blocking request
-    }
-
-    private List<BlacklistEntry> getOrFetchBlacklist(User user) {
-        return blacklistByUser.computeIfAbsent(
-                user.getId(),
-                id ->
-                        apiClient.listBlacklistEntries(
-                                user.getCustomerId(), user.getId())); // Blocking request
-    }
-
     private CompletableFuture<Boolean> generateReplyMessageAsync(
-            IMAPMessage originalMessage,
+            MimeMessage originalMessage,
+            MessagePriority priority,
             CategorisationResponse categorisationResponse,
             Store store,
-            Transport transport,
             IMAPFolder inbox,
             User user)
             throws MessagingException, IOException, ProcessingException {
         LOG.debug("Generating reply for user {}...", user.getId());
 
-        List<IMAPMessage> messageThread =
+        long threadFetchStartedAt = System.nanoTime();
+        List<MimeMessage> messageThread =
                 MessageUtil.fetchMessageThread(originalMessage, store, inbox);
-        List<ThreadMessage> threadBody = MessageUtil.buildThreadBody(messageThread, user);
+        List<ThreadMessage> threadBody =
+                MessageUtil.buildThreadBody(
+                        messageThread, userCredentialCache.getEmailAddress(user));
+        messageDeadlines.check(Stage.THREAD_FETCH, threadFetchStartedAt, user);
 
         LOG.debug("Message thread body contains {} messages", threadBody.size());
 
@@ -228,33 +296,70 @@ public class MessageService {
         ZonedDateTime receivedAt =
                 ZonedDateTime.ofInstant(originalMessage.getReceivedDate().toInstant(), BERLIN_ZONE);
 
-        return generateReplyAsync(
+        CompletableFuture<Void> dispatched = new CompletableFuture<>();
+        return messageDeadlines
+                .withinCall(
+                        Stage.GENERATE,
                         user,
-                        threadBody,
-                        fromEmailAddress,
-                        originalMessage.getSubject(),
-                        receivedAt,
-                        categorisationResponse)
-                .thenApply(
+                        dispatched,
+                        generateReplyAsync(
+                                user,
+                                priority,
+                                threadBody,
+                                fromEmailAddress,
+                                originalMessage.getSubject(),
+                                receivedAt,
+                                categorisationResponse,
+                                dispatched))
+                .thenCompose(
                         reply -> {
+                            long actStartedAt = System.nanoTime();
                             try {
-                                return replyHandler.handleReply(
-                                        user, originalMessage, reply, store, transport, inbox);
+                                return messageDeadlines
+                                        .within(
+                                                Stage.ACT,
+                                                actStartedAt,
+                                                user,
+                                                replyHandler.handleReply(
+                                                        user, originalMessage, reply, store, inbox))
+                                        .exceptionally(
+                                                e -> {
+                                                    if (MessageDeadlines.exceededCause(e) != null) {
+                                                        throw new CompletionException(e);
+                                                    }
+                                                    handleReplyFailure(e);
+                                                    return false;
+                                                });
                             } catch (MessagingException | ProcessingException e) {
                                 mailboxServiceExceptionManager.handleException(e);
-                                return false;
+                                return CompletableFuture.completedFuture(false);
                             }
                         });
     }
 
+    private void handleReplyFailure(Throwable e) {
+        Throwable cause =
+                e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        if (cause instanceof Exception exception) {
+            mailboxServiceExceptionManager.handleException(exception);
+        } else {
+            LOG.error("Failed to handle reply", cause);
+        }
+    }
+
     private void moveMessageToCategoryFolder(
-            IMAPMessage originalMessage,
+            MimeMessage originalMessage,
             Store store,
             IMAPFolder inbox,
-            MessageCategory messageCategory)
+            MessageCategory messageCategory,
+            User user)
             throws MessagingException, ProcessingException {
         LOG.debug("Moving message to messageCategory folder...");
 
+        MessagePipelineEvents.Move event =
+                new MessagePipelineEvents.Move(user, messageCategory.getCategory(), 1);
+        event.begin();
+
         IMAPFolder targetFolder = FolderUtil.getFolderByName(store, messageCategory.getCategory());
 
         if (targetFolder == null) {
@@ -262,32 +367,33 @@ public class MessageService {
         }
 
         FolderUtil.moveToFolder(originalMessage, inbox, targetFolder);
+        event.commit();
     }
 
     CompletableFuture<CategorisationResponse> categoriseMessageAsync(
-            User user, String text, List<MessageCategory> categories) {
-        return CompletableFuture.supplyAsync(
-                () -> {
-                    CategorisationRequest request =
-                            CategorisationRequest.builder()
-                                    .user(user)
-                                    .text(text.trim())
-                                    .categories(categories)
-                                    .build();
-
-                    return llmServiceClient.categorise(request);
-                });
+            User user,
+            MessagePriority priority,
+            String text,
+            List<MessageCategory> categories,
+            CompletableFuture<Void> dispatched) {
+        return categorisationBatcher.categorise(user, priority, text, categories, dispatched);
     }
 
     CompletableFuture<String> generateReplyAsync(
             User user,
+            MessagePriority priority,
             List<ThreadMessage> messageThread,
             String fromEmailAddress,
             String subject,
             ZonedDateTime receivedAt,
-            CategorisationResponse categorisationResponse) {
-        return CompletableFuture.supplyAsync(
+            CategorisationResponse categorisationResponse,
+            CompletableFuture<Void> dispatched) {
+        return llmWorkScheduler.submit(
+                user,
+                LlmWorkScheduler.GENERATION_COST,
+                priority,
                 () -> {
+                    dispatched.complete(null);
                     GenerationRequest request =
                             GenerationRequest.builder()
                                     .user(user)
@@ -298,27 +404,45 @@ public class MessageService {
                                     .categorisationResponse(categorisationResponse)
                                     .build();
 
-                    return llmServiceClient.generateReply(request);
+                    MessagePipelineEvents.Generate event =
+                            new MessagePipelineEvents.Generate(user, priority);
+                    event.begin();
+                    try {
+                        return llmServiceClient.generateReply(request);
+                    } finally {
+                        event.commit();
+                    }
                 });
     }
 
-    void onMessageCategoriesUpdated(long customerId, List<MessageCategory> categories) {
-        LOG.debug("Updating message categories for customer {}", customerId);
+    void onMessageCategoriesUpdated(
+            long customerId, List<MessageCategory> categories, Long version) {
+        LOG.debug("Updating message categories for customer {} (version {})", customerId, version);
         for (MessageCategory category : categories) {
             if (!category.getCustomerId().equals(customerId)) {
                 throw new IdConflictException();
             }
         }
-        messageCategoriesByUser.put(customerId, categories);
+        messageConfigCache.putMessageCategories(customerId, categories, version);
+    }
+
+    void onRoutingRulesUpdated(long customerId, List<RoutingRule> routingRules, Long version)
+            throws InvalidRoutingRuleException {
+        LOG.debug(
+                "Updating {} routing rules for customer {} (version {})",
+                routingRules.size(),
+                customerId,
+                version);
+        routingRuleEngine.putRules(customerId, routingRules, version);
     }
 
-    void onBlacklistUpdated(long userId, List<BlacklistEntry> blacklistEntries) {
-        LOG.debug("Updating blacklist for user {}", userId);
+    void onBlacklistUpdated(long userId, List<BlacklistEntry> blacklistEntries, Long version) {
+        LOG.debug("Updating blacklist for user {} (version {})", userId, version);
         for (BlacklistEntry blacklistEntry : blacklistEntries) {
             if (!blacklistEntry.getUserId().equals(userId)) {
                 throw new IdConflictException();
             }
         }
-        blacklistByUser.put(userId, blacklistEntries);
+        messageConfigCache.putBlacklist(userId, blacklistEntries, version);
     }
 }
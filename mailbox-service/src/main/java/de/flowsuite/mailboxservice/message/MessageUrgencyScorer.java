@@ -0,0 +1,166 @@
+package de.flowsuite.mailboxservice.message;
+
+import de.flowsuite.mailflow.common.entity.User;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import jakarta.mail.Address;
+import jakarta.mail.FetchProfile;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.InternetAddress;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decides whether a message belongs to a real conversation or is bulk mail, using only headers and
+ * the size of the message, so it can be done before any call to llm-service. Replies within a
+ * thread and messages from known correspondents count towards interactive, mailing list and
+ * auto-submitted headers as well as large messages towards bulk.
+ */
+@Component
+public class MessageUrgencyScorer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MessageUrgencyScorer.class);
+
+    static final int THREAD_REPLY_SCORE = 2;
+    static final int KNOWN_CORRESPONDENT_SCORE = 2;
+    static final int BULK_HEADER_SCORE = -4;
+    static final int LARGE_MESSAGE_SCORE = -1;
+    static final int LARGE_MESSAGE_BYTES = 1_000_000;
+    static final int MAX_CORRESPONDENTS_PER_USER = 1000;
+
+    private static final Set<String> BULK_PRECEDENCES = Set.of("bulk", "list", "junk");
+    private static final String[] SCORED_HEADERS = {
+        "In-Reply-To", "References", "List-Id", "List-Unsubscribe", "Precedence", "Auto-Submitted"
+    };
+
+    private final boolean enabled;
+    private final ConcurrentHashMap<Long, Set<String>> correspondentsByUser =
+            new ConcurrentHashMap<>();
+    private final Map<MessagePriority, Counter> counters = new EnumMap<>(MessagePriority.class);
+
+    MessageUrgencyScorer(
+            @Value("${message-priority.enabled:true}") boolean enabled,
+            MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        for (MessagePriority priority : MessagePriority.values()) {
+            counters.put(
+                    priority,
+                    Counter.builder("mailbox.message.priority")
+                            .description("Messages by processing lane")
+                            .tag("lane", priority.name().toLowerCase())
+                            .register(meterRegistry));
+        }
+    }
+
+    // Lets the caller fetch everything needed for scoring with one command instead of one per
+    // message and header
+    public void addFetchItems(FetchProfile fetchProfile) {
+        if (!enabled) {
+            return;
+        }
+
+        fetchProfile.add(FetchProfile.Item.ENVELOPE);
+        fetchProfile.add(FetchProfile.Item.SIZE);
+        for (String header : SCORED_HEADERS) {
+            fetchProfile.add(header);
+        }
+    }
+
+    public MessagePriority score(User user, Message message) {
+        if (!enabled) {
+            return MessagePriority.INTERACTIVE;
+        }
+
+        MessagePriority priority;
+        try {
+            int score = 0;
+            if (message.getHeader("In-Reply-To") != null
+                    || message.getHeader("References") != null) {
+                score += THREAD_REPLY_SCORE;
+            }
+            if (isKnownCorrespondent(user.getId(), message.getFrom())) {
+                score += KNOWN_CORRESPONDENT_SCORE;
+            }
+            if (hasBulkHeaders(message)) {
+                score += BULK_HEADER_SCORE;
+            }
+            if (message.getSize() > LARGE_MESSAGE_BYTES) {
+                score += LARGE_MESSAGE_SCORE;
+            }
+            priority = score >= 0 ? MessagePriority.INTERACTIVE : MessagePriority.BULK;
+        } catch (MessagingException e) {
+            LOG.warn("Failed to score message for user {}", user.getId(), e);
+            priority = MessagePriority.INTERACTIVE;
+        }
+
+        counters.get(priority).increment();
+        return priority;
+    }
+
+    void addCorrespondents(long userId, Address[] addresses) {
+        if (addresses == null) {
+            return;
+        }
+
+        Set<String> correspondents =
+                correspondentsByUser.computeIfAbsent(
+                        userId, id -> Collections.synchronizedSet(createBoundedSet()));
+        for (Address address : addresses) {
+            correspondents.add(normalise(address));
+        }
+    }
+
+    private boolean isKnownCorrespondent(long userId, Address[] from) {
+        Set<String> correspondents = correspondentsByUser.get(userId);
+        if (correspondents == null || from == null) {
+            return false;
+        }
+
+        for (Address address : from) {
+            if (correspondents.contains(normalise(address))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasBulkHeaders(Message message) throws MessagingException {
+        if (message.getHeader("List-Id") != null || message.getHeader("List-Unsubscribe") != null) {
+            return true;
+        }
+
+        String[] precedence = message.getHeader("Precedence");
+        if (precedence != null && BULK_PRECEDENCES.contains(precedence[0].trim().toLowerCase())) {
+            return true;
+        }
+
+        String[] autoSubmitted = message.getHeader("Auto-Submitted");
+        return autoSubmitted != null && !"no".equalsIgnoreCase(autoSubmitted[0].trim());
+    }
+
+    private static String normalise(Address address) {
+        if (address instanceof InternetAddress internetAddress) {
+            return internetAddress.getAddress().toLowerCase();
+        }
+        return address.toString().toLowerCase();
+    }
+
+    private static Set<String> createBoundedSet() {
+        return Collections.newSetFromMap(
+                new LinkedHashMap<>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                        return size() > MAX_CORRESPONDENTS_PER_USER;
+                    }
+                });
+    }
+}
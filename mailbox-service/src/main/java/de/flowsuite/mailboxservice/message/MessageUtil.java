@@ -5,11 +5,10 @@ import com.sun.mail.imap.IMAPMessage;
 
 import de.flowsuite.mailboxservice.exception.FolderException;
 import de.flowsuite.mailflow.common.dto.ThreadMessage;
-import de.flowsuite.mailflow.common.entity.User;
-import de.flowsuite.mailflow.common.util.AesUtil;
 
 import jakarta.mail.*;
 import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeMessage;
 import jakarta.mail.search.MessageIDTerm;
 
 import org.jsoup.Jsoup;
@@ -26,7 +25,7 @@ class MessageUtil {
 
     private static final Logger LOG = org.slf4j.LoggerFactory.getLogger(MessageUtil.class);
 
-    private static int compare(IMAPMessage m1, IMAPMessage m2) {
+    private static int compare(MimeMessage m1, MimeMessage m2) {
         try {
             Date date1 = m1.getReceivedDate();
             Date date2 = m2.getReceivedDate();
@@ -126,7 +125,7 @@ class MessageUtil {
         return "";
     }
 
-    private static String extractPlainTextFromHtml(String html) {
+    static String extractPlainTextFromHtml(String html) {
         LOG.debug("Extracting plain text from HTML");
 
         LOG.debug("HTML: {}", html);
@@ -140,7 +139,7 @@ class MessageUtil {
         return doc.text();
     }
 
-    private static String removeQuotedLinesFromPlainText(String text) {
+    static String removeQuotedLinesFromPlainText(String text) {
         LOG.debug("Removing quoted lines from text");
         return text.lines()
                 .filter(line -> !line.trim().startsWith(">"))
@@ -152,7 +151,7 @@ class MessageUtil {
         doc.select("blockquote").remove();
     }
 
-    static List<IMAPMessage> fetchMessageThread(IMAPMessage message, Store store, IMAPFolder inbox)
+    static List<MimeMessage> fetchMessageThread(MimeMessage message, Store store, IMAPFolder inbox)
             throws MessagingException, FolderException {
         LOG.debug("Fetching message thread");
         IMAPFolder sentFolder = FolderUtil.getFolderByAttribute(store, "\\Sent");
@@ -163,7 +162,7 @@ class MessageUtil {
             return List.of(message);
         }
 
-        List<IMAPMessage> messageThread = new ArrayList<>();
+        List<MimeMessage> messageThread = new ArrayList<>();
         messageThread.add(message);
 
         for (String reference : references) {
@@ -172,7 +171,7 @@ class MessageUtil {
 
             for (String messageId : messageIds) {
                 LOG.debug("Searching for reference: {} in inbox folder", messageId);
-                List<IMAPMessage> messages = searchByMessageId(inbox, messageId);
+                List<? extends MimeMessage> messages = searchThread(message, inbox, messageId);
                 if (messages != null && !messages.isEmpty()) {
                     messageThread.addAll(messages);
                 }
@@ -187,7 +186,7 @@ class MessageUtil {
 
                 for (String messageId : messageIds) {
                     LOG.debug("Searching for reference: {} in sent folder", messageId);
-                    List<IMAPMessage> messages = searchByMessageId(inbox, messageId);
+                    List<? extends MimeMessage> messages = searchThread(message, inbox, messageId);
                     if (messages != null && !messages.isEmpty()) {
                         messageThread.addAll(messages);
                     }
@@ -208,17 +207,17 @@ class MessageUtil {
                 .collect(Collectors.toList());
     }
 
-    static List<ThreadMessage> buildThreadBody(List<IMAPMessage> messageThread, User user)
+    static List<ThreadMessage> buildThreadBody(
+            List<? extends MimeMessage> messageThread, String userEmailAddress)
             throws MessagingException, IOException {
         LOG.debug("Building message thread body");
 
         List<ThreadMessage> threadBody = new ArrayList<>();
 
-        String userEmailAddress = AesUtil.decrypt(user.getEmailAddress());
         LOG.debug("User email address: {}", userEmailAddress);
 
         for (int i = 0; i < messageThread.size(); i++) {
-            IMAPMessage message = messageThread.get(i);
+            MimeMessage message = messageThread.get(i);
             String fromEmailAddress = extractFromEmailAddress(message);
             boolean isFromUser = fromEmailAddress.equalsIgnoreCase(userEmailAddress);
 
@@ -263,6 +262,15 @@ class MessageUtil {
         }
     }
 
+    // Messages of a large inbox are searched by UID, the inbox is not opened
+    private static List<? extends MimeMessage> searchThread(
+            MimeMessage message, IMAPFolder inbox, String messageId) throws MessagingException {
+        if (message instanceof UidMessage uidMessage) {
+            return uidMessage.getInbox().searchByMessageId(messageId);
+        }
+        return searchByMessageId(inbox, messageId);
+    }
+
     static List<IMAPMessage> searchByMessageId(IMAPFolder folder, String messageId)
             throws MessagingException {
         LOG.debug("Searching for email by messageId: {}", messageId);
@@ -281,7 +289,7 @@ class MessageUtil {
                 .toList();
     }
 
-    static String extractFromEmailAddress(IMAPMessage message) throws MessagingException {
+    static String extractFromEmailAddress(MimeMessage message) throws MessagingException {
         Address senderAddress = message.getSender();
         String fromEmailAddress = senderAddress.toString().toLowerCase();
 
@@ -0,0 +1,181 @@
+package de.flowsuite.mailboxservice.message;
+
+import com.sun.mail.smtp.SMTPSendFailedException;
+import com.sun.mail.util.MailConnectException;
+
+import de.flowsuite.mailboxservice.exception.ProcessingException;
+import de.flowsuite.mailflow.common.entity.User;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.mail.AuthenticationFailedException;
+import jakarta.mail.MessagingException;
+import jakarta.mail.SendFailedException;
+import jakarta.mail.internet.MimeMessage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends outgoing messages in the background. Messages of the same user are sent one after another
+ * over a pooled connection; a transient failure (SMTP 4xx or a dropped connection) is retried with
+ * exponential backoff on a scheduler instead of blocking a thread. Rejected recipients and other
+ * failures fail the message at once.
+ */
+@Service
+public class OutboundMailQueue {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OutboundMailQueue.class);
+
+    static final int SENDER_THREADS = 4;
+    static final int MAX_ATTEMPTS = 3;
+    static final long INITIAL_RETRY_DELAY_MS = 3000;
+
+    private final ConcurrentHashMap<Long, CompletableFuture<Void>> lastSendByUser =
+            new ConcurrentHashMap<>();
+    private final SmtpTransportPool transportPool;
+    private final ScheduledExecutorService senderExecutor;
+
+    OutboundMailQueue(SmtpTransportPool transportPool) {
+        this.transportPool = transportPool;
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.senderExecutor =
+                Executors.newScheduledThreadPool(
+                        SENDER_THREADS,
+                        r -> {
+                            Thread thread =
+                                    new Thread(r, "Smtp-Sender-" + threadCount.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+    }
+
+    CompletableFuture<Void> send(User user, MimeMessage message) {
+        CompletableFuture<Void> sent = new CompletableFuture<>();
+
+        // Chain behind the previous message of the user, regardless of its outcome
+        CompletableFuture<Void> previous = lastSendByUser.put(user.getId(), sent);
+        if (previous == null) {
+            previous = CompletableFuture.completedFuture(null);
+        }
+        previous.handle((result, e) -> null)
+                .thenRunAsync(() -> attemptSend(user, message, 1, sent), senderExecutor);
+
+        sent.whenComplete((result, e) -> lastSendByUser.remove(user.getId(), sent));
+        return sent;
+    }
+
+    public void closeConnections(long userId) {
+        transportPool.close(userId);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        senderExecutor.shutdownNow();
+    }
+
+    private void attemptSend(
+            User user, MimeMessage message, int attempt, CompletableFuture<Void> sent) {
+        if (sent.isDone()) {
+            LOG.debug("Dropping cancelled message for user {}", user.getId());
+            return;
+        }
+
+        LOG.debug(
+                "Sending message for user {} (attempt {}/{})", user.getId(), attempt, MAX_ATTEMPTS);
+
+        SmtpTransportPool.Lease lease = null;
+        try {
+            lease = transportPool.borrow(user);
+            lease.transport().sendMessage(message, message.getAllRecipients());
+            transportPool.release(lease);
+            sent.complete(null);
+        } catch (SMTPSendFailedException e) {
+            transportPool.invalidate(lease);
+            int returnCode = e.getReturnCode();
+            if (returnCode >= 400 && returnCode < 500) {
+                retryOrFail(
+                        user,
+                        message,
+                        attempt,
+                        sent,
+                        e,
+                        returnCode + " response code received from SMTP server");
+            } else {
+                sent.completeExceptionally(
+                        new ProcessingException("Failed to send response", e, false));
+            }
+        } catch (SendFailedException e) {
+            transportPool.invalidate(lease);
+            sent.completeExceptionally(
+                    new ProcessingException("SMTP server rejected the recipients", e, false));
+        } catch (AuthenticationFailedException e) {
+            sent.completeExceptionally(
+                    new ProcessingException("Failed to authenticate at SMTP server", e, false));
+        } catch (MessagingException e) {
+            boolean connectionFailed = isConnectionFailure(lease, e);
+            if (lease != null) {
+                transportPool.invalidate(lease);
+            }
+            if (connectionFailed) {
+                retryOrFail(user, message, attempt, sent, e, "SMTP connection failed");
+            } else {
+                sent.completeExceptionally(
+                        new ProcessingException("Failed to send response", e, false));
+            }
+        } catch (RuntimeException e) {
+            if (lease != null) {
+                transportPool.invalidate(lease);
+            }
+            sent.completeExceptionally(e);
+        }
+    }
+
+    // Only a refused, lost or closed connection is worth another attempt
+    private static boolean isConnectionFailure(
+            SmtpTransportPool.Lease lease, MessagingException e) {
+        return e instanceof MailConnectException
+                || e.getNextException() instanceof IOException
+                || (lease != null && !lease.transport().isConnected());
+    }
+
+    private void retryOrFail(
+            User user,
+            MimeMessage message,
+            int attempt,
+            CompletableFuture<Void> sent,
+            MessagingException e,
+            String reason) {
+        if (attempt >= MAX_ATTEMPTS) {
+            sent.completeExceptionally(
+                    new ProcessingException(
+                            String.format(
+                                    "Failed to send response for user %d after %d attempts",
+                                    user.getId(), attempt),
+                            e,
+                            false));
+            return;
+        }
+
+        long delayMs = INITIAL_RETRY_DELAY_MS * (long) Math.pow(3, attempt - 1);
+        LOG.error(
+                "{} for user {}. Retrying in {} seconds",
+                reason,
+                user.getId(),
+                (double) delayMs / 1000);
+
+        try {
+            senderExecutor.schedule(
+                    () -> attemptSend(user, message, attempt + 1, sent),
+                    delayMs,
+                    TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException rejected) {
+            sent.completeExceptionally(rejected);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package de.flowsuite.mailboxservice.message;
+
+/**
+ * Assigns a message category without asking llm-service. {@code headerName} is only used with
+ * {@link Field#HEADER}. Values are compared case-insensitively.
+ */
+public record RoutingRule(
+        Field field, String headerName, Operator operator, String value, long messageCategoryId) {
+
+    public enum Field {
+        SENDER,
+        SENDER_DOMAIN,
+        SUBJECT,
+        HEADER
+    }
+
+    public enum Operator {
+        EQUALS,
+        CONTAINS,
+        STARTS_WITH,
+        ENDS_WITH
+    }
+}
@@ -0,0 +1,154 @@
+package de.flowsuite.mailboxservice.message;
+
+import de.flowsuite.mailboxservice.exception.InvalidRoutingRuleException;
+import de.flowsuite.mailflow.common.entity.MessageCategory;
+import de.flowsuite.mailflow.common.entity.User;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.mail.FetchProfile;
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeMessage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Routing rules of customers with deterministic routing, e.g. by sender domain or a marker in the
+ * subject. A matching message gets the category of the rule without a call to llm-service. Rules
+ * are pushed by the notification endpoint and compiled once per update into {@link
+ * CompiledRoutingRules}. The API does not push them again after a restart, so they are written to
+ * the {@link RoutingRuleStore} and loaded from it on startup.
+ */
+@Component
+public class RoutingRuleEngine {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RoutingRuleEngine.class);
+    private static final long NO_VERSION = -1;
+
+    private record Entry(CompiledRoutingRules rules, long version) {}
+
+    private final ConcurrentHashMap<Long, Entry> rulesByCustomer = new ConcurrentHashMap<>();
+    private final RoutingRuleStore routingRuleStore;
+    private final Counter routedCounter;
+
+    RoutingRuleEngine(RoutingRuleStore routingRuleStore, MeterRegistry meterRegistry) {
+        this.routingRuleStore = routingRuleStore;
+        this.routedCounter =
+                Counter.builder("mailbox.message.routed")
+                        .description("Messages categorised by a routing rule")
+                        .register(meterRegistry);
+    }
+
+    @PostConstruct
+    void load() {
+        routingRuleStore
+                .loadAll()
+                .forEach(
+                        (customerId, stored) -> {
+                            try {
+                                rulesByCustomer.put(
+                                        customerId,
+                                        new Entry(
+                                                new CompiledRoutingRules(
+                                                        customerId, stored.rules()),
+                                                stored.version()));
+                            } catch (InvalidRoutingRuleException e) {
+                                LOG.warn(
+                                        "Ignoring stored routing rules of customer {}: {}",
+                                        customerId,
+                                        e.getMessage());
+                            }
+                        });
+        LOG.info("Loaded routing rules of {} customers", rulesByCustomer.size());
+    }
+
+    // Lets the caller fetch the envelope and the headers the rules look at with one command
+    public void addFetchItems(User user, FetchProfile fetchProfile) {
+        Entry entry = rulesByCustomer.get(user.getCustomerId());
+        if (entry == null || entry.rules().rules().isEmpty()) {
+            return;
+        }
+
+        fetchProfile.add(FetchProfile.Item.ENVELOPE);
+        for (String headerName : entry.rules().headerNames()) {
+            fetchProfile.add(headerName);
+        }
+    }
+
+    /** Category assigned by the first matching rule, or null if no rule matches. */
+    MessageCategory route(User user, MimeMessage message, List<MessageCategory> categories)
+            throws MessagingException {
+        Entry entry = rulesByCustomer.get(user.getCustomerId());
+        if (entry == null) {
+            return null;
+        }
+
+        int ruleIndex = entry.rules().match(message);
+        if (ruleIndex == CompiledRoutingRules.NO_MATCH) {
+            return null;
+        }
+
+        long categoryId = entry.rules().rules().get(ruleIndex).messageCategoryId();
+        for (MessageCategory category : categories) {
+            if (category.getId() != null && category.getId() == categoryId) {
+                LOG.debug("Routing rule {} matched message of user {}", ruleIndex, user.getId());
+                routedCounter.increment();
+                return category;
+            }
+        }
+
+        LOG.warn(
+                "Routing rule {} of customer {} refers to unknown message category {}",
+                ruleIndex,
+                user.getCustomerId(),
+                categoryId);
+        return null;
+    }
+
+    // Synchronized so the stored rules are written in the order they are accepted
+    synchronized void putRules(long customerId, List<RoutingRule> rules, Long version)
+            throws InvalidRoutingRuleException {
+        CompiledRoutingRules compiled = new CompiledRoutingRules(customerId, rules);
+        Entry entry =
+                rulesByCustomer.compute(
+                        customerId,
+                        (id, current) -> {
+                            if (version != null && current != null && current.version() > version) {
+                                LOG.debug(
+                                        "Ignoring outdated routing rules of customer {} (version {}"
+                                                + " < {})",
+                                        customerId,
+                                        version,
+                                        current.version());
+                                return current;
+                            }
+                            long newVersion =
+                                    version != null
+                                            ? version
+                                            : current != null ? current.version() : NO_VERSION;
+                            return new Entry(compiled, newVersion);
+                        });
+        if (entry.rules() != compiled) {
+            return;
+        }
+
+        try {
+            routingRuleStore.save(
+                    customerId,
+                    new RoutingRuleStore.StoredRules(compiled.rules(), entry.version()));
+        } catch (IOException e) {
+            LOG.error(
+                    "Failed to store routing rules of customer {}, they are lost on restart",
+                    customerId,
+                    e);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package de.flowsuite.mailboxservice.message;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Keeps the routing rules of each customer, one file per customer in {@code mailbox.state-dir}. The
+ * API only pushes rules when they change, so an instance loads them from here when it starts.
+ */
+@Component
+class RoutingRuleStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RoutingRuleStore.class);
+    private static final String SUFFIX = ".json";
+
+    record StoredRules(List<RoutingRule> rules, long version) {}
+
+    private final Path directory;
+    private final ObjectMapper objectMapper;
+
+    RoutingRuleStore(
+            @Value("${mailbox.state-dir}") String stateDirectory, ObjectMapper objectMapper) {
+        this.directory = Path.of(stateDirectory, "routing-rules");
+        this.objectMapper = objectMapper;
+    }
+
+    void save(long customerId, StoredRules storedRules) throws IOException {
+        Files.createDirectories(directory);
+        Path file = directory.resolve(customerId + SUFFIX);
+        Path temporaryFile = directory.resolve(file.getFileName() + ".tmp");
+        objectMapper.writeValue(temporaryFile.toFile(), storedRules);
+        Files.move(
+                temporaryFile,
+                file,
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    Map<Long, StoredRules> loadAll() {
+        Map<Long, StoredRules> rulesByCustomer = new HashMap<>();
+        if (!Files.isDirectory(directory)) {
+            return rulesByCustomer;
+        }
+
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.toList()) {
+                String fileName = file.getFileName().toString();
+                if (!fileName.endsWith(SUFFIX)) {
+                    continue;
+                }
+
+                try {
+                    long customerId =
+                            Long.parseLong(
+                                    fileName.substring(0, fileName.length() - SUFFIX.length()));
+                    rulesByCustomer.put(
+                            customerId, objectMapper.readValue(file.toFile(), StoredRules.class));
+                } catch (NumberFormatException | IOException e) {
+                    LOG.warn("Ignoring unreadable routing rules in {}", file, e);
+                }
+            }
+        } catch (IOException e) {
+            LOG.error("Failed to list stored routing rules in {}", directory, e);
+        }
+        return rulesByCustomer;
+    }
+}
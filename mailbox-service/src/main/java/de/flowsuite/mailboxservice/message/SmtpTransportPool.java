@@ -0,0 +1,195 @@
+package de.flowsuite.mailboxservice.message;
+
+import de.flowsuite.mailflow.common.entity.Settings;
+import de.flowsuite.mailflow.common.entity.User;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.Transport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps authenticated SMTP connections per user open between replies, so a reply does not pay for
+ * the TLS handshake and AUTH every time. Connections idle for longer than {@link
+ * #VALIDATE_AFTER_MS} are checked with a NOOP before reuse and closed after {@link
+ * #IDLE_TIMEOUT_MS}, well before typical server side timeouts.
+ */
+@Component
+class SmtpTransportPool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SmtpTransportPool.class);
+
+    static final long VALIDATE_AFTER_MS = 10_000;
+    static final long IDLE_TIMEOUT_MS = 120_000;
+    static final int MAX_IDLE_PER_USER = 2;
+
+    private final ConcurrentHashMap<Long, UserPool> poolsByUser = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService evictionExecutor;
+    private final boolean debug;
+    private final UserCredentialCache userCredentialCache;
+
+    record Lease(UserPool pool, Transport transport) {}
+
+    private record IdleTransport(Transport transport, long idleSinceMillis) {}
+
+    static class UserPool {
+        private final long userId;
+        private final Session session;
+        private final Deque<IdleTransport> idle = new ArrayDeque<>();
+        private boolean closed;
+
+        private UserPool(long userId, Session session) {
+            this.userId = userId;
+            this.session = session;
+        }
+    }
+
+    SmtpTransportPool(
+            @Value("${mail.debug}") boolean debug, UserCredentialCache userCredentialCache) {
+        this.debug = debug;
+        this.userCredentialCache = userCredentialCache;
+        this.evictionExecutor =
+                Executors.newSingleThreadScheduledExecutor(
+                        r -> {
+                            Thread thread = new Thread(r, "Smtp-Pool-Evictor");
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+        this.evictionExecutor.scheduleWithFixedDelay(
+                this::evictIdleTransports,
+                IDLE_TIMEOUT_MS,
+                IDLE_TIMEOUT_MS / 4,
+                TimeUnit.MILLISECONDS);
+    }
+
+    Lease borrow(User user) throws MessagingException {
+        UserPool pool = poolsByUser.computeIfAbsent(user.getId(), id -> createPool(user));
+
+        while (true) {
+            IdleTransport idleTransport;
+            synchronized (pool) {
+                idleTransport = pool.idle.pollFirst();
+            }
+
+            if (idleTransport == null) {
+                return new Lease(pool, connect(pool, user));
+            }
+
+            long idleMillis = System.currentTimeMillis() - idleTransport.idleSinceMillis();
+            // For SMTP, isConnected() sends a NOOP to verify the connection is still usable
+            if (idleMillis < VALIDATE_AFTER_MS || idleTransport.transport().isConnected()) {
+                LOG.debug("Reusing SMTP connection for user {}", user.getId());
+                return new Lease(pool, idleTransport.transport());
+            }
+
+            LOG.debug("Discarding stale SMTP connection for user {}", user.getId());
+            closeQuietly(idleTransport.transport(), pool.userId);
+        }
+    }
+
+    void release(Lease lease) {
+        UserPool pool = lease.pool();
+        synchronized (pool) {
+            if (!pool.closed && pool.idle.size() < MAX_IDLE_PER_USER) {
+                pool.idle.offerFirst(
+                        new IdleTransport(lease.transport(), System.currentTimeMillis()));
+                return;
+            }
+        }
+        closeQuietly(lease.transport(), pool.userId);
+    }
+
+    void invalidate(Lease lease) {
+        closeQuietly(lease.transport(), lease.pool().userId);
+    }
+
+    void close(long userId) {
+        UserPool pool = poolsByUser.remove(userId);
+        if (pool == null) {
+            return;
+        }
+
+        LOG.debug("Closing SMTP connections of user {}", userId);
+
+        synchronized (pool) {
+            pool.closed = true;
+            for (IdleTransport idleTransport : pool.idle) {
+                closeQuietly(idleTransport.transport(), userId);
+            }
+            pool.idle.clear();
+        }
+    }
+
+    @PreDestroy
+    void closeAll() {
+        evictionExecutor.shutdownNow();
+        for (Long userId : poolsByUser.keySet()) {
+            close(userId);
+        }
+    }
+
+    private void evictIdleTransports() {
+        long now = System.currentTimeMillis();
+        for (UserPool pool : poolsByUser.values()) {
+            synchronized (pool) {
+                // Oldest connections are at the tail
+                while (!pool.idle.isEmpty()
+                        && now - pool.idle.peekLast().idleSinceMillis() > IDLE_TIMEOUT_MS) {
+                    LOG.debug("Evicting idle SMTP connection of user {}", pool.userId);
+                    closeQuietly(pool.idle.pollLast().transport(), pool.userId);
+                }
+            }
+        }
+    }
+
+    private UserPool createPool(User user) {
+        Settings settings = user.getSettings();
+
+        Properties properties = new Properties();
+        properties.put("mail.smtps.host", settings.getSmtpHost());
+        properties.put("mail.smtps.auth", "true");
+        properties.put("mail.smtps.connectiontimeout", "15000");
+        properties.put("mail.smtps.timeout", "15000");
+        properties.put("mail.smtps.writetimeout", "15000");
+
+        Session session = Session.getInstance(properties);
+        session.setDebug(debug);
+        return new UserPool(user.getId(), session);
+    }
+
+    private Transport connect(UserPool pool, User user) throws MessagingException {
+        LOG.debug("Connecting to transport for user {}", user.getId());
+
+        Transport transport = pool.session.getTransport("smtps");
+
+        Settings settings = user.getSettings();
+
+        transport.connect(
+                settings.getSmtpHost(),
+                userCredentialCache.getEmailAddress(user),
+                userCredentialCache.getPassword(user));
+
+        return transport;
+    }
+
+    private static void closeQuietly(Transport transport, long userId) {
+        try {
+            transport.close();
+        } catch (MessagingException e) {
+            LOG.debug("Failed to close SMTP connection of user {}", userId, e);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package de.flowsuite.mailboxservice.message;
+
+import de.flowsuite.mailboxservice.message.MessageDeadlines.Stage;
+
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The last {@link #SAMPLES} latencies of each processing stage per user, for the introspection
+ * endpoint. Recording is one array store into a fixed ring, nothing is aggregated until a snapshot
+ * is taken. Samples written while a snapshot is copied may show up in it or not.
+ */
+@Component
+public class StageLatencies {
+
+    static final int SAMPLES = 32;
+
+    private static class Ring {
+        private final AtomicLongArray nanos = new AtomicLongArray(SAMPLES);
+        private final AtomicInteger next = new AtomicInteger();
+    }
+
+    private final ConcurrentHashMap<Long, Map<Stage, Ring>> ringsByUser = new ConcurrentHashMap<>();
+
+    void record(Stage stage, long userId, long latencyNanos) {
+        Ring ring = ringsByUser.computeIfAbsent(userId, id -> newRings()).get(stage);
+        ring.nanos.set(Math.floorMod(ring.next.getAndIncrement(), SAMPLES), latencyNanos);
+    }
+
+    /** Recent latencies in milliseconds by stage, oldest first. */
+    public Map<String, long[]> recentMillis(long userId) {
+        Map<String, long[]> recent = new LinkedHashMap<>();
+        Map<Stage, Ring> rings = ringsByUser.get(userId);
+        if (rings == null) {
+            return recent;
+        }
+
+        for (Map.Entry<Stage, Ring> entry : rings.entrySet()) {
+            Ring ring = entry.getValue();
+            int next = ring.next.get();
+            int count = Math.min(next, SAMPLES);
+            long[] millis = new long[count];
+            for (int i = 0; i < count; i++) {
+                long latencyNanos = ring.nanos.get(Math.floorMod(next - count + i, SAMPLES));
+                millis[i] = TimeUnit.NANOSECONDS.toMillis(latencyNanos);
+            }
+            recent.put(entry.getKey().name().toLowerCase(), millis);
+        }
+        return recent;
+    }
+
+    private static Map<Stage, Ring> newRings() {
+        Map<Stage, Ring> rings = new EnumMap<>(Stage.class);
+        for (Stage stage : Stage.values()) {
+            rings.put(stage, new Ring());
+        }
+        return rings;
+    }
+}
@@ -0,0 +1,349 @@
+package de.flowsuite.mailboxservice.message;
+
+import com.sun.mail.iap.Argument;
+import com.sun.mail.iap.ProtocolException;
+import com.sun.mail.iap.Response;
+import com.sun.mail.imap.IMAPFolder;
+import com.sun.mail.imap.protocol.*;
+
+import jakarta.mail.Flags;
+import jakarta.mail.MessagingException;
+
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.*;
+
+/**
+ * INBOX that is too large to be opened: JavaMail sizes the message cache of a folder to the inbox
+ * when opening it. Messages are fetched, searched, flagged and moved by UID at the protocol level
+ * instead. Every command selects the inbox on the connection of the store and deselects it again,
+ * so the connection is left as JavaMail expects it.
+ */
+public class UidInbox {
+
+    private static final String HEADER_ITEMS = "(UID INTERNALDATE RFC822.SIZE BODY.PEEK[HEADER])";
+    private static final String MESSAGE_ITEMS = "(UID INTERNALDATE RFC822.SIZE BODY.PEEK[])";
+
+    private interface Command<T> {
+        T run(IMAPProtocol protocol) throws ProtocolException, MessagingException;
+    }
+
+    private final IMAPFolder folder;
+
+    public UidInbox(IMAPFolder folder) {
+        this.folder = folder;
+    }
+
+    public IMAPFolder folder() {
+        return folder;
+    }
+
+    /** UIDs of the messages from the given UID on, in ascending order. */
+    public long[] fetchUids(long firstUid) throws MessagingException {
+        return run(
+                false,
+                protocol -> {
+                    Response[] responses =
+                            fetch(protocol, firstUid + ":*", "(UID)"); // Includes the last message
+                    return Arrays.stream(uids(responses)).filter(uid -> uid >= firstUid).toArray();
+                });
+    }
+
+    /** UID of the last message, or 0 if the inbox is empty. */
+    public long fetchLastUid() throws MessagingException {
+        return run(
+                false,
+                protocol -> {
+                    long[] uids = uids(fetch(protocol, "*", "(UID)"));
+                    return uids.length == 0 ? 0L : uids[uids.length - 1];
+                });
+    }
+
+    /** UID of the message with the given message number, or 0 if there is none. */
+    public long fetchUid(int messageNumber) throws MessagingException {
+        return run(
+                false,
+                protocol -> {
+                    Response[] responses =
+                            protocol.command(
+                                    "FETCH", new Argument().writeAtom(messageNumber + " (UID)"));
+                    protocol.handleResult(responses[responses.length - 1]);
+                    for (Response response : responses) {
+                        if (response instanceof FetchResponse fetchResponse
+                                && fetchResponse.getNumber() == messageNumber
+                                && fetchResponse.getItem(UID.class) != null) {
+                            return fetchResponse.getItem(UID.class).uid;
+                        }
+                    }
+                    return 0L;
+                });
+    }
+
+    /** UIDs of the unanswered, undeleted messages between the given UIDs, in ascending order. */
+    public long[] searchUnanswered(long firstUid, long lastUid) throws MessagingException {
+        return run(
+                false,
+                protocol ->
+                        search(
+                                protocol,
+                                new Argument()
+                                        .writeAtom("UID " + firstUid + ":" + lastUid)
+                                        .writeAtom("UNANSWERED UNDELETED")));
+    }
+
+    /** Headers of the messages, enough to score them. Messages no longer there are null. */
+    public UidMessage[] fetchHeaders(long[] uids) throws MessagingException {
+        return fetchMessages(uids, HEADER_ITEMS);
+    }
+
+    /** Messages no longer there are null. */
+    public UidMessage[] fetchMessages(long[] uids) throws MessagingException {
+        return fetchMessages(uids, MESSAGE_ITEMS);
+    }
+
+    /** UIDs of the messages received after the given time, in ascending order. */
+    public long[] searchReceivedAfter(Date date) throws MessagingException {
+        // SINCE compares dates in the time zone of the server, the day before is searched as well
+        SimpleDateFormat dayFormat = new SimpleDateFormat("d-MMM-yyyy", Locale.ENGLISH);
+        String since = dayFormat.format(new Date(date.getTime() - 24 * 60 * 60 * 1000L));
+
+        return run(
+                false,
+                protocol -> {
+                    long[] uids = search(protocol, new Argument().writeAtom("SINCE " + since));
+                    if (uids.length == 0) {
+                        return uids;
+                    }
+
+                    List<Long> received = new ArrayList<>();
+                    for (Response response : fetch(protocol, set(uids), "(UID INTERNALDATE)")) {
+                        if (response instanceof FetchResponse fetchResponse) {
+                            UID uid = fetchResponse.getItem(UID.class);
+                            INTERNALDATE internalDate = fetchResponse.getItem(INTERNALDATE.class);
+                            if (uid != null
+                                    && internalDate != null
+                                    && internalDate.getDate().after(date)) {
+                                received.add(uid.uid);
+                            }
+                        }
+                    }
+                    return received.stream().mapToLong(Long::longValue).sorted().toArray();
+                });
+    }
+
+    public List<UidMessage> searchByMessageId(String messageId) throws MessagingException {
+        long[] uids =
+                run(
+                        false,
+                        protocol ->
+                                search(
+                                        protocol,
+                                        new Argument()
+                                                .writeAtom("HEADER")
+                                                .writeString("Message-ID")
+                                                .writeString(messageId)));
+        if (uids.length == 0) {
+            return List.of();
+        }
+        return Arrays.stream(fetchMessages(uids)).filter(Objects::nonNull).toList();
+    }
+
+    // Uses MOVE if the server offers it. Otherwise the messages are copied and flagged as deleted
+    // like IMAPFolder.moveMessages does, and only they are expunged if the server can.
+    void move(long[] uids, String targetFolderName) throws MessagingException {
+        run(
+                true,
+                protocol -> {
+                    Argument arguments = new Argument().writeAtom(set(uids));
+                    if (protocol.supportsUtf8()) {
+                        arguments.writeString(targetFolderName, StandardCharsets.UTF_8);
+                    } else {
+                        arguments.writeString(BASE64MailboxEncoder.encode(targetFolderName));
+                    }
+
+                    if (protocol.hasCapability("MOVE")) {
+                        simpleCommand(protocol, "UID MOVE", arguments);
+                        return null;
+                    }
+                    simpleCommand(protocol, "UID COPY", arguments);
+                    store(protocol, uids, new Flags(Flags.Flag.DELETED), true);
+                    if (protocol.hasCapability("UIDPLUS")) {
+                        protocol.uidexpunge(UIDSet.createUIDSets(sorted(uids)));
+                    }
+                    return null;
+                });
+    }
+
+    void storeFlags(long[] uids, Flags flags, boolean set) throws MessagingException {
+        run(
+                true,
+                protocol -> {
+                    store(protocol, uids, flags, set);
+                    return null;
+                });
+    }
+
+    private UidMessage[] fetchMessages(long[] uids, String items) throws MessagingException {
+        Map<Long, UidMessage> messagesByUid = new HashMap<>();
+        run(
+                false,
+                protocol -> {
+                    for (Response response : fetch(protocol, set(uids), items)) {
+                        if (!(response instanceof FetchResponse fetchResponse)) {
+                            continue;
+                        }
+                        UID uid = fetchResponse.getItem(UID.class);
+                        BODY body = fetchResponse.getItem(BODY.class);
+                        if (uid == null || body == null) {
+                            continue; // Unsolicited FETCH, e.g. a flag change
+                        }
+                        INTERNALDATE internalDate = fetchResponse.getItem(INTERNALDATE.class);
+                        RFC822SIZE size = fetchResponse.getItem(RFC822SIZE.class);
+                        messagesByUid.put(
+                                uid.uid,
+                                new UidMessage(
+                                        this,
+                                        uid.uid,
+                                        internalDate != null ? internalDate.getDate() : null,
+                                        size != null ? (int) size.size : -1,
+                                        body.getByteArrayInputStream()));
+                    }
+                    return null;
+                });
+
+        UidMessage[] messages = new UidMessage[uids.length];
+        for (int i = 0; i < uids.length; i++) {
+            messages[i] = messagesByUid.get(uids[i]);
+        }
+        return messages;
+    }
+
+    private <T> T run(boolean readWrite, Command<T> command) throws MessagingException {
+        @SuppressWarnings("unchecked")
+        T result =
+                (T)
+                        folder.doCommand(
+                                protocol -> {
+                                    if (readWrite) {
+                                        protocol.select(folder.getFullName());
+                                    } else {
+                                        protocol.examine(folder.getFullName());
+                                    }
+
+                                    T commandResult;
+                                    try {
+                                        commandResult = command.run(protocol);
+                                    } catch (ProtocolException e) {
+                                        deselectQuietly(protocol);
+                                        throw e;
+                                    } catch (MessagingException e) {
+                                        deselectQuietly(protocol);
+                                        throw new ProtocolException(e.getMessage(), e);
+                                    }
+                                    deselect(protocol, readWrite);
+                                    return commandResult;
+                                });
+        return result;
+    }
+
+    // CLOSE would expunge messages flagged as deleted, unless the inbox is read-only
+    private void deselect(IMAPProtocol protocol, boolean readWrite) throws ProtocolException {
+        if (protocol.hasCapability("UNSELECT")) {
+            protocol.unselect();
+            return;
+        }
+        if (readWrite) {
+            protocol.examine(folder.getFullName());
+        }
+        protocol.close();
+    }
+
+    private void deselectQuietly(IMAPProtocol protocol) {
+        try {
+            deselect(protocol, true);
+        } catch (ProtocolException e) {
+            // The command already failed, the connection may be gone
+        }
+    }
+
+    private static Response[] fetch(IMAPProtocol protocol, String set, String items)
+            throws ProtocolException {
+        Response[] responses =
+                protocol.command("UID FETCH", new Argument().writeAtom(set + " " + items));
+        protocol.handleResult(responses[responses.length - 1]);
+        return responses;
+    }
+
+    private static long[] search(IMAPProtocol protocol, Argument criteria)
+            throws ProtocolException {
+        Response[] responses = protocol.command("UID SEARCH", criteria);
+        protocol.handleResult(responses[responses.length - 1]);
+
+        List<Long> uids = new ArrayList<>();
+        for (Response response : responses) {
+            if (response instanceof IMAPResponse imapResponse && imapResponse.keyEquals("SEARCH")) {
+                long uid;
+                while ((uid = imapResponse.readLong()) != -1) {
+                    uids.add(uid);
+                }
+            }
+        }
+        return uids.stream().mapToLong(Long::longValue).sorted().toArray();
+    }
+
+    private static void store(IMAPProtocol protocol, long[] uids, Flags flags, boolean set)
+            throws ProtocolException {
+        String item = (set ? "+" : "-") + "FLAGS.SILENT " + flagList(flags);
+        simpleCommand(protocol, "UID STORE", new Argument().writeAtom(set(uids) + " " + item));
+    }
+
+    private static void simpleCommand(IMAPProtocol protocol, String command, Argument arguments)
+            throws ProtocolException {
+        Response[] responses = protocol.command(command, arguments);
+        protocol.handleResult(responses[responses.length - 1]);
+    }
+
+    private static long[] uids(Response[] responses) {
+        List<Long> uids = new ArrayList<>();
+        for (Response response : responses) {
+            if (response instanceof FetchResponse fetchResponse) {
+                UID uid = fetchResponse.getItem(UID.class);
+                if (uid != null) {
+                    uids.add(uid.uid);
+                }
+            }
+        }
+        return uids.stream().mapToLong(Long::longValue).sorted().toArray();
+    }
+
+    private static String set(long[] uids) {
+        return UIDSet.toString(UIDSet.createUIDSets(sorted(uids)));
+    }
+
+    private static long[] sorted(long[] uids) {
+        long[] sorted = uids.clone();
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private static String flagList(Flags flags) {
+        StringJoiner flagList = new StringJoiner(" ", "(", ")");
+        for (Flags.Flag flag : flags.getSystemFlags()) {
+            if (flag == Flags.Flag.ANSWERED) {
+                flagList.add("\\Answered");
+            } else if (flag == Flags.Flag.DELETED) {
+                flagList.add("\\Deleted");
+            } else if (flag == Flags.Flag.DRAFT) {
+                flagList.add("\\Draft");
+            } else if (flag == Flags.Flag.FLAGGED) {
+                flagList.add("\\Flagged");
+            } else if (flag == Flags.Flag.SEEN) {
+                flagList.add("\\Seen");
+            }
+        }
+        for (String userFlag : flags.getUserFlags()) {
+            flagList.add(userFlag);
+        }
+        return flagList.toString();
+    }
+}
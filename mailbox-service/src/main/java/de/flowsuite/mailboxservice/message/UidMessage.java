@@ -0,0 +1,61 @@
+package de.flowsuite.mailboxservice.message;
+
+import jakarta.mail.Flags;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeMessage;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * Message of a {@link UidInbox}, parsed from the bytes fetched by UID, so it does not depend on an
+ * open folder. Flags set on it are stored on the server by UID.
+ */
+public class UidMessage extends MimeMessage {
+
+    private final UidInbox inbox;
+    private final long uid;
+    private final Date receivedDate;
+    private final int size;
+
+    UidMessage(UidInbox inbox, long uid, Date receivedDate, int size, InputStream in)
+            throws MessagingException {
+        super(inbox.folder(), in, 0);
+        this.inbox = inbox;
+        this.uid = uid;
+        this.receivedDate = receivedDate;
+        this.size = size;
+    }
+
+    public UidInbox getInbox() {
+        return inbox;
+    }
+
+    public long getUid() {
+        return uid;
+    }
+
+    // INTERNALDATE, like IMAPMessage
+    @Override
+    public Date getReceivedDate() {
+        return receivedDate;
+    }
+
+    // RFC822.SIZE, like IMAPMessage, also for a message of which only the header was fetched
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public synchronized void setFlags(Flags flags, boolean set) throws MessagingException {
+        inbox.storeFlags(new long[] {uid}, flags, set);
+        super.setFlags(flags, set);
+    }
+
+    static long[] uids(Message[] messages) {
+        return Arrays.stream(messages).mapToLong(message -> ((UidMessage) message).uid).toArray();
+    }
+}
@@ -0,0 +1,73 @@
+package de.flowsuite.mailboxservice.message;
+
+import de.flowsuite.mailflow.common.entity.User;
+import de.flowsuite.mailflow.common.util.AesUtil;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decrypted mailbox credentials per user, so connecting and processing messages does not decrypt
+ * them every time. An entry is only used while the encrypted values of the user it was created from
+ * are unchanged, so an updated user never sees outdated credentials.
+ */
+@Component
+public class UserCredentialCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(UserCredentialCache.class);
+
+    private final ConcurrentHashMap<Long, Credentials> credentialsByUser =
+            new ConcurrentHashMap<>();
+
+    private record Credentials(
+            String encryptedEmailAddress,
+            String encryptedPassword,
+            String emailAddress,
+            String password) {
+
+        private Credentials(User user) {
+            this(
+                    user.getEmailAddress(),
+                    user.getSettings().getMailboxPassword(),
+                    AesUtil.decrypt(user.getEmailAddress()),
+                    AesUtil.decrypt(user.getSettings().getMailboxPassword()));
+        }
+
+        private boolean matches(User user) {
+            return Objects.equals(encryptedEmailAddress, user.getEmailAddress())
+                    && Objects.equals(encryptedPassword, user.getSettings().getMailboxPassword());
+        }
+    }
+
+    public String getEmailAddress(User user) {
+        return getCredentials(user).emailAddress();
+    }
+
+    public String getPassword(User user) {
+        return getCredentials(user).password();
+    }
+
+    public void invalidate(long userId) {
+        if (credentialsByUser.remove(userId) != null) {
+            LOG.debug("Invalidating credentials of user {}", userId);
+        }
+    }
+
+    private Credentials getCredentials(User user) {
+        Credentials credentials = credentialsByUser.get(user.getId());
+        if (credentials != null && credentials.matches(user)) {
+            return credentials;
+        }
+
+        return credentialsByUser.compute(
+                user.getId(),
+                (id, existing) ->
+                        existing != null && existing.matches(user)
+                                ? existing
+                                : new Credentials(user));
+    }
+}
@@ -0,0 +1,182 @@
+package de.flowsuite.mailboxservice.message;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Read-through cache that loads values asynchronously without holding a map lock while the loader
+ * blocks. Every write gets a local sequence number, so a load that started before a pushed update
+ * can never overwrite it. Pushed updates may also carry a version stamp of the API, in which case
+ * updates arriving out of order are discarded. Values older than {@code refreshAfter} are still
+ * served while a refresh runs in the background.
+ *
+ * <p>Invalidated keys keep a tombstone with the sequence of the invalidation and the last version,
+ * so neither a load that was already in flight nor a delayed older push resurrects the old value.
+ * Tombstones are dropped {@code tombstoneTtl} after the invalidation, loads and pushes are expected
+ * to arrive well within that time.
+ */
+class VersionedCache<K, V> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(VersionedCache.class);
+    private static final long NO_VERSION = -1;
+
+    private record Entry<V>(V value, long version, long sequence, long loadedAtNanos) {}
+
+    private record Tombstone<K, V>(K key, Entry<V> entry) {}
+
+    private final ConcurrentHashMap<K, Entry<V>> entries = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<K, CompletableFuture<V>> loads = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Tombstone<K, V>> tombstones = new ConcurrentLinkedQueue<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final String name;
+    private final Executor executor;
+    private final long refreshAfterNanos;
+    private final long tombstoneTtlNanos;
+
+    VersionedCache(String name, Executor executor, Duration refreshAfter, Duration tombstoneTtl) {
+        this.name = name;
+        this.executor = executor;
+        this.refreshAfterNanos = refreshAfter.toNanos();
+        this.tombstoneTtlNanos = tombstoneTtl.toNanos();
+    }
+
+    V get(K key, Supplier<V> loader) {
+        Entry<V> entry = entries.get(key);
+
+        if (entry == null || entry.value() == null) {
+            LOG.debug("Cache miss for {} {}", name, key);
+            try {
+                return load(key, loader).join(); // Blocking request
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException runtimeException) {
+                    throw runtimeException;
+                }
+                throw e;
+            }
+        }
+
+        if (System.nanoTime() - entry.loadedAtNanos() > refreshAfterNanos) {
+            LOG.debug("Refreshing {} {} ahead of time", name, key);
+            load(key, loader);
+        }
+
+        return entry.value();
+    }
+
+    CompletableFuture<V> load(K key, Supplier<V> loader) {
+        CompletableFuture<V> future = loads.get(key);
+        if (future != null) {
+            return future;
+        }
+
+        future = new CompletableFuture<>();
+        CompletableFuture<V> running = loads.putIfAbsent(key, future);
+        if (running != null) {
+            return running;
+        }
+
+        startLoad(key, loader, future);
+        return future;
+    }
+
+    void put(K key, V value, Long version) {
+        purgeTombstones();
+        long putSequence = sequence.incrementAndGet();
+        entries.compute(
+                key,
+                (k, current) -> {
+                    if (version != null && current != null && current.version() > version) {
+                        LOG.debug(
+                                "Ignoring outdated {} {} (version {} < {})",
+                                name,
+                                key,
+                                version,
+                                current.version());
+                        return current;
+                    }
+                    long newVersion =
+                            version != null
+                                    ? version
+                                    : current != null ? current.version() : NO_VERSION;
+                    return new Entry<>(value, newVersion, putSequence, System.nanoTime());
+                });
+    }
+
+    void invalidate(K key) {
+        purgeTombstones();
+        long invalidationSequence = sequence.incrementAndGet();
+        Entry<V> tombstone =
+                entries.compute(
+                        key,
+                        (k, current) ->
+                                new Entry<>(
+                                        null,
+                                        current != null ? current.version() : NO_VERSION,
+                                        invalidationSequence,
+                                        System.nanoTime()));
+        tombstones.add(new Tombstone<>(key, tombstone));
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    // Tombstones are queued in the order they were set, a tombstone replaced meanwhile is kept
+    private void purgeTombstones() {
+        long now = System.nanoTime();
+        Tombstone<K, V> tombstone;
+        while ((tombstone = tombstones.peek()) != null
+                && now - tombstone.entry().loadedAtNanos() >= tombstoneTtlNanos) {
+            if (tombstones.remove(tombstone)) {
+                entries.remove(tombstone.key(), tombstone.entry());
+            }
+        }
+    }
+
+    private void startLoad(K key, Supplier<V> loader, CompletableFuture<V> future) {
+        long loadSequence = sequence.incrementAndGet();
+
+        future.whenComplete(
+                (value, e) -> {
+                    loads.remove(key, future);
+                    if (e != null) {
+                        LOG.warn("Failed to load {} {}", name, key, e);
+                        return;
+                    }
+                    if (value == null) {
+                        return;
+                    }
+                    entries.compute(
+                            key,
+                            (k, current) ->
+                                    current == null || current.sequence() < loadSequence
+                                            ? new Entry<>(
+                                                    value,
+                                                    current != null
+                                                            ? current.version()
+                                                            : NO_VERSION,
+                                                    loadSequence,
+                                                    System.nanoTime())
+                                            : current);
+                });
+
+        try {
+            executor.execute(
+                    () -> {
+                        try {
+                            future.complete(loader.get());
+                        } catch (Throwable e) {
+                            future.completeExceptionally(e);
+                        }
+                    });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package de.flowsuite.mailboxservice.mailbox;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.icegreen.greenmail.user.GreenMailUser;
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetupTest;
+
+import jakarta.mail.*;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeMessage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+class InboxWatcherTest {
+
+    private static final String EMAIL_ADDRESS = "user@example.com";
+    private static final String PASSWORD = "secret";
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private final GreenMail greenMail = new GreenMail(ServerSetupTest.IMAP.dynamicPort());
+    private GreenMailUser mailbox;
+    private InboxWatcher watcher;
+    private long uidValidity;
+    private long uidNext;
+
+    @BeforeEach
+    void connect() throws MessagingException {
+        greenMail.start();
+        mailbox = greenMail.setUser(EMAIL_ADDRESS, PASSWORD);
+
+        Properties properties = new Properties();
+        properties.put("mail.imap.timeout", "500"); // Reads time out while idling
+        Store store = Session.getInstance(properties).getStore("imap");
+        store.connect(
+                greenMail.getImap().getBindTo(),
+                greenMail.getImap().getPort(),
+                EMAIL_ADDRESS,
+                PASSWORD);
+        watcher = new InboxWatcher(store);
+
+        Folder inbox = store.getFolder("INBOX");
+        uidValidity = ((UIDFolder) inbox).getUIDValidity();
+        uidNext = ((UIDFolder) inbox).getUIDNext();
+    }
+
+    @AfterEach
+    void disconnect() throws MessagingException {
+        watcher.close();
+        greenMail.stop();
+    }
+
+    @Test
+    void returnsOnNewMessage() throws Exception {
+        CompletableFuture<Void> await = await(uidValidity, uidNext);
+        assertIdling(await);
+
+        deliver();
+
+        await.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void returnsAtOnceIfMessagesArrivedBefore() throws Exception {
+        deliver();
+
+        await(uidValidity, uidNext).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void returnsAtOnceIfUidValidityChanged() throws Exception {
+        await(uidValidity + 1, uidNext).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void returnsWhenWokenUp() throws Exception {
+        CompletableFuture<Void> await = await(uidValidity, uidNext);
+        assertIdling(await);
+
+        watcher.wakeUp();
+
+        await.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        // The connection is left usable
+        deliver();
+        await(uidValidity, uidNext).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void wakeUpBeforeIdleIsNotLost() throws Exception {
+        watcher.wakeUp();
+
+        await(uidValidity, uidNext).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    // Waits past several read timeouts, which must not end IDLE
+    private static void assertIdling(CompletableFuture<Void> await) {
+        assertThrows(TimeoutException.class, () -> await.get(2, TimeUnit.SECONDS));
+    }
+
+    private CompletableFuture<Void> await(long uidValidity, long uidNext) {
+        return CompletableFuture.runAsync(
+                () -> {
+                    try {
+                        watcher.await(uidValidity, uidNext);
+                    } catch (MessagingException e) {
+                        throw new IllegalStateException(e);
+                    }
+                });
+    }
+
+    private void deliver() throws MessagingException {
+        MimeMessage message = new MimeMessage(Session.getInstance(new Properties()));
+        message.setFrom(new InternetAddress("sender@example.com"));
+        message.setRecipient(Message.RecipientType.TO, new InternetAddress(EMAIL_ADDRESS));
+        message.setSubject("Subject");
+        message.setText("Body");
+        mailbox.deliver(message);
+    }
+}
@@ -0,0 +1,305 @@
+package de.flowsuite.mailboxservice.mailbox;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.mail.imap.IMAPFolder;
+
+import de.flowsuite.mailboxservice.exception.MailboxException;
+import de.flowsuite.mailboxservice.exception.MailboxServiceExceptionManager;
+import de.flowsuite.mailboxservice.message.MessagePriority;
+import de.flowsuite.mailflow.common.entity.User;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.test.web.client.MockMvcClientHttpRequestFactory;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestClient;
+
+import java.net.ConnectException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+// Two instances in one JVM, the next one calls the handover endpoints of the previous one
+class MailboxHandoverTest {
+
+    private static final long UID_VALIDITY = 7;
+    private static final long TIMEOUT_MS = 5000;
+
+    @TempDir Path stateDirectory;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final List<Instance> instances = new ArrayList<>();
+
+    @AfterEach
+    void shutDown() {
+        instances.forEach(instance -> instance.handover.drainForShutdown());
+        executor.shutdownNow();
+    }
+
+    @Test
+    void handsOverQueuedMessages() throws Exception {
+        Instance previous = new Instance(null);
+        previous.start(user(1), false);
+        previous.start(user(2), false);
+        previous.queue(1, 10, 11);
+
+        Instance next = new Instance(previous);
+        next.handover.startListeners(List.of(user(1), user(2), user(3)));
+
+        assertTrue(previous.tasks.isEmpty());
+        assertEquals(Set.of(1L, 2L, 3L), next.tasks.keySet());
+
+        HandoverState state = next.awaitActivated(1).orElseThrow();
+        assertEquals(UID_VALIDITY, state.uidValidity());
+        assertEquals(11, state.lastUid());
+        assertArrayEquals(new long[] {10, 11}, state.pendingUids());
+        assertEquals(0, next.awaitActivated(2).orElseThrow().uidValidity()); // Nothing queued
+        assertTrue(next.awaitActivated(3).isEmpty()); // Not listened to by the previous instance
+    }
+
+    @Test
+    void refusesReleaseForAnotherInstance() {
+        Instance previous = new Instance(null);
+        previous.start(user(1), false);
+        Instance next = new Instance(previous);
+
+        assertThrows(
+                HttpClientErrorException.Conflict.class,
+                () -> next.client.release("another-instance", List.of(1L)));
+
+        assertFalse(previous.tasks.get(1L).isStandby());
+    }
+
+    @Test
+    void neverReleasesStandbyListeners() throws Exception {
+        Instance previous = new Instance(null);
+        previous.start(user(1), false);
+        previous.start(user(2), true);
+
+        HandoverInfo info = previous.handover.describe();
+        assertEquals(List.of(1L), info.userIds());
+
+        List<HandoverState> states =
+                new Instance(previous).client.release(info.instanceId(), List.of(1L, 2L));
+        assertEquals(1, states.size());
+        assertEquals(1, states.get(0).userId());
+        assertTrue(previous.tasks.get(2L).isStandby());
+    }
+
+    @Test
+    void waitsForThePreviousInstanceIfItDoesNotRelease() throws Exception {
+        Instance previous = new Instance(null);
+        previous.start(user(1), false);
+        previous.queue(1, 10);
+        previous.releasable = false;
+
+        Instance next = new Instance(previous);
+        next.handover.startListeners(List.of(user(1)));
+
+        Thread.sleep(200); // Several checks
+        assertTrue(next.tasks.get(1L).isStandby());
+        assertFalse(previous.tasks.get(1L).isStandby());
+
+        previous.handover.drainForShutdown();
+        previous.reachable = false;
+
+        HandoverState state = next.awaitActivated(1).orElseThrow();
+        assertEquals(10, state.lastUid());
+        assertArrayEquals(new long[] {10}, state.pendingUids());
+    }
+
+    @Test
+    void continuesFromCheckpointWithoutPreviousInstance() throws Exception {
+        Instance previous = new Instance(null);
+        previous.start(user(1), false);
+        previous.queue(1, 10);
+        previous.handover.drainForShutdown();
+
+        Instance next = new Instance(null);
+        next.handover.startListeners(List.of(user(1)));
+
+        assertArrayEquals(new long[] {10}, next.awaitActivated(1).orElseThrow().pendingUids());
+
+        // A checkpoint is only applied once
+        Instance last = new Instance(null);
+        last.handover.startListeners(List.of(user(1)));
+        assertTrue(last.awaitActivated(1).isEmpty());
+    }
+
+    private static User user(long id) {
+        User user = mock(User.class);
+        when(user.getId()).thenReturn(id);
+        return user;
+    }
+
+    private class Instance implements MailboxHandover.Listeners {
+
+        private final Map<Long, MailboxListenerTask> tasks = new ConcurrentHashMap<>();
+        private final Map<Long, MessageLanes> lanesByUser = new ConcurrentHashMap<>();
+        private final Map<Long, Optional<HandoverState>> activatedByUser =
+                new ConcurrentHashMap<>();
+        private final MailboxConnectionManager mailboxConnectionManager =
+                mock(MailboxConnectionManager.class);
+        private final MailboxServiceExceptionManager exceptionManager =
+                mock(MailboxServiceExceptionManager.class);
+        private final MailboxHandover handover;
+        private final MailboxHandoverClient client;
+        private final ClientHttpRequestFactory requestFactory;
+        private volatile boolean reachable = true;
+        private volatile boolean releasable = true;
+
+        private Instance(Instance previous) {
+            client =
+                    new MailboxHandoverClient(
+                            previous != null ? previous.restClient() : null, 2, 1);
+            handover =
+                    new MailboxHandover(
+                            this,
+                            client,
+                            new HandoverCheckpointStore(
+                                    stateDirectory.toString(), new ObjectMapper()),
+                            exceptionManager,
+                            25,
+                            1000,
+                            20);
+            MockMvc mockMvc =
+                    MockMvcBuilders.standaloneSetup(
+                                    new MailboxHandoverResource(handover, exceptionManager))
+                            .build();
+            requestFactory = new MockMvcClientHttpRequestFactory(mockMvc);
+            instances.add(this);
+
+            try {
+                when(mailboxConnectionManager.openInbox(any(), anyLong()))
+                        .thenAnswer(
+                                invocation -> {
+                                    IMAPFolder inbox = mock(IMAPFolder.class);
+                                    when(inbox.isOpen()).thenReturn(true);
+                                    return inbox;
+                                });
+                doAnswer(
+                                invocation ->
+                                        idle(
+                                                invocation.getArgument(0),
+                                                invocation.getArgument(1),
+                                                invocation.getArgument(4),
+                                                invocation
+                                                        .<AtomicReference<User>>getArgument(6)
+                                                        .get()
+                                                        .getId()))
+                        .when(mailboxConnectionManager)
+                        .listenToMailbox(any(), any(), any(), any(), any(), any(), any());
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        // Stands in for IDLE, where the listener takes the handover state once it is activated
+        private Void idle(
+                AtomicBoolean listenerActive,
+                CountDownLatch idleEnteredLatch,
+                MessageLanes messageLanes,
+                long userId)
+                throws InterruptedException {
+            lanesByUser.put(userId, messageLanes);
+            idleEnteredLatch.countDown();
+            while (listenerActive.get()) {
+                if (!messageLanes.isHolding()) {
+                    activatedByUser.putIfAbsent(
+                            userId, Optional.ofNullable(messageLanes.takeHandover()));
+                }
+                Thread.sleep(5);
+            }
+            return null;
+        }
+
+        private RestClient restClient() {
+            ClientHttpRequestFactory unreliable =
+                    (uri, method) -> {
+                        if (!reachable || (!releasable && method == HttpMethod.POST)) {
+                            throw new ConnectException("Connection refused");
+                        }
+                        return requestFactory.createRequest(uri, method);
+                    };
+            return RestClient.builder()
+                    .baseUrl("http://previous-instance")
+                    .requestFactory(unreliable)
+                    .build();
+        }
+
+        private void start(User user, boolean standby) {
+            try {
+                startListener(user, standby);
+            } catch (MailboxException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private void queue(long userId, long... uids) {
+            for (long uid : uids) {
+                lanesByUser.get(userId).add(UID_VALIDITY, uid, MessagePriority.INTERACTIVE);
+            }
+        }
+
+        private Optional<HandoverState> awaitActivated(long userId) throws InterruptedException {
+            await(() -> activatedByUser.containsKey(userId));
+            return activatedByUser.get(userId);
+        }
+
+        @Override
+        public Map<Long, MailboxListenerTask> listenerTasks() {
+            return tasks;
+        }
+
+        @Override
+        public void startListener(User user, boolean standby) throws MailboxException {
+            MailboxListenerTask task =
+                    new MailboxListenerTask(
+                            user,
+                            mailboxConnectionManager,
+                            exceptionManager,
+                            new ListenerStatus(user.getId()),
+                            false,
+                            standby);
+            executor.submit(task);
+            if (!task.hasEnteredImapIdleMode()) {
+                throw new MailboxException("Listener did not enter IDLE", false);
+            }
+            tasks.put(user.getId(), task);
+        }
+
+        @Override
+        public void removeListener(long userId, MailboxListenerTask task) {
+            tasks.remove(userId, task);
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Timed out");
+            }
+            Thread.sleep(10);
+        }
+    }
+}
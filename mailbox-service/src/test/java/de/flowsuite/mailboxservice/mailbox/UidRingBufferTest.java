@@ -0,0 +1,114 @@
+package de.flowsuite.mailboxservice.mailbox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+class UidRingBufferTest {
+
+    private final UidRingBuffer buffer = new UidRingBuffer();
+
+    @Test
+    void emptyBufferHasNothingToTake() {
+        assertTrue(buffer.isEmpty());
+        assertThrows(NoSuchElementException.class, buffer::poll);
+        assertThrows(NoSuchElementException.class, buffer::peekUidValidity);
+    }
+
+    @Test
+    void pairsComeOutInOrder() {
+        buffer.add(7, 100);
+        buffer.add(7, 101);
+        buffer.add(8, 1);
+
+        assertEquals(3, buffer.size());
+        assertEquals(7, buffer.peekUidValidity());
+        assertEquals(100, buffer.poll());
+        assertEquals(7, buffer.peekUidValidity());
+        assertEquals(101, buffer.poll());
+        assertEquals(8, buffer.peekUidValidity());
+        assertEquals(1, buffer.poll());
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    void growsBeyondInitialCapacity() {
+        for (long uid = 1; uid <= 1000; uid++) {
+            buffer.add(1, uid);
+        }
+
+        assertEquals(1000, buffer.size());
+        for (long uid = 1; uid <= 1000; uid++) {
+            assertEquals(uid, buffer.poll());
+        }
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    void wrapsAroundWithoutGrowing() {
+        long next = 1;
+        long expected = 1;
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 40; i++) {
+                buffer.add(round, next++);
+            }
+            for (int i = 0; i < 40; i++) {
+                assertEquals(round, buffer.peekUidValidity());
+                assertEquals(expected++, buffer.poll());
+            }
+        }
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    void growsWhileWrappedAround() {
+        // Moves the head to the middle of the array, the next adds wrap around its end
+        for (long uid = 1; uid <= 40; uid++) {
+            buffer.add(1, uid);
+        }
+        for (long uid = 1; uid <= 30; uid++) {
+            assertEquals(uid, buffer.poll());
+        }
+        for (long uid = 41; uid <= 200; uid++) {
+            buffer.add(uid > 100 ? 2 : 1, uid);
+        }
+
+        assertEquals(170, buffer.size());
+        for (long uid = 31; uid <= 200; uid++) {
+            assertEquals(uid > 100 ? 2 : 1, buffer.peekUidValidity());
+            assertEquals(uid, buffer.poll());
+        }
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    void matchesAQueueUnderAlternatingAddsAndPolls() {
+        Random random = new Random(42);
+        ArrayDeque<long[]> expected = new ArrayDeque<>();
+        long uid = 0;
+
+        for (int i = 0; i < 100_000; i++) {
+            if (expected.isEmpty() || random.nextInt(3) > 0) {
+                long uidValidity = uid / 500;
+                buffer.add(uidValidity, ++uid);
+                expected.add(new long[] {uidValidity, uid});
+            } else {
+                long[] pair = expected.poll();
+                assertEquals(pair[0], buffer.peekUidValidity());
+                assertEquals(pair[1], buffer.poll());
+            }
+            assertEquals(expected.size(), buffer.size());
+        }
+
+        while (!expected.isEmpty()) {
+            assertEquals(expected.poll()[1], buffer.poll());
+        }
+        assertTrue(buffer.isEmpty());
+    }
+}
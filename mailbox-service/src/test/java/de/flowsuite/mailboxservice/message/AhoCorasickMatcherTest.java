@@ -0,0 +1,62 @@
+package de.flowsuite.mailboxservice.message;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class AhoCorasickMatcherTest {
+
+    @Test
+    void reportsOverlappingPatterns() {
+        List<String> matches = match(List.of("he", "she", "his", "hers"), "ushers");
+
+        assertEquals(List.of("she@3", "he@3", "hers@5"), matches);
+    }
+
+    @Test
+    void followsFailureLinksAfterAMismatch() {
+        // "abcd" fails at 'x', the failure link of "abc" continues with "bc"
+        List<String> matches = match(List.of("abcd", "bcx", "c"), "abcx");
+
+        assertEquals(List.of("c@2", "bcx@3"), matches);
+    }
+
+    @Test
+    void reportsPatternsEndingInsideLongerOnes() {
+        List<String> matches = match(List.of("a", "aa", "aaa"), "aaa");
+
+        assertEquals(List.of("a@0", "aa@1", "a@1", "aaa@2", "aa@2", "a@2"), matches);
+    }
+
+    @Test
+    void reportsDuplicatePatternsByTheirFirstIndex() {
+        List<Integer> patterns = new ArrayList<>();
+        new AhoCorasickMatcher(List.of("abc", "abc")).match("abc", (p, i) -> patterns.add(p));
+
+        assertEquals(List.of(0), patterns);
+    }
+
+    @Test
+    void findsNothingInUnrelatedText() {
+        assertTrue(match(List.of("abc", "bcd"), "acbdca").isEmpty());
+    }
+
+    @Test
+    void rejectsEmptyPatterns() {
+        assertThrows(IllegalArgumentException.class, () -> new AhoCorasickMatcher(List.of("")));
+    }
+
+    private static List<String> match(List<String> patterns, String text) {
+        List<String> matches = new ArrayList<>();
+        new AhoCorasickMatcher(patterns)
+                .match(
+                        text,
+                        (pattern, endIndex) -> matches.add(patterns.get(pattern) + "@" + endIndex));
+        return matches;
+    }
+}
@@ -0,0 +1,135 @@
+package de.flowsuite.mailboxservice.message;
+
+import static de.flowsuite.mailboxservice.message.CompiledRoutingRules.NO_MATCH;
+import static de.flowsuite.mailboxservice.message.RoutingRule.Field.*;
+import static de.flowsuite.mailboxservice.message.RoutingRule.Operator.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import de.flowsuite.mailboxservice.exception.InvalidRoutingRuleException;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeMessage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+class CompiledRoutingRulesTest {
+
+    private static final long CUSTOMER_ID = 1;
+
+    @Test
+    void equalsMatchesTheWholeValueOnly() throws Exception {
+        CompiledRoutingRules rules = compile(rule(SENDER, EQUALS, "billing@example.com"));
+
+        assertEquals(0, rules.match(message("Billing@Example.com", "Invoice")));
+        assertEquals(NO_MATCH, rules.match(message("no-billing@example.com", "Invoice")));
+        assertEquals(NO_MATCH, rules.match(message("billing@example.com.evil", "Invoice")));
+    }
+
+    @Test
+    void startsWithAndEndsWithAreAnchoredToTheValue() throws Exception {
+        CompiledRoutingRules rules =
+                compile(rule(SUBJECT, STARTS_WITH, "[ticket"), rule(SUBJECT, ENDS_WITH, "urgent"));
+
+        assertEquals(0, rules.match(message("a@example.com", "[Ticket 42] Printer")));
+        assertEquals(NO_MATCH, rules.match(message("a@example.com", "Re: [Ticket 42] Printer")));
+        assertEquals(1, rules.match(message("a@example.com", "Printer broken, URGENT")));
+        assertEquals(NO_MATCH, rules.match(message("a@example.com", "Urgent: printer broken")));
+    }
+
+    @Test
+    void senderDomainIgnoresTheAtSign() throws Exception {
+        CompiledRoutingRules rules = compile(rule(SENDER_DOMAIN, EQUALS, "@example.com"));
+
+        assertEquals(0, rules.match(message("a@example.com", "Hello")));
+        assertEquals(NO_MATCH, rules.match(message("a@sub.example.com", "Hello")));
+    }
+
+    @Test
+    void matchesTheFromAddressNotTheSender() throws Exception {
+        CompiledRoutingRules rules = compile(rule(SENDER_DOMAIN, EQUALS, "erp.example.com"));
+        MimeMessage message = message("invoices@erp.example.com", "Invoice");
+        message.setSender(new InternetAddress("bounces@relay.example.net"));
+
+        assertEquals(0, rules.match(message));
+
+        message.setFrom(new InternetAddress("bounces@relay.example.net"));
+        message.setSender(new InternetAddress("invoices@erp.example.com"));
+        assertEquals(NO_MATCH, rules.match(message));
+    }
+
+    @Test
+    void matchesOnlyInTheFieldOfTheRule() throws Exception {
+        CompiledRoutingRules rules = compile(rule(SUBJECT, CONTAINS, "example.com"));
+
+        assertEquals(NO_MATCH, rules.match(message("a@example.com", "Hello")));
+        assertEquals(0, rules.match(message("a@other.com", "Welcome to example.com")));
+    }
+
+    @Test
+    void firstMatchingRuleWins() throws Exception {
+        CompiledRoutingRules rules =
+                compile(
+                        rule(SUBJECT, CONTAINS, "invoice", 10),
+                        rule(SENDER_DOMAIN, EQUALS, "example.com", 20),
+                        rule(SUBJECT, CONTAINS, "invoice", 30));
+
+        // The sender comes first in the scanned text, the rule order decides
+        assertEquals(0, rules.match(message("a@example.com", "Your invoice")));
+        assertEquals(1, rules.match(message("a@example.com", "Hello")));
+        // Rules with the same pattern share it in the matcher
+        assertEquals(0, rules.match(message("a@other.com", "Invoice")));
+    }
+
+    @Test
+    void matchesHeadersByName() throws Exception {
+        CompiledRoutingRules rules =
+                compile(new RoutingRule(HEADER, "X-Mailer", STARTS_WITH, "ticketsystem", 1));
+        MimeMessage message = message("a@example.com", "Hello");
+        message.setHeader("x-mailer", "TicketSystem 5.1");
+
+        assertEquals(Set.of("X-Mailer"), rules.headerNames());
+        assertEquals(0, rules.match(message));
+    }
+
+    @Test
+    void rejectsRulesWithoutValue() {
+        assertThrows(
+                InvalidRoutingRuleException.class, () -> compile(rule(SUBJECT, CONTAINS, " ")));
+        assertThrows(
+                InvalidRoutingRuleException.class,
+                () -> compile(new RoutingRule(HEADER, null, CONTAINS, "value", 1)));
+    }
+
+    private static CompiledRoutingRules compile(RoutingRule... rules)
+            throws InvalidRoutingRuleException {
+        return new CompiledRoutingRules(CUSTOMER_ID, List.of(rules));
+    }
+
+    private static RoutingRule rule(
+            RoutingRule.Field field, RoutingRule.Operator operator, String value) {
+        return rule(field, operator, value, 1);
+    }
+
+    private static RoutingRule rule(
+            RoutingRule.Field field,
+            RoutingRule.Operator operator,
+            String value,
+            long messageCategoryId) {
+        return new RoutingRule(field, null, operator, value, messageCategoryId);
+    }
+
+    private static MimeMessage message(String from, String subject) throws MessagingException {
+        MimeMessage message = new MimeMessage(Session.getInstance(new Properties()));
+        message.setFrom(new InternetAddress(from));
+        message.setSubject(subject);
+        return message;
+    }
+}
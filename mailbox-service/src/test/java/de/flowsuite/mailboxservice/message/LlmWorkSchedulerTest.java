@@ -0,0 +1,290 @@
+package de.flowsuite.mailboxservice.message;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import de.flowsuite.mailflow.common.entity.User;
+import de.flowsuite.shared.concurrent.ExecutorFactory;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+class LlmWorkSchedulerTest {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private final List<String> started = Collections.synchronizedList(new ArrayList<>());
+    private final CountDownLatch blocker = new CountDownLatch(1);
+    private LlmWorkScheduler scheduler;
+
+    @AfterEach
+    void shutdown() {
+        blocker.countDown();
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    void customersTakeTurnsByQuantum() throws Exception {
+        scheduler = newScheduler(1, 1, "");
+        CompletableFuture<?> blocking = block();
+
+        List<CompletableFuture<String>> calls = new ArrayList<>();
+        calls.addAll(submitAll(user(1, 1), "a", 6, MessagePriority.BULK));
+        calls.addAll(submitAll(user(2, 2), "b", 2, MessagePriority.BULK));
+        release(blocking, calls);
+
+        assertEquals(List.of("a", "a", "a", "a", "b", "b", "a", "a"), started);
+    }
+
+    @Test
+    void weightsScaleTheShareOfACustomer() throws Exception {
+        scheduler = newScheduler(1, 1, "1=2");
+        CompletableFuture<?> blocking = block();
+
+        List<CompletableFuture<String>> calls = new ArrayList<>();
+        calls.addAll(submitAll(user(1, 1), "a", 12, MessagePriority.BULK));
+        calls.addAll(submitAll(user(2, 2), "b", 12, MessagePriority.BULK));
+        release(blocking, calls);
+
+        List<String> expected = new ArrayList<>();
+        expected.addAll(Collections.nCopies(8, "a"));
+        expected.addAll(Collections.nCopies(4, "b"));
+        expected.addAll(Collections.nCopies(4, "a"));
+        expected.addAll(Collections.nCopies(8, "b"));
+        assertEquals(expected, started);
+    }
+
+    @Test
+    void expensiveCallsUseUpTheDeficitSooner() throws Exception {
+        scheduler = newScheduler(1, 1, "");
+        CompletableFuture<?> blocking = block();
+
+        List<CompletableFuture<String>> calls = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            calls.add(
+                    scheduler.submit(
+                            user(1, 1),
+                            LlmWorkScheduler.GENERATION_COST,
+                            MessagePriority.BULK,
+                            record("a")));
+        }
+        calls.addAll(submitAll(user(2, 2), "b", 4, MessagePriority.BULK));
+        release(blocking, calls);
+
+        assertEquals(List.of("a", "b", "b", "b", "b", "a"), started);
+    }
+
+    @Test
+    void usersOfACustomerTakeTurns() throws Exception {
+        scheduler = newScheduler(1, 1, "");
+        CompletableFuture<?> blocking = block();
+
+        List<CompletableFuture<String>> calls = new ArrayList<>();
+        calls.addAll(submitAll(user(1, 1), "u1", 3, MessagePriority.BULK));
+        calls.addAll(submitAll(user(2, 1), "u2", 3, MessagePriority.BULK));
+        release(blocking, calls);
+
+        assertEquals(List.of("u1", "u2", "u1", "u2", "u1", "u2"), started);
+    }
+
+    @Test
+    void interactiveCallsGoFirstWithoutStarvingBulk() throws Exception {
+        scheduler = newScheduler(1, 1, "");
+        CompletableFuture<?> blocking = block();
+
+        List<CompletableFuture<String>> calls = new ArrayList<>();
+        calls.addAll(submitAll(user(1, 1), "bulk", 2, MessagePriority.BULK));
+        calls.addAll(submitAll(user(1, 1), "interactive", 5, MessagePriority.INTERACTIVE));
+        release(blocking, calls);
+
+        assertEquals(
+                List.of(
+                        "interactive",
+                        "interactive",
+                        "interactive",
+                        "interactive",
+                        "bulk",
+                        "interactive",
+                        "bulk"),
+                started);
+    }
+
+    @Test
+    void customerConcurrencyIsLimited() throws Exception {
+        scheduler = newScheduler(8, 2, "");
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+
+        List<CompletableFuture<String>> calls = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            calls.add(
+                    scheduler.submit(
+                            user(1, 1),
+                            LlmWorkScheduler.CATEGORISATION_COST,
+                            MessagePriority.BULK,
+                            () -> {
+                                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                                await(release);
+                                running.decrementAndGet();
+                                return "a";
+                            }));
+        }
+        // Another customer is not held up by the first one
+        scheduler
+                .submit(
+                        user(2, 2),
+                        LlmWorkScheduler.CATEGORISATION_COST,
+                        MessagePriority.BULK,
+                        () -> "b")
+                .get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+        release.countDown();
+        for (CompletableFuture<String> call : calls) {
+            call.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+        assertEquals(2, maxRunning.get());
+    }
+
+    @Test
+    void callsGivenUpOnWhileQueuedAreSkipped() throws Exception {
+        scheduler = newScheduler(1, 1, "");
+        CompletableFuture<?> blocking = block();
+
+        List<CompletableFuture<String>> calls = submitAll(user(1, 1), "a", 3, MessagePriority.BULK);
+        calls.get(1).complete("given up");
+        release(blocking, calls);
+
+        assertEquals(List.of("a", "a"), started);
+    }
+
+    @Test
+    void idleQueuesAreDropped() throws Exception {
+        scheduler = newScheduler(1, 1, "");
+        CompletableFuture<?> blocking = block();
+
+        List<CompletableFuture<String>> calls = new ArrayList<>();
+        calls.addAll(submitAll(user(1, 1), "a", 2, MessagePriority.BULK));
+        calls.addAll(submitAll(user(2, 1), "a", 2, MessagePriority.BULK));
+        calls.addAll(submitAll(user(3, 2), "b", 2, MessagePriority.BULK));
+        // The blocking customer stays until its call finished, its user queue is already empty
+        assertEquals(3, scheduler.customerQueues());
+        assertEquals(3, scheduler.userQueues());
+
+        release(blocking, calls);
+        assertIdle();
+    }
+
+    @Test
+    void failingCallsLeaveNoQueuesBehind() throws Exception {
+        scheduler = newScheduler(2, 1, "");
+
+        CompletableFuture<String> call =
+                scheduler.submit(
+                        user(1, 1),
+                        LlmWorkScheduler.CATEGORISATION_COST,
+                        MessagePriority.BULK,
+                        () -> {
+                            throw new IllegalStateException("llm-service unavailable");
+                        });
+
+        ExecutionException e =
+                assertThrows(
+                        ExecutionException.class,
+                        () -> call.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof IllegalStateException);
+        assertIdle();
+    }
+
+    private LlmWorkScheduler newScheduler(
+            int maxConcurrency, int maxConcurrencyPerCustomer, String customerWeights) {
+        ExecutorFactory executorFactory = mock(ExecutorFactory.class);
+        when(executorFactory.newExecutor(anyString(), any()))
+                .thenAnswer(
+                        invocation -> invocation.<Supplier<ExecutorService>>getArgument(1).get());
+        return new LlmWorkScheduler(
+                maxConcurrency,
+                maxConcurrencyPerCustomer,
+                customerWeights,
+                executorFactory,
+                new SimpleMeterRegistry());
+    }
+
+    // Holds the only slot of the scheduler until released, so the order of the queued calls is
+    // decided by the scheduler alone
+    private CompletableFuture<?> block() {
+        return scheduler.submit(
+                user(99, 99),
+                LlmWorkScheduler.CATEGORISATION_COST,
+                MessagePriority.BULK,
+                () -> await(blocker));
+    }
+
+    private void release(CompletableFuture<?> blocking, List<CompletableFuture<String>> calls)
+            throws Exception {
+        blocker.countDown();
+        blocking.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        for (CompletableFuture<String> call : calls) {
+            call.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    private List<CompletableFuture<String>> submitAll(
+            User user, String name, int count, MessagePriority priority) {
+        List<CompletableFuture<String>> calls = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            calls.add(
+                    scheduler.submit(
+                            user, LlmWorkScheduler.CATEGORISATION_COST, priority, record(name)));
+        }
+        return calls;
+    }
+
+    private Supplier<String> record(String name) {
+        return () -> {
+            started.add(name);
+            return name;
+        };
+    }
+
+    private void assertIdle() throws InterruptedException {
+        // The queues are dropped once the worker has finished, which is after the future completed
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (scheduler.customerQueues() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, scheduler.customerQueues());
+        assertEquals(0, scheduler.userQueues());
+    }
+
+    private static boolean await(CountDownLatch latch) {
+        try {
+            return latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static User user(long userId, long customerId) {
+        return OBJECT_MAPPER.convertValue(
+                Map.of("id", userId, "customerId", customerId), User.class);
+    }
+}
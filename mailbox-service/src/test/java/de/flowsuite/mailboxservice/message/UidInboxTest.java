@@ -0,0 +1,172 @@
+package de.flowsuite.mailboxservice.message;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.icegreen.greenmail.user.GreenMailUser;
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import com.sun.mail.imap.IMAPFolder;
+
+import jakarta.mail.*;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeMessage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+
+class UidInboxTest {
+
+    private static final String EMAIL_ADDRESS = "user@example.com";
+    private static final String PASSWORD = "secret";
+
+    private final GreenMail greenMail = new GreenMail(ServerSetupTest.IMAP.dynamicPort());
+    private GreenMailUser mailbox;
+    private Session session;
+    private Store store;
+    private UidInbox inbox;
+
+    @BeforeEach
+    void connect() throws MessagingException {
+        greenMail.start();
+        mailbox = greenMail.setUser(EMAIL_ADDRESS, PASSWORD);
+
+        session = Session.getInstance(new Properties());
+        store = session.getStore("imap");
+        store.connect(
+                greenMail.getImap().getBindTo(),
+                greenMail.getImap().getPort(),
+                EMAIL_ADDRESS,
+                PASSWORD);
+        inbox = new UidInbox((IMAPFolder) store.getFolder("INBOX"));
+    }
+
+    @AfterEach
+    void disconnect() throws MessagingException {
+        store.close();
+        greenMail.stop();
+    }
+
+    @Test
+    void fetchesMessagesByUidWithoutOpeningTheInbox() throws Exception {
+        deliver("<1@example.com>", "First");
+        deliver("<2@example.com>", "Second");
+        long[] uids = inbox.fetchUids(1);
+
+        assertEquals(2, uids.length);
+        assertEquals(uids[1], inbox.fetchLastUid());
+        assertArrayEquals(new long[] {uids[1]}, inbox.fetchUids(uids[1]));
+        // UID n:* includes the last message even if its UID is below n
+        assertEquals(0, inbox.fetchUids(uids[1] + 1).length);
+
+        UidMessage[] headers = inbox.fetchHeaders(uids);
+        assertEquals("First", headers[0].getSubject());
+        assertEquals("<2@example.com>", headers[1].getMessageID());
+        assertNotNull(headers[0].getReceivedDate());
+        assertTrue(headers[0].getSize() > 0);
+
+        UidMessage[] messages = inbox.fetchMessages(new long[] {uids[1], uids[0] + 100});
+        assertEquals(uids[1], messages[0].getUid());
+        assertEquals(
+                "Body of Second",
+                new String(messages[0].getRawInputStream().readAllBytes(), UTF_8).trim());
+        assertNull(messages[1]); // No longer in the inbox
+        assertFalse(inbox.folder().isOpen());
+
+        // Fetching with BODY.PEEK leaves the message unread
+        IMAPFolder folder = (IMAPFolder) store.getFolder("INBOX");
+        folder.open(Folder.READ_ONLY);
+        assertFalse(folder.getMessageByUID(uids[1]).isSet(Flags.Flag.SEEN));
+        folder.close(false);
+    }
+
+    @Test
+    void movesOnlyTheGivenMessages() throws Exception {
+        deliver("<1@example.com>", "Moved");
+        deliver("<2@example.com>", "Deleted by the user");
+        long[] uids = inbox.fetchUids(1);
+        markDeleted(uids[1]);
+
+        IMAPFolder target = FolderUtil.createFolderByName(store, "Category");
+        FolderUtil.moveToFolder(inbox.fetchMessages(new long[] {uids[0]}), inbox.folder(), target);
+
+        assertArrayEquals(new long[] {uids[1]}, inbox.fetchUids(1));
+        target.open(Folder.READ_ONLY);
+        assertEquals("Moved", target.getMessage(1).getSubject());
+        target.close(false);
+        assertFalse(inbox.folder().isOpen());
+    }
+
+    @Test
+    void storesFlagsByUid() throws Exception {
+        deliver("<1@example.com>", "Answered");
+        UidMessage message = inbox.fetchMessages(inbox.fetchUids(1))[0];
+
+        message.setFlag(Flags.Flag.ANSWERED, true);
+
+        IMAPFolder folder = (IMAPFolder) store.getFolder("INBOX");
+        folder.open(Folder.READ_ONLY);
+        assertTrue(folder.getMessageByUID(message.getUid()).isSet(Flags.Flag.ANSWERED));
+        folder.close(false);
+    }
+
+    @Test
+    void searchesByMessageId() throws Exception {
+        deliver("<1@example.com>", "Original");
+        deliver("<2@example.com>", "Other");
+
+        List<UidMessage> found = inbox.searchByMessageId("<1@example.com>");
+
+        assertEquals(1, found.size());
+        assertEquals("Original", found.get(0).getSubject());
+        assertTrue(inbox.searchByMessageId("<3@example.com>").isEmpty());
+    }
+
+    @Test
+    void searchesByArrivalTime() throws Exception {
+        deliver("<1@example.com>", "Earlier");
+        long[] uids = inbox.fetchUids(1);
+        Date receivedDate = inbox.fetchHeaders(uids)[0].getReceivedDate();
+        Thread.sleep(1100); // INTERNALDATE has a resolution of seconds
+        deliver("<2@example.com>", "Later");
+
+        long[] later = inbox.searchReceivedAfter(receivedDate);
+
+        assertEquals(1, later.length);
+        assertEquals("Later", inbox.fetchHeaders(later)[0].getSubject());
+    }
+
+    private void deliver(String messageId, String subject) throws MessagingException {
+        MimeMessage message =
+                new MimeMessage(session) {
+                    @Override
+                    protected void updateMessageID() throws MessagingException {
+                        setHeader("Message-ID", messageId);
+                    }
+                };
+        message.setFrom(new InternetAddress("sender@example.com"));
+        message.setRecipient(Message.RecipientType.TO, new InternetAddress(EMAIL_ADDRESS));
+        message.setSubject(subject);
+        message.setText("Body of " + subject);
+        message.saveChanges();
+        mailbox.deliver(message);
+    }
+
+    private void markDeleted(long uid) throws MessagingException {
+        IMAPFolder folder = (IMAPFolder) store.getFolder("INBOX");
+        folder.open(Folder.READ_WRITE);
+        folder.getMessageByUID(uid).setFlag(Flags.Flag.DELETED, true);
+        folder.close(false);
+    }
+}
@@ -0,0 +1,146 @@
+package de.flowsuite.mailboxservice.message;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+class VersionedCacheTest {
+
+    private static final Duration REFRESH_AFTER = Duration.ofHours(1);
+
+    // Runs the loads only when told to, so the order of loads, pushes and invalidations is fixed
+    private static class ManualExecutor implements Executor {
+        private final Queue<Runnable> tasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        void runAll() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        }
+    }
+
+    private final ManualExecutor executor = new ManualExecutor();
+    private final VersionedCache<Long, String> cache =
+            new VersionedCache<>("test value", executor, REFRESH_AFTER, Duration.ofHours(1));
+
+    @Test
+    void loadsOnMiss() {
+        CompletableFuture<String> load = cache.load(1L, () -> "loaded");
+        executor.runAll();
+
+        assertEquals("loaded", load.join());
+        assertEquals("loaded", cache.get(1L, () -> "reloaded"));
+    }
+
+    @Test
+    void concurrentLoadsShareOneCall() {
+        CompletableFuture<String> first = cache.load(1L, () -> "first");
+        CompletableFuture<String> second = cache.load(1L, () -> "second");
+        executor.runAll();
+
+        assertEquals("first", first.join());
+        assertEquals("first", second.join());
+    }
+
+    @Test
+    void pushDuringLoadWins() {
+        cache.load(1L, () -> "loaded");
+        cache.put(1L, "pushed", null);
+        executor.runAll();
+
+        assertEquals("pushed", cache.get(1L, () -> "reloaded"));
+    }
+
+    @Test
+    void olderPushIsIgnored() {
+        cache.put(1L, "v2", 2L);
+        cache.put(1L, "v1", 1L);
+
+        assertEquals("v2", cache.get(1L, () -> "loaded"));
+    }
+
+    @Test
+    void loadDuringInvalidationDoesNotResurrectOldValue() {
+        cache.put(1L, "old", 1L);
+        cache.load(1L, () -> "stale");
+        cache.invalidate(1L);
+        executor.runAll();
+
+        CompletableFuture<String> reload = cache.load(1L, () -> "fresh");
+        executor.runAll();
+
+        assertEquals("fresh", reload.join());
+        assertEquals("fresh", cache.get(1L, () -> "reloaded"));
+    }
+
+    @Test
+    void olderPushAfterInvalidationIsIgnored() {
+        cache.put(1L, "v2", 2L);
+        cache.invalidate(1L);
+        cache.put(1L, "v1", 1L);
+
+        CompletableFuture<String> reload = cache.load(1L, () -> "loaded");
+        executor.runAll();
+
+        assertEquals("loaded", reload.join());
+        assertEquals("loaded", cache.get(1L, () -> "reloaded"));
+    }
+
+    @Test
+    void newerPushAfterInvalidationIsApplied() {
+        cache.put(1L, "v1", 1L);
+        cache.invalidate(1L);
+        cache.put(1L, "v2", 2L);
+
+        assertEquals("v2", cache.get(1L, () -> "loaded"));
+    }
+
+    @Test
+    void loadAfterInvalidationKeepsVersion() {
+        cache.put(1L, "v2", 2L);
+        cache.invalidate(1L);
+        cache.load(1L, () -> "loaded");
+        executor.runAll();
+        cache.put(1L, "v1", 1L);
+
+        assertEquals("loaded", cache.get(1L, () -> "reloaded"));
+    }
+
+    @Test
+    void tombstonesExpire() {
+        VersionedCache<Long, String> expiring =
+                new VersionedCache<>("test value", executor, REFRESH_AFTER, Duration.ZERO);
+        expiring.put(1L, "v1", 1L);
+        expiring.invalidate(1L);
+        assertEquals(1, expiring.size());
+
+        expiring.invalidate(2L);
+        assertEquals(1, expiring.size());
+
+        expiring.put(3L, "v1", 1L);
+        assertEquals(1, expiring.size());
+    }
+
+    @Test
+    void replacedTombstoneIsKeptWhenExpired() {
+        VersionedCache<Long, String> expiring =
+                new VersionedCache<>("test value", executor, REFRESH_AFTER, Duration.ZERO);
+        expiring.invalidate(1L);
+        expiring.put(1L, "pushed", 1L);
+        expiring.invalidate(2L);
+
+        assertEquals("pushed", expiring.get(1L, () -> "loaded"));
+    }
+}
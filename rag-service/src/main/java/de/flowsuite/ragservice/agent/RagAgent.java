@@ -6,6 +6,7 @@ import de.flowsuite.mailflow.common.dto.RagServiceResponse;
 import de.flowsuite.mailflow.common.entity.Customer;
 import de.flowsuite.mailflow.common.util.AesUtil;
 import de.flowsuite.ragservice.common.CrawlingResult;
+import de.flowsuite.shared.http.OpenAiHttpClient;
 
 import dev.langchain4j.data.document.Document;
 import dev.langchain4j.data.document.DocumentSplitter;
@@ -53,11 +54,16 @@ public class RagAgent {
     private final EmbeddingStore<TextSegment> embeddingStore;
     private final DocumentSplitter documentSplitter;
 
-    public RagAgent(Customer customer, DataSource dataSource, boolean debug) {
+    public RagAgent(
+            Customer customer,
+            DataSource dataSource,
+            boolean debug,
+            OpenAiHttpClient openAiHttpClient) {
         this.customer = customer;
 
         this.embeddingModel =
                 OpenAiEmbeddingModel.builder()
+                        .httpClientBuilder(openAiHttpClient.builder())
                         .apiKey(AesUtil.decrypt(customer.getOpenaiApiKey()))
                         .modelName(MODEL_NAME)
                         .timeout(TIMEOUT)
@@ -160,8 +166,11 @@ public class RagAgent {
                 "Storing {} text segment(s) for customer {}",
                 textSegments.size(),
                 customer.getId());
+        RagEmbedEvent event = new RagEmbedEvent(customer.getId(), textSegments.size());
+        event.begin();
         List<Embedding> allEmbeddings = embeddingModel.embedAll(textSegments).content();
         embeddingStore.addAll(allEmbeddings, textSegments);
+        event.commit();
         LOG.info(
                 "Embedded {} text segment(s) for customer {}",
                 textSegments.size(),
@@ -178,9 +187,13 @@ public class RagAgent {
         LOG.info("Removed all embeddings of rag url {} (customer {})", ragUrlId, customer.getId());
     }
 
-    public Optional<RagServiceResponse> search(String text) {
+    public Optional<RagServiceResponse> search(long userId, String text) {
         LOG.info("Searching for relevant embeddings for customer {}", customer.getId());
+        RagSearchEvent event = new RagSearchEvent(userId, customer.getId());
+        event.begin();
+        long embeddingStartedAt = System.nanoTime();
         Embedding queryEmbedding = embeddingModel.embed(text).content();
+        event.embeddingNanos = System.nanoTime() - embeddingStartedAt;
 
         EmbeddingSearchRequest embeddingSearchRequest =
                 EmbeddingSearchRequest.builder()
@@ -191,6 +204,8 @@ public class RagAgent {
 
         List<EmbeddingMatch<TextSegment>> matches =
                 embeddingStore.search(embeddingSearchRequest).matches();
+        event.matches = matches.size();
+        event.commit();
 
         if (matches.isEmpty()) {
             LOG.warn("No matches found");
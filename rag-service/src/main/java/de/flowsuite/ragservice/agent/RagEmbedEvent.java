@@ -0,0 +1,26 @@
+package de.flowsuite.ragservice.agent;
+
+import jdk.jfr.*;
+
+/**
+ * JDK Flight Recorder event spanning embedding crawled text segments with OpenAI and storing them
+ * in pgvector. Enabled by {@code jfr/mailflow.jfc}.
+ */
+@Name("de.flowsuite.rag.RagEmbed")
+@Label("RAG Embed")
+@Description("Embedding and storing text segments of a customer")
+@Category({"Mailflow", "RAG"})
+@StackTrace(false)
+class RagEmbedEvent extends Event {
+
+    @Label("Customer Id")
+    final long customerId;
+
+    @Label("Segments")
+    final int segments;
+
+    RagEmbedEvent(long customerId, int segments) {
+        this.customerId = customerId;
+        this.segments = segments;
+    }
+}
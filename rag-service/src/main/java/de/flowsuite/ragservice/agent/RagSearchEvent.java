@@ -0,0 +1,33 @@
+package de.flowsuite.ragservice.agent;
+
+import jdk.jfr.*;
+
+/**
+ * JDK Flight Recorder event spanning a search for relevant embeddings, split into embedding the
+ * query with OpenAI and querying pgvector. Enabled by {@code jfr/mailflow.jfc}.
+ */
+@Name("de.flowsuite.rag.RagSearch")
+@Label("RAG Search")
+@Description("Search of the embeddings of a customer for a message thread")
+@Category({"Mailflow", "RAG"})
+@StackTrace(false)
+class RagSearchEvent extends Event {
+
+    @Label("User Id")
+    final long userId;
+
+    @Label("Customer Id")
+    final long customerId;
+
+    @Label("Embedding Duration")
+    @Timespan
+    long embeddingNanos;
+
+    @Label("Matches")
+    int matches;
+
+    RagSearchEvent(long userId, long customerId) {
+        this.userId = userId;
+        this.customerId = customerId;
+    }
+}
@@ -2,6 +2,7 @@ package de.flowsuite.ragservice.resource;
 
 import de.flowsuite.mailflow.common.dto.RagServiceRequest;
 import de.flowsuite.mailflow.common.dto.RagServiceResponse;
+import de.flowsuite.mailflow.common.entity.Customer;
 import de.flowsuite.mailflow.common.entity.MessageCategory;
 import de.flowsuite.mailflow.common.entity.RagUrl;
 import de.flowsuite.ragservice.service.RagService;
@@ -72,4 +73,16 @@ class RagServiceResource {
             return ResponseEntity.internalServerError().build();
         }
     }
+
+    @PutMapping("/notifications/customers/{customerId}")
+    ResponseEntity<MessageCategory> onCustomerUpdated(
+            @PathVariable long customerId, @RequestBody Customer customer) {
+        try {
+            ragService.onCustomerUpdated(customerId, customer);
+            return ResponseEntity.noContent().build();
+        } catch (Exception e) {
+            exceptionManager.handleException(e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
 }
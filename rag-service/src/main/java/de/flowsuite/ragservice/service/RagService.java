@@ -13,8 +13,15 @@ import de.flowsuite.mailflow.common.util.Util;
 import de.flowsuite.ragservice.agent.RagAgent;
 import de.flowsuite.ragservice.common.CrawlingResult;
 import de.flowsuite.ragservice.exception.CrawlingException;
+import de.flowsuite.shared.agent.AgentRegistry;
+import de.flowsuite.shared.concurrent.ExecutorFactory;
 import de.flowsuite.shared.exception.ExceptionManager;
 import de.flowsuite.shared.exception.ServiceException;
+import de.flowsuite.shared.http.OpenAiHttpClient;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+import jakarta.annotation.PreDestroy;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -24,6 +31,7 @@ import org.springframework.context.event.EventListener;
 import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
@@ -34,6 +42,7 @@ import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 
 import javax.sql.DataSource;
 
@@ -42,8 +51,6 @@ public class RagService {
 
     private static final Logger LOG = LoggerFactory.getLogger(RagService.class);
 
-    private static final ConcurrentHashMap<Long, RagAgent> ragAgentsByCustomer =
-            new ConcurrentHashMap<>();
     private static final ConcurrentHashMap<Long, List<RagUrl>> ragUrlsByCustomer =
             new ConcurrentHashMap<>();
 
@@ -55,8 +62,12 @@ public class RagService {
     private final ExceptionManager exceptionManager;
     private final CrawlingService crawlingService;
     private final DataSource dataSource;
+    private final ExecutorFactory executorFactory;
     private ExecutorService ragServiceExecutor;
+    private final ExecutorService apiExecutor;
     private final Environment environment;
+    private final AgentRegistry<RagAgent> ragAgents;
+    private final OpenAiHttpClient openAiHttpClient;
 
     public RagService(
             @Value("${langchain.debug}") boolean debug,
@@ -64,13 +75,23 @@ public class RagService {
             ExceptionManager exceptionManager,
             CrawlingService crawlingService,
             DataSource dataSource,
-            Environment environment) {
+            ExecutorFactory executorFactory,
+            Environment environment,
+            OpenAiHttpClient openAiHttpClient,
+            @Value("${agent-registry.max-agents:500}") int maxAgents,
+            @Value("${agent-registry.idle-timeout:PT6H}") Duration idleTimeout,
+            MeterRegistry meterRegistry) {
         this.debug = debug;
         this.apiClient = apiClient;
         this.exceptionManager = exceptionManager;
         this.crawlingService = crawlingService;
         this.dataSource = dataSource;
+        this.executorFactory = executorFactory;
+        // Crawl status updates, fanned out while a crawl continues
+        this.apiExecutor = executorFactory.newExecutor("Rag-Api-", ForkJoinPool::commonPool);
         this.environment = environment;
+        this.openAiHttpClient = openAiHttpClient;
+        this.ragAgents = new AgentRegistry<>("rag", maxAgents, idleTimeout, meterRegistry);
     }
 
     @EventListener(ApplicationReadyEvent.class)
@@ -86,7 +107,9 @@ public class RagService {
 
         LOG.info("Received {} customers from API", customers.size());
 
-        this.ragServiceExecutor = Executors.newFixedThreadPool(customers.size());
+        this.ragServiceExecutor =
+                executorFactory.newExecutor(
+                        "Rag-Crawler-", () -> Executors.newFixedThreadPool(customers.size()));
 
         try {
             submitDailyCrawlTasks(customers);
@@ -132,6 +155,14 @@ public class RagService {
         ragServiceExecutor.submit(() -> performCrawlForCustomer(customer, ragUrls, ragAgent));
     }
 
+    @PreDestroy
+    void shutdown() {
+        if (ragServiceExecutor != null) {
+            ragServiceExecutor.shutdownNow();
+        }
+        apiExecutor.shutdown();
+    }
+
     public Optional<RagServiceResponse> search(
             long userId, long customerId, List<ThreadMessage> messageThread) {
         LOG.info("Searching for relevant embeddings for user {} (customer {})", userId, customerId);
@@ -141,8 +172,7 @@ public class RagService {
                         messageThread, false, true, (int) (MAX_INPUT_TOKENS * AVG_CHARS_PER_TOKEN));
         LOG.debug("Thread body:\n{}", threadBody);
 
-        RagAgent ragAgent = ragAgentsByCustomer.get(customerId);
-        return ragAgent.search(threadBody);
+        return getOrCreateRagAgent(customerId).search(userId, threadBody);
     }
 
     private void performCrawlForCustomer(
@@ -168,7 +198,8 @@ public class RagService {
             CompletableFuture.runAsync(
                     () ->
                             apiClient.updateRagUrlCrawlStatus(
-                                    customer.getId(), ragUrl.getId(), crawlSuccessful));
+                                    customer.getId(), ragUrl.getId(), crawlSuccessful),
+                    apiExecutor);
         }
 
         try {
@@ -185,7 +216,8 @@ public class RagService {
                 CompletableFuture.runAsync(
                         () ->
                                 apiClient.updateRagUrlCrawlStatus(
-                                        customer.getId(), ragUrl.getId(), false));
+                                        customer.getId(), ragUrl.getId(), false),
+                        apiExecutor);
             }
 
             return;
@@ -196,7 +228,7 @@ public class RagService {
                 new UpdateCustomerCrawlStatusRequest(
                         customer.getId(), now, now.plusDays(customer.getCrawlFrequencyInDays()));
 
-        CompletableFuture.runAsync(() -> apiClient.updateCustomerCrawlStatus(request));
+        CompletableFuture.runAsync(() -> apiClient.updateCustomerCrawlStatus(request), apiExecutor);
     }
 
     public void onRagUrlCreated(long customerId, long id, RagUrl ragUrl) {
@@ -221,17 +253,19 @@ public class RagService {
         }
 
         try {
-            ragAgentsByCustomer.get(customerId).embed(crawlingService.crawl(ragUrl));
+            getOrCreateRagAgent(customerId).embed(crawlingService.crawl(ragUrl));
             CompletableFuture.runAsync(
                     () ->
                             apiClient.updateRagUrlCrawlStatus(
-                                    ragUrl.getCustomerId(), ragUrl.getId(), true));
+                                    ragUrl.getCustomerId(), ragUrl.getId(), true),
+                    apiExecutor);
         } catch (CrawlingException e) {
             exceptionManager.handleException(e);
             CompletableFuture.runAsync(
                     () ->
                             apiClient.updateRagUrlCrawlStatus(
-                                    ragUrl.getCustomerId(), ragUrl.getId(), false));
+                                    ragUrl.getCustomerId(), ragUrl.getId(), false),
+                    apiExecutor);
         }
     }
 
@@ -250,20 +284,22 @@ public class RagService {
                 if (ragUrl.getId().equals(updatedRagUrl.getId())) {
                     ragUrls.remove(ragUrl);
                     ragUrls.add(updatedRagUrl);
-                    RagAgent ragAgent = ragAgentsByCustomer.get(customerId);
+                    RagAgent ragAgent = getOrCreateRagAgent(customerId);
                     ragAgent.removeByRagUrl(ragUrl.getId());
                     try {
                         ragAgent.embed(crawlingService.crawl(updatedRagUrl));
                         CompletableFuture.runAsync(
                                 () ->
                                         apiClient.updateRagUrlCrawlStatus(
-                                                ragUrl.getCustomerId(), ragUrl.getId(), true));
+                                                ragUrl.getCustomerId(), ragUrl.getId(), true),
+                                apiExecutor);
                     } catch (CrawlingException e) {
                         exceptionManager.handleException(e);
                         CompletableFuture.runAsync(
                                 () ->
                                         apiClient.updateRagUrlCrawlStatus(
-                                                ragUrl.getCustomerId(), ragUrl.getId(), false));
+                                                ragUrl.getCustomerId(), ragUrl.getId(), false),
+                                apiExecutor);
                     }
                     break;
                 }
@@ -280,7 +316,20 @@ public class RagService {
 
         if (ragUrlsByCustomer.containsKey(customerId)) {
             ragUrlsByCustomer.get(customerId).remove(ragUrl);
-            ragAgentsByCustomer.get(customerId).removeByRagUrl(ragUrl.getId());
+            getOrCreateRagAgent(customerId).removeByRagUrl(ragUrl.getId());
+        }
+    }
+
+    public void onCustomerUpdated(long customerId, Customer customer) {
+        LOG.debug("Updating customer {}", customerId);
+
+        if (!customer.getId().equals(customerId)) {
+            throw new IdConflictException();
+        }
+
+        // Rebuilt if the API key changed, otherwise built on its next use
+        if (ragAgents.find(customerId).isPresent()) {
+            getOrCreateRagAgent(customer);
         }
     }
 
@@ -290,8 +339,19 @@ public class RagService {
     }
 
     private RagAgent getOrCreateRagAgent(Customer customer) {
-        LOG.debug("Creating rag agent for customer {}", customer.getId());
-        return ragAgentsByCustomer.computeIfAbsent(
-                customer.getId(), id -> new RagAgent(customer, dataSource, debug));
+        return ragAgents.get(
+                customer.getId(),
+                customer.getOpenaiApiKey(),
+                () -> new RagAgent(customer, dataSource, debug, openAiHttpClient));
+    }
+
+    // The agent may have been evicted, it is then rebuilt from the current customer
+    private RagAgent getOrCreateRagAgent(long customerId) {
+        return ragAgents
+                .find(customerId)
+                .orElseGet(
+                        () ->
+                                getOrCreateRagAgent(
+                                        apiClient.getCustomer(customerId))); // Blocking request
     }
 }
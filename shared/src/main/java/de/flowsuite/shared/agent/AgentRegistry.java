@@ -0,0 +1,152 @@
+package de.flowsuite.shared.agent;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * The agents of the customers, each holding its own OpenAI client. An agent is built on first use
+ * and keyed by the version of the configuration it was built from (API key, prompt), which callers
+ * pass with every lookup. A lookup with a different version builds a new agent and replaces the old
+ * one, calls still running on the old agent finish on it. At most {@code maxAgents} agents are
+ * kept, the least recently used one is evicted first, and agents unused for {@code idleTimeout} are
+ * evicted by the next lookup after it.
+ */
+public class AgentRegistry<A> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AgentRegistry.class);
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private static class Entry<A> {
+        private final Object version;
+        private final A agent;
+        private volatile long lastUsedNanos = System.nanoTime();
+
+        private Entry(Object version, A agent) {
+            this.version = version;
+            this.agent = agent;
+        }
+    }
+
+    private final String name;
+    private final int maxAgents;
+    private final long idleTimeoutNanos;
+    private final MeterRegistry meterRegistry;
+    private final ConcurrentHashMap<Long, Entry<A>> entriesByCustomer = new ConcurrentHashMap<>();
+    private final AtomicLong nextSweepNanos = new AtomicLong(System.nanoTime());
+    private final Timer buildTimer;
+
+    public AgentRegistry(
+            String name, int maxAgents, Duration idleTimeout, MeterRegistry meterRegistry) {
+        this.name = name;
+        this.maxAgents = maxAgents;
+        this.idleTimeoutNanos = idleTimeout.toNanos();
+        this.meterRegistry = meterRegistry;
+
+        Gauge.builder("agent.registry.agents", entriesByCustomer, Map::size)
+                .description("Agents kept in the registry")
+                .tag("agent", name)
+                .register(meterRegistry);
+        this.buildTimer =
+                Timer.builder("agent.registry.build")
+                        .description("Time taken to build an agent")
+                        .tag("agent", name)
+                        .register(meterRegistry);
+    }
+
+    public A get(long customerId, Object version, Supplier<A> factory) {
+        sweepIfDue();
+
+        Entry<A> entry = entriesByCustomer.get(customerId);
+        if (entry == null || !Objects.equals(entry.version, version)) {
+            entry =
+                    entriesByCustomer.compute(
+                            customerId,
+                            (id, existing) -> {
+                                if (existing != null && Objects.equals(existing.version, version)) {
+                                    return existing; // Built by a concurrent lookup
+                                }
+                                if (existing != null) {
+                                    LOG.info("Rebuilding {} agent of customer {}", name, id);
+                                    evicted("rebuild");
+                                } else {
+                                    LOG.debug("Building {} agent of customer {}", name, id);
+                                }
+                                return new Entry<>(version, buildTimer.record(factory));
+                            });
+            evictLeastRecentlyUsed();
+        }
+
+        entry.lastUsedNanos = System.nanoTime();
+        return entry.agent;
+    }
+
+    /** The agent of the customer in whatever version it was built, if there is one. */
+    public Optional<A> find(long customerId) {
+        sweepIfDue();
+
+        Entry<A> entry = entriesByCustomer.get(customerId);
+        if (entry == null) {
+            return Optional.empty();
+        }
+        entry.lastUsedNanos = System.nanoTime();
+        return Optional.of(entry.agent);
+    }
+
+    private void evictLeastRecentlyUsed() {
+        while (entriesByCustomer.size() > maxAgents) {
+            Map.Entry<Long, Entry<A>> eldest = null;
+            for (Map.Entry<Long, Entry<A>> candidate : entriesByCustomer.entrySet()) {
+                if (eldest == null
+                        || candidate.getValue().lastUsedNanos - eldest.getValue().lastUsedNanos
+                                < 0) {
+                    eldest = candidate;
+                }
+            }
+            if (eldest != null && entriesByCustomer.remove(eldest.getKey(), eldest.getValue())) {
+                LOG.debug("Evicted {} agent of customer {}", name, eldest.getKey());
+                evicted("size");
+            }
+        }
+    }
+
+    private void sweepIfDue() {
+        long now = System.nanoTime();
+        long nextSweep = nextSweepNanos.get();
+        if (now - nextSweep < 0
+                || !nextSweepNanos.compareAndSet(nextSweep, now + SWEEP_INTERVAL_NANOS)) {
+            return;
+        }
+
+        entriesByCustomer.forEach(
+                (customerId, entry) -> {
+                    if (now - entry.lastUsedNanos > idleTimeoutNanos
+                            && entriesByCustomer.remove(customerId, entry)) {
+                        LOG.debug("Evicted idle {} agent of customer {}", name, customerId);
+                        evicted("idle");
+                    }
+                });
+    }
+
+    private void evicted(String reason) {
+        Counter.builder("agent.registry.evictions")
+                .description("Agents evicted from the registry")
+                .tag("agent", name)
+                .tag("reason", reason)
+                .register(meterRegistry)
+                .increment();
+    }
+}
@@ -0,0 +1,15 @@
+package de.flowsuite.shared.categorisation;
+
+import de.flowsuite.mailflow.common.entity.MessageCategory;
+import de.flowsuite.mailflow.common.entity.User;
+
+import java.util.List;
+
+/**
+ * Messages of users of the same customer to categorise in one call. The ids are chosen by the
+ * caller and only have to be unique within the request.
+ */
+public record CategorisationBatchRequest(List<MessageCategory> categories, List<Item> items) {
+
+    public record Item(String id, User user, String text) {}
+}
@@ -0,0 +1,14 @@
+package de.flowsuite.shared.categorisation;
+
+import de.flowsuite.mailflow.common.dto.CategorisationResponse;
+
+import java.util.List;
+
+/**
+ * One result for every item of a {@link CategorisationBatchRequest}, with no categorisation
+ * response for messages that could not be categorised.
+ */
+public record CategorisationBatchResponse(List<Result> results) {
+
+    public record Result(String id, CategorisationResponse categorisationResponse) {}
+}
@@ -0,0 +1,71 @@
+package de.flowsuite.shared.concurrent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * Creates the executors for blocking work. With {@code spring.threads.virtual.enabled} set (the
+ * same property that switches Tomcat to virtual threads), every task gets its own virtual thread,
+ * otherwise the given platform thread executor is used.
+ *
+ * <p>Before JDK 24 (JEP 491), a virtual thread blocking inside or on a {@code synchronized} block
+ * pins its carrier thread. JavaMail holds the folder and protocol monitors for as long as an IMAP
+ * IDLE command runs, so executors for such work are created by {@link
+ * #newMonitorBlockingExecutor(String, Supplier)} and stay on platform threads on these releases.
+ */
+@Component
+public class ExecutorFactory {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ExecutorFactory.class);
+
+    static final int FIRST_RELEASE_WITHOUT_MONITOR_PINNING = 24;
+
+    private final boolean virtualThreads;
+    private final boolean pinsOnMonitors;
+
+    ExecutorFactory(Environment environment) {
+        this.virtualThreads = Threading.VIRTUAL.isActive(environment);
+        this.pinsOnMonitors =
+                virtualThreads
+                        && Runtime.version().feature() < FIRST_RELEASE_WITHOUT_MONITOR_PINNING;
+
+        if (virtualThreads) {
+            LOG.info(
+                    "Using virtual threads (monitor blocking work on platform threads: {})",
+                    pinsOnMonitors);
+        }
+    }
+
+    public boolean isVirtual() {
+        return virtualThreads;
+    }
+
+    /** Whether work blocking on monitors has to be kept off virtual threads. */
+    public boolean pinsOnMonitors() {
+        return pinsOnMonitors;
+    }
+
+    public ExecutorService newExecutor(
+            String threadPrefix, Supplier<ExecutorService> platformExecutor) {
+        if (!virtualThreads) {
+            return platformExecutor.get();
+        }
+        return Executors.newThreadPerTaskExecutor(
+                Thread.ofVirtual().name(threadPrefix, 1).factory());
+    }
+
+    public ExecutorService newMonitorBlockingExecutor(
+            String threadPrefix, Supplier<ExecutorService> platformExecutor) {
+        if (pinsOnMonitors) {
+            return platformExecutor.get();
+        }
+        return newExecutor(threadPrefix, platformExecutor);
+    }
+}
@@ -0,0 +1,103 @@
+package de.flowsuite.shared.concurrent;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Listens for {@code jdk.VirtualThreadPinned} events while virtual threads are enabled. The first
+ * pinning per call site (the innermost frame outside the JDK) is logged with its stack trace, later
+ * ones are only counted and summarised on shutdown.
+ */
+@Component
+public class VirtualThreadPinningMonitor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(VirtualThreadPinningMonitor.class);
+
+    static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+    static final Duration PINNED_THRESHOLD = Duration.ofMillis(20);
+
+    private final ExecutorFactory executorFactory;
+    private final ConcurrentHashMap<String, LongAdder> pinnedBySite = new ConcurrentHashMap<>();
+    private final AtomicLong pinnedCount = new AtomicLong();
+    private RecordingStream recordingStream;
+
+    VirtualThreadPinningMonitor(ExecutorFactory executorFactory) {
+        this.executorFactory = executorFactory;
+    }
+
+    @PostConstruct
+    void start() {
+        if (!executorFactory.isVirtual()) {
+            return;
+        }
+
+        recordingStream = new RecordingStream();
+        recordingStream.enable(PINNED_EVENT).withThreshold(PINNED_THRESHOLD).withStackTrace();
+        recordingStream.onEvent(PINNED_EVENT, this::onPinned);
+        recordingStream.startAsync();
+    }
+
+    public long pinnedCount() {
+        return pinnedCount.get();
+    }
+
+    @PreDestroy
+    void stop() {
+        if (recordingStream == null) {
+            return;
+        }
+
+        recordingStream.close();
+        pinnedBySite.forEach(
+                (site, count) ->
+                        LOG.info("Virtual threads were pinned {} time(s) at {}", count, site));
+    }
+
+    private void onPinned(RecordedEvent event) {
+        pinnedCount.incrementAndGet();
+
+        String site = callSite(event);
+        LongAdder count = pinnedBySite.computeIfAbsent(site, s -> new LongAdder());
+        count.increment();
+
+        if (count.sum() == 1) {
+            LOG.warn(
+                    "Virtual thread pinned its carrier for {} ms at {}:\n{}",
+                    event.getDuration().toMillis(),
+                    site,
+                    event.getStackTrace());
+        }
+    }
+
+    private static String callSite(RecordedEvent event) {
+        if (event.getStackTrace() == null) {
+            return "unknown";
+        }
+
+        for (RecordedFrame frame : event.getStackTrace().getFrames()) {
+            if (!frame.isJavaFrame()) {
+                continue;
+            }
+            String className = frame.getMethod().getType().getName();
+            if (!className.startsWith("java.")
+                    && !className.startsWith("jdk.")
+                    && !className.startsWith("sun.")) {
+                return className + "." + frame.getMethod().getName();
+            }
+        }
+        return "unknown";
+    }
+}
@@ -0,0 +1,149 @@
+package de.flowsuite.shared.http;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.io.IOException;
+import java.net.Authenticator;
+import java.net.CookieHandler;
+import java.net.ProxySelector;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+
+/**
+ * Delegates to a JDK HTTP client, limiting the number of concurrent requests and recording them.
+ * The JDK client does not expose its connections, the requests in flight and waiting for a slot are
+ * the closest measure of how busy they are.
+ */
+class InstrumentedHttpClient extends HttpClient {
+
+    private final HttpClient delegate;
+    private final String metricPrefix;
+    private final Semaphore slots;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final MeterRegistry meterRegistry;
+
+    InstrumentedHttpClient(
+            HttpClient delegate,
+            String metricPrefix,
+            int maxConcurrentRequests,
+            MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.metricPrefix = metricPrefix;
+        this.slots = new Semaphore(maxConcurrentRequests, true);
+        this.meterRegistry = meterRegistry;
+
+        Gauge.builder(metricPrefix + ".requests.in.flight", inFlight, AtomicInteger::get)
+                .description("Requests sent and not yet answered")
+                .register(meterRegistry);
+        Gauge.builder(metricPrefix + ".requests.waiting", slots, Semaphore::getQueueLength)
+                .description("Requests waiting for one of the concurrent request slots")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public <T> HttpResponse<T> send(
+            HttpRequest request, HttpResponse.BodyHandler<T> responseBodyHandler)
+            throws IOException, InterruptedException {
+        slots.acquire();
+        inFlight.incrementAndGet();
+        long startedAt = System.nanoTime();
+        HttpResponse<T> response = null;
+        try {
+            response = delegate.send(request, responseBodyHandler);
+            return response;
+        } finally {
+            finished(startedAt, response);
+        }
+    }
+
+    @Override
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(
+            HttpRequest request, HttpResponse.BodyHandler<T> responseBodyHandler) {
+        return sendAsync(request, responseBodyHandler, null);
+    }
+
+    @Override
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(
+            HttpRequest request,
+            HttpResponse.BodyHandler<T> responseBodyHandler,
+            HttpResponse.PushPromiseHandler<T> pushPromiseHandler) {
+        slots.acquireUninterruptibly();
+        inFlight.incrementAndGet();
+        long startedAt = System.nanoTime();
+        try {
+            return delegate.sendAsync(request, responseBodyHandler, pushPromiseHandler)
+                    .whenComplete((response, e) -> finished(startedAt, response));
+        } catch (RuntimeException e) {
+            finished(startedAt, null);
+            throw e;
+        }
+    }
+
+    private void finished(long startedAt, HttpResponse<?> response) {
+        inFlight.decrementAndGet();
+        slots.release();
+        Timer.builder(metricPrefix + ".requests")
+                .description("Requests sent by the client, by status and protocol version")
+                .tag("status", response != null ? String.valueOf(response.statusCode()) : "error")
+                .tag("version", response != null ? response.version().name() : "none")
+                .register(meterRegistry)
+                .record(Duration.ofNanos(System.nanoTime() - startedAt));
+    }
+
+    @Override
+    public Optional<CookieHandler> cookieHandler() {
+        return delegate.cookieHandler();
+    }
+
+    @Override
+    public Optional<Duration> connectTimeout() {
+        return delegate.connectTimeout();
+    }
+
+    @Override
+    public Redirect followRedirects() {
+        return delegate.followRedirects();
+    }
+
+    @Override
+    public Optional<ProxySelector> proxy() {
+        return delegate.proxy();
+    }
+
+    @Override
+    public SSLContext sslContext() {
+        return delegate.sslContext();
+    }
+
+    @Override
+    public SSLParameters sslParameters() {
+        return delegate.sslParameters();
+    }
+
+    @Override
+    public Optional<Authenticator> authenticator() {
+        return delegate.authenticator();
+    }
+
+    @Override
+    public Version version() {
+        return delegate.version();
+    }
+
+    @Override
+    public Optional<Executor> executor() {
+        return delegate.executor();
+    }
+}
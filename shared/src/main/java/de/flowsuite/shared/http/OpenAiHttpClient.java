@@ -0,0 +1,141 @@
+package de.flowsuite.shared.http;
+
+import de.flowsuite.shared.concurrent.ExecutorFactory;
+
+import dev.langchain4j.http.client.HttpClientBuilder;
+import dev.langchain4j.http.client.jdk.JdkHttpClientBuilder;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+import jakarta.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.stereotype.Component;
+
+import java.net.Authenticator;
+import java.net.CookieHandler;
+import java.net.ProxySelector;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+
+/**
+ * The one HTTP client of the OpenAI models of a service. LangChain4j builds a JDK client, with its
+ * own connections and selector thread, for every model, so every customer agent used to open its
+ * own connections to OpenAI. All models now share one HTTP/2 client, which multiplexes their
+ * requests over a few connections kept alive between calls. The API key of the customer is still
+ * sent by each model in the {@code Authorization} header of its requests.
+ *
+ * <p>At most {@code openai.http.max-concurrent-requests} requests are sent at a time, further ones
+ * wait for a slot. How long idle connections are kept alive is set by the JDK system properties
+ * {@code jdk.httpclient.keepalive.timeout} and {@code jdk.httpclient.keepalive.timeout.h2}.
+ */
+@Component
+@ConditionalOnClass(name = "dev.langchain4j.http.client.jdk.JdkHttpClientBuilder")
+public class OpenAiHttpClient {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OpenAiHttpClient.class);
+
+    private final ExecutorService executor;
+    private final HttpClient httpClient;
+    private final HttpClient.Builder sharedClientBuilder = new SharedClientBuilder();
+
+    OpenAiHttpClient(
+            @Value("${openai.http.connect-timeout:PT10S}") Duration connectTimeout,
+            @Value("${openai.http.max-concurrent-requests:64}") int maxConcurrentRequests,
+            ExecutorFactory executorFactory,
+            MeterRegistry meterRegistry) {
+        this.executor = executorFactory.newExecutor("OpenAi-Http-", Executors::newCachedThreadPool);
+        this.httpClient =
+                new InstrumentedHttpClient(
+                        HttpClient.newBuilder()
+                                .version(HttpClient.Version.HTTP_2)
+                                .connectTimeout(connectTimeout)
+                                .executor(executor)
+                                .build(),
+                        "openai.http",
+                        maxConcurrentRequests,
+                        meterRegistry);
+
+        LOG.info(
+                "OpenAI models share one HTTP/2 client ({} concurrent requests)",
+                maxConcurrentRequests);
+    }
+
+    /** A builder for a model, its timeouts apply per request, the client is the shared one. */
+    public HttpClientBuilder builder() {
+        return new JdkHttpClientBuilder().httpClientBuilder(sharedClientBuilder);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    // Handed to every JDK client builder of LangChain4j, which sets the connect timeout on it
+    private class SharedClientBuilder implements HttpClient.Builder {
+
+        @Override
+        public HttpClient.Builder cookieHandler(CookieHandler cookieHandler) {
+            return this;
+        }
+
+        @Override
+        public HttpClient.Builder connectTimeout(Duration duration) {
+            return this;
+        }
+
+        @Override
+        public HttpClient.Builder sslContext(SSLContext sslContext) {
+            return this;
+        }
+
+        @Override
+        public HttpClient.Builder sslParameters(SSLParameters sslParameters) {
+            return this;
+        }
+
+        @Override
+        public HttpClient.Builder executor(Executor executor) {
+            return this;
+        }
+
+        @Override
+        public HttpClient.Builder followRedirects(HttpClient.Redirect policy) {
+            return this;
+        }
+
+        @Override
+        public HttpClient.Builder version(HttpClient.Version version) {
+            return this;
+        }
+
+        @Override
+        public HttpClient.Builder priority(int priority) {
+            return this;
+        }
+
+        @Override
+        public HttpClient.Builder proxy(ProxySelector proxySelector) {
+            return this;
+        }
+
+        @Override
+        public HttpClient.Builder authenticator(Authenticator authenticator) {
+            return this;
+        }
+
+        @Override
+        public HttpClient build() {
+            return httpClient;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package de.flowsuite.shared.messagelog;
+
+import jdk.jfr.*;
+
+@Name("de.flowsuite.messagelog.Flush")
+@Label("Flush Message Log")
+@Description("Batch of buffered message log entries written to the API, including retries")
+@Category({"Mailflow", "Message Log"})
+@StackTrace(false)
+class MessageLogFlushEvent extends Event {
+
+    @Label("Entries")
+    int entries;
+
+    @Label("Retries")
+    int retries;
+
+    @Label("Buffered")
+    @Description("Entries left in the buffer after the batch")
+    int buffered;
+}
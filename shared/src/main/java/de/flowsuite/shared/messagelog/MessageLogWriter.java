@@ -0,0 +1,318 @@
+package de.flowsuite.shared.messagelog;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import de.flowsuite.mailflow.common.client.ApiClient;
+import de.flowsuite.mailflow.common.dto.CategorisationResponse;
+import de.flowsuite.mailflow.common.dto.LlmResponse;
+import de.flowsuite.mailflow.common.entity.MessageCategory;
+import de.flowsuite.shared.concurrent.ExecutorFactory;
+import de.flowsuite.shared.exception.ExceptionManager;
+import de.flowsuite.shared.exception.ServiceException;
+
+import jakarta.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.ZonedDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Writes message log entries to the API in the background, so processing a message does not wait
+ * for it. Entries are put into a buffer of {@code message-log.buffer-size} and a single flusher
+ * drains up to {@code message-log.batch-size} of them at a time. While the API is unavailable the
+ * flusher retries with a growing backoff; once the buffer is full, further entries are appended to
+ * a spool file in {@code message-log.spool-dir} and written after the buffer has drained. Entries
+ * still buffered at shutdown are spooled too and written by the next start, so the directory has to
+ * be on a volume. An entry is written at least once, one written while the instance dies may be
+ * written twice. An entry that fails {@code message-log.max-attempts} times is moved to a dead
+ * letter file in the same directory and reported to the admin.
+ *
+ * <p>Only created by services that set {@code message-log.enabled}.
+ */
+@Component
+@ConditionalOnProperty(name = "message-log.enabled", havingValue = "true")
+public class MessageLogWriter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MessageLogWriter.class);
+
+    private static final String SPOOL_FILE = "message-log.jsonl";
+    private static final String REPLAY_FILE = "message-log.replaying.jsonl";
+    private static final String DEAD_LETTER_FILE = "message-log.dead-letter.jsonl";
+    private static final long INITIAL_BACKOFF_MILLIS = 1_000;
+    private static final long MAX_BACKOFF_MILLIS = 60_000;
+
+    record PendingEntry(
+            long customerId,
+            long userId,
+            String fromEmailAddress,
+            String subject,
+            ZonedDateTime receivedAt,
+            CategorisationResponse categorisationResponse,
+            LlmResponse generationResponse,
+            MessageCategory messageCategory) {}
+
+    private final ApiClient apiClient;
+    private final ExceptionManager exceptionManager;
+    private final ObjectMapper objectMapper;
+    private final int batchSize;
+    private final int maxAttempts;
+    private final BlockingQueue<PendingEntry> buffer;
+    private final Path spoolFile;
+    private final Path replayFile;
+    private final Path deadLetterFile;
+    private final Object spoolLock = new Object();
+    private final ExecutorService flushExecutor;
+    private volatile boolean running = true;
+
+    MessageLogWriter(
+            @Value("${message-log.buffer-size:10000}") int bufferSize,
+            @Value("${message-log.batch-size:50}") int batchSize,
+            @Value("${message-log.max-attempts:10}") int maxAttempts,
+            @Value("${message-log.spool-dir}") String spoolDirectory,
+            ApiClient apiClient,
+            @Qualifier("exceptionManager") ExceptionManager exceptionManager,
+            ObjectMapper objectMapper,
+            ExecutorFactory executorFactory) {
+        this.apiClient = apiClient;
+        this.exceptionManager = exceptionManager;
+        this.objectMapper = objectMapper;
+        this.batchSize = batchSize;
+        this.maxAttempts = maxAttempts;
+        this.buffer = new ArrayBlockingQueue<>(bufferSize);
+        this.spoolFile = Path.of(spoolDirectory, SPOOL_FILE);
+        this.replayFile = Path.of(spoolDirectory, REPLAY_FILE);
+        this.deadLetterFile = Path.of(spoolDirectory, DEAD_LETTER_FILE);
+
+        this.flushExecutor =
+                executorFactory.newExecutor("Message-Log-", Executors::newSingleThreadExecutor);
+        this.flushExecutor.execute(this::flush);
+    }
+
+    /** Queues an entry for {@link ApiClient#createMessageLogEntry} and returns immediately. */
+    public void write(
+            long customerId,
+            long userId,
+            String fromEmailAddress,
+            String subject,
+            ZonedDateTime receivedAt,
+            CategorisationResponse categorisationResponse,
+            LlmResponse generationResponse,
+            MessageCategory messageCategory) {
+        PendingEntry entry =
+                new PendingEntry(
+                        customerId,
+                        userId,
+                        fromEmailAddress,
+                        subject,
+                        receivedAt,
+                        categorisationResponse,
+                        generationResponse,
+                        messageCategory);
+
+        if (!running || !buffer.offer(entry)) {
+            LOG.debug("Message log buffer is full, spooling entry of user {}", userId);
+            spool(List.of(entry));
+        }
+    }
+
+    @PreDestroy
+    void shutdown() throws InterruptedException {
+        // The flusher spools what is left once interrupted
+        running = false;
+        flushExecutor.shutdownNow();
+        if (!flushExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+            LOG.warn("Message log flusher did not stop, {} entries may be lost", buffer.size());
+        }
+    }
+
+    private void flush() {
+        Thread.currentThread().setName("MessageLogWriter");
+        List<PendingEntry> batch = new ArrayList<>(batchSize);
+        try {
+            while (running) {
+                if (buffer.isEmpty()) {
+                    replaySpool(batch);
+                }
+
+                PendingEntry first = buffer.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                buffer.drainTo(batch, batchSize - 1);
+                writeBatch(batch);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            List<PendingEntry> remaining = new ArrayList<>(batch);
+            buffer.drainTo(remaining);
+            if (!remaining.isEmpty()) {
+                LOG.info("Spooling {} unwritten message log entries", remaining.size());
+                spool(remaining);
+            }
+        }
+    }
+
+    // Returns once every entry of the batch was written, rejected or dead-lettered, the rest is
+    // retried meanwhile
+    private void writeBatch(List<PendingEntry> batch) throws InterruptedException {
+        MessageLogFlushEvent event = new MessageLogFlushEvent();
+        event.begin();
+        event.entries = batch.size();
+
+        Map<PendingEntry, Integer> failuresByEntry = new IdentityHashMap<>();
+        long backoffMillis = INITIAL_BACKOFF_MILLIS;
+        Iterator<PendingEntry> iterator = batch.iterator();
+        while (iterator.hasNext()) {
+            PendingEntry entry = iterator.next();
+            try {
+                create(entry);
+                iterator.remove();
+                backoffMillis = INITIAL_BACKOFF_MILLIS;
+            } catch (HttpClientErrorException.BadRequest
+                    | HttpClientErrorException.NotFound
+                    | HttpClientErrorException.Conflict
+                    | HttpClientErrorException.UnprocessableEntity e) {
+                // Rejected by the API, retrying does not help
+                iterator.remove();
+                exceptionManager.handleException(
+                        new ServiceException(
+                                "Message log entry of user " + entry.userId() + " was rejected",
+                                e,
+                                true));
+            } catch (RuntimeException e) {
+                if (failuresByEntry.merge(entry, 1, Integer::sum) >= maxAttempts) {
+                    iterator.remove();
+                    deadLetter(entry, e);
+                    continue;
+                }
+                event.retries++;
+                LOG.warn(
+                        "Failed to write message log entry of user {}, retrying in {} ms: {}",
+                        entry.userId(),
+                        backoffMillis,
+                        e.getMessage());
+                Thread.sleep(backoffMillis);
+                backoffMillis = Math.min(backoffMillis * 2, MAX_BACKOFF_MILLIS);
+                iterator = batch.iterator();
+            }
+        }
+
+        event.buffered = buffer.size();
+        event.commit();
+    }
+
+    private void create(PendingEntry entry) {
+        apiClient.createMessageLogEntry(
+                entry.customerId(),
+                entry.userId(),
+                entry.fromEmailAddress(),
+                entry.subject(),
+                entry.receivedAt(),
+                entry.categorisationResponse(),
+                entry.generationResponse(),
+                entry.messageCategory());
+    }
+
+    private void deadLetter(PendingEntry entry, RuntimeException e) {
+        try {
+            append(deadLetterFile, List.of(entry));
+        } catch (IOException ioException) {
+            e.addSuppressed(ioException);
+        }
+        exceptionManager.handleException(
+                new ServiceException(
+                        String.format(
+                                "Message log entry of user %d failed %d times, moved to %s",
+                                entry.userId(), maxAttempts, deadLetterFile),
+                        e,
+                        true));
+    }
+
+    private void spool(Collection<PendingEntry> entries) {
+        try {
+            append(spoolFile, entries);
+        } catch (IOException e) {
+            exceptionManager.handleException(
+                    new ServiceException(
+                            "Failed to spool " + entries.size() + " message log entries", e, true));
+        }
+    }
+
+    private void append(Path file, Collection<PendingEntry> entries) throws IOException {
+        synchronized (spoolLock) {
+            Files.createDirectories(file.getParent());
+            try (BufferedWriter writer =
+                    Files.newBufferedWriter(
+                            file,
+                            StandardCharsets.UTF_8,
+                            StandardOpenOption.CREATE,
+                            StandardOpenOption.APPEND)) {
+                for (PendingEntry entry : entries) {
+                    writer.write(objectMapper.writeValueAsString(entry));
+                    writer.newLine();
+                }
+            }
+        }
+    }
+
+    // A replay file is left over if the previous instance stopped while replaying it
+    private void replaySpool(List<PendingEntry> batch) throws InterruptedException {
+        synchronized (spoolLock) {
+            try {
+                if (!Files.exists(replayFile)) {
+                    if (!Files.exists(spoolFile)) {
+                        return;
+                    }
+                    Files.move(spoolFile, replayFile, StandardCopyOption.ATOMIC_MOVE);
+                }
+            } catch (IOException e) {
+                LOG.warn("Failed to move message log spool file {}", spoolFile, e);
+                return;
+            }
+        }
+
+        int replayed = 0;
+        try (BufferedReader reader = Files.newBufferedReader(replayFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    batch.add(objectMapper.readValue(line, PendingEntry.class));
+                } catch (IOException e) {
+                    LOG.warn("Skipping unreadable spooled message log entry: {}", line, e);
+                    continue;
+                }
+                if (batch.size() == batchSize) {
+                    replayed += batch.size();
+                    writeBatch(batch);
+                }
+            }
+            replayed += batch.size();
+            writeBatch(batch);
+            Files.delete(replayFile);
+            LOG.info("Replayed {} spooled message log entries", replayed);
+        } catch (InterruptedException e) {
+            batch.clear(); // Still in the replay file
+            throw e;
+        } catch (IOException e) {
+            LOG.warn("Failed to replay message log spool file {}", replayFile, e);
+        }
+    }
+}
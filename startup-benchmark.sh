@@ -0,0 +1,91 @@
+#!/usr/bin/env bash
+#
+# Measures time-to-ready and resident memory of the service images. Every service is started
+# RUNS times with the default entrypoint (class data sharing archive and AOT processed bean
+# definitions) and RUNS times as a plain "java -jar" from the same image, and the medians are
+# reported.
+#
+# Usage: ./startup-benchmark.sh <env-file> [runs] [service...]
+#
+# The env file holds the environment variables listed in README.md. Use those of a dev setup:
+# the services start completely, so mailbox-service connects to the mailboxes returned by the API
+# and rag-service needs its database (docker compose up postgres).
+
+set -euo pipefail
+
+ENV_FILE=${1:?"Usage: $0 <env-file> [runs] [service...]"}
+RUNS=${2:-5}
+shift $(($# < 2 ? $# : 2))
+if [ $# -gt 0 ]; then
+    SERVICES=("$@")
+else
+    SERVICES=(mailbox llm rag)
+fi
+
+READY_TIMEOUT_SECONDS=180
+READY_PATTERN='Started [A-Za-z]+ in [0-9.]+ seconds \(process running for ([0-9.]+)\)'
+BASELINE_COMMAND=(java -XX:MaxRAMPercentage=75.0 -XX:+UseContainerSupport -jar app.jar)
+
+median() {
+    sort -n | awk '{ v[NR] = $1 } END { print (NR % 2) ? v[(NR + 1) / 2] : (v[NR / 2] + v[NR / 2 + 1]) / 2 }'
+}
+
+# Prints "<seconds until ready> <rss in MB>" for a single start. Optional arguments after the
+# image replace its entrypoint.
+measure() {
+    local image=$1
+    shift
+    local run_args=(-d --network host --env-file "$ENV_FILE")
+    if [ $# -gt 0 ]; then
+        run_args+=(--entrypoint "$1" "$image" "${@:2}")
+    else
+        run_args+=("$image")
+    fi
+    local container
+    container=$(docker run "${run_args[@]}")
+
+    local ready=""
+    for ((i = 0; i < READY_TIMEOUT_SECONDS * 10; i++)); do
+        ready=$(docker logs "$container" 2>&1 | sed -nE "s/.*${READY_PATTERN}.*/\1/p" | head -1)
+        if [ -n "$ready" ] || [ "$(docker inspect -f '{{.State.Running}}' "$container")" != "true" ]; then
+            break
+        fi
+        sleep 0.1
+    done
+
+    if [ -z "$ready" ]; then
+        echo "$image did not become ready, last log lines:" >&2
+        docker logs --tail 20 "$container" >&2
+        docker rm -f "$container" >/dev/null
+        exit 1
+    fi
+
+    # The JVM runs as PID 1 of the container
+    local rss_kb
+    rss_kb=$(docker exec "$container" awk '/^VmRSS:/ { print $2 }' /proc/1/status)
+    docker rm -f "$container" >/dev/null
+
+    echo "$ready $((rss_kb / 1024))"
+}
+
+printf '%-10s %-10s %16s %12s\n' service mode ready_s_median rss_mb_median
+
+for service in "${SERVICES[@]}"; do
+    image="mailflow-${service}-service:startup-benchmark"
+    docker build -q -f "Dockerfile.${service}" -t "$image" . >/dev/null
+
+    for mode in baseline optimized; do
+        results=()
+        for ((run = 1; run <= RUNS; run++)); do
+            if [ "$mode" = baseline ]; then
+                results+=("$(measure "$image" "${BASELINE_COMMAND[@]}")")
+            else
+                results+=("$(measure "$image")")
+            fi
+        done
+
+        ready=$(printf '%s\n' "${results[@]}" | awk '{ print $1 }' | median)
+        rss=$(printf '%s\n' "${results[@]}" | awk '{ print $2 }' | median)
+        printf '%-10s %-10s %16s %12s\n' "$service" "$mode" "$ready" "$rss"
+    done
+done